@@ -25,7 +25,7 @@ package org.js4ms.amt.gateway;
 import java.io.IOException;
 import java.net.Inet4Address;
 import java.net.InetAddress;
-import java.util.Timer;
+import java.util.ArrayList;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -37,11 +37,13 @@ import org.js4ms.amt.proxy.MembershipQuery;
 import org.js4ms.amt.proxy.MembershipReport;
 import org.js4ms.common.util.logging.Log;
 import org.js4ms.common.util.logging.Logging;
+import org.js4ms.common.util.task.HashedWheelTimer;
 import org.js4ms.io.channel.MessageKeyExtractor;
 import org.js4ms.io.channel.OutputChannel;
 import org.js4ms.io.channel.OutputChannelMap;
 import org.js4ms.io.channel.OutputChannelTee;
 import org.js4ms.io.channel.OutputChannelTransform;
+import org.js4ms.io.net.UdpDatagram;
 import org.js4ms.ip.IPMessage;
 import org.js4ms.ip.IPPacket;
 import org.js4ms.ip.Precondition;
@@ -49,6 +51,7 @@ import org.js4ms.ip.ipv4.IPv4Packet;
 import org.js4ms.ip.ipv6.IPv6Packet;
 import org.js4ms.ip.protocol.igmp.IGMPMessage;
 import org.js4ms.ip.protocol.mld.MLDMessage;
+import org.js4ms.ip.protocol.udp.UdpPacket;
 
 
 
@@ -59,23 +62,157 @@ public class AmtIPInterface {
 
     public static final Logger logger = Logger.getLogger(AmtIPInterface.class.getName());
 
+    /**
+     * Extractor used to differentiate between IGMP, MLD and other message types.
+     * Packets are classified by the protocol or next header byte in the fixed IP
+     * header, so UDP data packets are routed without touching the protocol message
+     * chain. Only packets that may carry an IGMP or MLD message (e.g. behind an
+     * IPv6 Hop-by-Hop Options header) are checked for a parsed message.
+     */
+    private static final MessageKeyExtractor<IPPacket> PROTOCOL_EXTRACTOR = new MessageKeyExtractor<IPPacket>() {
+
+        @Override
+        public Byte getKey(IPPacket packet) {
+            byte version = packet.getVersion();
+            if (version != IPv4Packet.INTERNET_PROTOCOL_VERSION && version != IPv6Packet.INTERNET_PROTOCOL_VERSION) {
+                return null;
+            }
+            if (packet.getNextProtocolNumber() == UdpPacket.IP_PROTOCOL_NUMBER) {
+                return null;
+            }
+            if (version == IPv4Packet.INTERNET_PROTOCOL_VERSION) {
+                IPMessage ipMessage = packet.getProtocolMessage(IGMPMessage.IP_PROTOCOL_NUMBER);
+                if (ipMessage == null) {
+                    return null;
+                }
+                return IGMPMessage.IP_PROTOCOL_NUMBER;
+            }
+            else {
+                IPMessage ipMessage = packet.getProtocolMessage(MLDMessage.IP_PROTOCOL_NUMBER);
+                if (ipMessage == null) {
+                    return null;
+                }
+                return MLDMessage.IP_PROTOCOL_NUMBER;
+            }
+        }
+    };
+
+    /*-- Inner Classes ---------------------------------------------------*/
+
+    /**
+     * The membership state and packet routing for one tunnel shard.
+     * Each shard has its own IGMP and MLD membership managers that exchange
+     * queries and reports over a single tunnel.
+     */
+    private final class Shard {
+
+        final InterfaceMembershipManager ipv4MembershipManager;
+
+        final InterfaceMembershipManager ipv6MembershipManager;
+
+        final OutputChannelMap<IPPacket> outputChannelMap;
+
+        /**
+         * @param shard
+         *            The index of the pseudo-interface shard used by this shard.
+         */
+        Shard(final int shard) {
+
+            // Create channel that sends packets over the pseudo-interface
+            OutputChannel<IPPacket> reportChannel = new OutputChannel<IPPacket>() {
+
+                @Override
+                public void send(IPPacket packet, int milliseconds) throws IOException, InterruptedException {
+                    AmtIPInterface.this.amtPseudoInterface.send(packet, shard);
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+
+            // Create separate membership managers for IPv4/IGMP and IPv6/MLD group
+            // subscriptions
+            this.ipv4MembershipManager = new InterfaceMembershipManager(AmtIPInterface.this.taskTimer);
+            this.ipv6MembershipManager = new InterfaceMembershipManager(AmtIPInterface.this.taskTimer);
+
+            // Connect report channel of interface membership managers to pseudo-interface.
+            // Group records are coalesced into MTU-sized reports before they are encoded.
+            this.ipv4MembershipManager.setOutgoingReportChannel(
+                            new MembershipReportBatcher(new OutputChannelTransform<MembershipReport, IPPacket>(reportChannel,
+                                                                                   new IPv4MembershipReportTransform()),
+                                                        true,
+                                                        AmtIPInterface.this.taskTimer));
+            this.ipv6MembershipManager.setOutgoingReportChannel(
+                            new MembershipReportBatcher(new OutputChannelTransform<MembershipReport, IPPacket>(reportChannel,
+                                                                                   new IPv6MembershipReportTransform()),
+                                                        false,
+                                                        AmtIPInterface.this.taskTimer));
+
+            // Create transforms for interface membership manager to query channels
+            OutputChannelTransform<IPPacket, MembershipQuery> ipv4TransformChannel =
+                            new OutputChannelTransform<IPPacket, MembershipQuery>(this.ipv4MembershipManager.getIncomingQueryChannel(),
+                                                                                  new IPv4MembershipQueryTransform());
+            OutputChannelTransform<IPPacket, MembershipQuery> ipv6TransformChannel =
+                            new OutputChannelTransform<IPPacket, MembershipQuery>(this.ipv6MembershipManager.getIncomingQueryChannel(),
+                                                                                  new IPv6MembershipQueryTransform());
+
+            // Create the output channel map that will be used to route packets to the
+            // appropriate recipients.
+            this.outputChannelMap = new OutputChannelMap<IPPacket>(PROTOCOL_EXTRACTOR);
+
+            // Create channels that route IGMP or MLD messages to appropriate transform
+            // channels.
+            this.outputChannelMap.put(IGMPMessage.IP_PROTOCOL_NUMBER, ipv4TransformChannel);
+            this.outputChannelMap.put(MLDMessage.IP_PROTOCOL_NUMBER, ipv6TransformChannel);
+
+            // Add channel that will receive any packets containing something other than an
+            // IGMP or MLD messages.
+            this.outputChannelMap.put(null, AmtIPInterface.this.dispatchChannel);
+
+            // Connect the channel map to the pseudo-interface shard output channel
+            AmtIPInterface.this.amtPseudoInterface.addOutputChannel(this.outputChannelMap, shard);
+        }
+
+        /**
+         * @param groupAddress
+         * @return The membership manager for the IP version of the group address.
+         */
+        InterfaceMembershipManager getMembershipManager(final InetAddress groupAddress) {
+            return groupAddress instanceof Inet4Address ? this.ipv4MembershipManager : this.ipv6MembershipManager;
+        }
+    }
+
     /*-- Member Variables ---------------------------------------------------*/
 
     protected final Log log = new Log(this);
 
+    /**
+     * Object used for synchronizing access to the destination channel state.
+     */
+    private final Object lock = new Object();
+
     private AmtIPInterfaceManager manager = null;
 
     private final AmtPseudoInterface amtPseudoInterface;
 
     private final OutputChannelTee<IPPacket> dispatchChannel;
 
+    private final OutputChannelTee<UdpDatagram> datagramDispatchChannel;
+
+
+    /**
+     * Number of packet destination channels that have no datagram channel.
+     */
+    private int packetOnlyChannelCount = 0;
+
     private int referenceCount = 0;
 
-    private final Timer taskTimer;
+    private final HashedWheelTimer taskTimer;
 
-    private final InterfaceMembershipManager ipv4MembershipManager;
+    private final GroupShardSelector shardSelector;
 
-    private final InterfaceMembershipManager ipv6MembershipManager;
+    private final ArrayList<Shard> shards;
 
     /**
      * @param manager
@@ -115,85 +252,16 @@ public class AmtIPInterface {
 
         this.amtPseudoInterface = amtPseudoInterface;
         this.dispatchChannel = new OutputChannelTee<IPPacket>();
+        this.datagramDispatchChannel = new OutputChannelTee<UdpDatagram>();
 
-        this.taskTimer = new Timer("AMT IP Interface");
-
-        // Create channel that sends packets over the pseudo-interface
-        OutputChannel<IPPacket> reportChannel = new OutputChannel<IPPacket>() {
-
-            @Override
-            public void send(IPPacket packet, int milliseconds) throws IOException, InterruptedException {
-                AmtIPInterface.this.amtPseudoInterface.send(packet);
-            }
-
-            @Override
-            public void close() {
-            }
-        };
-
-        // Create separate membership managers for IPv4/IGMP and IPv6/MLD group
-        // subscriptions
-        this.ipv4MembershipManager = new InterfaceMembershipManager(this.taskTimer);
-        this.ipv6MembershipManager = new InterfaceMembershipManager(this.taskTimer);
-
-        // Connect report channel of interface membership managers to pseudo-interface.
-        this.ipv4MembershipManager.setOutgoingReportChannel(
-                        new OutputChannelTransform<MembershipReport, IPPacket>(reportChannel,
-                                                                               new IPv4MembershipReportTransform()));
-        this.ipv6MembershipManager.setOutgoingReportChannel(
-                        new OutputChannelTransform<MembershipReport, IPPacket>(reportChannel,
-                                                                               new IPv6MembershipReportTransform()));
-
-        // Create transforms for interface membership manager to query channels
-        OutputChannelTransform<IPPacket, MembershipQuery> ipv4TransformChannel = new OutputChannelTransform<IPPacket, MembershipQuery>(
-                                                                                                                                       this.ipv4MembershipManager
-                                                                                                                                                       .getIncomingQueryChannel(),
-                                                                                                                                       new IPv4MembershipQueryTransform());
-        OutputChannelTransform<IPPacket, MembershipQuery> ipv6TransformChannel = new OutputChannelTransform<IPPacket, MembershipQuery>(
-                                                                                                                                       this.ipv6MembershipManager
-                                                                                                                                                       .getIncomingQueryChannel(),
-                                                                                                                                       new IPv6MembershipQueryTransform());
-
-        // Create an extractor to differentiate between IGMP, MLD and other message types.
-        MessageKeyExtractor<IPPacket> protocolExtractor = new MessageKeyExtractor<IPPacket>() {
-
-            @Override
-            public Byte getKey(IPPacket packet) {
-                if (packet.getVersion() == IPv4Packet.INTERNET_PROTOCOL_VERSION) {
-                    IPMessage ipMessage = packet.getProtocolMessage(IGMPMessage.IP_PROTOCOL_NUMBER);
-                    if (ipMessage == null) {
-                        return null;
-                    }
-                    return IGMPMessage.IP_PROTOCOL_NUMBER;
-                }
-                else if (packet.getVersion() == IPv6Packet.INTERNET_PROTOCOL_VERSION) {
-                    IPMessage ipMessage = packet.getProtocolMessage(MLDMessage.IP_PROTOCOL_NUMBER);
-                    if (ipMessage == null) {
-                        return null;
-                    }
-                    return MLDMessage.IP_PROTOCOL_NUMBER;
-                }
-                else {
-                    return null;
-                }
-            }
-        };
-
-        // Create the output channel map that will be used to route packets to the
-        // appropriate recipients.
-        OutputChannelMap<IPPacket> outputChannelMap = new OutputChannelMap<IPPacket>(protocolExtractor);
-
-        // Create channels that route IGMP or MLD messages to appropriate transform
-        // channels.
-        outputChannelMap.put(IGMPMessage.IP_PROTOCOL_NUMBER, ipv4TransformChannel);
-        outputChannelMap.put(MLDMessage.IP_PROTOCOL_NUMBER, ipv6TransformChannel);
+        this.taskTimer = AmtTunnelEndpoint.getControlTimer();
 
-        // Add channel that will receive any packets containing something other than an
-        // IGMP or MLD messages.
-        outputChannelMap.put(null, this.dispatchChannel);
-
-        // Connect the channel map to the pseudo-interface output channel
-        this.amtPseudoInterface.addOutputChannel(outputChannelMap);
+        int shardCount = amtPseudoInterface.getShardCount();
+        this.shardSelector = new GroupShardSelector(shardCount);
+        this.shards = new ArrayList<Shard>(shardCount);
+        for (int i = 0; i < shardCount; i++) {
+            this.shards.add(new Shard(i));
+        }
 
     }
 
@@ -208,7 +276,35 @@ public class AmtIPInterface {
             logger.finer(this.log.entry("AmtIPInterface.addOutputChannel", destinationChannel));
         }
 
-        this.dispatchChannel.add(destinationChannel);
+        synchronized (this.lock) {
+            this.dispatchChannel.add(destinationChannel);
+            this.packetOnlyChannelCount++;
+            updateDatagramDispatch();
+        }
+    }
+
+    /**
+     * Adds a packet destination channel that can also receive UDP datagrams decoded
+     * directly from AMT Multicast Data messages. While all packet destination channels
+     * are added using this method, multicast data that can be decoded by the tunnel
+     * fast path is delivered to the datagram channel and the packet channel only
+     * receives fragments and other packets that the fast path does not handle.
+     * 
+     * @param destinationChannel
+     * @param datagramChannel
+     */
+    public void addOutputChannel(final OutputChannel<IPPacket> destinationChannel,
+                                 final OutputChannel<UdpDatagram> datagramChannel) {
+
+        if (logger.isLoggable(Level.FINER)) {
+            logger.finer(this.log.entry("AmtIPInterface.addOutputChannel", destinationChannel, datagramChannel));
+        }
+
+        synchronized (this.lock) {
+            this.dispatchChannel.add(destinationChannel);
+            this.datagramDispatchChannel.add(datagramChannel);
+            updateDatagramDispatch();
+        }
     }
 
     /**
@@ -222,7 +318,54 @@ public class AmtIPInterface {
             logger.finer(this.log.entry("AmtIPInterface.removeOutputChannel", destinationChannel));
         }
 
-        this.dispatchChannel.remove(destinationChannel);
+        synchronized (this.lock) {
+            this.dispatchChannel.remove(destinationChannel);
+            if (this.packetOnlyChannelCount > 0) {
+                this.packetOnlyChannelCount--;
+            }
+            updateDatagramDispatch();
+        }
+    }
+
+    /**
+     * Removes a packet destination channel and its datagram channel.
+     * 
+     * @param destinationChannel
+     * @param datagramChannel
+     */
+    public void removeOutputChannel(final OutputChannel<IPPacket> destinationChannel,
+                                    final OutputChannel<UdpDatagram> datagramChannel) {
+
+        if (logger.isLoggable(Level.FINER)) {
+            logger.finer(this.log.entry("AmtIPInterface.removeOutputChannel", destinationChannel, datagramChannel));
+        }
+
+        synchronized (this.lock) {
+            this.dispatchChannel.remove(destinationChannel);
+            this.datagramDispatchChannel.remove(datagramChannel);
+            updateDatagramDispatch();
+        }
+    }
+
+    /**
+     * Registers the datagram dispatch channel with the pseudo-interface only if
+     * no packet destination channel requires multicast data as IP packets.
+     */
+    private void updateDatagramDispatch() {
+        OutputChannel<UdpDatagram> channel = this.packetOnlyChannelCount == 0 ? this.datagramDispatchChannel : null;
+        for (Shard shard : this.shards) {
+            this.amtPseudoInterface.setDatagramOutputChannel(shard.outputChannelMap, channel);
+        }
+    }
+
+    /**
+     * Returns the shard assigned to a group by consistent hash.
+     * 
+     * @param groupAddress
+     * @return
+     */
+    private Shard getShard(final InetAddress groupAddress) {
+        return this.shards.get(this.shardSelector.getShard(groupAddress));
     }
 
     /**
@@ -285,12 +428,7 @@ public class AmtIPInterface {
             logger.finer(this.log.entry("AmtIPInterface.join", Logging.address(groupAddress)));
         }
 
-        if (groupAddress instanceof Inet4Address) {
-            this.ipv4MembershipManager.join(groupAddress);
-        }
-        else {
-            this.ipv6MembershipManager.join(groupAddress);
-        }
+        getShard(groupAddress).getMembershipManager(groupAddress).join(groupAddress);
     }
 
     /**
@@ -310,12 +448,7 @@ public class AmtIPInterface {
 
         Precondition.checkAddresses(groupAddress, sourceAddress);
 
-        if (groupAddress instanceof Inet4Address) {
-            this.ipv4MembershipManager.join(groupAddress, sourceAddress);
-        }
-        else {
-            this.ipv6MembershipManager.join(groupAddress, sourceAddress);
-        }
+        getShard(groupAddress).getMembershipManager(groupAddress).join(groupAddress, sourceAddress);
     }
 
     /**
@@ -328,12 +461,7 @@ public class AmtIPInterface {
             logger.finer(this.log.entry("AmtIPInterface.leave", Logging.address(groupAddress)));
         }
 
-        if (groupAddress instanceof Inet4Address) {
-            this.ipv4MembershipManager.leave(groupAddress);
-        }
-        else {
-            this.ipv6MembershipManager.leave(groupAddress);
-        }
+        getShard(groupAddress).getMembershipManager(groupAddress).leave(groupAddress);
     }
 
     /**
@@ -352,12 +480,7 @@ public class AmtIPInterface {
 
         Precondition.checkAddresses(groupAddress, sourceAddress);
 
-        if (groupAddress instanceof Inet4Address) {
-            this.ipv4MembershipManager.leave(groupAddress, sourceAddress);
-        }
-        else {
-            this.ipv6MembershipManager.leave(groupAddress, sourceAddress);
-        }
+        getShard(groupAddress).getMembershipManager(groupAddress).leave(groupAddress, sourceAddress);
     }
 
     /**
@@ -369,7 +492,9 @@ public class AmtIPInterface {
             logger.finer(this.log.entry("AmtIPInterface.leave"));
         }
 
-        this.ipv4MembershipManager.leave();
-        this.ipv6MembershipManager.leave();
+        for (Shard shard : this.shards) {
+            shard.ipv4MembershipManager.leave();
+            shard.ipv6MembershipManager.leave();
+        }
     }
 }
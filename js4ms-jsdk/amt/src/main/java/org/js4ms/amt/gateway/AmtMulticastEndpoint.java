@@ -26,14 +26,23 @@ package org.js4ms.amt.gateway;
 import java.io.IOException;
 import java.io.InterruptedIOException;
 import java.net.InetAddress;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.js4ms.common.util.logging.Log;
 import org.js4ms.common.util.logging.Logging;
 import org.js4ms.io.channel.MessageQueue;
+import org.js4ms.io.channel.MessageTransform;
 import org.js4ms.io.channel.OutputChannel;
 import org.js4ms.io.channel.OutputChannelPipe;
+import org.js4ms.io.channel.OutputChannelQueue;
+import org.js4ms.io.channel.OutputChannelTransform;
 import org.js4ms.io.net.MulticastEndpoint;
 import org.js4ms.io.net.UdpDatagram;
 
@@ -63,6 +72,107 @@ public final class AmtMulticastEndpoint
      */
     public static final Logger logger = Logger.getLogger(AmtMulticastEndpoint.class.getName());
 
+    /**
+     * System property used to enable queued delivery to push channels.
+     * If set to a positive value, datagrams destined for a push channel supplied
+     * to a constructor are copied into a queue of that many datagrams and forwarded
+     * to the channel by a pool of threads shared by all endpoints, so a slow channel
+     * cannot stall the AMT interface or the other channels served by it.
+     * The default (zero) sends each datagram to the push channel on the thread
+     * that received it.
+     */
+    static final String SUBSCRIBER_QUEUE_SIZE_PROPERTY = "org.js4ms.amt.gateway.subscriber.queue.size";
+
+    static final int DEFAULT_SUBSCRIBER_QUEUE_SIZE = 0;
+
+    /**
+     * System property used to select the action taken when a push channel queue is full.
+     * Accepted values are <code>drop-oldest</code> (the default), <code>drop-newest</code>
+     * and <code>disconnect</code>. A disconnected channel is removed from all of the
+     * groups it has joined.
+     */
+    static final String SUBSCRIBER_OVERFLOW_POLICY_PROPERTY = "org.js4ms.amt.gateway.subscriber.overflow.policy";
+
+    /**
+     * System property used to set the number of threads that forward queued datagrams
+     * to push channels. Defaults to the number of available processors.
+     * A channel whose send method blocks occupies a thread until it returns, so the
+     * pool should be larger than the number of channels expected to stall at once.
+     */
+    static final String SUBSCRIBER_THREADS_PROPERTY = "org.js4ms.amt.gateway.subscriber.threads";
+
+    /**
+     * Copies the payload of each datagram so the datagram remains valid after the
+     * AMT interface recycles the buffer it was received into.
+     */
+    private static final MessageTransform<UdpDatagram, UdpDatagram> DATAGRAM_COPY = new MessageTransform<UdpDatagram, UdpDatagram>() {
+
+        @Override
+        public UdpDatagram transform(final UdpDatagram datagram) throws IOException {
+            return new UdpDatagram(datagram.getSourceAddress(),
+                                   datagram.getSourcePort(),
+                                   datagram.getDestinationAddress(),
+                                   datagram.getDestinationPort(),
+                                   datagram.copyPayload());
+        }
+    };
+
+    /**
+     * Pool of threads used to drain push channel queues. Created on first use.
+     */
+    private static ThreadPoolExecutor subscriberExecutor = null;
+
+    /*-- Static Functions ---------------------------------------------------*/
+
+    /**
+     * @return The push channel queue size specified by {@link #SUBSCRIBER_QUEUE_SIZE_PROPERTY}.
+     */
+    static int getSubscriberQueueSize() {
+        return AmtTunnelEndpoint.getIntegerProperty(SUBSCRIBER_QUEUE_SIZE_PROPERTY, DEFAULT_SUBSCRIBER_QUEUE_SIZE);
+    }
+
+    /**
+     * @return The overflow policy specified by {@link #SUBSCRIBER_OVERFLOW_POLICY_PROPERTY}.
+     */
+    static OutputChannelQueue.OverflowPolicy getSubscriberOverflowPolicy() {
+        String property = System.getProperty(SUBSCRIBER_OVERFLOW_POLICY_PROPERTY);
+        if (property != null) {
+            try {
+                return OutputChannelQueue.OverflowPolicy.parse(property);
+            }
+            catch (IllegalArgumentException e) {
+                logger.warning(SUBSCRIBER_OVERFLOW_POLICY_PROPERTY + "=" + property + " is not a valid overflow policy");
+            }
+        }
+        return OutputChannelQueue.OverflowPolicy.DROP_OLDEST;
+    }
+
+    /**
+     * @return The shared pool of daemon threads used to drain push channel queues.
+     */
+    static synchronized Executor getSubscriberExecutor() {
+        if (subscriberExecutor == null) {
+            int threadCount = AmtTunnelEndpoint.getIntegerProperty(SUBSCRIBER_THREADS_PROPERTY, 0);
+            if (threadCount == 0) {
+                threadCount = Runtime.getRuntime().availableProcessors();
+            }
+            final AtomicInteger threadIndex = new AtomicInteger(0);
+            ThreadFactory threadFactory = new ThreadFactory() {
+
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    Thread thread = new Thread(runnable, "AMT subscriber-" + threadIndex.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            };
+            subscriberExecutor = new ThreadPoolExecutor(threadCount, threadCount, 60, TimeUnit.SECONDS,
+                                                        new LinkedBlockingQueue<Runnable>(), threadFactory);
+            subscriberExecutor.allowCoreThreadTimeOut(true);
+        }
+        return subscriberExecutor;
+    }
+
     /*-- Member Variables ---------------------------------------------------*/
 
     private final Log log = new Log(this);
@@ -93,6 +203,12 @@ public final class AmtMulticastEndpoint
      */
     private MessageQueue<UdpDatagram> datagramQueue = null;
 
+    /**
+     * The queue used to forward datagrams to an external push channel, or
+     * <code>null</code> if datagrams are sent to that channel directly.
+     */
+    private OutputChannelQueue<UdpDatagram> subscriberQueue = null;
+
     /*-- Member Functions ---------------------------------------------------*/
 
     /**
@@ -142,6 +258,11 @@ public final class AmtMulticastEndpoint
         this(port, relayDiscoveryAddress);
         this.datagramQueue = new MessageQueue<UdpDatagram>(bufferCapacity);
         this.pushChannel = new OutputChannelPipe<UdpDatagram>(this.datagramQueue);
+        if (AmtTunnelEndpoint.isReceiveBufferPoolingEnabled()) {
+            // The tunnel recycles receive buffers once a datagram has been dispatched,
+            // so datagrams held in the queue must carry their own copy of the payload.
+            this.pushChannel = new OutputChannelTransform<UdpDatagram, UdpDatagram>(this.pushChannel, DATAGRAM_COPY);
+        }
     }
 
     /**
@@ -159,8 +280,20 @@ public final class AmtMulticastEndpoint
                                 final InetAddress relayDiscoveryAddress,
                                 final OutputChannel<UdpDatagram> pushChannel) {
         this(port, relayDiscoveryAddress);
-        this.pushChannel = pushChannel; // TODO wrap channel to intercept exceptions so
-                                        // channel can leave AMT interface
+        int queueSize = getSubscriberQueueSize();
+        if (queueSize > 0) {
+            // Queued datagrams outlive the buffers they were received into, so each
+            // one is copied before it is added to the queue.
+            this.subscriberQueue = new OutputChannelQueue<UdpDatagram>(pushChannel,
+                                                                       queueSize,
+                                                                       getSubscriberOverflowPolicy(),
+                                                                       getSubscriberExecutor());
+            this.pushChannel = new OutputChannelTransform<UdpDatagram, UdpDatagram>(this.subscriberQueue, DATAGRAM_COPY);
+        }
+        else {
+            this.pushChannel = pushChannel; // TODO wrap channel to intercept exceptions so
+                                            // channel can leave AMT interface
+        }
     }
 
     /**
@@ -203,6 +336,19 @@ public final class AmtMulticastEndpoint
 
         if (this.udpInterface != null) {
             this.udpInterface.leave(this.pushChannel);
+        }
+
+        if (this.subscriberQueue != null) {
+            // Stop the drain task so no datagrams reach the push channel once the endpoint is closed.
+            // The push channel belongs to the caller, so it is not closed here. Queued datagrams hold
+            // heap copies of their payloads, so they can be discarded without releasing any buffers.
+            this.subscriberQueue.stop();
+            if (logger.isLoggable(Level.FINE)) {
+                logger.fine(this.log.msg("push channel queue " + this.subscriberQueue));
+            }
+        }
+
+        if (this.udpInterface != null) {
             this.udpInterface.release();
         }
     }
@@ -216,6 +362,18 @@ public final class AmtMulticastEndpoint
         return this.port;
     }
 
+    /**
+     * Gets the queue used to forward datagrams to the push channel supplied to a
+     * constructor. The queue reports its depth and the number of datagrams it has
+     * delivered and dropped.
+     * 
+     * @return The queue, or <code>null</code> if queued delivery is not enabled
+     *         by {@link #SUBSCRIBER_QUEUE_SIZE_PROPERTY} or no push channel was supplied.
+     */
+    public final OutputChannelQueue<UdpDatagram> getSubscriberQueue() {
+        return this.subscriberQueue;
+    }
+
     /**
      * Gets the relay discovery address assigned to the endpoint when it was constructed.
      * 
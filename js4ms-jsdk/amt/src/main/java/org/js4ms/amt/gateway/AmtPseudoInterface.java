@@ -25,6 +25,8 @@ package org.js4ms.amt.gateway;
 
 import java.io.IOException;
 import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -32,6 +34,7 @@ import org.js4ms.common.util.logging.Log;
 import org.js4ms.common.util.logging.Logging;
 import org.js4ms.io.channel.OutputChannel;
 import org.js4ms.io.channel.OutputChannelTee;
+import org.js4ms.io.net.UdpDatagram;
 import org.js4ms.ip.IPPacket;
 import org.js4ms.ip.ipv4.IPv4Packet;
 
@@ -42,6 +45,11 @@ import org.js4ms.ip.ipv4.IPv4Packet;
  * The {@link AmtPseudoInterfaceManager} constructs a separate AMT interface for each
  * unique
  * AMT relay acting as a remote AMT tunnel end-point.
+ * <p>
+ * The interface may open several tunnels, or shards, to the same relay for each IP
+ * version. Each shard has its own socket, receive thread and request/query exchange
+ * with the relay. The number of shards is set by the {@link #TUNNEL_SHARDS_PROPERTY}
+ * system property; callers select a shard when sending membership reports.
  * 
  * @author Greg Bumgardner (gbumgard)
  */
@@ -51,6 +59,35 @@ public final class AmtPseudoInterface {
 
     public static final Logger logger = Logger.getLogger(AmtPseudoInterface.class.getName());
 
+    /**
+     * System property used to set the number of tunnels opened to each relay
+     * for each IP version. The default is one.
+     */
+    public static final String TUNNEL_SHARDS_PROPERTY = "org.js4ms.amt.gateway.tunnel.shards";
+
+    public static final int DEFAULT_TUNNEL_SHARDS = 1;
+
+    /*-- Static Functions ---------------------------------------------------*/
+
+    /**
+     * @return The shard count specified by {@link #TUNNEL_SHARDS_PROPERTY}.
+     */
+    static int getTunnelShardsProperty() {
+        String property = System.getProperty(TUNNEL_SHARDS_PROPERTY);
+        if (property != null) {
+            try {
+                int shards = Integer.parseInt(property);
+                if (shards > 0) {
+                    return shards;
+                }
+            }
+            catch (NumberFormatException e) {
+            }
+            logger.warning(TUNNEL_SHARDS_PROPERTY + "=" + property + " is not a valid shard count");
+        }
+        return DEFAULT_TUNNEL_SHARDS;
+    }
+
     /*-- Member Variables ---------------------------------------------------*/
 
     protected final Log log = new Log(this);
@@ -63,9 +100,26 @@ public final class AmtPseudoInterface {
 
     private final OutputChannelTee<IPPacket> dispatchChannel;
 
-    private AmtTunnelEndpoint ipv4Endpoint = null;
+    /**
+     * The dispatch channel for each shard. Each shard channel forwards packets to
+     * the shared dispatch channel and to any channels added for that shard.
+     */
+    private final ArrayList<OutputChannelTee<IPPacket>> shardDispatchChannels;
+
+    /**
+     * Datagram channels registered for each packet output channel.
+     * A <code>null</code> value indicates that the packet channel must receive
+     * multicast data as IP packets.
+     */
+    private final HashMap<OutputChannel<IPPacket>, OutputChannel<UdpDatagram>> datagramChannels;
+
+    private final OutputChannelTee<UdpDatagram> datagramDispatchChannel;
+
+    private boolean isDatagramDispatchEnabled = false;
 
-    private AmtTunnelEndpoint ipv6Endpoint = null;
+    private final AmtTunnelEndpoint[] ipv4Endpoints;
+
+    private final AmtTunnelEndpoint[] ipv6Endpoints;
 
     /*-- Member Functions ---------------------------------------------------*/
 
@@ -110,13 +164,48 @@ public final class AmtPseudoInterface {
         this.relayDiscoveryAddress = relayDiscoveryAddress;
 
         this.dispatchChannel = new OutputChannelTee<IPPacket>();
+
+        int shardCount = getTunnelShardsProperty();
+        this.shardDispatchChannels = new ArrayList<OutputChannelTee<IPPacket>>(shardCount);
+        for (int i = 0; i < shardCount; i++) {
+            OutputChannelTee<IPPacket> shardDispatchChannel = new OutputChannelTee<IPPacket>();
+            shardDispatchChannel.add(this.dispatchChannel);
+            this.shardDispatchChannels.add(shardDispatchChannel);
+        }
+        this.ipv4Endpoints = new AmtTunnelEndpoint[shardCount];
+        this.ipv6Endpoints = new AmtTunnelEndpoint[shardCount];
+
+        this.datagramChannels = new HashMap<OutputChannel<IPPacket>, OutputChannel<UdpDatagram>>();
+        this.datagramDispatchChannel = new OutputChannelTee<UdpDatagram>();
+    }
+
+    /**
+     * @return The number of tunnels opened to the relay for each IP version.
+     */
+    public int getShardCount() {
+        return this.shardDispatchChannels.size();
     }
 
     /**
+     * Adds a channel that receives packets from every shard.
+     * 
      * @param destinationChannel
      */
     public void addOutputChannel(final OutputChannel<IPPacket> destinationChannel) {
         this.dispatchChannel.add(destinationChannel);
+        setDatagramOutputChannel(destinationChannel, null);
+    }
+
+    /**
+     * Adds a channel that only receives packets from the specified shard.
+     * 
+     * @param destinationChannel
+     * @param shard
+     *            A shard index in the range [0, {@link #getShardCount()}).
+     */
+    public void addOutputChannel(final OutputChannel<IPPacket> destinationChannel, final int shard) {
+        this.shardDispatchChannels.get(shard).add(destinationChannel);
+        setDatagramOutputChannel(destinationChannel, null);
     }
 
     /**
@@ -124,6 +213,74 @@ public final class AmtPseudoInterface {
      */
     public void removeOutputChannel(final OutputChannel<IPPacket> destinationChannel) {
         this.dispatchChannel.remove(destinationChannel);
+        for (OutputChannelTee<IPPacket> shardDispatchChannel : this.shardDispatchChannels) {
+            shardDispatchChannel.remove(destinationChannel);
+        }
+        synchronized (this.datagramChannels) {
+            OutputChannel<UdpDatagram> datagramChannel = this.datagramChannels.remove(destinationChannel);
+            if (datagramChannel != null) {
+                this.datagramDispatchChannel.remove(datagramChannel);
+            }
+            updateDatagramDispatch();
+        }
+    }
+
+    /**
+     * Registers a channel that will receive UDP datagrams decoded directly from AMT
+     * Multicast Data messages on behalf of a packet output channel.
+     * The tunnel endpoints only use the datagram fast path while every packet output
+     * channel has a datagram channel; the packet channel continues to receive query
+     * packets and any data packets that cannot be decoded by the fast path.
+     * 
+     * @param destinationChannel
+     *            A packet channel previously added using
+     *            {@link #addOutputChannel(OutputChannel)}.
+     * @param datagramChannel
+     *            The datagram channel or <code>null</code> if the packet channel
+     *            must receive all multicast data packets.
+     */
+    public void setDatagramOutputChannel(final OutputChannel<IPPacket> destinationChannel,
+                                         final OutputChannel<UdpDatagram> datagramChannel) {
+
+        if (logger.isLoggable(Level.FINER)) {
+            logger.finer(this.log.entry("AmtPseudoInterface.setDatagramOutputChannel", destinationChannel, datagramChannel));
+        }
+
+        synchronized (this.datagramChannels) {
+            OutputChannel<UdpDatagram> previousChannel = this.datagramChannels.put(destinationChannel, datagramChannel);
+            if (previousChannel != null) {
+                this.datagramDispatchChannel.remove(previousChannel);
+            }
+            if (datagramChannel != null) {
+                this.datagramDispatchChannel.add(datagramChannel);
+            }
+            updateDatagramDispatch();
+        }
+    }
+
+    /**
+     * Enables the datagram fast path in the tunnel endpoints if every packet output
+     * channel has a datagram channel.
+     */
+    private void updateDatagramDispatch() {
+        synchronized (this.datagramChannels) {
+            boolean isEnabled = !this.datagramChannels.isEmpty() && !this.datagramChannels.containsValue(null);
+            if (isEnabled != this.isDatagramDispatchEnabled) {
+                this.isDatagramDispatchEnabled = isEnabled;
+                if (logger.isLoggable(Level.FINE)) {
+                    logger.fine(this.log.msg((isEnabled ? "enabled" : "disabled") + " multicast data fast path"));
+                }
+            }
+            OutputChannel<UdpDatagram> channel = isEnabled ? this.datagramDispatchChannel : null;
+            for (int i = 0; i < this.ipv4Endpoints.length; i++) {
+                if (this.ipv4Endpoints[i] != null) {
+                    this.ipv4Endpoints[i].setDatagramDispatchChannel(channel);
+                }
+                if (this.ipv6Endpoints[i] != null) {
+                    this.ipv6Endpoints[i].setDatagramDispatchChannel(channel);
+                }
+            }
+        }
     }
 
     /**
@@ -177,41 +334,91 @@ public final class AmtPseudoInterface {
             logger.finer(this.log.entry("AmtPseudoInterface.close"));
         }
 
-        if (this.ipv4Endpoint != null) {
-            this.ipv4Endpoint.close();
-            this.ipv4Endpoint = null;
-        }
-        else if (this.ipv6Endpoint != null) {
-            this.ipv6Endpoint.close();
-            this.ipv6Endpoint = null;
+        synchronized (this.datagramChannels) {
+            for (int i = 0; i < this.ipv4Endpoints.length; i++) {
+                if (this.ipv4Endpoints[i] != null) {
+                    this.ipv4Endpoints[i].close();
+                    this.ipv4Endpoints[i] = null;
+                }
+                if (this.ipv6Endpoints[i] != null) {
+                    this.ipv6Endpoints[i].close();
+                    this.ipv6Endpoints[i] = null;
+                }
+            }
         }
     }
 
     /**
+     * Sends a packet over the first shard.
+     * 
      * @param packet
      * @throws IOException
      */
     public void send(final IPPacket packet) throws IOException {
+        send(packet, 0);
+    }
+
+    /**
+     * Sends a packet over the specified shard, opening the shard tunnel if necessary.
+     * 
+     * @param packet
+     * @param shard
+     *            A shard index in the range [0, {@link #getShardCount()}).
+     * @throws IOException
+     */
+    public void send(final IPPacket packet, final int shard) throws IOException {
+
+        if (logger.isLoggable(Level.FINER)) {
+            logger.finer(this.log.entry("AmtPseudoInterface.send", packet, shard));
+        }
+
+        getEndpoint(packet.getVersion() == IPv4Packet.INTERNET_PROTOCOL_VERSION, shard).send(packet);
+    }
+
+    /**
+     * Opens a persistent tunnel to the relay for every shard so that relay discovery
+     * and the request/query handshake are complete before the first group is joined.
+     * The tunnels keep their response MAC and nonce current until this interface
+     * is closed.
+     * 
+     * @param includeIPv6
+     *            Indicates whether IPv6 tunnels are opened in addition to IPv4 tunnels.
+     * @throws IOException
+     */
+    public void prewarm(final boolean includeIPv6) throws IOException {
 
         if (logger.isLoggable(Level.FINER)) {
-            logger.finer(this.log.entry("AmtPseudoInterface.send", packet));
+            logger.finer(this.log.entry("AmtPseudoInterface.prewarm", includeIPv6));
         }
 
-        if (packet.getVersion() == IPv4Packet.INTERNET_PROTOCOL_VERSION) {
-            if (this.ipv4Endpoint == null) {
-                this.ipv4Endpoint = new AmtTunnelEndpoint(this.relayDiscoveryAddress,
-                                                          this.dispatchChannel,
-                                                          AmtTunnelEndpoint.Protocol.IPv4);
+        for (int shard = 0; shard < this.ipv4Endpoints.length; shard++) {
+            getEndpoint(true, shard).setPersistent(true);
+            if (includeIPv6) {
+                getEndpoint(false, shard).setPersistent(true);
             }
-            this.ipv4Endpoint.send(packet);
         }
-        else {
-            if (this.ipv6Endpoint == null) {
-                this.ipv6Endpoint = new AmtTunnelEndpoint(this.relayDiscoveryAddress,
-                                                          this.dispatchChannel,
-                                                          AmtTunnelEndpoint.Protocol.IPv6);
+    }
+
+    /**
+     * Returns the tunnel endpoint for a shard, opening the tunnel if necessary.
+     * 
+     * @param isIPv4
+     * @param shard
+     * @return
+     * @throws IOException
+     */
+    private AmtTunnelEndpoint getEndpoint(final boolean isIPv4, final int shard) throws IOException {
+        synchronized (this.datagramChannels) {
+            AmtTunnelEndpoint[] endpoints = isIPv4 ? this.ipv4Endpoints : this.ipv6Endpoints;
+            AmtTunnelEndpoint endpoint = endpoints[shard];
+            if (endpoint == null) {
+                endpoint = new AmtTunnelEndpoint(this.relayDiscoveryAddress,
+                                                 this.shardDispatchChannels.get(shard),
+                                                 isIPv4 ? AmtTunnelEndpoint.Protocol.IPv4 : AmtTunnelEndpoint.Protocol.IPv6);
+                endpoints[shard] = endpoint;
+                updateDatagramDispatch();
             }
-            this.ipv6Endpoint.send(packet);
+            return endpoint;
         }
     }
 
@@ -67,6 +67,18 @@ public final class AmtPseudoInterfaceManager {
                     (byte) 154, (byte) 17, (byte) 0, (byte) 1
     };
 
+    /**
+     * System property containing a comma-separated list of relay discovery addresses
+     * whose tunnels are opened by {@link #prewarmInterfaces()}.
+     */
+    public static final String PREWARM_RELAYS_PROPERTY = "org.js4ms.amt.gateway.prewarm.relays";
+
+    /**
+     * System property used to indicate whether pre-warmed interfaces also open
+     * IPv6 tunnels. The default is <code>false</code>.
+     */
+    public static final String PREWARM_IPV6_PROPERTY = "org.js4ms.amt.gateway.prewarm.ipv6";
+
     /*-- Static Functions ---------------------------------------------------*/
 
     /**
@@ -98,6 +110,12 @@ public final class AmtPseudoInterfaceManager {
      */
     private HashMap<InetAddress, AmtPseudoInterface> interfaces;
 
+    /**
+     * Interfaces held open by this manager after a call to
+     * {@link #prewarmInterface(InetAddress, boolean)}.
+     */
+    private HashMap<InetAddress, AmtPseudoInterface> prewarmedInterfaces;
+
     /*-- Member Functions ---------------------------------------------------*/
 
     /**
@@ -106,6 +124,7 @@ public final class AmtPseudoInterfaceManager {
      */
     private AmtPseudoInterfaceManager() {
         this.interfaces = new HashMap<InetAddress, AmtPseudoInterface>();
+        this.prewarmedInterfaces = new HashMap<InetAddress, AmtPseudoInterface>();
     }
 
     /**
@@ -137,6 +156,109 @@ public final class AmtPseudoInterfaceManager {
         return endpoint;
     }
 
+    /**
+     * Opens persistent tunnels to the relay located using the specified discovery
+     * address so that the first join on that relay only waits for a membership
+     * update to reach the relay. The interface remains open until
+     * {@link #releasePrewarmedInterfaces()} is called.
+     * 
+     * @param relayDiscoveryAddress
+     * @param includeIPv6
+     *            Indicates whether IPv6 tunnels are opened in addition to IPv4 tunnels.
+     * @return
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public synchronized AmtPseudoInterface prewarmInterface(final InetAddress relayDiscoveryAddress,
+                                                            final boolean includeIPv6) throws IOException, InterruptedException {
+
+        if (logger.isLoggable(Level.FINER)) {
+            logger.finer(log.entry("AmtPseudoInterfaceManager.prewarmInterface", Logging.address(relayDiscoveryAddress), includeIPv6));
+        }
+
+        AmtPseudoInterface endpoint = this.prewarmedInterfaces.get(relayDiscoveryAddress);
+
+        if (endpoint == null) {
+            endpoint = getInterface(relayDiscoveryAddress);
+            this.prewarmedInterfaces.put(relayDiscoveryAddress, endpoint);
+        }
+
+        endpoint.prewarm(includeIPv6);
+
+        return endpoint;
+    }
+
+    /**
+     * Opens persistent tunnels for each relay discovery address listed in
+     * {@link #PREWARM_RELAYS_PROPERTY}.
+     * A relay whose tunnels cannot be opened is logged and skipped.
+     * 
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public void prewarmInterfaces() throws IOException, InterruptedException {
+
+        if (logger.isLoggable(Level.FINER)) {
+            logger.finer(log.entry("AmtPseudoInterfaceManager.prewarmInterfaces"));
+        }
+
+        String property = System.getProperty(PREWARM_RELAYS_PROPERTY);
+        if (property == null) {
+            return;
+        }
+
+        boolean includeIPv6 = Boolean.parseBoolean(System.getProperty(PREWARM_IPV6_PROPERTY));
+
+        for (String name : property.split(",")) {
+            name = name.trim();
+            if (name.length() > 0) {
+                InetAddress relayDiscoveryAddress;
+                try {
+                    relayDiscoveryAddress = InetAddress.getByName(name);
+                }
+                catch (UnknownHostException e) {
+                    logger.warning(log.msg(PREWARM_RELAYS_PROPERTY + " entry " + name + " is not a valid address"));
+                    continue;
+                }
+
+                if (logger.isLoggable(Level.INFO)) {
+                    logger.info(log.msg("pre-warming AMT tunnels for relay discovery address " +
+                                        Logging.address(relayDiscoveryAddress)));
+                }
+
+                try {
+                    prewarmInterface(relayDiscoveryAddress, includeIPv6);
+                }
+                catch (IOException e) {
+                    // Continue with the remaining relays - the tunnels for this relay are opened on demand
+                    logger.warning(log.msg("cannot pre-warm AMT tunnels for relay discovery address " +
+                                           Logging.address(relayDiscoveryAddress) + " - " +
+                                           e.getClass().getSimpleName() + ":" + e.getMessage()));
+                }
+            }
+        }
+    }
+
+    /**
+     * Releases the interfaces held open by {@link #prewarmInterface(InetAddress, boolean)}.
+     * Each interface is closed once no other object holds a reference to it.
+     * 
+     * @throws InterruptedException
+     * @throws IOException
+     */
+    public synchronized void releasePrewarmedInterfaces() throws InterruptedException, IOException {
+
+        if (logger.isLoggable(Level.FINER)) {
+            logger.finer(log.entry("AmtPseudoInterfaceManager.releasePrewarmedInterfaces"));
+        }
+
+        for (AmtPseudoInterface endpoint : this.prewarmedInterfaces.values()) {
+            endpoint.release();
+        }
+
+        this.prewarmedInterfaces.clear();
+    }
+
     /**
      * @param amtInterface
      * @throws InterruptedException
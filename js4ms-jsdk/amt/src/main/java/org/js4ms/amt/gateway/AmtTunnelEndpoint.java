@@ -23,6 +23,7 @@ package org.js4ms.amt.gateway;
  */
 
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InterruptedIOException;
 import java.net.InetAddress;
@@ -32,8 +33,14 @@ import java.net.ProtocolException;
 import java.net.SocketException;
 import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -45,13 +52,27 @@ import org.js4ms.amt.message.AmtRelayAdvertisementMessage;
 import org.js4ms.amt.message.AmtRelayDiscoveryMessage;
 import org.js4ms.amt.message.AmtRequestMessage;
 import org.js4ms.amt.message.AmtTeardownMessage;
+import org.js4ms.amt.message.ChecksumPolicy;
+import org.js4ms.common.exception.ParseException;
+import org.js4ms.common.util.buffer.parser.MissingParserException;
 import org.js4ms.common.util.logging.Log;
 import org.js4ms.common.util.logging.Logging;
+import org.js4ms.common.util.pool.ByteBufferArena;
+import org.js4ms.common.util.task.HashedWheelTimer;
+import org.js4ms.common.util.task.TimerHandle;
+import org.js4ms.io.channel.MessageHashExtractor;
+import org.js4ms.io.channel.MessageRing;
 import org.js4ms.io.channel.OutputChannel;
+import org.js4ms.io.channel.OutputChannelDispatcher;
 import org.js4ms.io.net.UdpDatagram;
 import org.js4ms.io.net.UdpInputChannel;
 import org.js4ms.io.net.UdpOutputChannel;
 import org.js4ms.io.net.UdpSocketEndpoint;
+import org.js4ms.io.pcap.PcapOutputChannel;
+import org.js4ms.io.pcap.PcapReplayEndpoint;
+import org.js4ms.io.pcap.PcapWriter;
+import org.js4ms.io.pcap.UdpDatagramEncoder;
+import org.js4ms.ip.ChecksumException;
 import org.js4ms.ip.IPMessage;
 import org.js4ms.ip.IPPacket;
 import org.js4ms.ip.ipv4.IPv4Packet;
@@ -87,6 +108,36 @@ class AmtTunnelEndpoint
         IPv6
     };
 
+    /**
+     * A task run by the control-plane timer that holds its own handle so it can
+     * cancel itself. Tasks are scheduled and cancelled while holding the
+     * endpoint lock, so a task that acquires the lock can safely check
+     * whether it has been cancelled or replaced.
+     */
+    private abstract class EndpointTask
+                    implements Runnable {
+
+        private TimerHandle handle = null;
+
+        void schedule(final long delay) {
+            this.handle = AmtTunnelEndpoint.this.taskTimer.schedule(this, delay);
+        }
+
+        void schedule(final long delay, final long period) {
+            this.handle = AmtTunnelEndpoint.this.taskTimer.schedule(this, delay, period);
+        }
+
+        void cancel() {
+            if (this.handle != null) {
+                this.handle.cancel();
+            }
+        }
+
+        boolean isCancelled() {
+            return this.handle != null && this.handle.isCancelled();
+        }
+    }
+
     /*-- Static Variables ---------------------------------------------------*/
 
     /**
@@ -105,6 +156,346 @@ class AmtTunnelEndpoint
 
     static final int MAX_REASSEMBLY_CACHE_SIZE = 100;
 
+    /**
+     * System property used to select the batched, pooled-buffer receive mode.
+     * If set to a positive value, the endpoint receives AMT messages from a
+     * non-blocking DatagramChannel and drains up to that many datagrams each time
+     * the channel becomes readable. The buffers that carry unfragmented multicast
+     * data packets are recycled once the packet has been dispatched, so channels
+     * that receive those packets must copy any payload they wish to retain after
+     * their send method returns. The default (zero) uses a blocking socket and a
+     * new buffer for each datagram.
+     */
+    static final String RECEIVE_BATCH_SIZE_PROPERTY = "org.js4ms.amt.gateway.receive.batch.size";
+
+    static final int DEFAULT_RECEIVE_BATCH_SIZE = 0;
+
+    /**
+     * System property used to select the checksum verification policy applied to
+     * packets carried in Membership Query and Multicast Data messages.
+     * Accepted values are <code>always</code> (the default), <code>never</code>,
+     * <code>control-plane-only</code> and <code>sampled[:N]</code>.
+     * See {@link ChecksumPolicy#valueOf(String)}.
+     */
+    static final String CHECKSUM_POLICY_PROPERTY = "org.js4ms.amt.gateway.checksum.policy";
+
+    /**
+     * System property used to enable the multicast data dispatch stage.
+     * If set to a positive value, the receive thread hands each AMT Multicast Data
+     * message to one of that many dispatch threads, which parse the message and
+     * forward the packet it carries. Messages are assigned to dispatch threads by
+     * source and group address so packets within a flow are delivered in order.
+     * The default (zero) parses and forwards each message on the receive thread.
+     */
+    static final String DISPATCH_THREADS_PROPERTY = "org.js4ms.amt.gateway.dispatch.threads";
+
+    static final int DEFAULT_DISPATCH_THREADS = 0;
+
+    /**
+     * System property used to set the number of messages each dispatch thread
+     * can hold before the receive thread must wait.
+     */
+    static final String DISPATCH_QUEUE_SIZE_PROPERTY = "org.js4ms.amt.gateway.dispatch.queue.size";
+
+    static final int DEFAULT_DISPATCH_QUEUE_SIZE = 1024;
+
+    /**
+     * System property used to select how the receive and dispatch threads wait on
+     * each other. Accepted values are <code>blocking</code> (the default),
+     * <code>yielding</code> and <code>busy-spin</code>.
+     */
+    static final String DISPATCH_WAIT_STRATEGY_PROPERTY = "org.js4ms.amt.gateway.dispatch.wait.strategy";
+
+    /**
+     * System property used to enable parser object reuse on the data path.
+     * If set to <code>true</code>, each thread that parses AMT Multicast Data
+     * messages rebinds the same message and IPv4 packet instances to every
+     * unfragmented packet it receives, so channels that receive those packets
+     * must not retain them after their send method returns.
+     */
+    static final String PARSER_REUSE_PROPERTY = "org.js4ms.amt.gateway.parser.reuse";
+
+    /**
+     * System property used to enable parallel relay discovery.
+     * If set to a comma-separated list of addresses, the endpoint probes those
+     * addresses and its own discovery address concurrently, ranks the relays that
+     * respond by advertisement round-trip time and keeps probing in the background
+     * so it can fail over to the next relay as soon as the current one fails.
+     * By default the endpoint only probes its own discovery address and restarts
+     * discovery when the relay fails.
+     * Parallel discovery uses the non-blocking receive mode described under
+     * {@link #RECEIVE_BATCH_SIZE_PROPERTY}.
+     */
+    static final String DISCOVERY_ADDRESSES_PROPERTY = "org.js4ms.amt.gateway.discovery.addresses";
+
+    /**
+     * System property used to set the interval in milliseconds between parallel
+     * relay discovery probes.
+     */
+    static final String DISCOVERY_PROBE_INTERVAL_PROPERTY = "org.js4ms.amt.gateway.discovery.probe.interval";
+
+    /**
+     * System property used to record tunnel traffic.
+     * If set to a file name, every AMT datagram received from the relay is written
+     * to that file in pcap format before it is parsed.
+     */
+    static final String CAPTURE_TUNNEL_PROPERTY = "org.js4ms.amt.gateway.capture.tunnel";
+
+    /**
+     * System property used to record decapsulated traffic.
+     * If set to a file name, every IP packet and UDP datagram delivered by the
+     * AMT interface to the reassembly and membership stages is written to that
+     * file in pcap format.
+     */
+    static final String CAPTURE_INTERFACE_PROPERTY = "org.js4ms.amt.gateway.capture.interface";
+
+    /**
+     * System property used to replay captured tunnel traffic.
+     * If set to the name of a pcap or pcapng file, the endpoint receives the
+     * AMT datagrams sent from the relay port in that file instead of reading
+     * them from its socket. Messages sent by the endpoint still go to the relay.
+     */
+    static final String REPLAY_PROPERTY = "org.js4ms.amt.gateway.replay";
+
+    /**
+     * System property used to set the replay speed relative to the capture.
+     * The default (1.0) preserves the original spacing of the datagrams and
+     * zero replays them as fast as the endpoint can process them.
+     */
+    static final String REPLAY_RATE_PROPERTY = "org.js4ms.amt.gateway.replay.rate";
+
+    /**
+     * Capture files opened for the capture properties, indexed by file name.
+     */
+    private static final HashMap<String, PcapWriter> captureWriters = new HashMap<String, PcapWriter>();
+
+    /**
+     * Timer used by the AMT control plane. Created on first use.
+     */
+    private static HashedWheelTimer controlTimer = null;
+
+    /*-- Static Functions ---------------------------------------------------*/
+
+    /**
+     * Returns the timer used to schedule AMT control-plane tasks, such as message
+     * retransmissions, relay probes and membership reports.
+     * These tasks send on tunnel sockets, so they are run by a thread of their own
+     * rather than the thread of the shared {@link HashedWheelTimer}, where a blocked
+     * send would delay unrelated tasks such as session timeouts. A single thread
+     * runs the tasks in the order they expire, as the shared timer did.
+     *
+     * @return The AMT control-plane timer.
+     */
+    static synchronized HashedWheelTimer getControlTimer() {
+        if (controlTimer == null) {
+            ThreadFactory threadFactory = new ThreadFactory() {
+
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    Thread thread = new Thread(runnable, "AMT control");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            };
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS,
+                                                                 new LinkedBlockingQueue<Runnable>(), threadFactory);
+            executor.allowCoreThreadTimeOut(true);
+            controlTimer = new HashedWheelTimer("AMT control timer", executor);
+        }
+        return controlTimer;
+    }
+
+    /**
+     * @return The receive batch size specified by {@link #RECEIVE_BATCH_SIZE_PROPERTY}.
+     */
+    static int getReceiveBatchSize() {
+        return getIntegerProperty(RECEIVE_BATCH_SIZE_PROPERTY, DEFAULT_RECEIVE_BATCH_SIZE);
+    }
+
+    /**
+     * @return The number of dispatch threads specified by {@link #DISPATCH_THREADS_PROPERTY}.
+     */
+    static int getDispatchThreadCount() {
+        return getIntegerProperty(DISPATCH_THREADS_PROPERTY, DEFAULT_DISPATCH_THREADS);
+    }
+
+    /**
+     * @return The dispatch queue size specified by {@link #DISPATCH_QUEUE_SIZE_PROPERTY}.
+     */
+    static int getDispatchQueueSize() {
+        int size = getIntegerProperty(DISPATCH_QUEUE_SIZE_PROPERTY, DEFAULT_DISPATCH_QUEUE_SIZE);
+        return size > 0 ? size : DEFAULT_DISPATCH_QUEUE_SIZE;
+    }
+
+    /**
+     * @return <code>true</code> if enabled by {@link #PARSER_REUSE_PROPERTY}.
+     */
+    static boolean isParserReuseEnabled() {
+        return Boolean.parseBoolean(System.getProperty(PARSER_REUSE_PROPERTY));
+    }
+
+    /**
+     * @return The wait strategy specified by {@link #DISPATCH_WAIT_STRATEGY_PROPERTY}.
+     */
+    static MessageRing.WaitStrategy getDispatchWaitStrategy() {
+        String property = System.getProperty(DISPATCH_WAIT_STRATEGY_PROPERTY);
+        if (property != null) {
+            try {
+                return MessageRing.WaitStrategy.valueOf(property.trim().toUpperCase().replace('-', '_'));
+            }
+            catch (IllegalArgumentException e) {
+                logger.warning(DISPATCH_WAIT_STRATEGY_PROPERTY + "=" + property + " is not a valid wait strategy");
+            }
+        }
+        return MessageRing.WaitStrategy.BLOCKING;
+    }
+
+    /**
+     * @param relayDiscoveryAddress
+     *            The discovery address of the endpoint.
+     * @return The endpoint discovery address followed by the addresses specified by
+     *         {@link #DISCOVERY_ADDRESSES_PROPERTY}, or <code>null</code> if parallel
+     *         discovery is not enabled.
+     */
+    static List<InetAddress> getDiscoveryAddresses(final InetAddress relayDiscoveryAddress) {
+        if (!isParallelDiscoveryEnabled()) {
+            return null;
+        }
+        String property = System.getProperty(DISCOVERY_ADDRESSES_PROPERTY);
+        ArrayList<InetAddress> addresses = new ArrayList<InetAddress>();
+        addresses.add(relayDiscoveryAddress);
+        for (String name : property.split(",")) {
+            name = name.trim();
+            if (name.length() > 0) {
+                try {
+                    InetAddress address = InetAddress.getByName(name);
+                    if (!addresses.contains(address)) {
+                        addresses.add(address);
+                    }
+                }
+                catch (UnknownHostException e) {
+                    logger.warning(DISCOVERY_ADDRESSES_PROPERTY + " entry " + name + " is not a valid address");
+                }
+            }
+        }
+        return addresses;
+    }
+
+    /**
+     * @return <code>true</code> if {@link #DISCOVERY_ADDRESSES_PROPERTY} is set.
+     */
+    static boolean isParallelDiscoveryEnabled() {
+        String property = System.getProperty(DISCOVERY_ADDRESSES_PROPERTY);
+        return property != null && property.trim().length() > 0;
+    }
+
+    /**
+     * @return The probe interval specified by {@link #DISCOVERY_PROBE_INTERVAL_PROPERTY}.
+     */
+    static long getDiscoveryProbeInterval() {
+        int interval = getIntegerProperty(DISCOVERY_PROBE_INTERVAL_PROPERTY, (int) DISCOVERY_RETRY_PERIOD);
+        return interval > 0 ? interval : DISCOVERY_RETRY_PERIOD;
+    }
+
+    /**
+     * @return The replay speed specified by {@link #REPLAY_RATE_PROPERTY}.
+     */
+    static double getReplayRate() {
+        String property = System.getProperty(REPLAY_RATE_PROPERTY);
+        if (property != null) {
+            try {
+                return Math.max(Double.parseDouble(property), 0);
+            }
+            catch (NumberFormatException e) {
+                logger.warning(REPLAY_RATE_PROPERTY + "=" + property + " is not a valid rate");
+            }
+        }
+        return 1.0;
+    }
+
+    /**
+     * Returns the writer for the capture file named by a system property.
+     * Components that name the same file share a writer. The file is closed
+     * when the virtual machine exits.
+     * 
+     * @param name
+     *            The name of the capture property.
+     * @return The capture file writer or <code>null</code> if the property is not set.
+     */
+    static PcapWriter getCaptureWriter(final String name) {
+        String property = System.getProperty(name);
+        if (property == null || property.trim().length() == 0) {
+            return null;
+        }
+        synchronized (captureWriters) {
+            PcapWriter writer = captureWriters.get(property);
+            if (writer == null) {
+                try {
+                    writer = new PcapWriter(new File(property));
+                }
+                catch (IOException e) {
+                    logger.warning(name + "=" + property + " cannot be opened - " + e.getMessage());
+                    return null;
+                }
+                final PcapWriter closeable = writer;
+                Runtime.getRuntime().addShutdownHook(new Thread() {
+                    @Override
+                    public void run() {
+                        try {
+                            closeable.close();
+                        }
+                        catch (IOException e) {
+                            // Nothing can be done during shutdown
+                        }
+                    }
+                });
+                captureWriters.put(property, writer);
+            }
+            return writer;
+        }
+    }
+
+    /**
+     * @param name
+     * @param defaultValue
+     * @return The non-negative integer value of the named system property or the default value.
+     */
+    static int getIntegerProperty(final String name, final int defaultValue) {
+        String property = System.getProperty(name);
+        if (property != null) {
+            try {
+                return Math.max(Integer.parseInt(property), 0);
+            }
+            catch (NumberFormatException e) {
+                logger.warning(name + "=" + property + " is not a valid integer value");
+            }
+        }
+        return defaultValue;
+    }
+
+    /**
+     * @return A new checksum policy as specified by {@link #CHECKSUM_POLICY_PROPERTY}.
+     */
+    static ChecksumPolicy getChecksumPolicyProperty() {
+        String property = System.getProperty(CHECKSUM_POLICY_PROPERTY);
+        if (property != null) {
+            try {
+                return ChecksumPolicy.valueOf(property);
+            }
+            catch (IllegalArgumentException e) {
+                logger.warning(CHECKSUM_POLICY_PROPERTY + "=" + property + " is not a valid checksum policy");
+            }
+        }
+        return new ChecksumPolicy(ChecksumPolicy.Mode.ALWAYS);
+    }
+
+    /**
+     * @return <code>true</code> if datagram buffers are recycled after dispatch.
+     */
+    static boolean isReceiveBufferPoolingEnabled() {
+        return getReceiveBatchSize() > 0 || isParallelDiscoveryEnabled();
+    }
+
     /*-- Member Variables ---------------------------------------------------*/
 
     protected final Log log = new Log(this);
@@ -116,23 +507,93 @@ class AmtTunnelEndpoint
 
     private OutputChannel<IPPacket> dispatchChannel = null;
 
+    /**
+     * Channel that receives UDP datagrams decoded by the Multicast Data fast path.
+     * The fast path is disabled while this channel is <code>null</code>.
+     */
+    private volatile OutputChannel<UdpDatagram> datagramDispatchChannel = null;
+
     private UdpSocketEndpoint udpEndpoint;
 
     private UdpOutputChannel udpOutputChannel;
 
     private UdpInputChannel udpInputChannel;
 
+    /**
+     * Channel that records received AMT datagrams or <code>null</code> if
+     * tunnel capture is not enabled.
+     */
+    private OutputChannel<UdpDatagram> tunnelCaptureChannel = null;
+
+    /**
+     * Source of replayed AMT datagrams or <code>null</code> if replay is not enabled.
+     */
+    private PcapReplayEndpoint replayEndpoint = null;
+
+    /**
+     * Buffer reused to serialize outgoing AMT messages.
+     * Access is synchronized using the state lock since most messages are
+     * already sent while holding it.
+     */
+    private final ByteBuffer sendBuffer = ByteBuffer.allocate(UdpSocketEndpoint.MAX_DATAGRAM_SIZE);
+
     private final AmtMessage.Parser amtMessageParser;
 
+    private final ChecksumPolicy checksumPolicy;
+
+    private final boolean isParserReuseEnabled;
+
+    /**
+     * Parsers used by the receive and dispatch threads to parse Multicast Data messages.
+     * Message parsers are not thread-safe.
+     */
+    private final ThreadLocal<AmtMessage.Parser> dataMessageParser = new ThreadLocal<AmtMessage.Parser>() {
+        @Override
+        protected AmtMessage.Parser initialValue() {
+            return AmtMessage.constructAmtGatewayParser(AmtTunnelEndpoint.this.checksumPolicy,
+                                                        AmtTunnelEndpoint.this.isParserReuseEnabled);
+        }
+    };
+
+    /**
+     * The multicast data dispatch stage or <code>null</code> if data messages are
+     * handled by the receive thread.
+     */
+    private OutputChannelDispatcher<UdpDatagram> dataDispatcher = null;
+
+    /**
+     * The number of datagrams received from the relay. Only updated by the receive thread.
+     */
+    private volatile long receivedCount = 0;
+
+    /**
+     * The number of AMT Multicast Data messages handed to the parse stage.
+     * Only updated by the receive thread.
+     */
+    private volatile long dataMessageCount = 0;
+
+    /**
+     * The number of AMT Multicast Data messages discarded because they could not be parsed.
+     */
+    private final AtomicLong dataMessageDiscardCount = new AtomicLong(0);
+
+    private final int receiveBatchSize;
+
     private Thread handlerThread;
 
     private boolean isRunning = false;
 
     private final InetAddress relayDiscoveryAddress;
 
-    private final Timer taskTimer;
+    private final HashedWheelTimer taskTimer;
+
+    /**
+     * The parallel relay discovery prober or <code>null</code> if discovery
+     * is performed using the single discovery address.
+     */
+    private final RelayProber relayProber;
 
-    private TimerTask discoveryTask = null;
+    private EndpointTask discoveryTask = null;
 
     private AmtRelayDiscoveryMessage lastDiscoveryMessageSent = null;
 
@@ -148,7 +609,7 @@ class AmtTunnelEndpoint
 
     private Protocol protocol = null;
 
-    private TimerTask requestTask = null;
+    private EndpointTask requestTask = null;
 
     private AmtRequestMessage lastRequestMessageSent = null;
 
@@ -162,10 +623,16 @@ class AmtTunnelEndpoint
 
     private InetSocketAddress lastGatewayAddress;
 
-    private TimerTask periodicRequestTask = null;
+    private EndpointTask periodicRequestTask = null;
 
     private int queryInterval = 125000;
 
+    /**
+     * Indicates whether the request/query handshake is repeated every query
+     * interval even when no group records have been reported.
+     */
+    private boolean isPersistent = false;
+
     /*-- Member Functions ---------------------------------------------------*/
 
     /**
@@ -186,11 +653,27 @@ class AmtTunnelEndpoint
                                         Logging.address(relayDiscoveryAddress), incomingPacketChannel));
         }
 
-        this.taskTimer = new Timer("AMT Tunnel Endpoint");
+        this.taskTimer = getControlTimer();
 
         this.relayDiscoveryAddress = relayDiscoveryAddress;
 
-        this.amtMessageParser = AmtMessage.constructAmtGatewayParser();
+        List<InetAddress> discoveryAddresses = getDiscoveryAddresses(relayDiscoveryAddress);
+        if (discoveryAddresses != null) {
+            this.relayProber = new RelayProber(discoveryAddresses, getDiscoveryProbeInterval(), new RelayProber.Listener() {
+                @Override
+                public void relayAdvertised(final AmtRelayAdvertisementMessage message, final long roundTripTime) {
+                    AmtTunnelEndpoint.this.handleProbeAdvertisement(message);
+                }
+            });
+        }
+        else {
+            this.relayProber = null;
+        }
+
+        this.checksumPolicy = getChecksumPolicyProperty();
+        this.amtMessageParser = AmtMessage.constructAmtGatewayParser(this.checksumPolicy);
+        this.isParserReuseEnabled = isParserReuseEnabled();
+        this.receiveBatchSize = getReceiveBatchSize();
         this.protocol = protocol;
 
         this.dispatchChannel = incomingPacketChannel;
@@ -199,6 +682,96 @@ class AmtTunnelEndpoint
 
     }
 
+    /**
+     * Sets the channel that will receive UDP datagrams extracted from AMT Multicast
+     * Data messages by the {@link MulticastDataDecoder} fast path.
+     * Multicast data packets that are decoded by the fast path are not sent to the
+     * IP packet dispatch channel.
+     * 
+     * @param datagramDispatchChannel
+     *            The datagram channel or <code>null</code> to disable the fast path.
+     */
+    void setDatagramDispatchChannel(final OutputChannel<UdpDatagram> datagramDispatchChannel) {
+
+        if (logger.isLoggable(Level.FINER)) {
+            logger.finer(this.log.entry("AmtTunnelEndpoint.setDatagramDispatchChannel", datagramDispatchChannel));
+        }
+
+        this.datagramDispatchChannel = datagramDispatchChannel;
+    }
+
+    /**
+     * Sets whether this endpoint keeps its response MAC and request nonce current
+     * while idle. A persistent endpoint repeats the request/query handshake every
+     * query interval and continues to use the last response MAC and nonce while a
+     * new request is outstanding, so a membership update can be sent as soon as a
+     * channel is joined.
+     * 
+     * @param isPersistent
+     */
+    void setPersistent(final boolean isPersistent) {
+
+        if (logger.isLoggable(Level.FINER)) {
+            logger.finer(this.log.entry("AmtTunnelEndpoint.setPersistent", isPersistent));
+        }
+
+        synchronized (this.lock) {
+            this.isPersistent = isPersistent;
+            if (isPersistent && this.lastQueryMessageReceived != null) {
+                startPeriodicRequestTask(this.queryInterval);
+            }
+        }
+    }
+
+    /**
+     * @return The checksum policy applied to packets received by this endpoint.
+     *         The policy also records verification and failure counts.
+     */
+    public ChecksumPolicy getChecksumPolicy() {
+        return this.checksumPolicy;
+    }
+
+    /**
+     * @return The number of datagrams received from the relay.
+     */
+    public long getReceivedCount() {
+        return this.receivedCount;
+    }
+
+    /**
+     * @return The number of AMT Multicast Data messages handed to the parse stage.
+     */
+    public long getDataMessageCount() {
+        return this.dataMessageCount;
+    }
+
+    /**
+     * @return The number of AMT Multicast Data messages discarded because they could not be parsed.
+     */
+    public long getDataMessageDiscardCount() {
+        return this.dataMessageDiscardCount.get();
+    }
+
+    /**
+     * @return The number of AMT Multicast Data messages forwarded by the dispatch stage,
+     *         or zero if the dispatch stage is not enabled.
+     */
+    public long getDispatchedCount() {
+        synchronized (this.lock) {
+            return this.dataDispatcher != null ? this.dataDispatcher.getDispatchedCount() : 0;
+        }
+    }
+
+    /**
+     * @return The number of AMT Multicast Data messages waiting in the dispatch stage,
+     *         or zero if the dispatch stage is not enabled.
+     */
+    public int getDispatchBacklog() {
+        synchronized (this.lock) {
+            return this.dataDispatcher != null ? this.dataDispatcher.getBacklog() : 0;
+        }
+    }
+
     /**
      * @throws InterruptedException
      * @throws IOException
@@ -225,13 +798,40 @@ class AmtTunnelEndpoint
 
             if (!this.isRunning) {
 
-                this.udpEndpoint = new UdpSocketEndpoint(0);
+                // Parallel discovery connects the socket to a relay from the prober
+                // thread, which would block behind a pending socket-mode receive
+                if (this.receiveBatchSize > 0 || this.relayProber != null) {
+                    // Receive into off-heap buffers if the shared arenas are enabled
+                    ByteBufferArena arena = ByteBufferArena.getSharedArena(UdpSocketEndpoint.MAX_DATAGRAM_SIZE);
+                    if (arena != null) {
+                        this.udpEndpoint = new UdpSocketEndpoint(new InetSocketAddress(0),
+                                                                 UdpSocketEndpoint.ReceiveMode.CHANNEL,
+                                                                 arena);
+                    }
+                    else {
+                        this.udpEndpoint = new UdpSocketEndpoint(0, UdpSocketEndpoint.ReceiveMode.CHANNEL);
+                    }
+                }
+                else {
+                    this.udpEndpoint = new UdpSocketEndpoint(0);
+                }
 
                 this.udpEndpoint.connect(new InetSocketAddress(this.relayDiscoveryAddress, AMT_PORT));
 
                 this.udpOutputChannel = new UdpOutputChannel(this.udpEndpoint);
                 this.udpInputChannel = new UdpInputChannel(this.udpEndpoint);
 
+                String replayFile = System.getProperty(REPLAY_PROPERTY);
+                if (replayFile != null) {
+                    this.replayEndpoint = new PcapReplayEndpoint(new File(replayFile), AMT_PORT, getReplayRate(), 1);
+                    this.udpInputChannel = new UdpInputChannel(this.replayEndpoint);
+                }
+
+                PcapWriter captureWriter = getCaptureWriter(CAPTURE_TUNNEL_PROPERTY);
+                if (captureWriter != null) {
+                    this.tunnelCaptureChannel = new PcapOutputChannel<UdpDatagram>(captureWriter, new UdpDatagramEncoder());
+                }
+
                 this.isRunning = true;
 
                 this.lastDiscoveryMessageSent = null;
@@ -239,12 +839,23 @@ class AmtTunnelEndpoint
                 this.lastRequestMessageSent = null;
                 this.lastQueryMessageReceived = null;
 
-                this.handlerThread = new Thread(this, this.toString());
+                int dispatchThreadCount = getDispatchThreadCount();
+                if (dispatchThreadCount > 0) {
+                    this.dataDispatcher = constructDataDispatcher(dispatchThreadCount);
+                }
+
+                this.handlerThread = new Thread(this, this.toString() + " receive");
                 this.handlerThread.setDaemon(true);
 
                 this.handlerThread.start();
 
-                startRelayDiscoveryTask();
+                if (this.relayProber != null) {
+                    // Relay selection starts when the first probe is answered
+                    this.relayProber.start();
+                }
+                else {
+                    startRelayDiscoveryTask();
+                }
 
             }
         }
@@ -264,6 +875,8 @@ class AmtTunnelEndpoint
             logger.fine(this.log.msg("stopping AMT tunnel endpoint"));
         }
 
+        OutputChannelDispatcher<UdpDatagram> dispatcher = null;
+
         synchronized (this.lock) {
 
             if (this.isRunning) {
@@ -272,13 +885,102 @@ class AmtTunnelEndpoint
 
                 stopTasks();
 
+                if (this.relayProber != null) {
+                    this.relayProber.stop();
+                }
+
                 // Close the endpoint to abort the read operation on socket
                 this.udpEndpoint.close(true);
 
+                if (this.replayEndpoint != null) {
+                    this.replayEndpoint.close(true);
+                    this.replayEndpoint = null;
+                }
+
+                if (this.tunnelCaptureChannel != null) {
+                    // Flushes the capture file - the receive thread may still be using the channel
+                    this.tunnelCaptureChannel.close();
+                }
+
                 this.handlerThread.interrupt();
 
+                if (logger.isLoggable(Level.FINE)) {
+                    logger.fine(this.log.msg("received=" + this.receivedCount +
+                                             " data=" + this.dataMessageCount +
+                                             " discarded=" + this.dataMessageDiscardCount.get() +
+                                             (this.dataDispatcher != null
+                                                             ? " dispatched=" + this.dataDispatcher.getDispatchedCount() +
+                                                               " failed=" + this.dataDispatcher.getFailedCount() +
+                                                               " backlog=" + this.dataDispatcher.getBacklog()
+                                                             : "")));
+                }
+
+                dispatcher = this.dataDispatcher;
             }
         }
+
+        // Wait for the dispatch workers outside of the lock - a worker may be
+        // blocked on a downstream channel that needs the lock to make progress.
+        if (dispatcher != null) {
+            dispatcher.close();
+        }
+    }
+
+    /**
+     * Constructs the dispatch stage that parses and forwards AMT Multicast Data
+     * messages handed off by the receive thread.
+     *
+     * @param threadCount
+     * @return
+     */
+    private OutputChannelDispatcher<UdpDatagram> constructDataDispatcher(final int threadCount) {
+
+        if (logger.isLoggable(Level.FINER)) {
+            logger.finer(this.log.entry("AmtTunnelEndpoint.constructDataDispatcher", threadCount));
+        }
+
+        MessageHashExtractor<UdpDatagram> flowHashExtractor = new MessageHashExtractor<UdpDatagram>() {
+            @Override
+            public int getHash(final UdpDatagram datagram) {
+                return MulticastDataDecoder.getFlowHash(datagram.getPayload());
+            }
+        };
+
+        OutputChannel<UdpDatagram> dataMessageChannel = new OutputChannel<UdpDatagram>() {
+
+            @Override
+            public void send(final UdpDatagram datagram, final int milliseconds) throws IOException, InterruptedException {
+                processDataMessage(datagram, AmtTunnelEndpoint.this.dataMessageParser.get());
+            }
+
+            @Override
+            public void close() {
+                // Do nothing
+            }
+        };
+
+        OutputChannelDispatcher<UdpDatagram> dispatcher = new OutputChannelDispatcher<UdpDatagram>(this.toString(),
+                                                                                                   flowHashExtractor,
+                                                                                                   dataMessageChannel,
+                                                                                                   threadCount,
+                                                                                                   getDispatchQueueSize(),
+                                                                                                   getDispatchWaitStrategy());
+
+        // Return the buffers held by datagrams that were never parsed
+        dispatcher.setDiscardChannel(new OutputChannel<UdpDatagram>() {
+
+            @Override
+            public void send(final UdpDatagram datagram, final int milliseconds) {
+                AmtTunnelEndpoint.this.udpInputChannel.release(datagram);
+            }
+
+            @Override
+            public void close() {
+                // Do nothing
+            }
+        });
+
+        return dispatcher;
     }
 
     /**
@@ -326,7 +1028,7 @@ class AmtTunnelEndpoint
              * a
              * general query that will trigger generation of a new update message.
              */
-            if (this.lastDiscoveryMessageSent == null) {
+            if (this.lastDiscoveryMessageSent == null && this.relayProber == null) {
                 logger.info(this.log.msg("cannot send AMT update message because AMT discovery message has not been sent"));
                 startRelayDiscoveryTask();
                 return;
@@ -391,11 +1093,24 @@ class AmtTunnelEndpoint
          * }
          */
 
-        ByteBuffer buffer = ByteBuffer.allocate(message.getTotalLength());
-        message.writeTo(buffer);
-        buffer.flip();
+        int length = message.getTotalLength();
 
-        send(new UdpDatagram(relayAddress, AMT_PORT, buffer));
+        if (length > this.sendBuffer.capacity()) {
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            message.writeTo(buffer);
+            buffer.flip();
+            send(new UdpDatagram(relayAddress, AMT_PORT, buffer));
+            return;
+        }
+
+        // The socket copies the payload before send returns, so the buffer
+        // can be reused for the next message.
+        synchronized (this.lock) {
+            this.sendBuffer.clear();
+            message.writeTo(this.sendBuffer);
+            this.sendBuffer.flip();
+            send(new UdpDatagram(relayAddress, AMT_PORT, this.sendBuffer));
+        }
 
     }
 
@@ -424,9 +1139,7 @@ class AmtTunnelEndpoint
                                          " - " + e.getClass().getSimpleName() + ":" + e.getMessage()));
             }
 
-            // Restart relay discovery process to locate another relay
-            stopTasks();
-            startRelayDiscoveryTask();
+            failOver();
         }
         catch (IOException e) {
             if (logger.isLoggable(Level.FINE)) {
@@ -454,13 +1167,18 @@ class AmtTunnelEndpoint
 
         synchronized (this.lock) {
 
+            if (this.relayProber != null) {
+                selectRelay();
+                return;
+            }
+
             this.lastDiscoveryMessageSent = null;
 
             if (this.discoveryTask != null) {
                 this.discoveryTask.cancel();
             }
 
-            this.discoveryTask = new TimerTask() {
+            this.discoveryTask = new EndpointTask() {
 
                 @Override
                 public void run() {
@@ -468,6 +1186,9 @@ class AmtTunnelEndpoint
                         AmtTunnelEndpoint.logger.finer(AmtTunnelEndpoint.this.log.msg("running discovery task"));
                     }
                     synchronized (AmtTunnelEndpoint.this.lock) {
+                        if (isCancelled()) {
+                            return;
+                        }
                         try {
                             if (AmtTunnelEndpoint.this.discoveryRetransmissionCount < AmtTunnelEndpoint.this.discoveryMaxRetransmissions) {
                                 AmtTunnelEndpoint.this.discoveryRetransmissionCount++;
@@ -496,7 +1217,7 @@ class AmtTunnelEndpoint
 
             // Schedule relay discovery task for immediate execution with short retry
             // period
-            this.taskTimer.schedule(this.discoveryTask, 0, this.discoveryRetransmissionInterval);
+            this.discoveryTask.schedule(0, this.discoveryRetransmissionInterval);
         }
     }
 
@@ -556,7 +1277,7 @@ class AmtTunnelEndpoint
                 this.requestTask.cancel();
             }
 
-            this.requestTask = new TimerTask() {
+            this.requestTask = new EndpointTask() {
 
                 @Override
                 public void run() {
@@ -564,6 +1285,9 @@ class AmtTunnelEndpoint
                         AmtTunnelEndpoint.logger.finer(AmtTunnelEndpoint.this.log.msg("running request task"));
                     }
                     synchronized (AmtTunnelEndpoint.this.lock) {
+                        if (isCancelled()) {
+                            return;
+                        }
                         try {
                             if (AmtTunnelEndpoint.this.requestRetransmissionCount < AmtTunnelEndpoint.this.requestMaxRetransmissions) {
                                 AmtTunnelEndpoint.this.requestRetransmissionCount++;
@@ -580,8 +1304,7 @@ class AmtTunnelEndpoint
                                 AmtTunnelEndpoint.this.lastRequestMessageSent = null;
                                 this.cancel();
 
-                                // Restart discovery process to locate another relay
-                                AmtTunnelEndpoint.this.startRelayDiscoveryTask();
+                                AmtTunnelEndpoint.this.failOver();
                             }
                         }
                         catch (Exception e) {
@@ -597,7 +1320,7 @@ class AmtTunnelEndpoint
                 }
             };
 
-            this.taskTimer.schedule(this.requestTask, 0, this.requestRetransmissionInterval);
+            this.requestTask.schedule(0, this.requestRetransmissionInterval);
         }
     }
 
@@ -615,7 +1338,9 @@ class AmtTunnelEndpoint
 
             if (this.lastRequestMessageSent == null) {
                 this.lastRequestMessageSent = new AmtRequestMessage(this.protocol == Protocol.IPv6);
-                this.lastQueryMessageReceived = null;
+                if (!this.isPersistent) {
+                    this.lastQueryMessageReceived = null;
+                }
             }
 
             if (logger.isLoggable(Level.FINE)) {
@@ -645,18 +1370,22 @@ class AmtTunnelEndpoint
                 this.periodicRequestTask.cancel();
             }
 
-            this.periodicRequestTask = new TimerTask() {
+            this.periodicRequestTask = new EndpointTask() {
 
                 @Override
                 public void run() {
                     if (AmtTunnelEndpoint.logger.isLoggable(Level.FINER)) {
                         AmtTunnelEndpoint.logger.finer(AmtTunnelEndpoint.this.log.msg("running request task"));
                     }
-                    AmtTunnelEndpoint.this.startRequestTask();
+                    synchronized (AmtTunnelEndpoint.this.lock) {
+                        if (!isCancelled()) {
+                            AmtTunnelEndpoint.this.startRequestTask();
+                        }
+                    }
                 }
             };
 
-            this.taskTimer.schedule(this.periodicRequestTask, delay);
+            this.periodicRequestTask.schedule(delay);
         }
     }
 
@@ -694,6 +1423,77 @@ class AmtTunnelEndpoint
 
     }
 
+    /**
+     * Switches to the next best relay reported by the parallel discovery prober,
+     * or restarts relay discovery if parallel discovery is not enabled.
+     * Called when the current relay is unreachable or stops responding.
+     */
+    private void failOver() {
+
+        if (logger.isLoggable(Level.FINER)) {
+            logger.finer(this.log.entry("AmtTunnelEndpoint.failOver"));
+        }
+
+        synchronized (this.lock) {
+
+            if (this.relayProber != null && this.relayAddress != null) {
+                // Hold down the failed relay and re-probe in the background
+                this.relayProber.markFailed(this.relayAddress);
+            }
+
+            // Restart relay discovery process to locate another relay
+            stopTasks();
+            startRelayDiscoveryTask();
+        }
+    }
+
+    /**
+     * Connects to the relay with the lowest advertisement round-trip time
+     * reported by the parallel discovery prober. If no relay is available, the
+     * endpoint connects to the first relay that responds to a subsequent probe.
+     */
+    private void selectRelay() {
+
+        if (logger.isLoggable(Level.FINER)) {
+            logger.finer(this.log.entry("AmtTunnelEndpoint.selectRelay"));
+        }
+
+        synchronized (this.lock) {
+
+            AmtRelayAdvertisementMessage message = this.relayProber.selectRelay(null);
+
+            if (message == null) {
+                if (logger.isLoggable(Level.FINE)) {
+                    logger.fine(this.log.msg("no standby relay available - waiting for relay discovery probe responses"));
+                }
+                this.relayProber.probe();
+            }
+            else {
+                try {
+                    connectToRelay(message);
+                }
+                catch (IOException e) {
+                    logger.warning(this.log.msg("attempt to connect to AMT relay failed - " + e.getMessage()));
+                }
+            }
+        }
+    }
+
+    /**
+     * Called from the prober thread when a relay responds to a parallel discovery probe.
+     *
+     * @param message
+     */
+    private void handleProbeAdvertisement(final AmtRelayAdvertisementMessage message) {
+
+        synchronized (this.lock) {
+            // The current relay is kept until it fails; other responses only update the ranking
+            if (this.isRunning && this.lastAdvertisementMessageReceived == null) {
+                selectRelay();
+            }
+        }
+    }
+
     /**
      * @param message
      * @throws IOException
@@ -707,7 +1507,13 @@ class AmtTunnelEndpoint
 
         synchronized (this.lock) {
 
-            if (message.getDiscoveryNonce() != this.lastDiscoveryMessageSent.getDiscoveryNonce()) {
+            if (this.lastDiscoveryMessageSent == null) {
+
+                logger.info(this.log.msg("received unexpected AMT Relay Advertisement Message: discovery-nonce=" +
+                                         message.getDiscoveryNonce()));
+                return;
+            }
+            else if (message.getDiscoveryNonce() != this.lastDiscoveryMessageSent.getDiscoveryNonce()) {
 
                 logger.info(this.log.msg("received unexpected AMT Relay Advertisement Message: discovery-nonce=" +
                                          message.getDiscoveryNonce() +
@@ -718,34 +1524,57 @@ class AmtTunnelEndpoint
                 return;
             }
             else {
+                connectToRelay(message);
+            }
+        }
+    }
 
-                if (this.discoveryTask != null) {
-                    this.discoveryTask.cancel();
-                    this.discoveryTask = null;
-                }
+    /**
+     * Connects the endpoint to the relay identified in an advertisement and
+     * starts the request/query handshake.
+     *
+     * @param message
+     * @throws IOException
+     */
+    private void connectToRelay(final AmtRelayAdvertisementMessage message) throws IOException {
 
-                this.discoveryRetransmissionCount = 0;
-                this.lastAdvertisementMessageReceived = message;
-                this.relayAddress = InetAddress.getByAddress(message.getRelayAddress());
+        if (logger.isLoggable(Level.FINER)) {
+            logger.finer(this.log.entry("AmtTunnelEndpoint.connectToRelay", message));
+        }
 
-                try {
-                    this.udpEndpoint.connect(new InetSocketAddress(this.relayAddress, AMT_PORT));
-                }
-                catch (UnknownHostException e) {
-                    throw new Error(e);
-                }
+        synchronized (this.lock) {
+
+            if (this.discoveryTask != null) {
+                this.discoveryTask.cancel();
+                this.discoveryTask = null;
+            }
 
-                // Initiate request/query/report handshake with the relay so we
-                // have a response MAC and nonce for reception state change reports
-                startRequestTask();
+            this.discoveryRetransmissionCount = 0;
+            this.lastAdvertisementMessageReceived = message;
+            this.relayAddress = InetAddress.getByAddress(message.getRelayAddress());
 
+            try {
+                this.udpEndpoint.connect(new InetSocketAddress(this.relayAddress, AMT_PORT));
             }
+            catch (UnknownHostException e) {
+                throw new Error(e);
+            }
+
+            // Initiate request/query/report handshake with the relay so we
+            // have a response MAC and nonce for reception state change reports
+            startRequestTask();
         }
 
         if (logger.isLoggable(Level.INFO)) {
-            logger.info(this.log.msg("interface connected to AMT Relay " + Logging.address(this.relayAddress)));
+            if (this.relayProber != null) {
+                logger.info(this.log.msg("interface connected to AMT Relay " + Logging.address(this.relayAddress) +
+                                         " rtt=" + (this.relayProber.getRoundTripTime(this.relayAddress) / 1000) + "us" +
+                                         " ranking=" + this.relayProber.getRankedRelays()));
+            }
+            else {
+                logger.info(this.log.msg("interface connected to AMT Relay " + Logging.address(this.relayAddress)));
+            }
         }
-
     }
 
     /**
@@ -844,6 +1673,13 @@ class AmtTunnelEndpoint
             throw new ProtocolException("IP packet does not contain an IGMP Membership Query Message");
         }
 
+        synchronized (this.lock) {
+            if (this.isPersistent) {
+                // Refresh the response MAC and nonce before the relay discards them
+                startPeriodicRequestTask(this.queryInterval);
+            }
+        }
+
         // Forward the IGMP/MLD general query packet to the output channel (the
         // AmtPseudoInterface)
         this.dispatchChannel.send(message.getPacket(), Integer.MAX_VALUE);
@@ -882,6 +1718,126 @@ class AmtTunnelEndpoint
         }
     }
 
+    /**
+     * Receives an AMT Multicast Data message, discarding the message and
+     * recycling its buffer if it cannot be parsed.
+     * Called by the receive thread or, if the dispatch stage is enabled, by a dispatch thread.
+     *
+     * @param inputDatagram
+     *            The datagram containing the AMT Multicast Data message.
+     * @param parser
+     *            The message parser owned by the calling thread.
+     * @throws InterruptedException
+     * @throws InterruptedIOException
+     */
+    private void processDataMessage(final UdpDatagram inputDatagram,
+                                    final AmtMessage.Parser parser) throws InterruptedException,
+                                                                   InterruptedIOException {
+        try {
+            receiveDataMessage(inputDatagram, parser);
+        }
+        catch (ChecksumException e) {
+            if (logger.isLoggable(Level.FINE)) {
+                logger.fine(this.log.msg("discarding AMT message - " + e.getMessage()));
+            }
+            this.udpInputChannel.release(inputDatagram);
+        }
+        catch (ParseException e) {
+            logger.warning(this.log.msg("discarding AMT message - " + e.getMessage()));
+            this.udpInputChannel.release(inputDatagram);
+        }
+        catch (MissingParserException e) {
+            logger.warning(this.log.msg("discarding AMT message - " + e.getMessage()));
+            this.udpInputChannel.release(inputDatagram);
+        }
+    }
+
+    /**
+     * Parses an AMT Multicast Data message and forwards the packet or datagram it carries.
+     *
+     * @param inputDatagram
+     *            The datagram containing the AMT Multicast Data message.
+     * @param parser
+     *            The message parser owned by the calling thread.
+     * @throws ParseException
+     * @throws MissingParserException
+     * @throws InterruptedException
+     * @throws InterruptedIOException
+     */
+    private void receiveDataMessage(final UdpDatagram inputDatagram,
+                                    final AmtMessage.Parser parser) throws ParseException,
+                                                                   MissingParserException,
+                                                                   InterruptedException,
+                                                                   InterruptedIOException {
+
+        AmtMulticastDataMessage message;
+
+        try {
+            OutputChannel<UdpDatagram> datagramChannel = this.datagramDispatchChannel;
+            if (datagramChannel != null) {
+                // Try the data-plane fast path before constructing message objects
+                UdpDatagram dataDatagram = MulticastDataDecoder.decode(inputDatagram.getPayload(), this.checksumPolicy);
+                if (dataDatagram != null) {
+                    handleDataDatagram(datagramChannel, dataDatagram);
+                    this.udpInputChannel.release(inputDatagram);
+                    return;
+                }
+            }
+
+            message = (AmtMulticastDataMessage) parser.parse(inputDatagram.getPayload());
+        }
+        catch (ParseException e) {
+            this.dataMessageDiscardCount.incrementAndGet();
+            throw e;
+        }
+        catch (MissingParserException e) {
+            this.dataMessageDiscardCount.incrementAndGet();
+            throw e;
+        }
+
+        if (logger.isLoggable(Level.FINER)) {
+            logger.fine(this.log.msg("received AMT message AmtMulticastDataMessage"));
+            if (logger.isLoggable(Level.FINEST)) {
+                message.log(Level.FINEST);
+            }
+        }
+
+        handleDataMessage(message);
+
+        // The reassembler copies any fragment it holds, so the buffer can always be recycled.
+        this.udpInputChannel.release(inputDatagram);
+    }
+
+    /**
+     * @param channel
+     * @param datagram
+     * @throws InterruptedException
+     * @throws InterruptedIOException
+     */
+    private void handleDataDatagram(final OutputChannel<UdpDatagram> channel,
+                                    final UdpDatagram datagram) throws InterruptedException, InterruptedIOException {
+
+        if (logger.isLoggable(Level.FINER)) {
+            logger.finer(this.log.entry("AmtTunnelEndpoint.handleDataDatagram", datagram));
+        }
+
+        try {
+            channel.send(datagram, Integer.MAX_VALUE);
+        }
+        catch (InterruptedIOException e) {
+            logger.fine(this.log.msg("attempt to send AMT multicast data datagram was interrupted"));
+            throw e;
+        }
+        catch (IOException e) {
+            logger.fine(this.log.msg("attempt to send AMT multicast data datagram failed - " + e.getClass().getName() + ":"
+                                     + e.getMessage()));
+        }
+        catch (InterruptedException e) {
+            logger.fine(this.log.msg("thread attempting to send AMT multicast data datagram was interrupted"));
+            throw e;
+        }
+    }
+
     @Override
     public void run() {
 
@@ -889,16 +1845,20 @@ class AmtTunnelEndpoint
             logger.finer(this.log.entry("AmtTunnelEndpoint.run"));
         }
 
+        UdpDatagram[] inputDatagrams = new UdpDatagram[Math.max(this.receiveBatchSize, 1)];
+
+        receiveLoop:
         while (this.isRunning) {
 
             if (logger.isLoggable(Level.FINER)) {
                 logger.finer(this.log.msg("waiting to receive AMT message..."));
             }
 
-            UdpDatagram inputDatagram = null;
+            int count = 0;
 
             try {
-                inputDatagram = this.udpInputChannel.receive(Integer.MAX_VALUE);
+                count = this.udpInputChannel.receive(inputDatagrams, Integer.MAX_VALUE);
+                this.receivedCount += count;
             }
             catch (InterruptedIOException e) {
                 logger.fine(this.log.msg("I/O operation interrupted - exiting message hander thread"));
@@ -908,6 +1868,15 @@ class AmtTunnelEndpoint
                 logger.fine(this.log.msg("thread interrupted - exiting message hander thread"));
                 break;
             }
+            catch (PortUnreachableException e) {
+                // A non-blocking channel reports ICMP errors on receive rather than send
+                if (!this.isRunning) {
+                    break;
+                }
+                logger.info(this.log.msg("AMT relay " + Logging.address(this.relayAddress) + " is unreachable"));
+                failOver();
+                continue;
+            }
             catch (SocketException e) {
                 logger.warning(this.log.msg("receive operation failed - " + e.getClass().getSimpleName() + ":" + e.getMessage()));
                 break;
@@ -918,37 +1887,50 @@ class AmtTunnelEndpoint
                 throw new Error(e);
             }
 
-            if (this.isRunning) {
+            for (int i = 0; i < count && this.isRunning; i++) {
+
+                UdpDatagram inputDatagram = inputDatagrams[i];
+                inputDatagrams[i] = null;
 
                 AmtMessage message = null;
 
                 try {
 
-                    message = (AmtMessage) amtMessageParser.parse(inputDatagram.getPayload());
+                    if (this.tunnelCaptureChannel != null) {
+                        this.tunnelCaptureChannel.send(inputDatagram, Integer.MAX_VALUE);
+                    }
 
-                    if (message instanceof AmtMulticastDataMessage) {
-                        if (logger.isLoggable(Level.FINER)) {
-                            logger.fine(this.log.msg("received AMT message AmtMulticastDataMessage"));
-                            if (logger.isLoggable(Level.FINEST)) {
-                                message.log(Level.FINEST);
-                            }
+                    if (MulticastDataDecoder.isMulticastData(inputDatagram.getPayload())) {
+                        this.dataMessageCount++;
+                        if (this.dataDispatcher != null) {
+                            // Parsing and forwarding are performed by the dispatch stage
+                            this.dataDispatcher.send(inputDatagram, Integer.MAX_VALUE);
                         }
+                        else {
+                            processDataMessage(inputDatagram, this.dataMessageParser.get());
+                        }
+                        continue;
                     }
-                    else {
-                        if (logger.isLoggable(Level.FINE)) {
-                            logger.fine(this.log.msg("received AMT message " + message.getClass().getSimpleName()));
-                            if (logger.isLoggable(Level.FINEST)) {
-                                message.log(Level.FINEST);
-                            }
+
+                    // Query and advertisement messages are retained by this endpoint, so control
+                    // messages are parsed from a copy and the receive buffer is recycled at once.
+                    ByteBuffer payload = inputDatagram.getPayload();
+                    ByteBuffer messageBuffer = ByteBuffer.allocate(payload.remaining());
+                    messageBuffer.put(payload);
+                    messageBuffer.flip();
+                    this.udpInputChannel.release(inputDatagram);
+
+                    message = (AmtMessage) amtMessageParser.parse(messageBuffer);
+
+                    if (logger.isLoggable(Level.FINE)) {
+                        logger.fine(this.log.msg("received AMT message " + message.getClass().getSimpleName()));
+                        if (logger.isLoggable(Level.FINEST)) {
+                            message.log(Level.FINEST);
                         }
                     }
 
                     switch (message.getType()) {
 
-                        case AmtMulticastDataMessage.MESSAGE_TYPE:
-                            handleDataMessage((AmtMulticastDataMessage) message);
-                            break;
-
                         case AmtMembershipQueryMessage.MESSAGE_TYPE:
                             handleQueryMessage((AmtMembershipQueryMessage) message);
                             break;
@@ -964,13 +1946,19 @@ class AmtTunnelEndpoint
                             break;
                     }
                 }
+                catch (ChecksumException e) {
+                    if (logger.isLoggable(Level.FINE)) {
+                        logger.fine(this.log.msg("discarding AMT message - " + e.getMessage()));
+                    }
+                    this.udpInputChannel.release(inputDatagram);
+                }
                 catch (InterruptedIOException e) {
                     logger.info(this.log.msg("I/O operation interrupted - exiting message hander thread"));
-                    break;
+                    break receiveLoop;
                 }
                 catch (InterruptedException e) {
                     logger.info(this.log.msg("thread interrupted - exiting message hander thread"));
-                    break;
+                    break receiveLoop;
                 }
                 catch (Exception e) {
                     logger.severe(this.log.msg("message handler failed unexpectedly - " + e.getClass().getSimpleName() + ":"
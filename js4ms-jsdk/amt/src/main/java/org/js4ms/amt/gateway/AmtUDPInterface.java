@@ -25,17 +25,22 @@ package org.js4ms.amt.gateway;
 import java.io.IOException;
 import java.net.Inet4Address;
 import java.net.InetAddress;
-import java.util.Timer;
+import java.nio.ByteBuffer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.js4ms.common.util.logging.Log;
 import org.js4ms.common.util.logging.Logging;
 import org.js4ms.io.channel.MessageKeyExtractor;
+import org.js4ms.io.channel.MessageTransform;
 import org.js4ms.io.channel.OutputChannel;
 import org.js4ms.io.channel.OutputChannelMap;
+import org.js4ms.io.channel.OutputChannelTee;
 import org.js4ms.io.channel.OutputChannelTransform;
 import org.js4ms.io.net.UdpDatagram;
+import org.js4ms.io.pcap.PcapOutputChannel;
+import org.js4ms.io.pcap.PcapWriter;
+import org.js4ms.io.pcap.UdpDatagramEncoder;
 import org.js4ms.ip.IPPacket;
 import org.js4ms.ip.Precondition;
 import org.js4ms.ip.ipv4.IPv4Packet;
@@ -68,6 +73,12 @@ public final class AmtUDPInterface {
 
     OutputChannelMap<IPPacket> outputChannelMap;
 
+    /**
+     * Routes datagrams decoded by the tunnel fast path to the membership manager
+     * for the IP version of the destination address.
+     */
+    OutputChannelMap<UdpDatagram> datagramChannelMap;
+
     /**
      * @param manager
      * @param relayDiscoveryAddress
@@ -120,9 +131,47 @@ public final class AmtUDPInterface {
         // forward them to the output channel map
         PacketAssembler assembler = new PacketAssembler(outputChannelMap,
                                                         MAX_REASSEMBLY_CACHE_SIZE,
-                                                        new Timer("AMT UDP Interface"));
+                                                        AmtTunnelEndpoint.getControlTimer());
 
-        this.amtIPInterface.addOutputChannel(assembler);
+        // Create an extractor that keys datagrams by the IP version of the group address.
+        MessageKeyExtractor<UdpDatagram> versionExtractor = new MessageKeyExtractor<UdpDatagram>() {
+
+            @Override
+            public Byte getKey(UdpDatagram datagram) {
+                return datagram.getDestinationInetAddress() instanceof Inet4Address
+                                ? IPv4Packet.INTERNET_PROTOCOL_VERSION
+                                : IPv6Packet.INTERNET_PROTOCOL_VERSION;
+            }
+        };
+
+        this.datagramChannelMap = new OutputChannelMap<UdpDatagram>(versionExtractor);
+
+        PcapWriter captureWriter = AmtTunnelEndpoint.getCaptureWriter(AmtTunnelEndpoint.CAPTURE_INTERFACE_PROPERTY);
+        if (captureWriter != null) {
+            // Record packets and datagrams as they leave the AMT interface
+            MessageTransform<IPPacket, ByteBuffer> packetEncoder = new MessageTransform<IPPacket, ByteBuffer>() {
+
+                @Override
+                public ByteBuffer transform(IPPacket packet) {
+                    ByteBuffer buffer = ByteBuffer.allocate(packet.getTotalLength());
+                    packet.writeTo(buffer);
+                    buffer.flip();
+                    return buffer;
+                }
+            };
+
+            this.amtIPInterface.addOutputChannel(new OutputChannelTee<IPPacket>(
+                                                                                new PcapOutputChannel<IPPacket>(captureWriter,
+                                                                                                                packetEncoder),
+                                                                                assembler),
+                                                 new OutputChannelTee<UdpDatagram>(
+                                                                                   new PcapOutputChannel<UdpDatagram>(captureWriter,
+                                                                                                                      new UdpDatagramEncoder()),
+                                                                                   this.datagramChannelMap));
+        }
+        else {
+            this.amtIPInterface.addOutputChannel(assembler, this.datagramChannelMap);
+        }
 
     }
 
@@ -178,6 +227,7 @@ public final class AmtUDPInterface {
     private void constructIPv4MembershipManager() {
 
         this.ipv4MembershipManager = new ChannelMembershipManager(this.amtIPInterface);
+        this.datagramChannelMap.put(IPv4Packet.INTERNET_PROTOCOL_VERSION, this.ipv4MembershipManager.getDispatchChannel());
         // Create channels that transform route UDP packets to the appropriate channel
         // membership manager channels.
         this.outputChannelMap
@@ -190,6 +240,7 @@ public final class AmtUDPInterface {
     private void constructIPv6MembershipManager() {
 
         this.ipv6MembershipManager = new ChannelMembershipManager(this.amtIPInterface);
+        this.datagramChannelMap.put(IPv6Packet.INTERNET_PROTOCOL_VERSION, this.ipv6MembershipManager.getDispatchChannel());
         // Create channels that transform route UDP packets to the appropriate channel
         // membership manager channels.
         this.outputChannelMap
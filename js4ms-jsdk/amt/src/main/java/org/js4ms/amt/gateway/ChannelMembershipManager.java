@@ -24,19 +24,17 @@ package org.js4ms.amt.gateway;
 
 import java.io.IOException;
 import java.net.InetAddress;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import org.js4ms.common.exception.BoundException;
 import org.js4ms.common.util.logging.Log;
 import org.js4ms.common.util.logging.LoggableBase;
 import org.js4ms.common.util.logging.Logging;
-import org.js4ms.io.MultiIOException;
-import org.js4ms.io.channel.MessageKeyExtractor;
+import org.js4ms.common.util.net.InternedAddress;
 import org.js4ms.io.channel.OutputChannel;
-import org.js4ms.io.channel.OutputChannelMap;
-import org.js4ms.io.channel.OutputChannelTee;
 import org.js4ms.io.net.UdpDatagram;
 import org.js4ms.ip.Precondition;
 
@@ -46,6 +44,46 @@ import org.js4ms.ip.Precondition;
 final class ChannelMembershipManager
                 extends LoggableBase {
 
+    /**
+     * Records the time at which a channel joined a group so the delay
+     * until the first matching datagram arrives can be reported.
+     */
+    private static final class PendingJoin {
+
+        final OutputChannel<UdpDatagram> pushChannel;
+
+        final InetAddress groupAddress;
+
+        final InetAddress sourceAddress;
+
+        final InternedAddress groupKey;
+
+        final InternedAddress sourceKey;
+
+        final int port;
+
+        final long joinTime;
+
+        PendingJoin(final OutputChannel<UdpDatagram> pushChannel,
+                    final InetAddress groupAddress,
+                    final InetAddress sourceAddress,
+                    final int port) {
+            this.pushChannel = pushChannel;
+            this.groupAddress = groupAddress;
+            this.sourceAddress = sourceAddress;
+            this.groupKey = InternedAddress.get(groupAddress);
+            this.sourceKey = sourceAddress != null ? InternedAddress.get(sourceAddress) : null;
+            this.port = port;
+            this.joinTime = System.nanoTime();
+        }
+
+        boolean matches(final UdpDatagram datagram) {
+            return this.port == datagram.getDestinationPort() &&
+                   this.groupKey.equals(datagram.getDestinationAddressKey()) &&
+                   (this.sourceKey == null || this.sourceKey.equals(datagram.getSourceAddressKey()));
+        }
+    }
+
     /*-- Static Variables ---------------------------------------------------*/
 
     /**
@@ -53,48 +91,25 @@ final class ChannelMembershipManager
      */
     public static final Logger logger = Logger.getLogger(ChannelMembershipManager.class.getName());
 
+    /**
+     * Port value used to select routes for all ports when leaving.
+     */
+    private static final int ANY_PORT = -1;
+
     /*-- Member Variables ---------------------------------------------------*/
 
     private final Log log = new Log(this);
 
     private final AmtIPInterface ipInterface;
 
-    private final MessageKeyExtractor<UdpDatagram> groupExtractor;
-
-    private final MessageKeyExtractor<UdpDatagram> sourceExtractor;
-
-    private final MessageKeyExtractor<UdpDatagram> portExtractor;
-
     /**
-     * Base channel selector used to track reception state for each group, source, and
-     * port.
-     * The hierarchy of selectors and channels differs for ASM and SSM multicast groups.
-     * <p>
-     * ASM example:
-     * 
-     * <pre>
-     * Group Channel Map-+->Port Channel Map-+->Channel Tee--->Output Channel
-     *                   |                   |
-     *                   |                   +->Channel Tee-+->Output Channel
-     *                   |                                  |
-     *                   |                                  +->Output Channel
-     *                   +->Port Channel Map--->Channel Tee--->Output Channel
-     * </pre>
-     * <p>
-     * SSM example:
-     * 
-     * <pre>
-     * Group Channel Map-+->Source Channel Map-+->Port Channel Map--->Channel Tee--->Output Channel
-     *                   |                     |
-     *                   |                     +->Port Channel Map--->Channel Tee-+->Output Channel
-     *                   |                                                        |
-     *                   |                                                        +->Output Channel
-     *                   +->Source Channel Map--->Port Channel Map-+->Channel Tee--->Output Channel
-     *                                                             |
-     *                                                             +->Channel Tee--->Output Channel
-     * </pre>
+     * Routing index used to track reception state for each group, source and port.
+     * Any-source (ASM) joins are recorded as (*,G) routes and source-specific (SSM)
+     * joins as (S,G) routes. Each datagram is routed to its (S,G) route if there is
+     * one and otherwise to the (*,G) route for its group and port.
+     * Changes are made while holding the table monitor; routing does not lock.
      */
-    private final OutputChannelMap<UdpDatagram> groupMap;
+    private final ChannelRouteTable routeTable = new ChannelRouteTable();
 
     /**
      * Channel that receives UdpDatagrams for dispatch to application-side output
@@ -102,6 +117,18 @@ final class ChannelMembershipManager
      */
     private final OutputChannel<UdpDatagram> dispatchChannel;
 
+    /**
+     * Joins that have not yet received a datagram.
+     * Guarded by the route table monitor.
+     */
+    private final LinkedList<PendingJoin> pendingJoins = new LinkedList<PendingJoin>();
+
+    /**
+     * Indicates whether {@link #pendingJoins} is non-empty, so the send path
+     * need only take the route table monitor while joins are pending.
+     */
+    private volatile boolean isJoinPending = false;
+
     /*-- Member Functions ---------------------------------------------------*/
 
     /**
@@ -115,30 +142,6 @@ final class ChannelMembershipManager
 
         this.ipInterface = ipInterface;
 
-        this.groupExtractor = new MessageKeyExtractor<UdpDatagram>() {
-
-            @Override
-            public InetAddress getKey(UdpDatagram message) {
-                return message.getDestinationInetAddress();
-            }
-        };
-
-        this.sourceExtractor = new MessageKeyExtractor<UdpDatagram>() {
-
-            @Override
-            public InetAddress getKey(UdpDatagram message) {
-                return message.getSourceInetAddress();
-            }
-        };
-
-        this.portExtractor = new MessageKeyExtractor<UdpDatagram>() {
-
-            @Override
-            public Integer getKey(UdpDatagram message) {
-                return message.getDestinationPort();
-            }
-        };
-
         final ChannelMembershipManager manager = this;
 
         this.dispatchChannel = new OutputChannel<UdpDatagram>() {
@@ -153,8 +156,6 @@ final class ChannelMembershipManager
             }
         };
 
-        this.groupMap = new OutputChannelMap<UdpDatagram>(this.groupExtractor);
-
     }
 
     @Override
@@ -186,23 +187,14 @@ final class ChannelMembershipManager
 
         Precondition.checkASMMulticastAddress(groupAddress);
 
-        synchronized (this.groupMap) {
-            OutputChannelMap<UdpDatagram> portMap = (OutputChannelMap<UdpDatagram>) this.groupMap.get(groupAddress);
-            if (portMap == null) {
-                portMap = new OutputChannelMap<UdpDatagram>(this.portExtractor);
-                this.groupMap.put(groupAddress, portMap);
-                OutputChannelTee<UdpDatagram> tee = new OutputChannelTee<UdpDatagram>();
-                portMap.put(port, tee);
-                tee.add(pushChannel);
-                this.ipInterface.join(groupAddress);
-            }
-            else {
-                OutputChannelTee<UdpDatagram> tee = (OutputChannelTee<UdpDatagram>) portMap.get(port);
-                if (tee == null) {
-                    tee = new OutputChannelTee<UdpDatagram>();
-                    portMap.put(port, tee);
-                }
-                tee.add(pushChannel);
+        InternedAddress groupKey = InternedAddress.get(groupAddress);
+
+        synchronized (this.routeTable) {
+            this.pendingJoins.add(new PendingJoin(pushChannel, groupAddress, null, port));
+            this.isJoinPending = true;
+            if (this.routeTable.add(pushChannel, groupKey, null, port)) {
+                // First any-source channel for this group - update the interface reception state
+                joinAnySource(groupKey);
             }
         }
     }
@@ -230,36 +222,17 @@ final class ChannelMembershipManager
         Precondition.checkMulticastAddress(groupAddress);
         Precondition.checkAddresses(groupAddress, sourceAddress);
 
-        synchronized (this.groupMap) {
-            OutputChannelMap<UdpDatagram> sourceMap = (OutputChannelMap<UdpDatagram>) this.groupMap.get(groupAddress);
-            if (sourceMap == null) {
-                sourceMap = new OutputChannelMap<UdpDatagram>(this.sourceExtractor);
-                this.groupMap.put(groupAddress, sourceMap);
-                OutputChannelMap<UdpDatagram> portMap = new OutputChannelMap<UdpDatagram>(this.portExtractor);
-                sourceMap.put(sourceAddress, portMap);
-                OutputChannelTee<UdpDatagram> tee = new OutputChannelTee<UdpDatagram>();
-                tee.add(pushChannel);
-                portMap.put(port, tee);
+        InternedAddress groupKey = InternedAddress.get(groupAddress);
+        InternedAddress sourceKey = InternedAddress.get(sourceAddress);
+
+        synchronized (this.routeTable) {
+            this.pendingJoins.add(new PendingJoin(pushChannel, groupAddress, sourceAddress, port));
+            this.isJoinPending = true;
+            if (this.routeTable.add(pushChannel, groupKey, sourceKey, port) && !this.routeTable.isAnySourceJoined(groupKey)) {
+                // First channel for this source group - update the interface reception
+                // state unless the group is already joined for all sources
                 this.ipInterface.join(groupAddress, sourceAddress);
             }
-            else {
-                OutputChannelMap<UdpDatagram> portMap = (OutputChannelMap<UdpDatagram>) sourceMap.get(sourceAddress);
-                if (portMap == null) {
-                    portMap = new OutputChannelMap<UdpDatagram>(this.portExtractor);
-                    sourceMap.put(sourceAddress, portMap);
-                    OutputChannelTee<UdpDatagram> tee = new OutputChannelTee<UdpDatagram>();
-                    portMap.put(port, tee);
-                    tee.add(pushChannel);
-                }
-                else {
-                    OutputChannelTee<UdpDatagram> tee = (OutputChannelTee<UdpDatagram>) portMap.get(port);
-                    if (tee == null) {
-                        tee = new OutputChannelTee<UdpDatagram>();
-                        portMap.put(port, tee);
-                    }
-                    tee.add(pushChannel);
-                }
-            }
         }
     }
 
@@ -277,70 +250,9 @@ final class ChannelMembershipManager
 
         Precondition.checkMulticastAddress(groupAddress);
 
-        synchronized (this.groupMap) {
-            // Get the source or port selector for this group
-            OutputChannelMap<UdpDatagram> entryMap = (OutputChannelMap<UdpDatagram>) this.groupMap.get(groupAddress);
-            if (entryMap != null) {
-                // Look for the channel under all entries
-                Iterator<Object> entryIter = entryMap.getKeys().iterator();
-                while (entryIter.hasNext()) {
-                    Object entry = entryIter.next();
-                    if (entry instanceof InetAddress) {
-                        InetAddress sourceAddress = (InetAddress) entry;
-                        // Get the port selector for the source
-                        OutputChannelMap<UdpDatagram> portMap = (OutputChannelMap<UdpDatagram>) entryMap.get(sourceAddress);
-                        if (portMap != null) {
-                            // Look for the channel under all of the port entries
-                            Iterator<Object> portIter = portMap.getKeys().iterator();
-                            while (portIter.hasNext()) {
-                                int port = (Integer) portIter.next();
-                                // Get the splitter for this port
-                                OutputChannelTee<UdpDatagram> tee = (OutputChannelTee<UdpDatagram>) portMap.get(port);
-                                // Remove the channel (even though it may not be there).
-                                tee.remove(pushChannel);
-                                if (tee.isEmpty()) {
-                                    // No more channels associated with this port - remove
-                                    // the port entry
-                                    portIter.remove();
-                                    if (portMap.isEmpty()) {
-                                        // No more ports associated with this source -
-                                        // remove the source entry
-                                        entryIter.remove();
-                                        if (entryMap.isEmpty()) {
-                                            // No more sources associated with this group
-                                            // - remove the group entry
-                                            this.groupMap.remove(groupAddress);
-                                        }
-                                        // No channels are left in this source group -
-                                        // update the interface reception state
-                                        this.ipInterface.leave(groupAddress, sourceAddress);
-                                    }
-                                }
-                            }
-                        }
-                    }
-                    else {
-                        int port = (Integer) entry;
-                        // Get the splitter for this port
-                        OutputChannelTee<UdpDatagram> tee = (OutputChannelTee<UdpDatagram>) entryMap.get(port);
-                        // Remove the channel (even though it may not be there).
-                        tee.remove(pushChannel);
-                        if (tee.isEmpty()) {
-                            // No more channels associated with this port - remove the
-                            // port entry
-                            entryIter.remove();
-                            if (entryMap.isEmpty()) {
-                                // No more ports associated with this group - remove the
-                                // group entry
-                                this.groupMap.remove(groupAddress);
-                                // No channels are left in this group - update the
-                                // interface reception state
-                                this.ipInterface.leave(groupAddress);
-                            }
-                        }
-                    }
-                }
-            }
+        synchronized (this.routeTable) {
+            cancelPendingJoins(pushChannel, groupAddress);
+            removeRoutes(pushChannel, InternedAddress.get(groupAddress), null, ANY_PORT);
         }
     }
 
@@ -361,67 +273,9 @@ final class ChannelMembershipManager
 
         Precondition.checkMulticastAddress(groupAddress);
 
-        synchronized (this.groupMap) {
-            OutputChannelMap<UdpDatagram> entryMap = (OutputChannelMap<UdpDatagram>) this.groupMap.get(groupAddress);
-            if (entryMap != null) {
-                // Look for the channel under all entries
-                Iterator<Object> entryIter = entryMap.getKeys().iterator();
-                while (entryIter.hasNext()) {
-                    Object entry = entryIter.next();
-                    if (entry instanceof InetAddress) {
-                        // Entry map is a source map
-                        InetAddress sourceAddress = (InetAddress) entry;
-                        // Get the port selector for the source
-                        OutputChannelMap<UdpDatagram> portMap = (OutputChannelMap<UdpDatagram>) entryMap.get(sourceAddress);
-                        if (portMap != null) {
-                            // Get the splitter for this port
-                            OutputChannelTee<UdpDatagram> tee = (OutputChannelTee<UdpDatagram>) portMap.get(port);
-                            // Remove the channel (even though it may not be there).
-                            tee.remove(pushChannel);
-                            if (tee.isEmpty()) {
-                                // No more channels associated with this port - remove the
-                                // port entry
-                                portMap.remove(port);
-                                if (portMap.isEmpty()) {
-                                    // No more ports associated with this source - remove
-                                    // the source entry
-                                    entryIter.remove();
-                                    if (entryMap.isEmpty()) {
-                                        // No more sources associated with this group -
-                                        // remove the group entry
-                                        this.groupMap.remove(groupAddress);
-                                    }
-                                    // No channels are left in this source group - update
-                                    // the interface reception state
-                                    this.ipInterface.leave(groupAddress, sourceAddress);
-                                }
-                            }
-                        }
-                    }
-                    else {
-                        // Get the splitter for this port
-                        OutputChannelTee<UdpDatagram> tee = (OutputChannelTee<UdpDatagram>) entryMap.get(port);
-                        // Remove the channel (even though it may not be there).
-                        tee.remove(pushChannel);
-                        if (tee.isEmpty()) {
-                            // No more channels associated with this port - remove the
-                            // port entry
-                            entryMap.remove(port);
-                            if (entryMap.isEmpty()) {
-                                // No more ports associated with this group - remove the
-                                // group entry
-                                this.groupMap.remove(groupAddress);
-                                // No channels are left in this group - update the
-                                // interface reception state
-                                this.ipInterface.leave(groupAddress);
-                            }
-                        }
-                        // The entry map was a port map not a source map
-                        // so no need to continue iteration
-                        break;
-                    }
-                }
-            }
+        synchronized (this.routeTable) {
+            cancelPendingJoins(pushChannel, groupAddress);
+            removeRoutes(pushChannel, InternedAddress.get(groupAddress), null, port);
         }
     }
 
@@ -443,42 +297,9 @@ final class ChannelMembershipManager
         Precondition.checkMulticastAddress(groupAddress);
         Precondition.checkAddresses(groupAddress, sourceAddress);
 
-        synchronized (this.groupMap) {
-            // Get the source selector for the group
-            OutputChannelMap<UdpDatagram> sourceMap = (OutputChannelMap<UdpDatagram>) this.groupMap.get(groupAddress);
-            if (sourceMap != null) {
-                // Get the port selector for the source
-                OutputChannelMap<UdpDatagram> portMap = (OutputChannelMap<UdpDatagram>) sourceMap.get(sourceAddress);
-                if (portMap != null) {
-                    // Look for the channel under all of the port entries
-                    Iterator<Object> portIter = portMap.getKeys().iterator();
-                    while (portIter.hasNext()) {
-                        int port = (Integer) portIter.next();
-                        // Get the splitter for this port
-                        OutputChannelTee<UdpDatagram> tee = (OutputChannelTee<UdpDatagram>) portMap.get(port);
-                        // Remove the channel (even though it may not be there).
-                        tee.remove(channel);
-                        if (tee.isEmpty()) {
-                            // No more channels associated with this port - remove the
-                            // port entry
-                            portIter.remove();
-                            if (portMap.isEmpty()) {
-                                // No more ports associated with this source - remove the
-                                // source entry
-                                sourceMap.remove(sourceAddress);
-                                if (sourceMap.isEmpty()) {
-                                    // No more sources associated with this group - remove
-                                    // the group entry
-                                    this.groupMap.remove(groupAddress);
-                                }
-                                // No channels are left in this source group - update the
-                                // interface reception state
-                                this.ipInterface.leave(groupAddress, sourceAddress);
-                            }
-                        }
-                    }
-                }
-            }
+        synchronized (this.routeTable) {
+            cancelPendingJoins(channel, groupAddress);
+            removeRoutes(channel, InternedAddress.get(groupAddress), InternedAddress.get(sourceAddress), ANY_PORT);
         }
     }
 
@@ -504,37 +325,9 @@ final class ChannelMembershipManager
         Precondition.checkMulticastAddress(groupAddress);
         Precondition.checkAddresses(groupAddress, sourceAddress);
 
-        synchronized (this.groupMap) {
-            // Get the source selector for the group
-            OutputChannelMap<UdpDatagram> sourceMap = (OutputChannelMap<UdpDatagram>) this.groupMap.get(groupAddress);
-            if (sourceMap != null) {
-                // Get the port selector for the source
-                OutputChannelMap<UdpDatagram> portMap = (OutputChannelMap<UdpDatagram>) sourceMap.get(sourceAddress);
-                if (portMap != null) {
-                    // Get the splitter for the port
-                    OutputChannelTee<UdpDatagram> tee = (OutputChannelTee<UdpDatagram>) portMap.get(port);
-                    // Remove the channel from the splitter
-                    tee.remove(pushChannel);
-                    if (tee.isEmpty()) {
-                        // No more channels associated with this port - remove the port
-                        // entry
-                        portMap.remove(port);
-                        if (portMap.isEmpty()) {
-                            // No more ports associated with this source - remove the
-                            // source entry
-                            sourceMap.remove(sourceAddress);
-                            if (sourceMap.isEmpty()) {
-                                // No more sources associated with this group - remove the
-                                // group entry
-                                this.groupMap.remove(groupAddress);
-                            }
-                            // No channels are left in this source group - update the
-                            // interface reception state
-                            this.ipInterface.leave(groupAddress, sourceAddress);
-                        }
-                    }
-                }
-            }
+        synchronized (this.routeTable) {
+            cancelPendingJoins(pushChannel, groupAddress);
+            removeRoutes(pushChannel, InternedAddress.get(groupAddress), InternedAddress.get(sourceAddress), port);
         }
     }
 
@@ -548,77 +341,125 @@ final class ChannelMembershipManager
             logger.finer(this.log.entry("ChannelMembershipManager.leave", pushChannel));
         }
 
-        synchronized (this.groupMap) {
-            // Look for the channel under all group entries
-            Iterator<Object> groupIter = this.groupMap.getKeys().iterator();
-            while (groupIter.hasNext()) {
-                InetAddress groupAddress = (InetAddress) groupIter.next();
-                // Get the source or port selector for this group
-                OutputChannelMap<UdpDatagram> entryMap = (OutputChannelMap<UdpDatagram>) this.groupMap.get(groupAddress);
-                if (entryMap != null) {
-                    // Look for the channel under all entries
-                    Iterator<Object> entryIter = entryMap.getKeys().iterator();
-                    while (entryIter.hasNext()) {
-                        Object entry = entryIter.next();
-                        if (entry instanceof InetAddress) {
-                            InetAddress sourceAddress = (InetAddress) entry;
-                            // Get the port selector for the source
-                            OutputChannelMap<UdpDatagram> portMap = (OutputChannelMap<UdpDatagram>) entryMap.get(sourceAddress);
-                            if (portMap != null) {
-                                // Look for the channel under all of the port entries
-                                Iterator<Object> portIter = portMap.getKeys().iterator();
-                                while (portIter.hasNext()) {
-                                    int port = (Integer) portIter.next();
-                                    // Get the splitter for this port
-                                    OutputChannelTee<UdpDatagram> tee = (OutputChannelTee<UdpDatagram>) portMap.get(port);
-                                    // Remove the channel (even though it may not be
-                                    // there).
-                                    tee.remove(pushChannel);
-                                    if (tee.isEmpty()) {
-                                        // No more channels associated with this port -
-                                        // remove the port entry
-                                        portIter.remove();
-                                        if (portMap.isEmpty()) {
-                                            // No more ports associated with this source -
-                                            // remove the source entry
-                                            entryIter.remove();
-                                            if (entryMap.isEmpty()) {
-                                                // No more sources associated with this
-                                                // group - remove the group entry
-                                                groupIter.remove();
-                                            }
-                                            // No channels are left in this source group -
-                                            // update the interface reception state
-                                            this.ipInterface.leave(groupAddress, sourceAddress);
-                                        }
-                                    }
-                                }
-                            }
-                        }
-                        else {
-                            int port = (Integer) entry;
-                            // Get the splitter for this port
-                            OutputChannelTee<UdpDatagram> tee = (OutputChannelTee<UdpDatagram>) entryMap.get(port);
-                            // Remove the channel (even though it may not be there).
-                            tee.remove(pushChannel);
-                            if (tee.isEmpty()) {
-                                // No more channels associated with this port - remove the
-                                // port entry
-                                entryIter.remove();
-                                if (entryMap.isEmpty()) {
-                                    // No more ports associated with this group - remove
-                                    // the group entry
-                                    groupIter.remove();
-                                    // No channels are left in this group - update the
-                                    // interface reception state
-                                    this.ipInterface.leave(groupAddress);
-                                }
-                            }
-                        }
+        synchronized (this.routeTable) {
+            cancelPendingJoins(pushChannel, null);
+            removeRoutes(pushChannel, null, null, ANY_PORT);
+        }
+    }
+
+    /**
+     * Removes a channel from each of its routes that match the specified group, source
+     * and port, and updates the interface reception state for any group or source group
+     * that no longer has a channel. Only the routes joined by the channel are examined.
+     * Must be called while holding the route table monitor.
+     * 
+     * @param pushChannel
+     * @param groupKey
+     *            The group address or <code>null</code> to match all groups.
+     * @param sourceKey
+     *            The source address or <code>null</code> to match (*,G) and all (S,G) routes.
+     * @param port
+     *            The port number or {@link #ANY_PORT} to match all ports.
+     * @throws IOException
+     */
+    private void removeRoutes(final OutputChannel<UdpDatagram> pushChannel,
+                              final InternedAddress groupKey,
+                              final InternedAddress sourceKey,
+                              final int port) throws IOException {
+        for (ChannelRouteTable.Route route : this.routeTable.getRoutes(pushChannel)) {
+            if ((groupKey == null || groupKey.equals(route.groupKey)) &&
+                (sourceKey == null || sourceKey.equals(route.sourceKey)) &&
+                (port == ANY_PORT || port == route.port)) {
+                if (this.routeTable.remove(pushChannel, route)) {
+                    // No channels are left in this group or source group - update the
+                    // interface reception state
+                    if (route.sourceKey == null) {
+                        leaveAnySource(route.groupKey);
                     }
+                    else if (!this.routeTable.isAnySourceJoined(route.groupKey)) {
+                        this.ipInterface.leave(route.groupKey.getInetAddress(), route.sourceKey.getInetAddress());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Changes the interface reception state for a group from INCLUDE{S...}, if any
+     * (S,G) routes were joined, to EXCLUDE{} when the first (*,G) route is joined.
+     * Must be called while holding the route table monitor.
+     * 
+     * @param groupKey
+     * @throws IOException
+     */
+    private void joinAnySource(final InternedAddress groupKey) throws IOException {
+        InetAddress groupAddress = groupKey.getInetAddress();
+        if (!this.routeTable.getJoinedSources(groupKey).isEmpty()) {
+            // Clear the source list so the filter mode change reports an empty exclude list
+            this.ipInterface.leave(groupAddress);
+        }
+        this.ipInterface.join(groupAddress);
+    }
+
+    /**
+     * Changes the interface reception state for a group from EXCLUDE{} to INCLUDE{S...}
+     * when the last (*,G) route is left, where S... are the sources of the (S,G) routes
+     * that remain.
+     * Must be called while holding the route table monitor.
+     * 
+     * @param groupKey
+     * @throws IOException
+     */
+    private void leaveAnySource(final InternedAddress groupKey) throws IOException {
+        InetAddress groupAddress = groupKey.getInetAddress();
+        this.ipInterface.leave(groupAddress);
+        for (InternedAddress sourceKey : this.routeTable.getJoinedSources(groupKey)) {
+            this.ipInterface.join(groupAddress, sourceKey.getInetAddress());
+        }
+    }
+
+    /**
+     * Discards join records that have not received a datagram.
+     * Must be called while holding the route table monitor.
+     * 
+     * @param pushChannel
+     * @param groupAddress
+     *            The group address or <code>null</code> to discard records for all groups.
+     */
+    private void cancelPendingJoins(final OutputChannel<UdpDatagram> pushChannel, final InetAddress groupAddress) {
+        Iterator<PendingJoin> iter = this.pendingJoins.iterator();
+        while (iter.hasNext()) {
+            PendingJoin join = iter.next();
+            if (join.pushChannel == pushChannel && (groupAddress == null || join.groupAddress.equals(groupAddress))) {
+                iter.remove();
+            }
+        }
+        this.isJoinPending = !this.pendingJoins.isEmpty();
+    }
+
+    /**
+     * Reports the time-to-first-packet for each join satisfied by a datagram.
+     * Must be called while holding the route table monitor.
+     * 
+     * @param datagram
+     */
+    private void reportFirstPacket(final UdpDatagram datagram) {
+        long now = System.nanoTime();
+        Iterator<PendingJoin> iter = this.pendingJoins.iterator();
+        while (iter.hasNext()) {
+            PendingJoin join = iter.next();
+            if (join.matches(datagram)) {
+                iter.remove();
+                if (logger.isLoggable(Level.INFO)) {
+                    logger.info(this.log.msg("time-to-first-packet=" + ((now - join.joinTime) / 1000) + "us" +
+                                             " group=" + Logging.address(join.groupAddress) +
+                                             (join.sourceAddress != null ? " source=" + Logging.address(join.sourceAddress) : "") +
+                                             " port=" + join.port +
+                                             " channel=" + Logging.identify(join.pushChannel)));
                 }
             }
         }
+        this.isJoinPending = !this.pendingJoins.isEmpty();
     }
 
     /**
@@ -630,59 +471,71 @@ final class ChannelMembershipManager
             logger.finer(this.log.entry("ChannelMembershipManager.shutdown"));
         }
 
-        synchronized (this.groupMap) {
+        ArrayList<OutputChannel<UdpDatagram>> channels;
+        synchronized (this.routeTable) {
+            this.pendingJoins.clear();
+            this.isJoinPending = false;
+            channels = new ArrayList<OutputChannel<UdpDatagram>>(this.routeTable.getChannels());
+            this.routeTable.clear();
+        }
+
+        for (OutputChannel<UdpDatagram> channel : channels) {
             try {
-                this.groupMap.close();
+                channel.close();
             }
             catch (IOException e) {
-                logger.fine(this.log.msg("attempt to close channel group map failed failed with exception - " +
+                logger.fine(this.log.msg("attempt to close channel " + Logging.identify(channel) + " failed with exception - " +
                                          e.getClass().getName() + ":" + e.getMessage()));
-                e.printStackTrace();
             }
         }
     }
 
     /**
+     * Sends a datagram to each channel that has joined its (S,G) or (*,G) route.
+     * A channel that throws an exception is removed from all of its routes;
+     * the remaining channels still receive the datagram.
+     * 
      * @param message
      * @param milliseconds
      * @throws InterruptedException
      * @throws IOException
      */
-    @SuppressWarnings("unchecked")
     private void send(final UdpDatagram message, final int milliseconds) throws InterruptedException, IOException {
-        synchronized (this.groupMap) {
+        if (this.isJoinPending) {
+            synchronized (this.routeTable) {
+                reportFirstPacket(message);
+            }
+        }
+        OutputChannel<UdpDatagram>[] channels = this.routeTable.lookup(message);
+        if (channels == null) {
+            return;
+        }
+        for (OutputChannel<UdpDatagram> channel : channels) {
             try {
-                this.groupMap.send(message, milliseconds);
+                channel.send(message, milliseconds);
             }
             catch (IOException e) {
-                if (e instanceof MultiIOException) {
-                    MultiIOException me = (MultiIOException) e;
-                    Iterator<Throwable> iter = me.iterator();
-                    while (iter.hasNext()) {
-                        Throwable t = iter.next();
-                        if (t instanceof BoundException) {
-                            BoundException be = (BoundException) t;
-                            Object o = be.getObject();
-                            if (o instanceof OutputChannel<?>) {
-                                if (logger.isLoggable(Level.FINE)) {
-                                    Throwable te = be.getThrowable();
-                                    logger.fine(this.log.msg("removing channel " + Logging.identify(o) + " due to exception - " +
-                                                             te.getClass().getName() + ": " + te.getMessage()));
-                                }
-                                OutputChannel<UdpDatagram> channel = (OutputChannel<UdpDatagram>) o;
-                                leave(channel);
-                                return;
-                            }
-                        }
-                    }
-                }
-                if (logger.isLoggable(Level.INFO)) {
-                    logger.info(this.log.msg("closing all multicast channels due to unhandled exception - " +
-                                e.getClass().getName() + ": " + e.getMessage()));
-                }
-                shutdown();
+                discard(channel, e);
+            }
+            catch (RuntimeException e) {
+                discard(channel, e);
             }
         }
     }
 
+    /**
+     * Removes a channel whose send method threw an exception.
+     * 
+     * @param channel
+     * @param e
+     * @throws IOException
+     */
+    private void discard(final OutputChannel<UdpDatagram> channel, final Exception e) throws IOException {
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine(this.log.msg("removing channel " + Logging.identify(channel) + " due to exception - " +
+                                     e.getClass().getName() + ": " + e.getMessage()));
+        }
+        leave(channel);
+    }
+
 }
@@ -0,0 +1,490 @@
+package org.js4ms.amt.gateway;
+
+/*
+ * #%L
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * ChannelRouteTable.java [org.js4ms.jsdk:amt]
+ * %%
+ * Copyright (C) 2009 - 2014 Cisco Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.js4ms.common.util.net.InternedAddress;
+import org.js4ms.io.channel.OutputChannel;
+import org.js4ms.io.net.UdpDatagram;
+
+
+
+/**
+ * A routing index that maps the (group, source, port) tuple of a datagram to the
+ * output channels that have joined that group, source and port.
+ * A route with a <code>null</code> source is an any-source (*,G) route.
+ * <p>
+ * Routes are held in a chained hash table whose chains are immutable, so
+ * {@link #lookup(UdpDatagram)} does not take a lock. A datagram is routed by probing
+ * for its exact (S,G) route and falling back to the (*,G) route for the group and port.
+ * The channels of a (*,G) route are included in the delivery list of every (S,G)
+ * route for the same group and port, so each lookup resolves to a single array.
+ * <p>
+ * The methods that modify the table must be serialized by the caller. Each
+ * channel's routes are indexed so that joins and leaves do not scan the table.
+ *
+ * @author Gregory Bumgardner (gbumgard)
+ */
+final class ChannelRouteTable {
+
+    /*-- Inner Classes ------------------------------------------------------*/
+
+    /**
+     * The channels that have joined a (group, source, port) tuple.
+     */
+    static final class Route {
+
+        final InternedAddress groupKey;
+
+        /**
+         * The source address or <code>null</code> for a (*,G) route.
+         */
+        final InternedAddress sourceKey;
+
+        final int port;
+
+        final int hash;
+
+        /**
+         * The channels that receive datagrams routed to this route.
+         * Replaced, never modified.
+         */
+        volatile OutputChannel<UdpDatagram>[] targets = newArray(0);
+
+        /**
+         * The channels that joined this route.
+         */
+        private OutputChannel<UdpDatagram>[] channels = newArray(0);
+
+        /**
+         * The (*,G) route for the same group and port if this is an (S,G) route.
+         * A (*,G) route is kept for as long as (S,G) routes refer to it.
+         */
+        private Route anyRoute = null;
+
+        /**
+         * The (S,G) routes for the same group and port if this is a (*,G) route.
+         */
+        private ArrayList<Route> sourceRoutes = null;
+
+        Route(final InternedAddress groupKey, final InternedAddress sourceKey, final int port) {
+            this.groupKey = groupKey;
+            this.sourceKey = sourceKey;
+            this.port = port;
+            this.hash = hash(groupKey, sourceKey, port);
+        }
+
+        boolean matches(final InternedAddress groupKey, final InternedAddress sourceKey, final int port) {
+            return this.port == port &&
+                   isSameAddress(this.groupKey, groupKey) &&
+                   (this.sourceKey == null ? sourceKey == null : sourceKey != null && isSameAddress(this.sourceKey, sourceKey));
+        }
+
+        /**
+         * @return <code>true</code> if one or more channels have joined this route.
+         */
+        boolean isActive() {
+            return this.channels.length > 0;
+        }
+
+        private boolean isUnused() {
+            return this.channels.length == 0 && (this.sourceRoutes == null || this.sourceRoutes.isEmpty());
+        }
+
+        /**
+         * Rebuilds the delivery list from the channels of this route and its (*,G) route.
+         */
+        private void updateTargets() {
+            if (this.anyRoute == null || this.anyRoute.channels.length == 0) {
+                this.targets = this.channels;
+            }
+            else {
+                OutputChannel<UdpDatagram>[] targets = this.channels;
+                for (OutputChannel<UdpDatagram> channel : this.anyRoute.channels) {
+                    if (indexOf(targets, channel) == -1) {
+                        targets = append(targets, channel);
+                    }
+                }
+                this.targets = targets;
+            }
+            if (this.sourceRoutes != null) {
+                for (Route sourceRoute : this.sourceRoutes) {
+                    sourceRoute.updateTargets();
+                }
+            }
+        }
+    }
+
+    /**
+     * An immutable hash chain link.
+     */
+    private static final class Node {
+
+        final Route route;
+
+        final Node next;
+
+        Node(final Route route, final Node next) {
+            this.route = route;
+            this.next = next;
+        }
+    }
+
+    /*-- Static Variables ---------------------------------------------------*/
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    /*-- Static Functions ---------------------------------------------------*/
+
+    @SuppressWarnings("unchecked")
+    private static OutputChannel<UdpDatagram>[] newArray(final int length) {
+        return (OutputChannel<UdpDatagram>[]) new OutputChannel<?>[length];
+    }
+
+    private static int indexOf(final OutputChannel<UdpDatagram>[] channels, final OutputChannel<UdpDatagram> channel) {
+        for (int i = 0; i < channels.length; i++) {
+            if (channels[i] == channel) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static OutputChannel<UdpDatagram>[] append(final OutputChannel<UdpDatagram>[] channels,
+                                                       final OutputChannel<UdpDatagram> channel) {
+        OutputChannel<UdpDatagram>[] newChannels = newArray(channels.length + 1);
+        System.arraycopy(channels, 0, newChannels, 0, channels.length);
+        newChannels[channels.length] = channel;
+        return newChannels;
+    }
+
+    private static boolean isSameAddress(final InternedAddress first, final InternedAddress second) {
+        return first == second || first.equals(second);
+    }
+
+    /**
+     * Mixes the bits of the route key fields into the hash used to select a chain.
+     */
+    static int hash(final InternedAddress groupKey, final InternedAddress sourceKey, final int port) {
+        int h = groupKey.hashCode() * 0x9E3779B9;
+        h ^= (sourceKey != null ? sourceKey.hashCode() : 0) + (h << 6) + (h >>> 2);
+        h ^= port + (h << 6) + (h >>> 2);
+        return h ^ (h >>> 16);
+    }
+
+    /*-- Member Variables ---------------------------------------------------*/
+
+    private volatile AtomicReferenceArray<Node> table = new AtomicReferenceArray<Node>(INITIAL_CAPACITY);
+
+    private int size = 0;
+
+    /**
+     * The routes joined by each channel.
+     */
+    private final IdentityHashMap<OutputChannel<UdpDatagram>, ArrayList<Route>> channelRoutes = new IdentityHashMap<OutputChannel<UdpDatagram>, ArrayList<Route>>();
+
+    /**
+     * The number of active routes for each group (*,G) or group and source (S,G),
+     * used to detect changes in interface reception state.
+     */
+    private final HashMap<InternedAddress, HashMap<InternedAddress, int[]>> memberships = new HashMap<InternedAddress, HashMap<InternedAddress, int[]>>();
+
+    /*-- Member Functions ---------------------------------------------------*/
+
+    ChannelRouteTable() {
+    }
+
+    /**
+     * Returns the route with the specified key, if any.
+     *
+     * @param groupKey
+     * @param sourceKey
+     *            The source address or <code>null</code> for a (*,G) route.
+     * @param port
+     */
+    Route get(final InternedAddress groupKey, final InternedAddress sourceKey, final int port) {
+        AtomicReferenceArray<Node> table = this.table;
+        Node node = table.get(hash(groupKey, sourceKey, port) & (table.length() - 1));
+        while (node != null) {
+            if (node.route.matches(groupKey, sourceKey, port)) {
+                return node.route;
+            }
+            node = node.next;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the channels that should receive a datagram.
+     *
+     * @param datagram
+     * @return The channels, or <code>null</code> if there is no route for the datagram.
+     */
+    OutputChannel<UdpDatagram>[] lookup(final UdpDatagram datagram) {
+        InternedAddress groupKey = datagram.getDestinationAddressKey();
+        int port = datagram.getDestinationPort();
+        Route route = get(groupKey, datagram.getSourceAddressKey(), port);
+        if (route == null) {
+            route = get(groupKey, null, port);
+            if (route == null) {
+                return null;
+            }
+        }
+        return route.targets;
+    }
+
+    /**
+     * @return The number of routes in the table.
+     */
+    int size() {
+        return this.size;
+    }
+
+    /**
+     * @return <code>true</code> if the table contains no routes.
+     */
+    boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    /**
+     * @return The channels that have joined one or more routes.
+     */
+    Set<OutputChannel<UdpDatagram>> getChannels() {
+        return this.channelRoutes.keySet();
+    }
+
+    /**
+     * Returns the routes joined by a channel.
+     *
+     * @param channel
+     * @return A copy of the list of routes, which is empty if the channel has not joined any route.
+     */
+    ArrayList<Route> getRoutes(final OutputChannel<UdpDatagram> channel) {
+        ArrayList<Route> routes = this.channelRoutes.get(channel);
+        return routes != null ? new ArrayList<Route>(routes) : new ArrayList<Route>();
+    }
+
+    /**
+     * Adds a channel to the route for a (group, source, port) tuple.
+     *
+     * @param channel
+     * @param groupKey
+     * @param sourceKey
+     *            The source address or <code>null</code> to join a (*,G) route.
+     * @param port
+     * @return <code>true</code> if this was the first route joined for the group (*,G) or
+     *         group and source (S,G), in which case the interface must join the group.
+     */
+    boolean add(final OutputChannel<UdpDatagram> channel,
+                final InternedAddress groupKey,
+                final InternedAddress sourceKey,
+                final int port) {
+        Route route = getOrCreate(groupKey, sourceKey, port);
+        if (indexOf(route.channels, channel) != -1) {
+            return false;
+        }
+        boolean wasActive = route.isActive();
+        route.channels = append(route.channels, channel);
+        route.updateTargets();
+
+        ArrayList<Route> routes = this.channelRoutes.get(channel);
+        if (routes == null) {
+            routes = new ArrayList<Route>(2);
+            this.channelRoutes.put(channel, routes);
+        }
+        routes.add(route);
+
+        return !wasActive && updateMembership(route, 1) == 1;
+    }
+
+    /**
+     * Removes a channel from a route.
+     *
+     * @param channel
+     * @param route
+     * @return <code>true</code> if this was the last route for the group (*,G) or group
+     *         and source (S,G), in which case the interface must leave the group.
+     */
+    boolean remove(final OutputChannel<UdpDatagram> channel, final Route route) {
+        int index = indexOf(route.channels, channel);
+        if (index == -1) {
+            return false;
+        }
+        OutputChannel<UdpDatagram>[] channels = newArray(route.channels.length - 1);
+        System.arraycopy(route.channels, 0, channels, 0, index);
+        System.arraycopy(route.channels, index + 1, channels, index, channels.length - index);
+        route.channels = channels;
+        route.updateTargets();
+
+        ArrayList<Route> routes = this.channelRoutes.get(channel);
+        if (routes != null) {
+            routes.remove(route);
+            if (routes.isEmpty()) {
+                this.channelRoutes.remove(channel);
+            }
+        }
+
+        boolean isLeave = !route.isActive() && updateMembership(route, -1) == 0;
+
+        if (route.isUnused()) {
+            delete(route);
+            Route anyRoute = route.anyRoute;
+            if (anyRoute != null) {
+                anyRoute.sourceRoutes.remove(route);
+                if (anyRoute.isUnused()) {
+                    delete(anyRoute);
+                }
+            }
+        }
+
+        return isLeave;
+    }
+
+    /**
+     * @param groupKey
+     * @return <code>true</code> if any channel has joined a (*,G) route for the group.
+     */
+    boolean isAnySourceJoined(final InternedAddress groupKey) {
+        HashMap<InternedAddress, int[]> sources = this.memberships.get(groupKey);
+        return sources != null && sources.containsKey(null);
+    }
+
+    /**
+     * @param groupKey
+     * @return The sources of the (S,G) routes joined for the group.
+     */
+    ArrayList<InternedAddress> getJoinedSources(final InternedAddress groupKey) {
+        ArrayList<InternedAddress> sourceKeys = new ArrayList<InternedAddress>();
+        HashMap<InternedAddress, int[]> sources = this.memberships.get(groupKey);
+        if (sources != null) {
+            for (InternedAddress sourceKey : sources.keySet()) {
+                if (sourceKey != null) {
+                    sourceKeys.add(sourceKey);
+                }
+            }
+        }
+        return sourceKeys;
+    }
+
+    /**
+     * Removes all routes.
+     */
+    void clear() {
+        this.table = new AtomicReferenceArray<Node>(INITIAL_CAPACITY);
+        this.size = 0;
+        this.channelRoutes.clear();
+        this.memberships.clear();
+    }
+
+    private int updateMembership(final Route route, final int delta) {
+        HashMap<InternedAddress, int[]> sources = this.memberships.get(route.groupKey);
+        if (sources == null) {
+            sources = new HashMap<InternedAddress, int[]>();
+            this.memberships.put(route.groupKey, sources);
+        }
+        int[] count = sources.get(route.sourceKey);
+        if (count == null) {
+            count = new int[1];
+            sources.put(route.sourceKey, count);
+        }
+        count[0] += delta;
+        if (count[0] == 0) {
+            sources.remove(route.sourceKey);
+            if (sources.isEmpty()) {
+                this.memberships.remove(route.groupKey);
+            }
+        }
+        return count[0];
+    }
+
+    private Route getOrCreate(final InternedAddress groupKey, final InternedAddress sourceKey, final int port) {
+        Route route = get(groupKey, sourceKey, port);
+        if (route == null) {
+            route = new Route(groupKey, sourceKey, port);
+            if (sourceKey != null) {
+                Route anyRoute = getOrCreate(groupKey, null, port);
+                if (anyRoute.sourceRoutes == null) {
+                    anyRoute.sourceRoutes = new ArrayList<Route>(2);
+                }
+                anyRoute.sourceRoutes.add(route);
+                route.anyRoute = anyRoute;
+                route.updateTargets();
+            }
+            insert(route);
+        }
+        return route;
+    }
+
+    private void insert(final Route route) {
+        AtomicReferenceArray<Node> table = this.table;
+        if (this.size >= table.length() * 3 / 4) {
+            table = resize(table.length() * 2);
+        }
+        int index = route.hash & (table.length() - 1);
+        table.set(index, new Node(route, table.get(index)));
+        this.size++;
+    }
+
+    private void delete(final Route route) {
+        AtomicReferenceArray<Node> table = this.table;
+        int index = route.hash & (table.length() - 1);
+        // Copy the links that precede the route since links are immutable
+        Node head = table.get(index);
+        ArrayList<Route> preceding = new ArrayList<Route>();
+        Node node = head;
+        while (node != null && node.route != route) {
+            preceding.add(node.route);
+            node = node.next;
+        }
+        if (node == null) {
+            return;
+        }
+        Node chain = node.next;
+        for (int i = preceding.size() - 1; i >= 0; i--) {
+            chain = new Node(preceding.get(i), chain);
+        }
+        table.set(index, chain);
+        this.size--;
+    }
+
+    private AtomicReferenceArray<Node> resize(final int capacity) {
+        AtomicReferenceArray<Node> oldTable = this.table;
+        AtomicReferenceArray<Node> newTable = new AtomicReferenceArray<Node>(capacity);
+        for (int i = 0; i < oldTable.length(); i++) {
+            Node node = oldTable.get(i);
+            while (node != null) {
+                int index = node.route.hash & (capacity - 1);
+                newTable.set(index, new Node(node.route, newTable.get(index)));
+                node = node.next;
+            }
+        }
+        this.table = newTable;
+        return newTable;
+    }
+}
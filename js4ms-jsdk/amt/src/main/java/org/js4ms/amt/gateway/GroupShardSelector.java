@@ -0,0 +1,119 @@
+package org.js4ms.amt.gateway;
+
+/*
+ * #%L
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * GroupShardSelector.java [org.js4ms.jsdk:amt]
+ * %%
+ * Copyright (C) 2009 - 2014 Cisco Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+
+
+/**
+ * Assigns multicast group addresses to tunnel shards using a consistent hash ring.
+ * Each shard is placed on the ring at several points so groups are spread evenly,
+ * and changing the number of shards only moves the groups that hash to the
+ * affected ring segments.
+ *
+ * @author Greg Bumgardner (gbumgard)
+ */
+final class GroupShardSelector {
+
+    /*-- Static Variables ----------------------------------------------------*/
+
+    static final int DEFAULT_POINTS_PER_SHARD = 64;
+
+    /*-- Member Variables ---------------------------------------------------*/
+
+    private final TreeMap<Integer, Integer> ring = new TreeMap<Integer, Integer>();
+
+    private final int shardCount;
+
+    /*-- Member Functions ---------------------------------------------------*/
+
+    /**
+     * @param shardCount
+     *            The number of shards.
+     */
+    GroupShardSelector(final int shardCount) {
+        this(shardCount, DEFAULT_POINTS_PER_SHARD);
+    }
+
+    /**
+     * @param shardCount
+     *            The number of shards.
+     * @param pointsPerShard
+     *            The number of points each shard occupies on the hash ring.
+     */
+    GroupShardSelector(final int shardCount, final int pointsPerShard) {
+        this.shardCount = shardCount;
+        if (shardCount > 1) {
+            for (int shard = 0; shard < shardCount; shard++) {
+                for (int point = 0; point < pointsPerShard; point++) {
+                    this.ring.put(mix(shard * 0x10000 + point), shard);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The number of shards.
+     */
+    int getShardCount() {
+        return this.shardCount;
+    }
+
+    /**
+     * Returns the index of the shard assigned to a group.
+     *
+     * @param groupAddress
+     * @return A shard index in the range [0, shardCount).
+     */
+    int getShard(final InetAddress groupAddress) {
+        if (this.shardCount <= 1) {
+            return 0;
+        }
+        int hash = mix(Arrays.hashCode(groupAddress.getAddress()));
+        Map.Entry<Integer, Integer> entry = this.ring.ceilingEntry(hash);
+        if (entry == null) {
+            entry = this.ring.firstEntry();
+        }
+        return entry.getValue();
+    }
+
+    /**
+     * Spreads the bits of a hash value (MurmurHash3 finalizer).
+     *
+     * @param value
+     * @return
+     */
+    private static int mix(int value) {
+        value ^= value >>> 16;
+        value *= 0x85EBCA6B;
+        value ^= value >>> 13;
+        value *= 0xC2B2AE35;
+        value ^= value >>> 16;
+        return value;
+    }
+}
@@ -26,9 +26,10 @@ package org.js4ms.amt.gateway;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.PortUnreachableException;
-import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.HashSet;
-import java.util.Timer;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -39,44 +40,207 @@ import org.js4ms.amt.proxy.SourceFilter;
 import org.js4ms.common.util.logging.Log;
 import org.js4ms.common.util.logging.LoggableBase;
 import org.js4ms.common.util.logging.Logging;
+import org.js4ms.common.util.task.HashedWheelTimer;
+import org.js4ms.common.util.task.TimerHandle;
 import org.js4ms.io.channel.OutputChannel;
 
 
 
-
+/**
+ * Maintains the IGMPv3/MLDv2 reception state of an interface and generates the
+ * state-change reports and query responses that describe it.
+ * <p>
+ * The state for each group is guarded by one of a fixed number of striped locks,
+ * so joins and leaves for different groups rarely contend. A join or leave updates
+ * the pending ALLOW/BLOCK records for its group with the single source it adds or
+ * removes, so its cost does not depend on the number of sources or groups.
+ * All reports are sent from a single scheduler task that collects the pending
+ * state-change records and query responses that are due for every group and sends
+ * them in one report.
+ */
 final class InterfaceMembershipManager
                 extends LoggableBase {
 
+    /*-- Inner Classes ------------------------------------------------------*/
+
+    /**
+     * The reception state and pending reports for a single group.
+     * Guarded by the lock returned by {@link InterfaceMembershipManager#getLock(InetAddress)}.
+     */
+    private static final class GroupState {
+
+        final InetAddress groupAddress;
+
+        final SourceFilter filter;
+
+        int modeChangeTransmissionsRemaining = 0;
+
+        int sourceChangeTransmissionsRemaining = 0;
+
+        /**
+         * Sources to report in an ALLOW_NEW_SOURCES record, or <code>null</code> if none.
+         */
+        HashSet<InetAddress> allowNewSources = null;
+
+        /**
+         * Sources to report in a BLOCK_OLD_SOURCES record, or <code>null</code> if none.
+         */
+        HashSet<InetAddress> blockOldSources = null;
+
+        long stateChangeReportTime = NOT_SCHEDULED;
+
+        /**
+         * The sources recorded from group-and-source-specific queries, an empty set
+         * if a group-specific query is pending, or <code>null</code> if no
+         * query response is pending.
+         */
+        HashSet<InetAddress> querySourceSet = null;
+
+        long queryResponseTime = NOT_SCHEDULED;
+
+        /**
+         * The time at which the group is queued in the report scheduler.
+         * Guarded by the scheduler lock.
+         */
+        long scheduledTime = NOT_SCHEDULED;
+
+        GroupState(final InetAddress groupAddress) {
+            this.groupAddress = groupAddress;
+            this.filter = new SourceFilter(groupAddress);
+        }
+
+        boolean hasReceptionState() {
+            return this.filter.getMode() == SourceFilter.Mode.EXCLUDE || !this.filter.isEmpty();
+        }
+
+        boolean isIdle() {
+            return !hasReceptionState() &&
+                   this.stateChangeReportTime == NOT_SCHEDULED &&
+                   this.queryResponseTime == NOT_SCHEDULED;
+        }
+
+        /**
+         * Records a source added to or removed from the source list without a
+         * change in filter mode.
+         * 
+         * <pre>
+         * Old State   New State   State-Change Record Sent
+         * ---------   ---------   ------------------------
+         * INCLUDE (A) INCLUDE (B) ALLOW (B-A), BLOCK (A-B)
+         * EXCLUDE (A) EXCLUDE (B) ALLOW (A-B), BLOCK (B-A)
+         * </pre>
+         * 
+         * The pending records hold the difference between the source list at the
+         * time the first pending change was made and the current source list.
+         * 
+         * @param sourceAddress
+         * @param isAdded
+         */
+        void updateSourceSet(final InetAddress sourceAddress, final boolean isAdded) {
+            boolean isAllowed = isAdded == (this.filter.getMode() == SourceFilter.Mode.INCLUDE);
+            if (isAllowed) {
+                if (this.blockOldSources == null || !this.blockOldSources.remove(sourceAddress)) {
+                    if (this.allowNewSources == null) {
+                        this.allowNewSources = new HashSet<InetAddress>();
+                    }
+                    this.allowNewSources.add(sourceAddress);
+                }
+            }
+            else {
+                if (this.allowNewSources == null || !this.allowNewSources.remove(sourceAddress)) {
+                    if (this.blockOldSources == null) {
+                        this.blockOldSources = new HashSet<InetAddress>();
+                    }
+                    this.blockOldSources.add(sourceAddress);
+                }
+            }
+        }
+
+        void clearSourceChanges() {
+            this.allowNewSources = null;
+            this.blockOldSources = null;
+        }
+    }
+
+    /**
+     * An entry in the report scheduler queue. An entry is ignored if the group
+     * has been rescheduled for an earlier time since the entry was queued.
+     */
+    private static final class ScheduledGroup
+                    implements Comparable<ScheduledGroup> {
+
+        final long time;
+
+        final GroupState group;
+
+        ScheduledGroup(final long time, final GroupState group) {
+            this.time = time;
+            this.group = group;
+        }
+
+        @Override
+        public int compareTo(final ScheduledGroup other) {
+            return this.time < other.time ? -1 : (this.time == other.time ? 0 : 1);
+        }
+    }
+
     /*-- Static Variables ---------------------------------------------------*/
 
     public static final Logger logger = Logger.getLogger(InterfaceMembershipManager.class.getName());
 
+    /**
+     * The number of locks used to guard group state.
+     */
+    static final int LOCK_STRIPE_COUNT = 64;
+
+    private static final long NOT_SCHEDULED = Long.MAX_VALUE;
+
     /*-- Member Variables ---------------------------------------------------*/
 
     private final Log log = new Log(this);
 
     /**
-     * Contents describe the current multicast reception state of this interface.
+     * Contents describe the current multicast reception state of this interface
+     * and the reports pending for each group. A group is removed once it has no
+     * reception state and no pending reports.
      * This state is used to generate group records in membership reports sent in
      * response to membership queries.
      */
-    private final HashMap<InetAddress, SourceFilter> interfaceReceptionState = new HashMap<InetAddress, SourceFilter>();
+    private final ConcurrentHashMap<InetAddress, GroupState> interfaceReceptionState = new ConcurrentHashMap<InetAddress, GroupState>();
+
+    private final Object[] groupLocks = new Object[LOCK_STRIPE_COUNT];
+
+    /**
+     * Monitor object used to guard the report scheduler state.
+     * May be acquired while holding a group lock but not the reverse.
+     */
+    private final Object schedulerLock = new Object();
+
+    private final PriorityQueue<ScheduledGroup> scheduledGroups = new PriorityQueue<ScheduledGroup>();
+
+    private long generalQueryResponseTime = NOT_SCHEDULED;
 
-    private final HashMap<InetAddress, StateChangeReportTask> pendingStateChangeReports = new HashMap<InetAddress, StateChangeReportTask>();
+    private TimerHandle schedulerHandle = null;
 
-    private final HashMap<InetAddress, GroupQueryReportTask> pendingGroupQueryReports = new HashMap<InetAddress, GroupQueryReportTask>();
+    private long schedulerTime = NOT_SCHEDULED;
 
-    private GeneralQueryReportTimer pendingGeneralQueryReport = null;
+    private final Runnable schedulerTask = new Runnable() {
+
+        @Override
+        public void run() {
+            sendPendingReports();
+        }
+    };
 
     private OutputChannel<MembershipQuery> incomingQueryChannel;
 
     private OutputChannel<MembershipReport> outgoingReportChannel;
 
-    private final Timer taskTimer;
+    private final HashedWheelTimer taskTimer;
 
-    private int robustnessVariable = 2;
+    private volatile int robustnessVariable = 2;
 
-    private int unsolicitedReportIntervalMs = 125000; // Default query interval
+    private volatile int unsolicitedReportIntervalMs = 125000; // Default query interval
 
     private boolean useRandomDelay = false;
 
@@ -85,7 +249,7 @@ final class InterfaceMembershipManager
     /**
      * @param taskTimer
      */
-    InterfaceMembershipManager(final Timer taskTimer) {
+    InterfaceMembershipManager(final HashedWheelTimer taskTimer) {
 
         if (logger.isLoggable(Level.FINER)) {
             logger.finer(this.log.entry("InterfaceMembershipManager.InterfaceMembershipManager", taskTimer));
@@ -93,7 +257,9 @@ final class InterfaceMembershipManager
 
         this.taskTimer = taskTimer;
 
-        this.pendingGeneralQueryReport = new GeneralQueryReportTimer(taskTimer, this);
+        for (int i = 0; i < LOCK_STRIPE_COUNT; i++) {
+            this.groupLocks[i] = new Object();
+        }
 
         this.incomingQueryChannel = new OutputChannel<MembershipQuery>() {
 
@@ -127,6 +293,13 @@ final class InterfaceMembershipManager
         this.outgoingReportChannel = outgoingReportChannel;
     }
 
+    /**
+     * @return The number of groups for which the interface has reception state or pending reports.
+     */
+    int getGroupCount() {
+        return this.interfaceReceptionState.size();
+    }
+
     /**
      * @param groupAddress
      * @throws IOException
@@ -139,21 +312,20 @@ final class InterfaceMembershipManager
                                         Logging.address(groupAddress)));
         }
 
-        synchronized (this.interfaceReceptionState) {
-
-            SourceFilter filter = this.interfaceReceptionState.get(groupAddress);
+        synchronized (getLock(groupAddress)) {
 
-            if (filter == null) {
-                filter = new SourceFilter(groupAddress);
-                this.interfaceReceptionState.put(groupAddress, filter);
-            }
+            GroupState group = getGroupState(groupAddress);
 
-            HashSet<InetAddress> oldSourceSet = new HashSet<InetAddress>(filter.getSourceSet());
-            SourceFilter.Mode oldFilterMode = filter.getMode();
+            SourceFilter.Mode oldFilterMode = group.filter.getMode();
 
-            filter.join();
+            try {
+                group.filter.join();
+            }
+            finally {
+                removeIfIdle(group);
+            }
 
-            updateInterfaceGroupState(oldFilterMode, oldSourceSet, filter);
+            updateFilterMode(group, oldFilterMode);
         }
     }
 
@@ -172,21 +344,18 @@ final class InterfaceMembershipManager
                                         Logging.address(sourceAddress)));
         }
 
-        synchronized (this.interfaceReceptionState) {
+        synchronized (getLock(groupAddress)) {
 
-            SourceFilter filter = this.interfaceReceptionState.get(groupAddress);
+            GroupState group = getGroupState(groupAddress);
 
-            if (filter == null) {
-                filter = new SourceFilter(groupAddress);
-                this.interfaceReceptionState.put(groupAddress, filter);
+            try {
+                group.filter.join(sourceAddress);
+            }
+            finally {
+                removeIfIdle(group);
             }
 
-            HashSet<InetAddress> oldSourceSet = new HashSet<InetAddress>(filter.getSourceSet());
-            SourceFilter.Mode oldFilterMode = filter.getMode();
-
-            filter.join(sourceAddress);
-
-            updateInterfaceGroupState(oldFilterMode, oldSourceSet, filter);
+            updateSourceSet(group, sourceAddress, true);
         }
     }
 
@@ -201,17 +370,26 @@ final class InterfaceMembershipManager
                                         Logging.address(groupAddress)));
         }
 
-        synchronized (this.interfaceReceptionState) {
+        synchronized (getLock(groupAddress)) {
 
-            SourceFilter filter = this.interfaceReceptionState.get(groupAddress);
+            GroupState group = this.interfaceReceptionState.get(groupAddress);
 
-            if (filter != null) {
-                HashSet<InetAddress> oldSourceSet = filter.getSourceSet();
-                SourceFilter.Mode oldFilterMode = filter.getMode();
+            if (group != null && group.hasReceptionState()) {
 
-                filter.leave();
+                SourceFilter.Mode oldFilterMode = group.filter.getMode();
 
-                updateInterfaceGroupState(oldFilterMode, oldSourceSet, filter);
+                if (oldFilterMode == SourceFilter.Mode.INCLUDE) {
+                    // Every source in the list is removed
+                    ArrayList<InetAddress> oldSources = new ArrayList<InetAddress>(group.filter.getSourceSet());
+                    group.filter.leave();
+                    for (InetAddress sourceAddress : oldSources) {
+                        updateSourceSet(group, sourceAddress, false);
+                    }
+                }
+                else {
+                    group.filter.leave();
+                    updateFilterMode(group, oldFilterMode);
+                }
             }
         }
     }
@@ -230,17 +408,15 @@ final class InterfaceMembershipManager
                                         Logging.address(sourceAddress)));
         }
 
-        synchronized (this.interfaceReceptionState) {
+        synchronized (getLock(groupAddress)) {
 
-            SourceFilter filter = this.interfaceReceptionState.get(groupAddress);
+            GroupState group = this.interfaceReceptionState.get(groupAddress);
 
-            if (filter != null) {
-                HashSet<InetAddress> oldSourceSet = new HashSet<InetAddress>(filter.getSourceSet());
-                SourceFilter.Mode oldFilterMode = filter.getMode();
+            if (group != null && group.hasReceptionState()) {
 
-                filter.leave(sourceAddress);
+                group.filter.leave(sourceAddress);
 
-                updateInterfaceGroupState(oldFilterMode, oldSourceSet, filter);
+                updateSourceSet(group, sourceAddress, false);
             }
         }
     }
@@ -254,12 +430,8 @@ final class InterfaceMembershipManager
             logger.finer(this.log.entry("InterfaceMembershipManager.leave"));
         }
 
-        synchronized (this.interfaceReceptionState) {
-
-            HashSet<InetAddress> groupSet = new HashSet<InetAddress>(this.interfaceReceptionState.keySet());
-            for (InetAddress groupAddress : groupSet) {
-                leave(groupAddress);
-            }
+        for (InetAddress groupAddress : new ArrayList<InetAddress>(this.interfaceReceptionState.keySet())) {
+            leave(groupAddress);
         }
     }
 
@@ -272,8 +444,7 @@ final class InterfaceMembershipManager
             logger.finer(this.log.entry("InterfaceMembershipManager.shutdown"));
         }
 
-        HashSet<InetAddress> groupSet = new HashSet<InetAddress>(this.interfaceReceptionState.keySet());
-        for (InetAddress groupAddress : groupSet) {
+        for (InetAddress groupAddress : new ArrayList<InetAddress>(this.interfaceReceptionState.keySet())) {
             try {
                 leave(groupAddress);
             }
@@ -282,13 +453,46 @@ final class InterfaceMembershipManager
                                          Logging.address(groupAddress) +
                                          " failed with exception - " +
                                          e.getClass().getName() + ":" + e.getMessage()));
-
-                e.printStackTrace();
                 // Continue on and try to leave the rest
             }
         }
     }
 
+    /**
+     * @param groupAddress
+     * @return The lock that guards the state of the specified group.
+     */
+    private Object getLock(final InetAddress groupAddress) {
+        return this.groupLocks[(groupAddress.hashCode() & 0x7FFFFFFF) % LOCK_STRIPE_COUNT];
+    }
+
+    /**
+     * Returns the state for a group, creating it if necessary.
+     * Must be called while holding the group lock.
+     * 
+     * @param groupAddress
+     */
+    private GroupState getGroupState(final InetAddress groupAddress) {
+        GroupState group = this.interfaceReceptionState.get(groupAddress);
+        if (group == null) {
+            group = new GroupState(groupAddress);
+            this.interfaceReceptionState.put(groupAddress, group);
+        }
+        return group;
+    }
+
+    /**
+     * Removes the state for a group that has no reception state and no pending reports.
+     * Must be called while holding the group lock.
+     * 
+     * @param group
+     */
+    private void removeIfIdle(final GroupState group) {
+        if (group.isIdle()) {
+            this.interfaceReceptionState.remove(group.groupAddress, group);
+        }
+    }
+
     /**
      * From <a href="http://www.rfc-editor.org/rfc/rfc3376.txt">[RFC-3376]</a>
      * 
@@ -304,142 +508,67 @@ final class InterfaceMembershipManager
      *      mode of the interface record is EXCLUDE, and the source list of the
      *      interface record is the intersection of the source lists of all
      *      socket records in EXCLUDE mode, minus those source addresses that
-     *      appear in any socket record in INCLUDE mode.  For example, if the
-     *      socket records for multicast address m on interface i are:
-     * 
-     *         from socket s1:  ( i, m, EXCLUDE, {a, b, c, d} )
-     *         from socket s2:  ( i, m, EXCLUDE, {b, c, d, e} )
-     *         from socket s3:  ( i, m, INCLUDE, {d, e, f} )
-     * 
-     *      then the corresponding interface record on interface i is:
-     * 
-     *                          ( m, EXCLUDE, {b, c} )
-     * 
-     *      If a fourth socket is added, such as:
-     * 
-     *         from socket s4:  ( i, m, EXCLUDE, {} )
-     * 
-     *      then the interface record becomes:
-     * 
-     *                          ( m, EXCLUDE, {} )
+     *      appear in any socket record in INCLUDE mode.
      * 
      *    o if *all* such records have a filter mode of INCLUDE, then the
      *      filter mode of the interface record is INCLUDE, and the source list
      *      of the interface record is the union of the source lists of all the
-     *      socket records.  For example, if the socket records for multicast
-     *      address m on interface i are:
-     * 
-     *         from socket s1:  ( i, m, INCLUDE, {a, b, c} )
-     *         from socket s2:  ( i, m, INCLUDE, {b, c, d} )
-     *         from socket s3:  ( i, m, INCLUDE, {e, f} )
-     * 
-     *      then the corresponding interface record on interface i is:
+     *      socket records.
+     * </pre>
      * 
-     *                          ( m, INCLUDE, {a, b, c, d, e, f} )
+     * Records a change in the filter mode of a group. The pending filter mode change
+     * record replaces any pending source list change records and carries the source
+     * list at the time the record is sent.
+     * Must be called while holding the group lock.
      * 
-     *      An implementation MUST NOT use an EXCLUDE interface record to
-     *      represent a group when all sockets for this group are in INCLUDE
-     *      state.  If system resource limits are reached when an interface
-     *      state source list is calculated, an error MUST be returned to the
-     *      application which requested the operation.
-     * </pre>
+     * @param group
+     * @param oldFilterMode
      */
-    private void updateInterfaceGroupState(final SourceFilter.Mode oldFilterMode,
-                                           final HashSet<InetAddress> oldSourceSet,
-                                           final SourceFilter filter) {
-
-        if (logger.isLoggable(Level.FINER)) {
-            logger.finer(this.log.entry("InterfaceMembershipManager.updateInterfaceGroupState",
-                                        oldFilterMode,
-                                        oldSourceSet,
-                                        filter));
+    private void updateFilterMode(final GroupState group, final SourceFilter.Mode oldFilterMode) {
+        if (group.filter.getMode() != oldFilterMode) {
+            group.clearSourceChanges();
+            scheduleStateChangeReport(group, true);
         }
+    }
 
-        // Block threads calling other methods from changing the interface reception state
-        // until we have updated the state and generated a group state change report
-        synchronized (this.interfaceReceptionState) {
-
-            InetAddress groupAddress = filter.getGroupAddress();
-            SourceFilter.Mode newFilterMode = filter.getMode();
-            HashSet<InetAddress> newSourceSet = filter.getSourceSet();
-
-            if (newFilterMode == SourceFilter.Mode.INCLUDE && newSourceSet.isEmpty()) {
-                // The new group state does not include any sources - remove the filter
-                this.interfaceReceptionState.remove(groupAddress);
-                if (this.interfaceReceptionState.isEmpty()) {
-                    this.pendingGeneralQueryReport.cancel();
-                }
-            }
-
-            // Block access to the pending reports until the group state change report is
-            // created/updated
-            synchronized (this.pendingStateChangeReports) {
-
-                // Look for pending group state change report
-                StateChangeReportTask stateChangeReport = this.pendingStateChangeReports.get(groupAddress);
-
-                if (stateChangeReport == null) {
-
-                    // There is no pending report - create a new one
-                    int retransmissionCount = this.robustnessVariable - 1;
-
-                    if (newFilterMode != oldFilterMode) {
-                        // Generate filter mode change report
-                        stateChangeReport = new StateChangeReportTask(this.taskTimer,
-                                                                      this,
-                                                                      groupAddress,
-                                                                      retransmissionCount,
-                                                                      newFilterMode,
-                                                                      newSourceSet);
-                    }
-                    else {
-                        if (logger.isLoggable(Level.FINE)) {
-                            logger.fine(this.log.msg("generating groups state change report"));
-                            logger.fine(this.log.msg("----> Old Source Set for " + Logging.address(groupAddress)));
-                            for (InetAddress address : oldSourceSet) {
-                                logger.fine(this.log.msg(" " + Logging.address(address)));
-                            }
-                            logger.fine(this.log.msg("<----"));
-                            logger.fine(this.log.msg("----> New Source Set for " + Logging.address(groupAddress)));
-                            for (InetAddress address : newSourceSet) {
-                                logger.fine(this.log.msg(" " + Logging.address(address)));
-                            }
-                            logger.fine(this.log.msg("<----"));
-                        }
-
-                        // Generate source set change report
-                        stateChangeReport = new StateChangeReportTask(this.taskTimer,
-                                                                      this,
-                                                                      groupAddress,
-                                                                      retransmissionCount,
-                                                                      newFilterMode,
-                                                                      oldSourceSet,
-                                                                      newSourceSet);
-                    }
-
-                    if (retransmissionCount > 1) {
-
-                        // This is supposed to be random (0,interval) but can't do that
-                        // with TimerTasks
-                        long taskPeriod = this.unsolicitedReportIntervalMs;
-
-                        // We delay one task period because we will call run()
-                        // immediately.
-                        stateChangeReport.schedule(taskPeriod, taskPeriod);
-
-                        this.pendingStateChangeReports.put(groupAddress, stateChangeReport);
-                    }
-                }
-                else {
-                    // There is a pending report - update the group change sets and reset
-                    // the retransmission count
-                    stateChangeReport.updateSourceSet(newSourceSet);
-                }
+    /**
+     * Records a source added to or removed from the source list of a group.
+     * Must be called while holding the group lock.
+     * 
+     * @param group
+     * @param sourceAddress
+     * @param isAdded
+     */
+    private void updateSourceSet(final GroupState group, final InetAddress sourceAddress, final boolean isAdded) {
+        if (group.modeChangeTransmissionsRemaining > 0) {
+            // The pending filter mode change record will carry the new source list
+            scheduleStateChangeReport(group, true);
+        }
+        else {
+            group.updateSourceSet(sourceAddress, isAdded);
+            scheduleStateChangeReport(group, false);
+        }
+    }
 
-                // Send the first state change report immediately
-                stateChangeReport.run();
-            }
+    /**
+     * Resets the retransmission count for the pending state-change records of a group
+     * and schedules the records to be sent immediately.
+     * Must be called while holding the group lock.
+     * 
+     * @param group
+     * @param isModeChange
+     */
+    private void scheduleStateChangeReport(final GroupState group, final boolean isModeChange) {
+        int transmissionCount = Math.max(this.robustnessVariable - 1, 1);
+        if (isModeChange) {
+            group.modeChangeTransmissionsRemaining = transmissionCount;
+            group.sourceChangeTransmissionsRemaining = 0;
         }
+        else {
+            group.sourceChangeTransmissionsRemaining = transmissionCount;
+        }
+        group.stateChangeReportTime = System.currentTimeMillis();
+        schedule(group, group.stateChangeReportTime);
     }
 
     /**
@@ -448,27 +577,6 @@ final class InterfaceMembershipManager
      * <pre>
      * 5.2. Action on Reception of a Query
      * 
-     *    When a system receives a Query, it does not respond immediately.
-     *    Instead, it delays its response by a random amount of time, bounded
-     *    by the Max Resp Time value derived from the Max Resp Code in the
-     *    received Query message.  A system may receive a variety of Queries on
-     *    different interfaces and of different kinds (e.g., General Queries,
-     *    Group-Specific Queries, and Group-and-Source-Specific Queries), each
-     *    of which may require its own delayed response.
-     * 
-     *    Before scheduling a response to a Query, the system must first
-     *    consider previously scheduled pending responses and in many cases
-     *    schedule a combined response.  Therefore, the system must be able to
-     *    maintain the following state:
-     * 
-     *    o A timer per interface for scheduling responses to General Queries.
-     * 
-     *    o A per-group and interface timer for scheduling responses to Group-
-     *      Specific and Group-and-Source-Specific Queries.
-     * 
-     *    o A per-group and interface list of sources to be reported in the
-     *      response to a Group-and-Source-Specific Query.
-     * 
      *    When a new Query with the Router-Alert option arrives on an
      *    interface, provided the system has state to report, a delay for a
      *    response is randomly selected in the range (0, [Max Resp Time]) where
@@ -510,6 +618,9 @@ final class InterfaceMembershipManager
      *       report and the selected delay.
      * </pre>
      * 
+     * Responses are sent by the report scheduler, so a response is never sent on
+     * the thread that delivers the query.
+     * 
      * @param queryMessage
      */
     void handle(final MembershipQuery queryMessage) {
@@ -522,244 +633,243 @@ final class InterfaceMembershipManager
 
         this.robustnessVariable = queryMessage.getRobustnessVariable();
 
-        if (!this.useRandomDelay) {
-            if (queryMessage.isGeneralQuery()) {
-                sendGeneralQueryResponse();
+        long taskDelay = 0;
+        if (this.useRandomDelay) {
+            // Response must be delayed by a random amount of time within
+            // the range (0,maximum response delay) as specified in the query.
+            taskDelay = Math.round(Math.random() * queryMessage.getMaximumResponseDelay());
+        }
+
+        long responseTime = System.currentTimeMillis() + taskDelay;
+
+        if (queryMessage.isGeneralQuery()) {
+
+            if (logger.isLoggable(Level.FINER)) {
+                logger.finer(this.log.msg("scheduling general query report delay=" + taskDelay + "ms"));
             }
-            else {
-                sendGroupQueryResponse(queryMessage.getGroupAddress(), queryMessage.getSourceAddresses());
+
+            synchronized (this.schedulerLock) {
+                this.generalQueryResponseTime = responseTime;
+                scheduleTask(responseTime);
             }
+            return;
         }
-        else {
 
-            // Response must be delayed by a random amount of time within
-            // the range (0,maximum response delay) as specified in the query.
-            long taskDelay = Math.round(Math.random() * queryMessage.getMaximumResponseDelay());
+        // Query is group-specific or group-source-specific
 
-            if (queryMessage.isGeneralQuery()) {
+        synchronized (this.schedulerLock) {
+            // No need to send a group query if a general query is already scheduled
+            // for earlier delivery.
+            if (this.generalQueryResponseTime <= responseTime) {
+                return;
+            }
+        }
 
-                // Schedule the general query if none is pending, or reschedule pending
-                // General Query
+        InetAddress groupAddress = queryMessage.getGroupAddress();
+        HashSet<InetAddress> querySourceSet = queryMessage.getSourceAddresses();
 
-                if (logger.isLoggable(Level.FINER)) {
-                    logger.finer(this.log.msg("rescheduling general query report delay=" + taskDelay + "ms"));
-                }
+        synchronized (getLock(groupAddress)) {
+
+            GroupState group = this.interfaceReceptionState.get(groupAddress);
 
-                this.pendingGeneralQueryReport.schedule(taskDelay);
+            // Don't schedule a response if there is no reception state for group
+            if (group == null || !group.hasReceptionState()) {
+                return;
+            }
+
+            if (group.querySourceSet == null) {
+                group.querySourceSet = querySourceSet != null ? new HashSet<InetAddress>(querySourceSet) : new HashSet<InetAddress>();
+                group.queryResponseTime = responseTime;
             }
             else {
-                // Query is group-specific or group-source-specific
-
-                // Check for pending general query response
-                // No need to send a group query if a general query is already scheduled
-                // for earlier delivery.
-                if (this.pendingGeneralQueryReport.getTimeRemaining() > taskDelay) {
-
-                    synchronized (this.pendingGroupQueryReports) {
-
-                        // Check for pending group query response
-                        GroupQueryReportTask response = this.pendingGroupQueryReports.get(queryMessage.getGroupAddress());
-                        if (response == null) {
-                            response = new GroupQueryReportTask(this.taskTimer,
-                                                                this,
-                                                                queryMessage.getGroupAddress(),
-                                                                queryMessage.getSourceAddresses());
-                            this.pendingGroupQueryReports.put(queryMessage.getGroupAddress(), response);
-                            response.schedule(taskDelay);
-                        }
-                        else {
-                            // There may be a pending response
-                            // Get the time remaining, if any, for the existing response
-                            // (will be MAX_VALUE if not scheduled)
-                            long timeRemaining = response.getTimeRemaining();
-
-                            // Set delay to earliest of the two
-                            taskDelay = timeRemaining < taskDelay ? timeRemaining : taskDelay;
-
-                            // Cancel the response so we can update the source set and
-                            // reschedule with a new session token
-                            response.cancel();
-                            response.updateQuerySourceSet(queryMessage.getSourceAddresses());
-                            response.schedule(taskDelay);
-                        }
-                    }
+                if (querySourceSet == null || querySourceSet.isEmpty() || group.querySourceSet.isEmpty()) {
+                    group.querySourceSet.clear();
+                }
+                else {
+                    group.querySourceSet.addAll(querySourceSet);
                 }
+                group.queryResponseTime = Math.min(group.queryResponseTime, responseTime);
             }
+
+            schedule(group, group.queryResponseTime);
         }
     }
 
     /**
-     * @param groupAddress
-     * @param type
-     * @param sourceSet
+     * Queues a group for the report scheduler.
+     * Must be called while holding the group lock.
+     * 
+     * @param group
+     * @param time
      */
-    void sendGroupMembershipReport(final InetAddress groupAddress,
-                                   final GroupMembershipRecord.Type type,
-                                   final HashSet<InetAddress> sourceSet) {
-
-        if (logger.isLoggable(Level.FINER)) {
-            logger.finer(this.log.entry("InterfaceMembershipManager.sendGroupMembershipReport",
-                                        Logging.address(groupAddress),
-                                        type,
-                                        sourceSet));
-        }
-
-        MembershipReport report = new MembershipReport();
-        report.addRecord(new GroupMembershipRecord(groupAddress, type, sourceSet));
-
-        try {
-            this.outgoingReportChannel.send(report, Integer.MAX_VALUE);
-        }
-        catch (PortUnreachableException e) {
-            // TODO:
-        }
-        catch (IOException e) {
-            // TODO
-            throw new Error(e);
-        }
-        catch (InterruptedException e) {
+    private void schedule(final GroupState group, final long time) {
+        synchronized (this.schedulerLock) {
+            if (time < group.scheduledTime) {
+                group.scheduledTime = time;
+                this.scheduledGroups.add(new ScheduledGroup(time, group));
+                scheduleTask(time);
+            }
         }
     }
 
     /**
-     * @param groupAddress
-     * @param mode
-     * @param sourceSet
-     * @param transmissionsRemaining
+     * Schedules the report scheduler task to run at the specified time unless it
+     * is already scheduled to run sooner.
+     * Must be called while holding the scheduler lock.
+     * 
+     * @param time
      */
-    void sendGroupFilterModeChangeReport(final InetAddress groupAddress,
-                                         final SourceFilter.Mode mode,
-                                         final HashSet<InetAddress> sourceSet,
-                                         final int transmissionsRemaining) {
-
-        if (logger.isLoggable(Level.FINER)) {
-            logger.finer(this.log.entry("InterfaceMembershipManager.sendGroupFilterModeChangeReport",
-                                        Logging.address(groupAddress),
-                                        mode,
-                                        sourceSet,
-                                        transmissionsRemaining));
-        }
-
-        if (logger.isLoggable(Level.FINE)) {
-            logger.fine(this.log.msg("sending membership report for group filter mode change"));
-        }
-
-        GroupMembershipRecord.Type type = (mode == SourceFilter.Mode.INCLUDE ?
-                        GroupMembershipRecord.Type.CHANGE_TO_INCLUDE_MODE :
-                        GroupMembershipRecord.Type.CHANGE_TO_EXCLUDE_MODE);
-
-        sendGroupMembershipReport(groupAddress, type, sourceSet);
-
-        if (transmissionsRemaining == 0) {
-            synchronized (this.pendingStateChangeReports) {
-                this.pendingStateChangeReports.remove(groupAddress);
+    private void scheduleTask(final long time) {
+        if (time < this.schedulerTime) {
+            if (this.schedulerHandle != null) {
+                this.schedulerHandle.cancel();
             }
+            this.schedulerTime = time;
+            this.schedulerHandle = this.taskTimer.schedule(this.schedulerTask,
+                                                           Math.max(time - System.currentTimeMillis(), 0));
         }
     }
 
     /**
-     * @param groupAddress
-     * @param allowNewSources
-     * @param blockOldSources
-     * @param transmissionsRemaining
+     * Sends the state-change records and query responses that are due for every group.
+     * State-change records are sent in one report and current-state records in another.
+     * Called by the report scheduler task.
      */
-    void sendGroupSourceSetChangeReport(final InetAddress groupAddress,
-                                        final HashSet<InetAddress> allowNewSources,
-                                        final HashSet<InetAddress> blockOldSources,
-                                        final int transmissionsRemaining) {
+    private void sendPendingReports() {
 
         if (logger.isLoggable(Level.FINER)) {
-            logger.finer(this.log.entry("InterfaceMembershipManager.sendGroupStateChangeReport",
-                                        Logging.address(groupAddress),
-                                        allowNewSources,
-                                        blockOldSources,
-                                        transmissionsRemaining));
+            logger.finer(this.log.entry("InterfaceMembershipManager.sendPendingReports"));
         }
 
-        if (!allowNewSources.isEmpty() || !blockOldSources.isEmpty()) {
+        long now = System.currentTimeMillis();
 
-            MembershipReport report = new MembershipReport();
+        ArrayList<GroupState> dueGroups = new ArrayList<GroupState>();
+        boolean isGeneralQueryResponseDue = false;
 
-            if (!allowNewSources.isEmpty()) {
-                report.addRecord(new GroupMembershipRecord(groupAddress,
-                                                           GroupMembershipRecord.Type.ALLOW_NEW_SOURCES,
-                                                           allowNewSources));
+        synchronized (this.schedulerLock) {
+            this.schedulerHandle = null;
+            this.schedulerTime = NOT_SCHEDULED;
+            while (!this.scheduledGroups.isEmpty() && this.scheduledGroups.peek().time <= now) {
+                ScheduledGroup entry = this.scheduledGroups.poll();
+                if (entry.group.scheduledTime == entry.time) {
+                    entry.group.scheduledTime = NOT_SCHEDULED;
+                    dueGroups.add(entry.group);
+                }
             }
+            if (this.generalQueryResponseTime <= now) {
+                this.generalQueryResponseTime = NOT_SCHEDULED;
+                isGeneralQueryResponseDue = true;
+            }
+        }
+
+        MembershipReport stateChangeReport = new MembershipReport();
+        MembershipReport currentStateReport = new MembershipReport();
 
-            if (!blockOldSources.isEmpty()) {
-                report.addRecord(new GroupMembershipRecord(groupAddress,
-                                                           GroupMembershipRecord.Type.BLOCK_OLD_SOURCES,
-                                                           blockOldSources));
+        for (GroupState group : dueGroups) {
+            synchronized (getLock(group.groupAddress)) {
+                addDueRecords(group, now, stateChangeReport, currentStateReport, isGeneralQueryResponseDue);
             }
+        }
 
+        if (isGeneralQueryResponseDue) {
+            addGeneralQueryResponseRecords(currentStateReport);
+        }
+
+        if (!stateChangeReport.getRecords().isEmpty()) {
             if (logger.isLoggable(Level.FINE)) {
-                logger.fine(this.log.msg("sending membership report for group source set change"));
+                logger.fine(this.log.msg("sending membership report for " + stateChangeReport.getRecords().size() +
+                                         " group state change record(s)"));
             }
+            sendReport(stateChangeReport);
+        }
 
-            try {
-                this.outgoingReportChannel.send(report, Integer.MAX_VALUE);
-            }
-            catch (PortUnreachableException e) {
-                // TODO
-            }
-            catch (IOException e) {
-                // TODO
-                throw new Error(e);
-            }
-            catch (InterruptedException e) {
+        if (isGeneralQueryResponseDue || !currentStateReport.getRecords().isEmpty()) {
+            if (logger.isLoggable(Level.FINE)) {
+                logger.fine(this.log.msg("sending membership report for " + currentStateReport.getRecords().size() +
+                                         " current state record(s)"));
             }
+            sendReport(currentStateReport);
         }
 
-        if (transmissionsRemaining == 0) {
-            synchronized (this.pendingStateChangeReports) {
-                this.pendingStateChangeReports.remove(groupAddress);
+        synchronized (this.schedulerLock) {
+            if (!this.scheduledGroups.isEmpty()) {
+                scheduleTask(this.scheduledGroups.peek().time);
+            }
+            if (this.generalQueryResponseTime != NOT_SCHEDULED) {
+                scheduleTask(this.generalQueryResponseTime);
             }
         }
     }
 
     /**
-     * 
+     * Adds the state-change records and query response that are due for a group
+     * to the reports and reschedules any retransmissions.
+     * Must be called while holding the group lock.
+     * 
+     * @param group
+     * @param now
+     * @param stateChangeReport
+     * @param currentStateReport
+     * @param isGeneralQueryResponseDue
+     *            Indicates whether the group query response is superseded by a general
+     *            query response.
      */
-    void sendGeneralQueryResponse() {
-
-        if (logger.isLoggable(Level.FINER)) {
-            logger.finer(this.log.entry("InterfaceMembershipManager.sendGeneralQueryResponse"));
-        }
-
-        MembershipReport report = new MembershipReport();
-
-        for (SourceFilter filter : this.interfaceReceptionState.values()) {
-
-            GroupMembershipRecord.Type type = (filter.getMode() == SourceFilter.Mode.INCLUDE ?
-                            GroupMembershipRecord.Type.MODE_IS_INCLUDE :
-                            GroupMembershipRecord.Type.MODE_IS_EXCLUDE);
-
-            if (logger.isLoggable(Level.FINER)) {
-                logger.finer(this.log.msg("adding record type=" + type.name() + " group="
-                                          + Logging.address(filter.getGroupAddress()) + " source-count="
-                                          + filter.getSourceSet().size()));
+    private void addDueRecords(final GroupState group,
+                               final long now,
+                               final MembershipReport stateChangeReport,
+                               final MembershipReport currentStateReport,
+                               final boolean isGeneralQueryResponseDue) {
+
+        if (group.stateChangeReportTime <= now) {
+
+            if (group.modeChangeTransmissionsRemaining > 0) {
+                group.modeChangeTransmissionsRemaining--;
+                GroupMembershipRecord.Type type = (group.filter.getMode() == SourceFilter.Mode.INCLUDE ?
+                                GroupMembershipRecord.Type.CHANGE_TO_INCLUDE_MODE :
+                                GroupMembershipRecord.Type.CHANGE_TO_EXCLUDE_MODE);
+                stateChangeReport.addRecord(new GroupMembershipRecord(group.groupAddress,
+                                                                      type,
+                                                                      new HashSet<InetAddress>(group.filter.getSourceSet())));
+            }
+            else if (group.sourceChangeTransmissionsRemaining > 0) {
+                group.sourceChangeTransmissionsRemaining--;
+                if (group.allowNewSources != null && !group.allowNewSources.isEmpty()) {
+                    stateChangeReport.addRecord(new GroupMembershipRecord(group.groupAddress,
+                                                                          GroupMembershipRecord.Type.ALLOW_NEW_SOURCES,
+                                                                          new HashSet<InetAddress>(group.allowNewSources)));
+                }
+                if (group.blockOldSources != null && !group.blockOldSources.isEmpty()) {
+                    stateChangeReport.addRecord(new GroupMembershipRecord(group.groupAddress,
+                                                                          GroupMembershipRecord.Type.BLOCK_OLD_SOURCES,
+                                                                          new HashSet<InetAddress>(group.blockOldSources)));
+                }
             }
 
-            report.addRecord(new GroupMembershipRecord(filter.getGroupAddress(), type, filter.getSourceSet()));
+            if (group.modeChangeTransmissionsRemaining + group.sourceChangeTransmissionsRemaining > 0) {
+                // This is supposed to be random (0,interval)
+                group.stateChangeReportTime = now + this.unsolicitedReportIntervalMs;
+            }
+            else {
+                group.stateChangeReportTime = NOT_SCHEDULED;
+                group.clearSourceChanges();
+            }
         }
 
-        if (logger.isLoggable(Level.FINE)) {
-            logger.fine(this.log.msg("sending membership report for general query"));
+        if (group.queryResponseTime <= now) {
+            if (!isGeneralQueryResponseDue) {
+                addGroupQueryResponseRecord(group, currentStateReport);
+            }
+            group.querySourceSet = null;
+            group.queryResponseTime = NOT_SCHEDULED;
         }
 
-        try {
-            this.outgoingReportChannel.send(report, Integer.MAX_VALUE);
+        long nextTime = Math.min(group.stateChangeReportTime, group.queryResponseTime);
+        if (nextTime != NOT_SCHEDULED) {
+            schedule(group, nextTime);
         }
-        catch (PortUnreachableException e) {
-            // TODO
-        }
-        catch (IOException e) {
-            // TODO
-            throw new Error(e);
-        }
-        catch (InterruptedException e) {
+        else {
+            removeIfIdle(group);
         }
-
     }
 
     /**
@@ -784,62 +894,99 @@ final class InterfaceMembershipManager
      *  addresses, then no response is sent.
      * </pre>
      * 
-     * @param groupAddress
-     * @param sourceSet
+     * Must be called while holding the group lock.
+     * 
+     * @param group
+     * @param report
      */
-    void sendGroupQueryResponse(final InetAddress groupAddress,
-                                final HashSet<InetAddress> querySourceSet) {
+    private void addGroupQueryResponseRecord(final GroupState group, final MembershipReport report) {
 
-        if (logger.isLoggable(Level.FINER)) {
-            logger.finer(this.log.entry("InterfaceMembershipManager.sendGroupMembershipReport",
-                                        Logging.address(groupAddress),
-                                        querySourceSet));
+        // Don't send a response if there is no reception state for group
+        if (!group.hasReceptionState()) {
+            return;
         }
 
-        HashSet<InetAddress> responseSourceSet;
+        SourceFilter filter = group.filter;
 
-        synchronized (this.interfaceReceptionState) {
+        if (group.querySourceSet.isEmpty()) {
 
-            SourceFilter filter = this.interfaceReceptionState.get(groupAddress);
+            // Group-specific query - report the filter mode and source set for
+            // the group
+            GroupMembershipRecord.Type type = (filter.getMode() == SourceFilter.Mode.INCLUDE ?
+                            GroupMembershipRecord.Type.MODE_IS_INCLUDE :
+                            GroupMembershipRecord.Type.MODE_IS_EXCLUDE);
 
-            // Don't send a response if there is no filter - there is no reception state
-            // for group
-            if (filter != null) {
-                if (querySourceSet == null || querySourceSet.isEmpty()) {
+            report.addRecord(new GroupMembershipRecord(group.groupAddress, type, new HashSet<InetAddress>(filter.getSourceSet())));
+        }
+        else {
+            HashSet<InetAddress> responseSourceSet = new HashSet<InetAddress>(group.querySourceSet);
+            if (filter.getMode() == SourceFilter.Mode.INCLUDE) {
+                // (A*B)
+                responseSourceSet.retainAll(filter.getSourceSet());
+            }
+            else {
+                // (B-A)
+                responseSourceSet.removeAll(filter.getSourceSet());
+            }
 
-                    // Group-specific query - report the filter mode and source set for
-                    // the group
-                    responseSourceSet = filter.getSourceSet();
+            // Only send a report if there are sources in the response
+            if (!responseSourceSet.isEmpty()) {
+                // Source query responses are sent with MODE_IS_INCLUDE
+                report.addRecord(new GroupMembershipRecord(group.groupAddress,
+                                                           GroupMembershipRecord.Type.MODE_IS_INCLUDE,
+                                                           responseSourceSet));
+            }
+        }
+    }
 
-                    GroupMembershipRecord.Type type = (filter.getMode() == SourceFilter.Mode.INCLUDE ?
-                                    GroupMembershipRecord.Type.MODE_IS_INCLUDE :
-                                    GroupMembershipRecord.Type.MODE_IS_EXCLUDE);
+    /**
+     * Adds a current-state record for every group with reception state.
+     * 
+     * @param report
+     */
+    private void addGeneralQueryResponseRecords(final MembershipReport report) {
+
+        for (GroupState group : this.interfaceReceptionState.values()) {
+
+            synchronized (getLock(group.groupAddress)) {
 
-                    sendGroupMembershipReport(groupAddress, type, responseSourceSet);
+                if (!group.hasReceptionState()) {
+                    continue;
                 }
-                else {
-                    responseSourceSet = new HashSet<InetAddress>(querySourceSet);
-                    if (filter.getMode() == SourceFilter.Mode.INCLUDE) {
-                        // (A*B)
-                        responseSourceSet.retainAll(filter.getSourceSet());
-                    }
-                    else {
-                        // (B-A)
-                        responseSourceSet.removeAll(filter.getSourceSet());
-                    }
 
-                    // Only send a report if there are sources in the response
-                    if (!responseSourceSet.isEmpty()) {
+                SourceFilter filter = group.filter;
 
-                        if (logger.isLoggable(Level.FINE)) {
-                            logger.fine(this.log.msg("sending membership report in response to group-specific query"));
-                        }
+                GroupMembershipRecord.Type type = (filter.getMode() == SourceFilter.Mode.INCLUDE ?
+                                GroupMembershipRecord.Type.MODE_IS_INCLUDE :
+                                GroupMembershipRecord.Type.MODE_IS_EXCLUDE);
 
-                        // Source query responses are sent with MODE_IS_INCLUDE
-                        sendGroupMembershipReport(groupAddress, GroupMembershipRecord.Type.MODE_IS_INCLUDE, responseSourceSet);
-                    }
+                if (logger.isLoggable(Level.FINER)) {
+                    logger.finer(this.log.msg("adding record type=" + type.name() + " group="
+                                              + Logging.address(group.groupAddress) + " source-count="
+                                              + filter.getSourceSet().size()));
                 }
+
+                report.addRecord(new GroupMembershipRecord(group.groupAddress, type, new HashSet<InetAddress>(filter.getSourceSet())));
             }
         }
     }
+
+    /**
+     * @param report
+     */
+    private void sendReport(final MembershipReport report) {
+        try {
+            this.outgoingReportChannel.send(report, Integer.MAX_VALUE);
+        }
+        catch (PortUnreachableException e) {
+            // TODO
+        }
+        catch (IOException e) {
+            logger.warning(this.log.msg("attempt to send membership report failed - " +
+                                        e.getClass().getName() + " " + e.getMessage()));
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
 }
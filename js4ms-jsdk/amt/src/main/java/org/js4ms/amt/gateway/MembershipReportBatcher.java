@@ -0,0 +1,577 @@
+package org.js4ms.amt.gateway;
+
+/*
+ * #%L
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * MembershipReportBatcher.java [org.js4ms.jsdk:amt]
+ * %%
+ * Copyright (C) 2009 - 2014 Cisco Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.js4ms.amt.message.GroupMembershipRecord;
+import org.js4ms.amt.proxy.MembershipReport;
+import org.js4ms.common.util.logging.Log;
+import org.js4ms.common.util.task.HashedWheelTimer;
+import org.js4ms.common.util.task.TimerHandle;
+import org.js4ms.io.channel.OutputChannel;
+
+
+
+/**
+ * An {@link OutputChannel} that coalesces the group records carried in
+ * membership reports produced by an {@link InterfaceMembershipManager}
+ * and forwards them in as few reports as possible.
+ * <p>
+ * Records received within a short window are merged per group.
+ * State-change and current-state records are merged separately:
+ * a filter-mode-change record replaces any earlier state-change record
+ * for the group, and later source-list-change records are folded into it;
+ * otherwise source-list-change records are accumulated as a single
+ * ALLOW and a single BLOCK record. A current-state record replaces any earlier
+ * current-state record for the group and is updated by later state-change records.
+ * When the window expires, or the pending records fill a report, the records are
+ * packed into reports that fit the tunnel MTU, splitting records with long source
+ * lists as described in RFC-3376 section 4.2.16 and RFC-3810 section 5.2.15.
+ * State-change records and current-state records are never sent in the same report.
+ * <p>
+ * A window of zero forwards each report immediately, though large reports
+ * are still split to fit the MTU.
+ *
+ * @author Greg Bumgardner (gbumgard)
+ */
+final class MembershipReportBatcher
+                implements OutputChannel<MembershipReport> {
+
+    /*-- Inner Classes ------------------------------------------------------*/
+
+    /**
+     * The records pending for a single group.
+     * State-change records and current-state records are held separately so that
+     * a current-state record sent in response to a query cannot replace a pending
+     * state-change record, or the reverse.
+     */
+    private static final class PendingGroup {
+
+        final InetAddress group;
+
+        /**
+         * The filter-mode-change record type, or <code>null</code>
+         * if only source-list-change records are pending.
+         */
+        GroupMembershipRecord.Type changeType = null;
+
+        final HashSet<InetAddress> changeSources = new HashSet<InetAddress>();
+
+        final HashSet<InetAddress> allowSources = new HashSet<InetAddress>();
+
+        final HashSet<InetAddress> blockSources = new HashSet<InetAddress>();
+
+        /**
+         * The current-state record type, or <code>null</code>
+         * if no current-state record is pending.
+         */
+        GroupMembershipRecord.Type currentType = null;
+
+        final HashSet<InetAddress> currentSources = new HashSet<InetAddress>();
+
+        PendingGroup(final InetAddress group) {
+            this.group = group;
+        }
+
+        /**
+         * Merges a record into the pending state for the group.
+         * A state-change record is also applied to a pending current-state record
+         * so that the current-state record does not report a superseded state.
+         *
+         * @param record
+         */
+        void merge(final GroupMembershipRecord record) {
+            GroupMembershipRecord.Type type = record.getRecordType();
+            HashSet<InetAddress> sources = record.getSources();
+            switch (type) {
+                case ALLOW_NEW_SOURCES:
+                case BLOCK_OLD_SOURCES:
+                    boolean isAllow = type == GroupMembershipRecord.Type.ALLOW_NEW_SOURCES;
+                    if (this.changeType == null) {
+                        (isAllow ? this.blockSources : this.allowSources).removeAll(sources);
+                        (isAllow ? this.allowSources : this.blockSources).addAll(sources);
+                    }
+                    else {
+                        updateSources(this.changeType, this.changeSources, sources, isAllow);
+                    }
+                    if (this.currentType != null) {
+                        updateSources(this.currentType, this.currentSources, sources, isAllow);
+                    }
+                    break;
+                case CHANGE_TO_INCLUDE_MODE:
+                case CHANGE_TO_EXCLUDE_MODE:
+                    this.changeType = type;
+                    this.changeSources.clear();
+                    this.changeSources.addAll(sources);
+                    this.allowSources.clear();
+                    this.blockSources.clear();
+                    if (this.currentType != null) {
+                        this.currentType = type == GroupMembershipRecord.Type.CHANGE_TO_INCLUDE_MODE
+                                                        ? GroupMembershipRecord.Type.MODE_IS_INCLUDE
+                                                        : GroupMembershipRecord.Type.MODE_IS_EXCLUDE;
+                        this.currentSources.clear();
+                        this.currentSources.addAll(sources);
+                    }
+                    break;
+                default:
+                    if (type != GroupMembershipRecord.Type.MODE_IS_INCLUDE || this.currentType != type) {
+                        // Responses to group-and-source-specific queries for the same
+                        // INCLUDE state accumulate; any other record describes the whole state.
+                        this.currentSources.clear();
+                    }
+                    this.currentType = type;
+                    this.currentSources.addAll(sources);
+                    break;
+            }
+        }
+
+        /**
+         * @return The number of bytes required to encode the pending records.
+         */
+        int getEncodedLength(final int addressLength) {
+            int length = 0;
+            if (this.changeType != null) {
+                length += getRecordLength(addressLength, this.changeSources.size());
+            }
+            if (!this.allowSources.isEmpty()) {
+                length += getRecordLength(addressLength, this.allowSources.size());
+            }
+            if (!this.blockSources.isEmpty()) {
+                length += getRecordLength(addressLength, this.blockSources.size());
+            }
+            if (this.currentType != null) {
+                length += getRecordLength(addressLength, this.currentSources.size());
+            }
+            return length;
+        }
+
+        /**
+         * Applies a source-list-change to the source list of a filter-mode record.
+         *
+         * @param type
+         *            The filter-mode record type.
+         * @param stateSources
+         *            The source list of the filter-mode record.
+         * @param sources
+         *            The sources allowed or blocked.
+         * @param isAllow
+         */
+        private static void updateSources(final GroupMembershipRecord.Type type,
+                                          final HashSet<InetAddress> stateSources,
+                                          final HashSet<InetAddress> sources,
+                                          final boolean isAllow) {
+            if (isIncludeMode(type) == isAllow) {
+                stateSources.addAll(sources);
+            }
+            else {
+                stateSources.removeAll(sources);
+            }
+        }
+    }
+
+    /*-- Static Variables ---------------------------------------------------*/
+
+    /**
+     * The static logger instance for this class.
+     */
+    public static final Logger logger = Logger.getLogger(MembershipReportBatcher.class.getName());
+
+    /**
+     * System property used to set the number of milliseconds that group records
+     * are held so they may be coalesced with records that follow.
+     * Zero disables the delay. The default is {@link #DEFAULT_BATCH_WINDOW}.
+     */
+    static final String BATCH_WINDOW_PROPERTY = "org.js4ms.amt.gateway.report.batch.window";
+
+    /**
+     * The default batch window in milliseconds. Long enough to coalesce the reports
+     * produced by a burst of joins or leaves, short enough to add no noticeable
+     * join latency. The records are flushed on the first timer tick after the
+     * window expires.
+     */
+    static final int DEFAULT_BATCH_WINDOW = 5;
+
+    /**
+     * System property used to set the MTU of the path to the relay.
+     * Reports are split so the AMT membership update that carries each one
+     * fits in a single outer IPv4 datagram of this size.
+     */
+    static final String MTU_PROPERTY = "org.js4ms.amt.gateway.report.mtu";
+
+    static final int DEFAULT_MTU = 1500;
+
+    /**
+     * The bytes that precede the group records in an update message:
+     * outer IPv4 and UDP headers, the AMT membership update header
+     * and the IGMPv3 or MLDv2 report header.
+     */
+    private static final int UPDATE_OVERHEAD = 20 + 8 + 12 + 8;
+
+    /**
+     * The size of the IPv4 header and router alert option that carries an IGMP report.
+     */
+    private static final int IPV4_HEADER_LENGTH = 20 + 4;
+
+    /**
+     * The size of the IPv6 header and hop-by-hop options header that carries an MLD report.
+     */
+    private static final int IPV6_HEADER_LENGTH = 40 + 8;
+
+    /**
+     * The smallest record budget used regardless of the configured MTU.
+     */
+    private static final int MINIMUM_RECORD_BUDGET = 256;
+
+    /*-- Static Functions ---------------------------------------------------*/
+
+    /**
+     * @return The window specified by {@link #BATCH_WINDOW_PROPERTY}.
+     */
+    static long getBatchWindow() {
+        return getIntegerProperty(BATCH_WINDOW_PROPERTY, DEFAULT_BATCH_WINDOW);
+    }
+
+    /**
+     * @return The MTU specified by {@link #MTU_PROPERTY}.
+     */
+    static int getMtu() {
+        return getIntegerProperty(MTU_PROPERTY, DEFAULT_MTU);
+    }
+
+    /**
+     * @param name
+     * @param defaultValue
+     * @return The non-negative integer value of the named system property or the default value.
+     */
+    private static int getIntegerProperty(final String name, final int defaultValue) {
+        String property = System.getProperty(name);
+        if (property != null) {
+            try {
+                return Math.max(Integer.parseInt(property), 0);
+            }
+            catch (NumberFormatException e) {
+                logger.warning(name + "=" + property + " is not a valid integer value");
+            }
+        }
+        return defaultValue;
+    }
+
+    /**
+     * @param addressLength
+     * @param sourceCount
+     * @return The number of bytes required to encode an IGMPv3 or MLDv2 group record.
+     */
+    private static int getRecordLength(final int addressLength, final int sourceCount) {
+        return 4 + addressLength + sourceCount * addressLength;
+    }
+
+    /**
+     * @param type
+     * @return <code>true</code> if the record type describes an INCLUDE filter mode.
+     */
+    private static boolean isIncludeMode(final GroupMembershipRecord.Type type) {
+        return type == GroupMembershipRecord.Type.MODE_IS_INCLUDE || type == GroupMembershipRecord.Type.CHANGE_TO_INCLUDE_MODE;
+    }
+
+    /*-- Member Variables ---------------------------------------------------*/
+
+    protected final Log log = new Log(this);
+
+    /**
+     * Object used for synchronizing access to state variables.
+     */
+    private final Object lock = new Object();
+
+    private final OutputChannel<MembershipReport> outputChannel;
+
+    private final HashedWheelTimer taskTimer;
+
+    private final long window;
+
+    private final int addressLength;
+
+    /**
+     * The number of group record bytes that may be carried in a single report.
+     */
+    private final int recordBudget;
+
+    private final LinkedHashMap<InetAddress, PendingGroup> pendingGroups = new LinkedHashMap<InetAddress, PendingGroup>();
+
+    private TimerHandle flushTask = null;
+
+    /*-- Member Functions ---------------------------------------------------*/
+
+    /**
+     * @param outputChannel
+     *            The channel that receives the coalesced reports.
+     * @param isIPv4
+     *            Indicates whether the reports carry IPv4 or IPv6 group records.
+     * @param taskTimer
+     *            The timer used to flush pending records.
+     */
+    MembershipReportBatcher(final OutputChannel<MembershipReport> outputChannel,
+                            final boolean isIPv4,
+                            final HashedWheelTimer taskTimer) {
+        this(outputChannel, isIPv4, taskTimer, getBatchWindow(), getMtu());
+    }
+
+    /**
+     * @param outputChannel
+     *            The channel that receives the coalesced reports.
+     * @param isIPv4
+     *            Indicates whether the reports carry IPv4 or IPv6 group records.
+     * @param taskTimer
+     *            The timer used to flush pending records.
+     * @param window
+     *            The number of milliseconds that records are held before they are sent.
+     * @param mtu
+     *            The MTU of the path to the relay.
+     */
+    MembershipReportBatcher(final OutputChannel<MembershipReport> outputChannel,
+                            final boolean isIPv4,
+                            final HashedWheelTimer taskTimer,
+                            final long window,
+                            final int mtu) {
+        this.outputChannel = outputChannel;
+        this.taskTimer = taskTimer;
+        this.window = window;
+        this.addressLength = isIPv4 ? 4 : 16;
+        this.recordBudget = Math.max(mtu - UPDATE_OVERHEAD - (isIPv4 ? IPV4_HEADER_LENGTH : IPV6_HEADER_LENGTH),
+                                     MINIMUM_RECORD_BUDGET);
+    }
+
+    @Override
+    public void send(final MembershipReport report, final int milliseconds) throws IOException, InterruptedException {
+
+        if (logger.isLoggable(Level.FINER)) {
+            logger.finer(this.log.entry("MembershipReportBatcher.send", report, milliseconds));
+        }
+
+        synchronized (this.lock) {
+
+            if (report.getRecords().isEmpty()) {
+                // An empty report is a response to a general query when there are no
+                // memberships - send it unless pending records will carry the response.
+                if (this.pendingGroups.isEmpty()) {
+                    this.outputChannel.send(report, milliseconds);
+                }
+                else {
+                    flush();
+                }
+                return;
+            }
+
+            for (GroupMembershipRecord record : report.getRecords()) {
+                PendingGroup pending = this.pendingGroups.get(record.getGroup());
+                if (pending == null) {
+                    pending = new PendingGroup(record.getGroup());
+                    this.pendingGroups.put(record.getGroup(), pending);
+                }
+                pending.merge(record);
+            }
+
+            if (this.window == 0 || getEncodedLength() >= this.recordBudget) {
+                flush();
+            }
+            else if (this.flushTask == null) {
+                this.flushTask = this.taskTimer.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        synchronized (MembershipReportBatcher.this.lock) {
+                            MembershipReportBatcher.this.flushTask = null;
+                            try {
+                                flush();
+                            }
+                            catch (Exception e) {
+                                logger.warning(MembershipReportBatcher.this.log.msg("attempt to send membership report failed - "
+                                                                                    + e.getClass().getName() + " "
+                                                                                    + e.getMessage()));
+                            }
+                        }
+                    }
+                }, this.window);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException, InterruptedException {
+
+        if (logger.isLoggable(Level.FINER)) {
+            logger.finer(this.log.entry("MembershipReportBatcher.close"));
+        }
+
+        synchronized (this.lock) {
+            flush();
+        }
+        this.outputChannel.close();
+    }
+
+    /**
+     * @return The number of bytes required to encode all pending records.
+     */
+    private int getEncodedLength() {
+        int length = 0;
+        for (PendingGroup pending : this.pendingGroups.values()) {
+            length += pending.getEncodedLength(this.addressLength);
+        }
+        return length;
+    }
+
+    /**
+     * Packs the pending records into as few reports as possible and sends them.
+     * Must be called while holding the lock.
+     *
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    private void flush() throws IOException, InterruptedException {
+
+        if (this.flushTask != null) {
+            this.flushTask.cancel();
+            this.flushTask = null;
+        }
+
+        if (this.pendingGroups.isEmpty()) {
+            return;
+        }
+
+        ArrayList<MembershipReport> reports = new ArrayList<MembershipReport>();
+        reports.add(new MembershipReport());
+        int remaining = this.recordBudget;
+
+        for (PendingGroup pending : this.pendingGroups.values()) {
+            if (pending.changeType != null) {
+                remaining = pack(reports, remaining, pending.group, pending.changeType, pending.changeSources);
+            }
+            if (!pending.allowSources.isEmpty()) {
+                remaining = pack(reports, remaining, pending.group, GroupMembershipRecord.Type.ALLOW_NEW_SOURCES,
+                                 pending.allowSources);
+            }
+            if (!pending.blockSources.isEmpty()) {
+                remaining = pack(reports, remaining, pending.group, GroupMembershipRecord.Type.BLOCK_OLD_SOURCES,
+                                 pending.blockSources);
+            }
+        }
+
+        // Current-state records are sent in reports of their own, after the state-change records
+        for (PendingGroup pending : this.pendingGroups.values()) {
+            if (pending.currentType != null) {
+                if (remaining != this.recordBudget && !isCurrentStateReport(reports.get(reports.size() - 1))) {
+                    reports.add(new MembershipReport());
+                    remaining = this.recordBudget;
+                }
+                remaining = pack(reports, remaining, pending.group, pending.currentType, pending.currentSources);
+            }
+        }
+
+        this.pendingGroups.clear();
+
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine(this.log.msg("sending " + reports.size() + " coalesced membership report(s)"));
+        }
+
+        for (MembershipReport next : reports) {
+            this.outputChannel.send(next, Integer.MAX_VALUE);
+        }
+    }
+
+    /**
+     * @param report
+     * @return <code>true</code> if the report carries current-state records.
+     */
+    private static boolean isCurrentStateReport(final MembershipReport report) {
+        if (report.getRecords().isEmpty()) {
+            return false;
+        }
+        GroupMembershipRecord.Type type = report.getRecords().iterator().next().getRecordType();
+        return type == GroupMembershipRecord.Type.MODE_IS_INCLUDE || type == GroupMembershipRecord.Type.MODE_IS_EXCLUDE;
+    }
+
+    /**
+     * Adds the records needed to carry a source list to the last report in the list,
+     * starting new reports as each one fills.
+     *
+     * @param reports
+     *            The reports constructed so far. The last entry is the report being filled.
+     * @param remaining
+     *            The number of record bytes remaining in the report being filled.
+     * @param group
+     * @param type
+     * @param sources
+     * @return The number of record bytes remaining in the last report.
+     */
+    private int pack(final ArrayList<MembershipReport> reports,
+                     int remaining,
+                     final InetAddress group,
+                     final GroupMembershipRecord.Type type,
+                     final HashSet<InetAddress> sources) {
+
+        MembershipReport report = reports.get(reports.size() - 1);
+
+        int maximumSources = (this.recordBudget - getRecordLength(this.addressLength, 0)) / this.addressLength;
+
+        boolean isExclude = type == GroupMembershipRecord.Type.MODE_IS_EXCLUDE
+                            || type == GroupMembershipRecord.Type.CHANGE_TO_EXCLUDE_MODE;
+
+        Iterator<InetAddress> iter = sources.iterator();
+        int unreported = sources.size();
+
+        do {
+            int count = Math.min(unreported, maximumSources);
+            if (remaining < getRecordLength(this.addressLength, count)) {
+                // Start a new report when the record will not fit in the current one.
+                report = new MembershipReport();
+                reports.add(report);
+                remaining = this.recordBudget;
+            }
+
+            HashSet<InetAddress> subset = new HashSet<InetAddress>();
+            while (subset.size() < count) {
+                subset.add(iter.next());
+            }
+            unreported -= count;
+
+            report.addRecord(new GroupMembershipRecord(group, type, subset));
+            remaining -= getRecordLength(this.addressLength, count);
+
+            if (isExclude && unreported > 0) {
+                // An exclude record cannot be split - report as many sources as will fit.
+                logger.warning(this.log.msg("truncated source list in " + type.name() + " record for group "
+                                            + group.getHostAddress()));
+                break;
+            }
+        }
+        while (unreported > 0);
+
+        return remaining;
+    }
+}
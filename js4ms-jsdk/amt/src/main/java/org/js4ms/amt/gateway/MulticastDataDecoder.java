@@ -0,0 +1,302 @@
+package org.js4ms.amt.gateway;
+
+/*
+ * #%L
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * MulticastDataDecoder.java [org.js4ms.jsdk:amt]
+ * %%
+ * Copyright (C) 2009 - 2014 Cisco Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import java.nio.ByteBuffer;
+
+import org.js4ms.amt.message.AmtMulticastDataMessage;
+import org.js4ms.amt.message.ChecksumPolicy;
+import org.js4ms.common.util.net.InternedAddress;
+import org.js4ms.io.net.UdpDatagram;
+import org.js4ms.ip.ChecksumException;
+import org.js4ms.ip.ipv4.IPv4Packet;
+import org.js4ms.ip.ipv6.IPv6Packet;
+import org.js4ms.ip.protocol.udp.UdpPacket;
+
+
+
+/**
+ * A data-plane decoder for AMT Multicast Data messages.
+ * The decoder reads the source address, group address, ports and payload of an
+ * encapsulated UDP datagram directly from the received AMT message buffer without
+ * constructing an {@link AmtMulticastDataMessage}, {@link org.js4ms.ip.IPPacket} or
+ * {@link UdpPacket} object graph. The returned {@link UdpDatagram} payload is a slice of
+ * the original buffer and its addresses are {@link InternedAddress} instances.
+ * <p>
+ * Only unfragmented IPv4 packets and IPv6 packets without extension headers
+ * that carry UDP are decoded; {@link #decode(ByteBuffer, ChecksumPolicy)} returns <code>null</code> for
+ * any other message so that the caller can fall back to the full message parser.
+ *
+ * @author Gregory Bumgardner (gbumgard)
+ */
+final class MulticastDataDecoder {
+
+    /*-- Static Variables ---------------------------------------------------*/
+
+    /** Offset of the encapsulated IP packet within an AMT Multicast Data message. */
+    private static final int PACKET_OFFSET = 2;
+
+    private static final int UDP_HEADER_LENGTH = 8;
+
+    private static final int IPV6_HEADER_LENGTH = 40;
+
+    /*-- Static Functions ---------------------------------------------------*/
+
+    /**
+     * Decodes the UDP datagram carried in an AMT Multicast Data message.
+     *
+     * @param buffer
+     *            A buffer containing an AMT message starting at the current position.
+     *            The position and limit of the buffer are not modified.
+     * @param checksumPolicy
+     *            The policy used to decide whether the IPv4 header and UDP checksums are verified.
+     * @return A UdpDatagram or <code>null</code> if the message cannot be decoded by
+     *         this fast path.
+     * @throws ChecksumException
+     *             The IPv4 header or UDP checksum was verified and found to be invalid.
+     */
+    static UdpDatagram decode(final ByteBuffer buffer, final ChecksumPolicy checksumPolicy) throws ChecksumException {
+
+        int start = buffer.position();
+        int length = buffer.limit() - start;
+
+        if (length < PACKET_OFFSET + 1 || buffer.get(start) != AmtMulticastDataMessage.MESSAGE_TYPE) {
+            return null;
+        }
+
+        int packetStart = start + PACKET_OFFSET;
+        int packetLength = length - PACKET_OFFSET;
+        int version = (buffer.get(packetStart) >> 4) & 0x0F;
+
+        int addressLength;
+        int sourceOffset;
+        int destinationOffset;
+        int udpStart;
+        int udpLength;
+
+        if (version == IPv4Packet.INTERNET_PROTOCOL_VERSION) {
+
+            if (packetLength < IPv4Packet.BASE_HEADER_LENGTH) {
+                return null;
+            }
+
+            int headerLength = (buffer.get(packetStart) & 0x0F) * 4;
+            int totalLength = getUnsignedShort(buffer, packetStart + 2);
+            int fragmentField = getUnsignedShort(buffer, packetStart + 6);
+
+            if (headerLength < IPv4Packet.BASE_HEADER_LENGTH
+                || totalLength > packetLength
+                || totalLength < headerLength + UDP_HEADER_LENGTH
+                || (fragmentField & 0x3FFF) != 0
+                || buffer.get(packetStart + 9) != UdpPacket.IP_PROTOCOL_NUMBER) {
+                return null;
+            }
+
+            addressLength = 4;
+            sourceOffset = packetStart + 12;
+            destinationOffset = packetStart + 16;
+            udpStart = packetStart + headerLength;
+            udpLength = totalLength - headerLength;
+        }
+        else if (version == IPv6Packet.INTERNET_PROTOCOL_VERSION) {
+
+            if (packetLength < IPV6_HEADER_LENGTH + UDP_HEADER_LENGTH) {
+                return null;
+            }
+
+            int payloadLength = getUnsignedShort(buffer, packetStart + 4);
+
+            if (payloadLength < UDP_HEADER_LENGTH
+                || payloadLength > packetLength - IPV6_HEADER_LENGTH
+                || buffer.get(packetStart + 6) != UdpPacket.IP_PROTOCOL_NUMBER) {
+                return null;
+            }
+
+            addressLength = 16;
+            sourceOffset = packetStart + 8;
+            destinationOffset = packetStart + 24;
+            udpStart = packetStart + IPV6_HEADER_LENGTH;
+            udpLength = payloadLength;
+        }
+        else {
+            return null;
+        }
+
+        int sourcePort = getUnsignedShort(buffer, udpStart);
+        int destinationPort = getUnsignedShort(buffer, udpStart + 2);
+        int datagramLength = getUnsignedShort(buffer, udpStart + 4);
+
+        if (datagramLength < UDP_HEADER_LENGTH || datagramLength > udpLength) {
+            return null;
+        }
+
+        if (checksumPolicy.isVerificationRequired(false)) {
+            if (addressLength == 4 && !isValidHeaderChecksum(buffer, packetStart, udpStart - packetStart)) {
+                checksumPolicy.recordFailure();
+                throw new ChecksumException("invalid checksum detected in encapsulated IP packet header");
+            }
+            // IPv4 UDP packets can have zero checksum
+            if ((addressLength != 4 || buffer.getShort(udpStart + 6) != 0)
+                && !isValidUdpChecksum(buffer, sourceOffset, addressLength, udpStart, datagramLength)) {
+                checksumPolicy.recordFailure();
+                throw new ChecksumException("invalid checksum detected in encapsulated UDP packet");
+            }
+            checksumPolicy.recordVerified();
+        }
+
+        InternedAddress sourceAddress = InternedAddress.get(buffer, sourceOffset, addressLength);
+        InternedAddress destinationAddress = InternedAddress.get(buffer, destinationOffset, addressLength);
+
+        ByteBuffer payload = buffer.duplicate();
+        payload.limit(udpStart + datagramLength);
+        payload.position(udpStart + UDP_HEADER_LENGTH);
+
+        return new UdpDatagram(sourceAddress, sourcePort, destinationAddress, destinationPort, payload);
+    }
+
+    /**
+     * Indicates whether a buffer contains an AMT Multicast Data message.
+     *
+     * @param buffer
+     *            A buffer containing an AMT message starting at the current position.
+     */
+    static boolean isMulticastData(final ByteBuffer buffer) {
+        return buffer.remaining() > PACKET_OFFSET && buffer.get(buffer.position()) == AmtMulticastDataMessage.MESSAGE_TYPE;
+    }
+
+    /**
+     * Computes a hash of the source and destination addresses of the IP packet
+     * carried in an AMT Multicast Data message. All packets and fragments sent
+     * from a source to a group produce the same value.
+     *
+     * @param buffer
+     *            A buffer containing an AMT Multicast Data message starting at the
+     *            current position. The position and limit of the buffer are not modified.
+     * @return The flow hash or zero if the buffer does not contain a complete IP header.
+     */
+    static int getFlowHash(final ByteBuffer buffer) {
+
+        int packetStart = buffer.position() + PACKET_OFFSET;
+        int packetLength = buffer.limit() - packetStart;
+
+        if (packetLength < 1) {
+            return 0;
+        }
+
+        int version = (buffer.get(packetStart) >> 4) & 0x0F;
+
+        int addressOffset;
+        int addressLength;
+
+        if (version == IPv4Packet.INTERNET_PROTOCOL_VERSION && packetLength >= IPv4Packet.BASE_HEADER_LENGTH) {
+            addressOffset = packetStart + 12;
+            addressLength = 8;
+        }
+        else if (version == IPv6Packet.INTERNET_PROTOCOL_VERSION && packetLength >= IPV6_HEADER_LENGTH) {
+            addressOffset = packetStart + 8;
+            addressLength = 32;
+        }
+        else {
+            return 0;
+        }
+
+        int hash = 1;
+        for (int i = 0; i < addressLength; i += 4) {
+            hash = 31 * hash + buffer.getInt(addressOffset + i);
+        }
+        return hash;
+    }
+
+    /**
+     * @param buffer
+     * @param index
+     * @return
+     */
+    private static int getUnsignedShort(final ByteBuffer buffer, final int index) {
+        return buffer.getShort(index) & 0xFFFF;
+    }
+
+    /**
+     * Verifies the IPv4 header checksum in place.
+     *
+     * @param buffer
+     * @param offset
+     * @param headerLength
+     * @return
+     */
+    private static boolean isValidHeaderChecksum(final ByteBuffer buffer, final int offset, final int headerLength) {
+        int sum = 0;
+        for (int i = 0; i < headerLength; i += 2) {
+            sum += getUnsignedShort(buffer, offset + i);
+        }
+        while ((sum >> 16) != 0) {
+            sum = (sum & 0xFFFF) + (sum >> 16);
+        }
+        return sum == 0xFFFF;
+    }
+
+    /**
+     * Verifies a UDP checksum in place. The pseudo-header is formed from the
+     * source and destination addresses, which must be adjacent in the buffer as
+     * they are in IPv4 and IPv6 headers, the protocol number and the UDP length.
+     *
+     * @param buffer
+     * @param addressOffset
+     *            The offset of the source address.
+     * @param addressLength
+     *            The length of each address.
+     * @param udpStart
+     *            The offset of the UDP header.
+     * @param datagramLength
+     *            The length of the UDP header and payload.
+     * @return
+     */
+    private static boolean isValidUdpChecksum(final ByteBuffer buffer,
+                                              final int addressOffset,
+                                              final int addressLength,
+                                              final int udpStart,
+                                              final int datagramLength) {
+        long sum = UdpPacket.IP_PROTOCOL_NUMBER + datagramLength;
+        int addressEnd = addressOffset + 2 * addressLength;
+        for (int i = addressOffset; i < addressEnd; i += 2) {
+            sum += getUnsignedShort(buffer, i);
+        }
+        int end = udpStart + (datagramLength & ~1);
+        for (int i = udpStart; i < end; i += 2) {
+            sum += getUnsignedShort(buffer, i);
+        }
+        if ((datagramLength & 1) != 0) {
+            sum += (buffer.get(end) & 0xFF) << 8;
+        }
+        while ((sum >> 16) != 0) {
+            sum = (sum & 0xFFFF) + (sum >> 16);
+        }
+        return sum == 0xFFFF;
+    }
+
+    /*-- Member Functions ---------------------------------------------------*/
+
+    private MulticastDataDecoder() {
+    }
+}
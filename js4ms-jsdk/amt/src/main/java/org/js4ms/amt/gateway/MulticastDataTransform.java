@@ -42,6 +42,8 @@ final class MulticastDataTransform implements MessageTransform<IPPacket, UdpData
     
     MulticastDataTransform() {
         this.parser = new UdpPacket.Parser();
+        // The UDP packet is discarded once the datagram has been constructed
+        this.parser.setReuseEnabled(true);
     }
 
     @Override
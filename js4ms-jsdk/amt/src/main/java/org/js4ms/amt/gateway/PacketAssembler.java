@@ -25,12 +25,6 @@ package org.js4ms.amt.gateway;
 import java.io.IOException;
 import java.io.InterruptedIOException;
 import java.nio.ByteBuffer;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.Timer;
-import java.util.TimerTask;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -38,6 +32,11 @@ import org.js4ms.common.exception.ParseException;
 import org.js4ms.common.util.logging.Log;
 import org.js4ms.common.util.logging.LoggableBase;
 import org.js4ms.common.util.logging.Logging;
+import org.js4ms.common.util.pool.BufferAllocator;
+import org.js4ms.common.util.pool.ByteBufferArena;
+import org.js4ms.common.util.pool.ByteBufferPool;
+import org.js4ms.common.util.task.HashedWheelTimer;
+import org.js4ms.common.util.task.TimerHandle;
 import org.js4ms.io.channel.OutputChannel;
 import org.js4ms.ip.IPPacket;
 import org.js4ms.ip.Precondition;
@@ -51,32 +50,39 @@ import org.js4ms.ip.ipv6.IPv6Packet;
  * An {@link OutputChannel} that reassembles fragmented IP datagrams.
  * <p>
  * This channel accepts {@link IPPacket} objects that carry complete or fragmented
- * datagrams. If a packet carries a complete datagram, the defragmenter will immediately
+ * datagrams. If a packet carries a complete datagram, the assembler will immediately
  * send the packet to the downstream output channel. If the packet carries a datagram
- * fragment, the fragmenter will attempt to combine that packet with other incoming
+ * fragment, the assembler will attempt to combine that packet with other incoming
  * datagram fragments to reconstruct the original datagram. Once the datagram is complete,
- * the defragmenter will send a new packet carrying the completed datagram to the
- * downstream channel.
+ * the assembler will send the packet carrying fragment zero, with its payload replaced
+ * by the completed datagram, to the downstream channel.
  * <p>
- * The defragmenter imposes a 60 second time limit on for reassembly of a datagram. If a
- * particular datagram cannot be reassembled within timeout period, the partial
- * reconstruction of that datagram is flushed from the internal cache. (Note: The
- * reassembly process will restart if additional fragments for the datagram arrive after
- * the time-limit.)
+ * Datagrams are identified by primitive keys built from the source and destination
+ * addresses, identification and protocol fields, and are spread across a fixed number of
+ * independently locked stripes so fragments of different datagrams can be reassembled
+ * concurrently.
  * <p>
- * The defragmenter can be attached to a second output channel that can be used to receive
- * a timeout notification. The defragmenter will send the packet containing fragment zero
+ * The assembler imposes a time limit on the reassembly of a datagram. Each datagram
+ * schedules its own timeout on an executor-backed {@link HashedWheelTimer}, so expiry
+ * costs the same regardless of the number of datagrams under reassembly. If a datagram cannot be
+ * reassembled within the timeout period, the partial reconstruction of that datagram is
+ * discarded. (Note: The reassembly process will restart if additional fragments for the
+ * datagram arrive after the time-limit.)
+ * <p>
+ * The assembler can be attached to a second output channel that can be used to receive
+ * a timeout notification. The assembler will send the packet containing fragment zero
  * of the datagram if that packet is available and the destination address is not a
  * multicast address. No timeout is reported for a multicast packets
  * <p>
- * The defragmenter must allocate a 64K buffer to reassemble each fragmented datagram. If
- * a large number of fragmented datagrams arrive within a 60s time window, the
- * defragmenter will consume a significant amount of memory. To avoid excessive memory
- * use, the defragmenter can be constructed with a limit on the number of datagrams that
- * can undergo simultaneous reassembly. If the limit is reached, the defragmenter places
- * the new datagram fragments into a queue for future reassembly. This queue is limited by
- * the total size of the queued packets. The defragmenter will discard packets once the
- * total size of the packets in the queue reaches 64K.
+ * Reassembly buffers are taken from shared pools, or from the shared off-heap arenas
+ * when those are enabled by {@link ByteBufferArena#SIZE_PROPERTY}, and grow as
+ * fragments arrive, up to the 64K maximum datagram size. The assembler keeps a copy
+ * of the packet that carries fragment zero, so no fragment references the buffer
+ * it was received in once the assembler send method returns. The assembler limits the number of datagrams that can
+ * undergo simultaneous reassembly and the total size of the reassembly buffers. When
+ * either limit is reached, the least recently used datagram in the stripe is evicted.
+ * The buffer that carries a completed datagram is returned to its pool once the
+ * downstream channel send returns, so downstream channels must not retain the packet.
  * 
  * @author Gregory Bumgardner (gbumgard)
  */
@@ -87,334 +93,484 @@ final class PacketAssembler
     /*-- Inner Classes ------------------------------------------------------*/
 
     /**
+     * The reassembly state for a single datagram.
+     * Each buffer is linked into a hash chain and an LRU list within its stripe
+     * and serves as its own timeout task.
      */
-    final static class ReassemblyBuffer {
-
-        /*-- Static Variables ---------------------------------------------------*/
+    final class ReassemblyBuffer
+                    implements Runnable {
 
         /**
-         * 
+         * Marks the open-ended hole that follows the last fragment received
+         * until the fragment with the more-fragments flag cleared arrives.
          */
-        public static final Logger logger = Logger.getLogger(PacketAssembler.ReassemblyBuffer.class.getName());
+        private static final int INFINITY = Integer.MAX_VALUE;
 
-        private static final int EOL = 0xFFFF;
+        private final Stripe stripe;
 
-        /*-- Member Variables ---------------------------------------------------*/
+        private final int hash;
 
-        private final Log log = new Log(this);
+        private final byte version;
 
-        private ByteBuffer identifier;
+        private final byte protocol;
 
-        // byte[] buffer = new byte[65515];
-        private byte[] buffer = new byte[1500];
+        private final int identification;
 
-        private int firstHole = 0;
+        private final long source0;
 
-        private int length = 0;
+        private final long source1;
 
-        private long timestamp;
+        private final long destination0;
 
-        private long maxAge;
+        private final long destination1;
 
-        private IPPacket fragmentZeroPacket;
+        private ByteBuffer buffer = null;
 
         /**
-         * @param identifier
-         * @param maxAge
+         * Hole descriptors stored as first/last pairs measured in 8-byte units.
          */
-        ReassemblyBuffer(final ByteBuffer identifier, final long maxAge) {
-            this.identifier = identifier;
-            setHole(this.firstHole, 0xFFFF, EOL, EOL);
-            this.timestamp = System.currentTimeMillis();
-            this.maxAge = maxAge;
+        private int[] holes = new int[8];
+
+        private int holeCount;
+
+        private int length = 0;
+
+        private IPPacket fragmentZeroPacket = null;
+
+        private TimerHandle timeoutTask = null;
+
+        private ReassemblyBuffer chainNext = null;
+
+        private ReassemblyBuffer lruPrevious = null;
+
+        private ReassemblyBuffer lruNext = null;
+
+        ReassemblyBuffer(final Stripe stripe,
+                         final int hash,
+                         final byte version,
+                         final byte protocol,
+                         final int identification,
+                         final long source0,
+                         final long source1,
+                         final long destination0,
+                         final long destination1) {
+            this.stripe = stripe;
+            this.hash = hash;
+            this.version = version;
+            this.protocol = protocol;
+            this.identification = identification;
+            this.source0 = source0;
+            this.source1 = source1;
+            this.destination0 = destination0;
+            this.destination1 = destination1;
+            this.holes[0] = 0;
+            this.holes[1] = INFINITY;
+            this.holeCount = 1;
         }
 
-        /**
-         * @return
-         */
-        ByteBuffer getIdentifier() {
-            return identifier;
+        boolean matches(final int hash,
+                        final byte version,
+                        final byte protocol,
+                        final int identification,
+                        final long source0,
+                        final long source1,
+                        final long destination0,
+                        final long destination1) {
+            return this.hash == hash &&
+                   this.identification == identification &&
+                   this.source0 == source0 &&
+                   this.destination0 == destination0 &&
+                   this.source1 == source1 &&
+                   this.destination1 == destination1 &&
+                   this.version == version &&
+                   this.protocol == protocol;
         }
 
         /**
-         * @param currentTimeMs
-         * @return
+         * @return The packet that carried fragment zero or <code>null</code> if that
+         *         fragment has not arrived.
          */
-        boolean isExpired(final long currentTimeMs) {
-            if ((currentTimeMs - timestamp) > maxAge) {
-                return true;
-            }
-            return false;
+        IPPacket getFragmentZeroPacket() {
+            return this.fragmentZeroPacket;
         }
 
         /**
-         * @param currentTimeMs
-         * @return
+         * @return The number of bytes held by the reassembly buffer.
          */
-        long getAge(final long currentTimeMs) {
-            return currentTimeMs - timestamp;
+        int getCapacity() {
+            return this.buffer != null ? this.buffer.capacity() : 0;
+        }
+
+        boolean isComplete() {
+            return this.holeCount == 0;
         }
 
         /**
+         * Adds a fragment to the datagram using the algorithm described in <a
+         * href="http://tools.ietf.org/html/rfc815">[RFC-815]</a>, with the hole
+         * descriptor list kept in an array rather than in the holes themselves.
+         * 
          * @param packet
-         * @return
-         * @throws ParseException
+         *            The packet carrying the fragment.
+         * @param requiredLength
+         *            The offset of the end of the fragment in bytes.
+         * @return <code>true</code> if the datagram is complete.
          */
-        boolean addFragment(final IPPacket packet) throws ParseException {
+        boolean addFragment(final IPPacket packet, final int requiredLength) {
 
-            // Already done?
-            if (isComplete()) return true;
+            ByteBuffer fragment = packet.getFragment();
+            int fragmentOffset = packet.getFragmentOffset();
+            boolean isMoreFragments = packet.isMoreFragments();
 
-            // Does this packet carry the header(s) we should save?
-            if (packet.getFragmentOffset() == 0) {
+            if (fragmentOffset == 0) {
                 // Use this packet to construct the completed packet
                 this.fragmentZeroPacket = packet;
             }
 
-            if (addFragment(packet.getFragment(), packet.getFragmentOffset(), packet.isMoreFragments())) {
-                this.fragmentZeroPacket.setReassembledPayload(ByteBuffer.wrap(buffer, 0, this.length));
-                return true;
+            int fragmentFirst = fragmentOffset;
+            int fragmentLast = fragmentFirst + ((fragment.limit() + 7) / 8) - 1;
+
+            // Replace each hole that the fragment overlaps with the parts it leaves unfilled.
+            int i = 0;
+            while (i < this.holeCount) {
+                int holeFirst = this.holes[i * 2];
+                int holeLast = this.holes[i * 2 + 1];
+                if (fragmentFirst > holeLast || fragmentLast < holeFirst) {
+                    i++;
+                    continue;
+                }
+                removeHole(i);
+                if (fragmentLast < holeLast && isMoreFragments) {
+                    insertHole(i, fragmentLast + 1, holeLast);
+                }
+                if (fragmentFirst > holeFirst) {
+                    insertHole(i, holeFirst, fragmentFirst - 1);
+                    i++;
+                }
+                if (fragmentLast < holeLast && isMoreFragments) {
+                    i++;
+                }
+            }
+
+            // Now write the fragment into the buffer
+            ByteBuffer target = this.buffer.duplicate();
+            target.position(fragmentOffset * 8);
+            target.put(fragment.duplicate());
+
+            if (requiredLength > this.length) {
+                this.length = requiredLength;
             }
 
-            return false;
+            return isComplete();
         }
 
         /**
-         * @return
+         * Replaces the payload of the fragment zero packet with the reassembled datagram.
+         * 
+         * @return The completed packet.
+         * @throws ParseException
          */
-        IPPacket getFragmentZeroPacket() {
+        IPPacket complete() throws ParseException {
+            ByteBuffer payload = this.buffer.duplicate();
+            payload.limit(this.length);
+            this.fragmentZeroPacket.setReassembledPayload(payload.slice());
             return this.fragmentZeroPacket;
         }
 
         /**
-         * @return
+         * Ensures the reassembly buffer can hold the specified number of bytes,
+         * moving the datagram into a larger pooled buffer if necessary.
+         * 
+         * @param requiredLength
+         * @return The change in the number of bytes held by the reassembly buffer.
          */
-        IPPacket getCompletedPacket() {
-            if (isComplete()) {
-                return this.fragmentZeroPacket;
+        int ensureCapacity(final int requiredLength) {
+            int capacity = getCapacity();
+            if (requiredLength <= capacity) {
+                return 0;
             }
-            return null;
+            BufferAllocator pool = getBufferPool(requiredLength);
+            ByteBuffer newBuffer = pool.acquire();
+            if (this.buffer != null) {
+                ByteBuffer contents = this.buffer.duplicate();
+                contents.limit(this.length);
+                newBuffer.duplicate().put(contents);
+                releaseBuffer();
+            }
+            this.buffer = newBuffer;
+            return newBuffer.capacity() - capacity;
         }
 
         /**
-         * @return
+         * Returns the reassembly buffer to its pool.
          */
-        boolean isComplete() {
-            return this.firstHole == EOL;
+        void releaseBuffer() {
+            if (this.buffer != null) {
+                getBufferPool(this.buffer.capacity()).release(this.buffer);
+                this.buffer = null;
+            }
         }
 
-        /**
-         * @param hole
-         * @param holeLast
-         * @param prevHole
-         * @param nextHole
-         */
-        void setHole(final int hole,
-                     final int holeLast,
-                     final int prevHole,
-                     final int nextHole) {
-            if (logger.isLoggable(Level.FINER)) {
-                logger.finer(this.log.msg("new hole.first=" + hole + " hole.last=" + holeLast + " hole.prev=" + prevHole
-                                          + " hole.next=" + nextHole));
+        private void insertHole(final int index, final int first, final int last) {
+            if (this.holeCount * 2 == this.holes.length) {
+                int[] newHoles = new int[this.holes.length * 2];
+                System.arraycopy(this.holes, 0, newHoles, 0, this.holes.length);
+                this.holes = newHoles;
             }
-            int byteOffset = hole * 8;
-            setOffsetValue(byteOffset, holeLast);
-            setOffsetValue(byteOffset + 2, prevHole);
-            setOffsetValue(byteOffset + 4, nextHole);
+            System.arraycopy(this.holes, index * 2, this.holes, index * 2 + 2, (this.holeCount - index) * 2);
+            this.holes[index * 2] = first;
+            this.holes[index * 2 + 1] = last;
+            this.holeCount++;
         }
 
-        /**
-         * @param byteOffset
-         * @param offset
-         */
-        void setOffsetValue(final int byteOffset, final int offset) {
-            buffer[byteOffset] = (byte) ((offset >> 8) & 0xFF);
-            buffer[byteOffset + 1] = (byte) (offset & 0xFF);
+        private void removeHole(final int index) {
+            System.arraycopy(this.holes, index * 2 + 2, this.holes, index * 2, (this.holeCount - index - 1) * 2);
+            this.holeCount--;
         }
 
-        /**
-         * @param byteOffset
-         * @return
-         */
-        int getOffsetValue(final int byteOffset) {
-            return ((buffer[byteOffset] & 0xFF) << 8) | (buffer[byteOffset + 1] & 0xFF);
+        @Override
+        public void run() {
+            try {
+                this.stripe.expire(this);
+            }
+            catch (Exception e) {
+                if (logger.isLoggable(Level.FINE)) {
+                    logger.fine(PacketAssembler.this.log.msg("exception thrown in packet reassembly timer task - " +
+                                                             e.getClass().getName() + ":" + e.getMessage()));
+                }
+            }
         }
+    }
 
-        /**
-         * @param holeFirst
-         * @return
-         */
-        int getHoleLast(final int holeFirst) {
-            return getOffsetValue(holeFirst * 8);
-        }
+    /**
+     * A partition of the datagrams under reassembly that is guarded by its own lock.
+     */
+    final class Stripe {
 
         /**
-         * @param holeFirst
-         * @param holeLast
+         * Object used for synchronizing access to state variables.
          */
-        void setHoleLast(final int holeFirst, final int holeLast) {
-            setOffsetValue(holeFirst * 8, holeLast);
-        }
+        private final Object lock = new Object();
 
-        /**
-         * @param holeFirst
-         * @return
-         */
-        int getPrevHole(final int holeFirst) {
-            return getOffsetValue(holeFirst * 8 + 2);
-        }
+        private final ReassemblyBuffer[] table = new ReassemblyBuffer[TABLE_SIZE];
 
         /**
-         * @param holeFirst
-         * @param prevHole
+         * Least recently used entry.
          */
-        void setPrevHole(final int holeFirst, final int prevHole) {
-            setOffsetValue(holeFirst * 8 + 4, prevHole);
-        }
+        private ReassemblyBuffer lruHead = null;
 
         /**
-         * @param holeFirst
-         * @return
+         * Most recently used entry.
          */
-        int getNextHole(final int holeFirst) {
-            return getOffsetValue(holeFirst * 8 + 4);
-        }
+        private ReassemblyBuffer lruTail = null;
 
-        /**
-         * @param holeFirst
-         * @param nextHole
-         */
-        void setNextHole(final int holeFirst, final int nextHole) {
-            setOffsetValue(holeFirst * 8 + 6, nextHole);
-        }
+        private int size = 0;
 
-        /**
-         * Algorithm described in <a
-         * href="http://tools.ietf.org/html/rfc815">[RFC-851]</a>
-         * <p>
-         * This will remove all of the hole descriptors that will be overwritten by the
-         * fragment. 1. Select the next hole descriptor from the hole descriptor list. If
-         * there are no more entries, go to step eight.
-         * <p>
-         * 2. If fragment.first is greater than hole.last, go to step one.
-         * <p>
-         * 3. If fragment.last is less than hole.first, go to step one.
-         * <p>
-         * <blockquote> (If either step two or step three is true, then the newly arrived
-         * fragment does not overlap with the hole in any way, so we need pay no further
-         * attention to this hole. We return to the beginning of the algorithm where we
-         * select the next hole for examination.) </blockquote> 4. Delete the current
-         * entry from the hole descriptor list. <blockquote> (Since neither step two nor
-         * step three was true, the newly arrived fragment does interact with this hole in
-         * some way. Therefore, the current descriptor will no longer be valid. We will
-         * destroy it, and in the next two steps we will determine whether or not it is
-         * necessary to create any new hole descriptors.) </blockquote> 5. If
-         * fragment.first is greater than hole.first, then create a new hole descriptor
-         * "new_hole" with new_hole.first equal to hole.first, and new_hole.last equal to
-         * fragment.first minus one. <blockquote> (If the test in step five is true, then
-         * the first part of the original hole is not filled by this fragment. We create a
-         * new descriptor for this smaller hole.) </blockquote> 6. If fragment.last is
-         * less than hole.last and fragment.more fragments is true, then create a new hole
-         * descriptor "new_hole", with new_hole.first equal to fragment.last plus one and
-         * new_hole.last equal to hole.last. <blockquote> (This test is the mirror of step
-         * five with one additional feature. Initially, we did not know how long the
-         * reassembled datagram would be, and therefore we created a hole reaching from
-         * zero to infinity. Eventually, we will receive the last fragment of the
-         * datagram. At this point, that hole descriptor which reaches from the last octet
-         * of the buffer to infinity can be discarded. The fragment which contains the
-         * last fragment indicates this fact by a flag in the internet header called
-         * "more fragments". The test of this bit in this statement prevents us from
-         * creating a descriptor for the unneeded hole which describes the space from the
-         * end of the datagram to infinity.) </blockquote> 7. Go to step one.
-         * <p>
-         * 8. If the hole descriptor list is now empty, the datagram is now complete. Pass
-         * it on to the higher level protocol processor for further handling. Otherwise,
-         * return.
-         * 
-         * @param buffer
-         *            - The IP datagram fragment.
-         * @param fragmentOffset
-         *            - The fragment offset.
-         * @param isMoreFragments
-         *            - Indicates this is the end fragment.
-         * @return Indicates whether the datagram is complete.
-         */
-        boolean addFragment(final ByteBuffer buffer, final int fragmentOffset, final boolean isMoreFragments) {
+        private int memory = 0;
 
-            int fragmentFirst = fragmentOffset;
-            int fragmentLast = fragmentFirst + ((buffer.limit() + 7) / 8) - 1;
+        private long completedCount = 0;
 
-            // Remove all of the hole descriptors that will be overritten by this fragment
-            int hole = this.firstHole;
+        private long timedOutCount = 0;
 
-            while (hole != EOL) {
+        private long evictedCount = 0;
 
-                int holeLast = getHoleLast(hole);
-                int nextHole = getNextHole(hole);
-                if (fragmentFirst > holeLast) {
-                    // Fragment falls after this hole - check next hole
-                    hole = nextHole;
-                    continue;
-                }
+        private long discardedCount = 0;
 
-                if (fragmentLast < hole) {
-                    // Fragment falls in front of this hole - check next hole
-                    hole = nextHole;
-                    continue;
+        /**
+         * Adds a fragment to the matching datagram, starting a new datagram if necessary.
+         * 
+         * @return The completed datagram or <code>null</code> if the datagram is incomplete.
+         */
+        ReassemblyBuffer addFragment(final IPPacket packet,
+                                     final int hash,
+                                     final byte version,
+                                     final byte protocol,
+                                     final int identification,
+                                     final long source0,
+                                     final long source1,
+                                     final long destination0,
+                                     final long destination1) {
+
+            int requiredLength = packet.getFragmentOffset() * 8 + packet.getFragment().limit();
+            if (requiredLength > MAX_DATAGRAM_LENGTH) {
+                if (logger.isLoggable(Level.FINE)) {
+                    logger.fine(PacketAssembler.this.log.msg("discarding fragment that extends beyond maximum datagram length"));
                 }
+                synchronized (this.lock) {
+                    this.discardedCount++;
+                }
+                return null;
+            }
 
-                int prevHole = getPrevHole(hole);
+            synchronized (this.lock) {
 
-                if (fragmentFirst > hole) {
-                    if (logger.isLoggable(Level.FINER)) {
-                        logger.finer(this.log.msg("hole.first=" + hole + " hole.last=" + holeLast + " frag.first=" + fragmentFirst
-                                                  + " frag.last=" + fragmentLast + " <-- fragment overlaps end of hole"));
+                int index = hash & (TABLE_SIZE - 1);
+                ReassemblyBuffer entry = this.table[index];
+                while (entry != null) {
+                    if (entry.matches(hash, version, protocol, identification, source0, source1, destination0, destination1)) {
+                        break;
                     }
-                    setHoleLast(hole, fragmentLast - 1);
+                    entry = entry.chainNext;
                 }
-                else if (fragmentLast < holeLast && isMoreFragments) {
-                    logger.finer(this.log.msg("hole.first=" + hole + " hole.last=" + holeLast + " frag.first=" + fragmentFirst
-                                              + " frag.last=" + fragmentLast + " <-- fragment overlaps start of hole"));
-                    int newHole = fragmentLast + 1;
-                    if (prevHole == EOL) {
-                        this.firstHole = newHole;
-                    }
-                    else {
-                        setNextHole(prevHole, newHole);
+
+                if (entry == null) {
+                    if (logger.isLoggable(Level.FINER)) {
+                        logger.finer(PacketAssembler.this.log.msg("creating new reassembly buffer"));
                     }
-                    if (nextHole != EOL) {
-                        setPrevHole(nextHole, newHole);
+                    if (PacketAssembler.this.maxStripeSize != 0 && this.size >= PacketAssembler.this.maxStripeSize) {
+                        evict(this.lruHead);
                     }
-                    setHole(fragmentLast + 1, holeLast, prevHole, nextHole);
+                    entry = new ReassemblyBuffer(this, hash, version, protocol, identification,
+                                                 source0, source1, destination0, destination1);
+                    entry.chainNext = this.table[index];
+                    this.table[index] = entry;
+                    this.size++;
+                    entry.timeoutTask = PacketAssembler.this.taskTimer.schedule(entry, REASSEMBLY_TIMEOUT);
                 }
                 else {
-                    logger.finer(this.log.msg("hole.first=" + hole + " hole.last=" + holeLast + " frag.first=" + fragmentFirst
-                                              + " frag.last=" + fragmentLast + " <-- fragment overlaps entire hole - delete hole"));
-                    if (prevHole == EOL) {
-                        this.firstHole = nextHole;
-                    }
-                    else {
-                        setNextHole(prevHole, nextHole);
+                    unlink(entry);
+                }
+                link(entry);
+
+                int growth = entry.ensureCapacity(requiredLength);
+                if (growth > 0) {
+                    this.memory += growth;
+                    // Evict least recently used datagrams until the stripe is back under its limit.
+                    while (this.memory > PacketAssembler.this.maxStripeMemory && this.lruHead != entry) {
+                        evict(this.lruHead);
                     }
-                    if (nextHole != EOL) {
-                        setPrevHole(nextHole, prevHole);
+                }
+
+                if (!entry.addFragment(packet, requiredLength)) {
+                    return null;
+                }
+
+                if (logger.isLoggable(Level.FINER)) {
+                    logger.finer(PacketAssembler.this.log.msg("reassembly complete"));
+                }
+
+                remove(entry);
+                this.completedCount++;
+                return entry;
+            }
+        }
+
+        /**
+         * Called when the reassembly timeout for a datagram expires.
+         * 
+         * @param entry
+         * @throws IOException
+         * @throws InterruptedException
+         */
+        void expire(final ReassemblyBuffer entry) throws IOException, InterruptedException {
+
+            synchronized (this.lock) {
+                if (entry.timeoutTask == null) {
+                    // Already completed or evicted
+                    return;
+                }
+                if (logger.isLoggable(Level.FINER)) {
+                    logger.finer(PacketAssembler.this.log.msg("reassembly timeout exceeded identification=" + entry.identification));
+                }
+                remove(entry);
+                this.timedOutCount++;
+            }
+
+            entry.releaseBuffer();
+
+            if (PacketAssembler.this.timeoutChannel != null) {
+                IPPacket packet = entry.getFragmentZeroPacket();
+                if (packet != null) {
+                    if (!Precondition.isMulticastAddress(packet.getDestinationAddress())) {
+                        PacketAssembler.this.timeoutChannel.send(packet, Integer.MAX_VALUE);
                     }
                 }
-                hole = nextHole;
             }
+        }
 
-            // Now write the fragment into the buffer
-            buffer.position(0);
-            buffer.get(this.buffer, fragmentOffset * 8, buffer.limit());
-            buffer.position(0);
+        /**
+         * Discards all datagrams in the stripe.
+         */
+        void clear() {
+            synchronized (this.lock) {
+                while (this.lruHead != null) {
+                    ReassemblyBuffer entry = this.lruHead;
+                    remove(entry);
+                    entry.releaseBuffer();
+                }
+            }
+        }
+
+        /**
+         * Evicts a datagram to make room for another. Must be called while holding the lock.
+         * 
+         * @param entry
+         */
+        private void evict(final ReassemblyBuffer entry) {
+            if (logger.isLoggable(Level.FINER)) {
+                logger.finer(PacketAssembler.this.log.msg("evicting reassembly buffer identification=" + entry.identification
+                                                          + " stripe-size=" + this.size + " stripe-memory=" + this.memory));
+            }
+            remove(entry);
+            entry.releaseBuffer();
+            this.evictedCount++;
+        }
 
-            int limit = buffer.limit() + fragmentOffset * 8;
-            if (limit > this.length) {
-                this.length = limit > this.buffer.length ? this.buffer.length : limit;
+        /**
+         * Removes a datagram from the hash chain and LRU list and cancels its timeout.
+         * Must be called while holding the lock.
+         * 
+         * @param entry
+         */
+        private void remove(final ReassemblyBuffer entry) {
+            int index = entry.hash & (TABLE_SIZE - 1);
+            ReassemblyBuffer previous = null;
+            ReassemblyBuffer current = this.table[index];
+            while (current != entry) {
+                previous = current;
+                current = current.chainNext;
+            }
+            if (previous == null) {
+                this.table[index] = entry.chainNext;
+            }
+            else {
+                previous.chainNext = entry.chainNext;
+            }
+            entry.chainNext = null;
+            unlink(entry);
+            entry.timeoutTask.cancel();
+            entry.timeoutTask = null;
+            this.size--;
+            this.memory -= entry.getCapacity();
+        }
+
+        private void link(final ReassemblyBuffer entry) {
+            entry.lruPrevious = this.lruTail;
+            entry.lruNext = null;
+            if (this.lruTail == null) {
+                this.lruHead = entry;
+            }
+            else {
+                this.lruTail.lruNext = entry;
             }
+            this.lruTail = entry;
+        }
 
-            // If firstHole is zero, there are no more holes to fill.
-            return this.firstHole == EOL;
+        private void unlink(final ReassemblyBuffer entry) {
+            if (entry.lruPrevious == null) {
+                this.lruHead = entry.lruNext;
+            }
+            else {
+                entry.lruPrevious.lruNext = entry.lruNext;
+            }
+            if (entry.lruNext == null) {
+                this.lruTail = entry.lruPrevious;
+            }
+            else {
+                entry.lruNext.lruPrevious = entry.lruPrevious;
+            }
+            entry.lruPrevious = null;
+            entry.lruNext = null;
         }
     }
 
@@ -422,130 +578,100 @@ final class PacketAssembler
 
     public static final Logger logger = Logger.getLogger(PacketAssembler.class.getName());
 
-    public static final int MAX_CUMMULATIVE_PENDING_PACKET_SIZE = 65536;
-
     public static final int REASSEMBLY_TIMEOUT = 500; // 60000; // Milliseconds
 
-    /*-- Static Functions ---------------------------------------------------*/
+    /**
+     * The default limit on the total size of the reassembly buffers held by an assembler.
+     */
+    public static final int DEFAULT_MAX_MEMORY = 4 * 1024 * 1024;
+
+    public static final int MAX_DATAGRAM_LENGTH = 65535;
 
     /**
-     * Constructs an IPv6 buffer identifier from values contained in an IPv6
-     * packet header. A <code>ByteBuffer</code> provides the <code>hashCode()</code> and
-     * <code>equals()</code> methods that are
-     * required to locate a {@link ReassemblyBuffer} in the {@link #cache} HashMap.
-     * 
-     * @param packet
-     *            - The IPv6 packet that provides the values used to construct
-     *            the identifier.
+     * The number of independently locked stripes. Must be a power of two.
      */
-    static ByteBuffer constructBufferIdentifier(final IPv6Packet packet) {
-        return constructBufferIdentifier(packet.getSourceAddress(), packet.getDestinationAddress(), packet.getFragmentIdentifier());
-    }
+    private static final int STRIPE_COUNT = 16;
 
     /**
-     * Constructs an {@link ReassemblyBuffer} identifier from values contained
-     * in an IPv6 packet header. A <code>ByteBuffer</code> provides the
-     * <code>hashCode()</code> and <code>equals()</code> methods that are
-     * required to locate a {@link ReassemblyBuffer} in the {@link #cache} HashMap.
-     * 
-     * @param sourceAddress
-     *            - The source address contained in the IPv6 header (16 bytes).
-     * @param destinationAddress
-     *            - The destination address contained in the IPv6 header (16
-     *            bytes).
-     * @param identification
-     *            - The identification value contained in the IPv6 header (4
-     *            bytes).
+     * The number of hash chains in each stripe. Must be a power of two.
+     */
+    private static final int TABLE_SIZE = 64;
+
+    /**
+     * Reassembly buffer pools in ascending size order.
+     * A datagram starts in the smallest buffer that holds its first fragment and
+     * moves to a larger buffer when a fragment extends beyond the current one.
+     */
+    private static final BufferAllocator[] BUFFER_POOLS = {
+                    createBufferPool(2048, 256),
+                    createBufferPool(16384, 32),
+                    createBufferPool(MAX_DATAGRAM_LENGTH + 1, 8)
+    };
+
+    /*-- Static Functions ---------------------------------------------------*/
+
+    /**
+     * @param requiredLength
+     * @return The pool that holds the smallest buffers that can hold the required number of bytes.
      */
-    static ByteBuffer constructBufferIdentifier(final byte[] sourceAddress,
-                                                final byte[] destinationAddress,
-                                                final int identification) {
-        int size = sourceAddress.length + destinationAddress.length + 4;
-        ByteBuffer identifier = ByteBuffer.allocate(size);
-        // Components added in order most likely to produce earliest indication
-        // of inequality. TODO
-        identifier.putInt(identification);
-        identifier.put(sourceAddress);
-        identifier.put(destinationAddress);
-        identifier.rewind();
-        return identifier;
+    static BufferAllocator getBufferPool(final int requiredLength) {
+        for (BufferAllocator pool : BUFFER_POOLS) {
+            if (requiredLength <= pool.getBufferSize()) {
+                return pool;
+            }
+        }
+        throw new IllegalArgumentException("datagram length exceeds " + MAX_DATAGRAM_LENGTH);
     }
 
     /**
-     * Constructs a {@link ReassemblyBuffer} identifier from values contained in
-     * an IPv4 packet header. A <code>ByteBuffer</code> provides the
-     * <code>hashCode()</code> and <code>equals()</code> methods that are
-     * required to locate a {@link ReassemblyBuffer} in the {@link #cache} HashMap.
-     * 
-     * @param packet
-     *            - The IPv5 packet that provides the values used to construct
-     *            the identifier.
+     * @param bufferSize
+     * @param maxRetained
+     * @return The shared arena for the buffer size, if enabled, or a heap buffer pool.
      */
-    static ByteBuffer constructBufferIdentifier(final IPv4Packet packet) {
-        return constructBufferIdentifier(packet.getSourceAddress(), packet.getDestinationAddress(), (short) packet
-                        .getFragmentIdentifier(), packet.getProtocol());
+    private static BufferAllocator createBufferPool(final int bufferSize, final int maxRetained) {
+        ByteBufferArena arena = ByteBufferArena.getSharedArena(bufferSize);
+        return arena != null ? arena : new ByteBufferPool(bufferSize, maxRetained);
     }
 
     /**
-     * Constructs an IPv4 buffer identifier from values contained in an IPv6
-     * packet header. A <code>ByteBuffer</code> provides the <code>hashCode()</code> and
-     * <code>equals()</code> methods that are
-     * required to locate a {@link ReassemblyBuffer} in the {@link #cache} HashMap.
-     * 
-     * @param sourceAddress
-     *            - The source address contained in the IPv4 header (4 bytes).
-     * @param destinationAddress
-     *            - The destination address contained in the IPv4 header (4
-     *            bytes).
-     * @param identification
-     *            - The identification value contained in the IPv4 header (2
-     *            bytes).
-     * @param protocol
-     *            - The protocol value contained in the IPv4 header (1 byte).
+     * Mixes the bits of the datagram key fields into a hash used to select the
+     * stripe and hash chain.
      */
-    static ByteBuffer constructBufferIdentifier(final byte[] sourceAddress,
-                                                final byte[] destinationAddress, short identification,
-                                                final byte protocol) {
-        int size = sourceAddress.length + destinationAddress.length + 5;
-        ByteBuffer identifier = ByteBuffer.allocate(size);
-        // Components added in order most likely to produce earliest indication
-        // of inequality. TODO
-        identifier.putShort(identification);
-        identifier.put(sourceAddress);
-        identifier.put(destinationAddress);
-        identifier.put(protocol);
-        identifier.rewind();
-        return identifier;
+    static int hash(final int identification,
+                    final long source0,
+                    final long source1,
+                    final long destination0,
+                    final long destination1) {
+        long h = identification * 0x9E3779B97F4A7C15L;
+        h ^= source0 + (h << 6) + (h >>> 2);
+        h ^= source1 + (h << 6) + (h >>> 2);
+        h ^= destination0 + (h << 6) + (h >>> 2);
+        h ^= destination1 + (h << 6) + (h >>> 2);
+        int hash = (int) (h ^ (h >>> 32));
+        return hash ^ (hash >>> 16);
     }
 
     /*-- Member Variables ---------------------------------------------------*/
 
-    private final Object lock = new Object();
-
     private final Log log = new Log(this);
 
     private final OutputChannel<IPPacket> outputChannel;
 
     private final OutputChannel<IPPacket> timeoutChannel;
 
-    private final HashMap<ByteBuffer, ReassemblyBuffer> cache = new HashMap<ByteBuffer, ReassemblyBuffer>();
-
-    private final LinkedList<IPPacket> pendingQueue = new LinkedList<IPPacket>();
+    private final Stripe[] stripes;
 
-    private final int maxCacheSize;
-
-    private int cummulativePendingPacketSize = 0;
-
-    private final Timer taskTimer;
+    /**
+     * Maximum number of datagrams in each stripe or zero if there is no limit.
+     */
+    private final int maxStripeSize;
 
-    private TimerTask reaperTask = null;
+    /**
+     * Maximum number of reassembly buffer bytes held by each stripe.
+     */
+    private final int maxStripeMemory;
 
-    private enum Result {
-        Started,
-        Added,
-        Completed,
-        Denied
-    }
+    private final HashedWheelTimer taskTimer;
 
     /*-- Member Functions ---------------------------------------------------*/
 
@@ -560,23 +686,27 @@ final class PacketAssembler
      * @param maxCacheSize
      *            - Maximum number of datagrams that can be reassembled at the same time.
      *            A value of zero is used to indicate that there should be no limit.
+     * @param maxMemory
+     *            - Maximum number of bytes held in reassembly buffers.
      * @param taskTimer
-     *            - Externally constructed Timer used to execute the task used to check
+     *            - Timer used to execute the task used to check
      *            timeouts.
-     *            The assembler will construct its own timer if this value is
+     *            The assembler will use the AMT control timer if this value is
      *            <code>null</code>.
      */
     PacketAssembler(final OutputChannel<IPPacket> outputChannel,
                     final OutputChannel<IPPacket> timeoutChannel,
                     final int maxCacheSize,
-                    final Timer taskTimer) {
+                    final int maxMemory,
+                    final HashedWheelTimer taskTimer) {
 
         if (logger.isLoggable(Level.FINER)) {
             logger.finer(this.log.entry(
-                                        "PacketAssembler.Defragmenter",
+                                        "PacketAssembler.PacketAssembler",
                                         outputChannel,
                                         timeoutChannel,
                                         maxCacheSize,
+                                        maxMemory,
                                         taskTimer));
         }
 
@@ -586,13 +716,44 @@ final class PacketAssembler
 
         this.outputChannel = outputChannel;
         this.timeoutChannel = timeoutChannel;
-        this.maxCacheSize = maxCacheSize >= 0 ? maxCacheSize : 0;
-        this.taskTimer = (taskTimer != null ? taskTimer : new Timer(PacketAssembler.class.getName()));
+        this.maxStripeSize = maxCacheSize > 0 ? (maxCacheSize + STRIPE_COUNT - 1) / STRIPE_COUNT : 0;
+        // Each stripe must be able to hold at least one maximum-size datagram.
+        this.maxStripeMemory = Math.max(maxMemory / STRIPE_COUNT, MAX_DATAGRAM_LENGTH + 1);
+        // Timeout notifications may block, so they must not run on the shared wheel thread
+        this.taskTimer = (taskTimer != null ? taskTimer : AmtTunnelEndpoint.getControlTimer());
+        this.stripes = new Stripe[STRIPE_COUNT];
+        for (int i = 0; i < STRIPE_COUNT; i++) {
+            this.stripes[i] = new Stripe();
+        }
     }
 
+    /**
+     * Constructs an output channel that reassembles fragmented IP datagrams
+     * using the default memory limit.
+     * 
+     * @param outputChannel
+     *            - The output channel that will receive reassembled datagrams. Required.
+     * @param timeoutChannel
+     *            - The optional output channel used to receive timeout notifications.
+     *            May be <code>null</code>
+     * @param maxCacheSize
+     *            - Maximum number of datagrams that can be reassembled at the same time.
+     *            A value of zero is used to indicate that there should be no limit.
+     * @param taskTimer
+     *            - Timer used to execute the task used to check
+     *            timeouts.
+     *            The assembler will use the AMT control timer if this value is
+     *            <code>null</code>.
+     */
+    PacketAssembler(final OutputChannel<IPPacket> outputChannel,
+                    final OutputChannel<IPPacket> timeoutChannel,
+                    final int maxCacheSize,
+                    final HashedWheelTimer taskTimer) {
+        this(outputChannel, timeoutChannel, maxCacheSize, DEFAULT_MAX_MEMORY, taskTimer);
+    }
     /**
      * Constructs an assembler output channel that imposes no limit on cache size
-     * and constructs its own Timer thread.
+     * and uses the AMT control timer.
      * 
      * @param outputChannel
      *            - The output channel that will receive reassembled datagrams. Required.
@@ -602,7 +763,7 @@ final class PacketAssembler
     }
 
     /**
-     * Constructs an assembler output channel that constructs its own Timer thread.
+     * Constructs an assembler output channel that uses the AMT control timer.
      * 
      * @param outputChannel
      *            - The output channel that will receive reassembled datagrams. Required.
@@ -616,7 +777,7 @@ final class PacketAssembler
     }
 
     /**
-     * Constructs an assembler output channel that constructs its own Timer thread.
+     * Constructs an assembler output channel that uses the AMT control timer.
      * 
      * @param outputChannel
      *            - The output channel that will receive reassembled datagrams. Required.
@@ -624,20 +785,20 @@ final class PacketAssembler
      *            - Maximum number of datagrams that can be reassembled at the same time.
      *            A value of zero is used to indicate that there should be no limit.
      * @param taskTimer
-     *            - Externally constructed Timer used to execute the task used to check
+     *            - Timer used to execute the task used to check
      *            timeouts.
-     *            The assembler will construct its own timer if this value is
+     *            The assembler will use the AMT control timer if this value is
      *            <code>null</code>.
      */
     PacketAssembler(final OutputChannel<IPPacket> outputChannel,
                     final int maxCacheSize,
-                    final Timer taskTimer) {
+                    final HashedWheelTimer taskTimer) {
         this(outputChannel, null, maxCacheSize, taskTimer);
     }
 
     /**
      * Constructs an assembler output channel that imposes no limit on cache size and
-     * constructs its own Timer thread.
+     * uses the AMT control timer.
      * 
      * @param outputChannel
      *            - The output channel that will receive reassembled datagrams. Required.
@@ -651,7 +812,7 @@ final class PacketAssembler
     }
 
     /**
-     * Constructs an assembler output channel that constructs its own Timer thread.
+     * Constructs an assembler output channel that uses the AMT control timer.
      * 
      * @param outputChannel
      *            - The output channel that will receive reassembled datagrams. Required.
@@ -665,7 +826,7 @@ final class PacketAssembler
     PacketAssembler(final OutputChannel<IPPacket> outputChannel,
                     final OutputChannel<IPPacket> timeoutChannel,
                     final int maxCacheSize) {
-        this(outputChannel, timeoutChannel, 0, null);
+        this(outputChannel, timeoutChannel, maxCacheSize, null);
     }
 
     /**
@@ -674,13 +835,13 @@ final class PacketAssembler
      * @param outputChannel
      *            - The output channel that will receive reassembled datagrams. Required.
      * @param taskTimer
-     *            - Externally constructed Timer used to execute the task used to check
+     *            - Timer used to execute the task used to check
      *            timeouts.
      *            The defragmenter will construct its own timer if this value is
      *            <code>null</code>.
      */
     PacketAssembler(final OutputChannel<IPPacket> outputChannel,
-                    final Timer taskTimer) {
+                    final HashedWheelTimer taskTimer) {
         this(outputChannel, null, 0, taskTimer);
     }
 
@@ -693,17 +854,18 @@ final class PacketAssembler
      *            - The optional output channel used to receive timeout notifications.
      *            May be <code>null</code>
      * @param taskTimer
-     *            - Externally constructed Timer used to execute the task used to check
+     *            - Timer used to execute the task used to check
      *            timeouts.
      *            The defragmenter will construct its own timer if this value is
      *            <code>null</code>.
      */
     PacketAssembler(final OutputChannel<IPPacket> outputChannel,
                     final OutputChannel<IPPacket> timeoutChannel,
-                    final Timer taskTimer) {
+                    final HashedWheelTimer taskTimer) {
         this(outputChannel, timeoutChannel, 0, taskTimer);
     }
 
+
     @Override
     public Logger getLogger() {
         return logger;
@@ -727,240 +889,154 @@ final class PacketAssembler
             return;
         }
 
-        synchronized (this.lock) {
-
-            // Now see if we can do something with this packet
-            Result result = processPacket(packet, milliseconds);
-            if (result == Result.Denied) {
-
-                // The packet appears to start a new datagram but the cache is full
-                // so we can't start reassembly yet.
-                // Attempt to add the packet to the pending queue.
-
-                int packetSize = packet.getTotalLength();
-
-                if (this.cummulativePendingPacketSize + packetSize > MAX_CUMMULATIVE_PENDING_PACKET_SIZE) {
-                    throw new IOException("datagram reassembly cache size limit reached");
-                }
-
-                if (logger.isLoggable(Level.FINER)) {
-                    logger.finer(this.log.msg("queueing packet for future reassembly"));
-                }
-
-                this.cummulativePendingPacketSize += packetSize;
-                this.pendingQueue.add(packet);
-            }
-            else if (result == Result.Started || result == Result.Completed) {
-                processPendingPackets(milliseconds);
-            }
-        }
-    }
-
-    /**
-     * @param milliseconds
-     * @throws InterruptedIOException
-     * @throws IOException
-     * @throws InterruptedException
-     */
-    private void processPendingPackets(final int milliseconds) throws InterruptedIOException, IOException, InterruptedException {
-        Iterator<IPPacket> iter = this.pendingQueue.iterator();
-        boolean isCheckAll = false;
-        while (iter.hasNext()) {
-            IPPacket pendingPacket = iter.next();
-            int packetSize = pendingPacket.getTotalLength();
-            Result result = processPacket(pendingPacket, milliseconds);
-            if (result != Result.Denied) {
-                iter.remove();
-                this.cummulativePendingPacketSize -= packetSize;
-            }
-            if (!isCheckAll) {
-                if (result == Result.Started || result == Result.Completed) {
-                    // We have room for a new entry, or a new entry was started
-                    // Check the rest to see if they can be processed
-                    isCheckAll = true;
-                }
-                else {
-                    // Nothing has changed for packets remaining in the queue
-                    break;
-                }
-            }
-        }
-    }
-
-    /**
-     * @param packet
-     * @param milliseconds
-     * @return
-     * @throws InterruptedIOException
-     * @throws IOException
-     * @throws InterruptedException
-     */
-    private Result processPacket(final IPPacket packet, final int milliseconds) throws InterruptedIOException, IOException, InterruptedException {
-
-        Result result = Result.Denied;
-
-        // Construct the identifier we used to lookup reassembly buffers in the cache
-        ByteBuffer identifier;
+        // Construct the key used to locate the reassembly buffer from the header fields
+        ByteBuffer header = packet.getBuffer();
         byte version = packet.getVersion();
-        if (version == 4) {
-            identifier = constructBufferIdentifier((IPv4Packet) packet);
+        byte protocol;
+        long source0, source1, destination0, destination1;
+        if (version == IPv4Packet.INTERNET_PROTOCOL_VERSION) {
+            protocol = ((IPv4Packet) packet).getProtocol();
+            source0 = header.getInt(12) & 0xFFFFFFFFL;
+            source1 = 0;
+            destination0 = header.getInt(16) & 0xFFFFFFFFL;
+            destination1 = 0;
         }
-        else if (version == 6) {
-            identifier = constructBufferIdentifier((IPv6Packet) packet);
+        else if (version == IPv6Packet.INTERNET_PROTOCOL_VERSION) {
+            protocol = 0;
+            source0 = header.getLong(8);
+            source1 = header.getLong(16);
+            destination0 = header.getLong(24);
+            destination1 = header.getLong(32);
         }
         else {
             throw new IllegalArgumentException("unrecognized IP packet type");
         }
 
+        int identification = packet.getFragmentIdentifier();
+        int hash = hash(identification, source0, source1, destination0, destination1);
+
         if (logger.isLoggable(Level.FINER)) {
             logger.finer(this.log.msg("searching reassembly buffer for source=" + Logging.address(packet.getSourceAddress()) +
                                       " destination=" + Logging.address(packet.getDestinationAddress()) +
-                                      " identification=" + packet.getFragmentIdentifier() +
+                                      " identification=" + identification +
                                       " fragment-offset=" + packet.getFragmentOffset() +
-                                      " identifier-hashCode=" + identifier.hashCode()));
+                                      " hash=" + hash));
         }
 
-        ReassemblyBuffer reassemblyBuffer = this.cache.get(identifier);
-        if (reassemblyBuffer == null) {
+        Stripe stripe = this.stripes[(hash >>> 24) & (STRIPE_COUNT - 1)];
 
-            if (this.maxCacheSize != 0 && this.cache.size() >= this.maxCacheSize) {
-                if (logger.isLoggable(Level.FINER)) {
-                    logger.finer(this.log.msg("reassembly cache is full cache-size=" + this.cache.size() + " queue-size="
-                                              + this.pendingQueue.size()));
-                }
-                // Indicate that the packet can't be processed yet
-                return result;
-            }
-
-            if (logger.isLoggable(Level.FINER)) {
-                logger.finer(this.log.msg("creating new reassembly buffer"));
-            }
-            reassemblyBuffer = new ReassemblyBuffer(identifier, REASSEMBLY_TIMEOUT);
-            this.cache.put(identifier, reassemblyBuffer);
-            result = Result.Started;
-            if (this.reaperTask == null) {
-                this.reaperTask = new TimerTask() {
-
-                    @Override
-                    public void run() {
-                        try {
-                            reap(false);
-                        }
-                        catch (Exception e) {
-                            if (logger.isLoggable(Level.FINE)) {
-                                logger.fine(PacketAssembler.this.log.msg("exception thrown in packet reassembly timer task - " +
-                                                                         e.getClass().getName() + ":" + e.getMessage()));
-                            }
-                        }
-                    }
-                };
-                // Run once a second starting once second from now
-                this.taskTimer.schedule(this.reaperTask, 1000, 1000);
+        IPPacket fragment = packet;
+        if (packet.getFragmentOffset() == 0) {
+            // Detach the packet from its receive buffer since the assembler holds on to it
+            try {
+                fragment = packet.copy();
             }
-        }
-        else {
-            if (logger.isLoggable(Level.FINER)) {
-                logger.finer(this.log.msg("found existing reassembly buffer"));
+            catch (ParseException e) {
+                throw new IOException(e.getMessage());
             }
         }
 
-        try {
-            if (reassemblyBuffer.addFragment(packet)) {
-                if (logger.isLoggable(Level.FINER)) {
-                    logger.finer(this.log.msg("reassembly complete"));
-                }
-                this.outputChannel.send(reassemblyBuffer.getCompletedPacket(), milliseconds);
-                this.cache.remove(reassemblyBuffer.getIdentifier());
-                result = Result.Completed;
+        ReassemblyBuffer reassemblyBuffer = stripe.addFragment(fragment, hash, version, protocol, identification,
+                                                               source0, source1, destination0, destination1);
+        if (reassemblyBuffer != null) {
+            try {
+                this.outputChannel.send(reassemblyBuffer.complete(), milliseconds);
             }
-            else if (result == Result.Denied) {
-                result = Result.Added;
+            catch (ParseException e) {
+                throw new IOException(e.getMessage());
+            }
+            finally {
+                reassemblyBuffer.releaseBuffer();
             }
         }
-        catch (ParseException e) {
-            throw new IOException(e.getMessage());
-        }
-
-        if (logger.isLoggable(Level.FINER)) {
-            logger.finer(this.log.msg("reassembly cache-size=" + this.cache.size() + " queue-size=" + this.pendingQueue.size()));
-        }
-
-        // Indicate the end result
-        return result;
     }
 
     @Override
     public void close() throws IOException, InterruptedException {
-        reap(true);
+        for (Stripe stripe : this.stripes) {
+            stripe.clear();
+        }
         this.outputChannel.close();
     }
 
     /**
-     * @param reapAll
-     * @throws InterruptedIOException
-     * @throws IOException
-     * @throws InterruptedException
+     * @return The number of datagrams that are currently being reassembled.
      */
-    private void reap(final boolean reapAll) throws InterruptedIOException, IOException, InterruptedException {
-
-        synchronized (this.lock) {
+    public int getPendingCount() {
+        int count = 0;
+        for (Stripe stripe : this.stripes) {
+            synchronized (stripe.lock) {
+                count += stripe.size;
+            }
+        }
+        return count;
+    }
 
-            long currentTimeMillis = System.currentTimeMillis();
+    /**
+     * @return The number of bytes currently held in reassembly buffers.
+     */
+    public long getMemoryUsage() {
+        long memory = 0;
+        for (Stripe stripe : this.stripes) {
+            synchronized (stripe.lock) {
+                memory += stripe.memory;
+            }
+        }
+        return memory;
+    }
 
-            if (reapAll) {
-                this.pendingQueue.clear();
-                this.cache.clear();
+    /**
+     * @return The number of datagrams that have been successfully reassembled.
+     */
+    public long getCompletedCount() {
+        long count = 0;
+        for (Stripe stripe : this.stripes) {
+            synchronized (stripe.lock) {
+                count += stripe.completedCount;
             }
-            else {
-                // Iterate over cache and check age of each entry
-                // Copy key set to avoid concurrent modification errors
-                HashSet<ByteBuffer> identifierSet = new HashSet<ByteBuffer>(this.cache.keySet());
-
-                Iterator<ByteBuffer> iter = identifierSet.iterator();
-                while (iter.hasNext()) {
-
-                    // Get the next reassembly buffer
-                    // The buffer will no longer exist if flushed by the
-                    // processPendingPackets() call below.
-                    ReassemblyBuffer buffer = this.cache.get(iter.next());
-                    if (buffer != null && buffer.isExpired(currentTimeMillis)) {
-
-                        if (logger.isLoggable(Level.FINER)) {
-                            logger.finer(this.log.msg("reassembly timeout exceeded buffer-identifier="
-                                                      + Logging.identify(buffer.getIdentifier()) +
-                                                      " identifier-hashCode=" + buffer.getIdentifier().hashCode() +
-                                                      " age=" + buffer.getAge(currentTimeMillis) + "ms"));
-                        }
-
-                        if (this.timeoutChannel != null) {
-                            IPPacket packet = buffer.getFragmentZeroPacket();
-                            if (packet != null) {
-                                if (!Precondition.isMulticastAddress(packet.getDestinationAddress())) {
-                                    this.timeoutChannel.send(packet, Integer.MAX_VALUE);
-                                }
-                            }
-                        }
-
-                        // Remove the reassembly buffer from the cache now that we're done
-                        // with it.
-                        iter.remove();
+        }
+        return count;
+    }
 
-                    }
-                }
+    /**
+     * @return The number of datagrams discarded because reassembly did not complete
+     *         within the reassembly timeout.
+     */
+    public long getTimedOutCount() {
+        long count = 0;
+        for (Stripe stripe : this.stripes) {
+            synchronized (stripe.lock) {
+                count += stripe.timedOutCount;
+            }
+        }
+        return count;
+    }
 
-                // If the cache size was limited, there may be packets pending
-                // Now that the cache size is reduced, we can process these to create a
-                // new entries
-                if (this.maxCacheSize > 0 && this.cache.size() < this.maxCacheSize) {
-                    processPendingPackets(Integer.MAX_VALUE);
-                }
+    /**
+     * @return The number of datagrams discarded to make room for other datagrams.
+     */
+    public long getEvictedCount() {
+        long count = 0;
+        for (Stripe stripe : this.stripes) {
+            synchronized (stripe.lock) {
+                count += stripe.evictedCount;
+            }
+        }
+        return count;
+    }
 
-                if (this.cache.isEmpty()) {
-                    this.reaperTask.cancel();
-                    this.reaperTask = null;
-                }
+    /**
+     * @return The number of fragments discarded because they extended beyond the
+     *         maximum datagram length.
+     */
+    public long getDiscardedCount() {
+        long count = 0;
+        for (Stripe stripe : this.stripes) {
+            synchronized (stripe.lock) {
+                count += stripe.discardedCount;
             }
         }
+        return count;
     }
 
 }
@@ -0,0 +1,550 @@
+package org.js4ms.amt.gateway;
+
+/*
+ * #%L
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * RelayProber.java [org.js4ms.jsdk:amt]
+ * %%
+ * Copyright (C) 2009 - 2014 Cisco Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetAddress;
+import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.js4ms.amt.message.AmtMessage;
+import org.js4ms.amt.message.AmtRelayAdvertisementMessage;
+import org.js4ms.amt.message.AmtRelayDiscoveryMessage;
+import org.js4ms.common.exception.ParseException;
+import org.js4ms.common.util.buffer.parser.MissingParserException;
+import org.js4ms.common.util.logging.Log;
+import org.js4ms.common.util.logging.Logging;
+import org.js4ms.common.util.task.HashedWheelTimer;
+import org.js4ms.common.util.task.TimerHandle;
+import org.js4ms.io.net.UdpDatagram;
+import org.js4ms.io.net.UdpSocketEndpoint;
+
+
+
+/**
+ * Sends AMT Relay Discovery messages to a set of discovery addresses in parallel
+ * and ranks the relays that respond by the round-trip time of their advertisements.
+ * Probes are sent from a separate unconnected socket so that a tunnel endpoint can
+ * stay connected to its current relay while standby relays are measured in the
+ * background.
+ *
+ * @author Greg Bumgardner (gbumgard)
+ */
+final class RelayProber
+                implements Runnable {
+
+    /**
+     * Interface used to report relay advertisements.
+     */
+    interface Listener {
+
+        /**
+         * Called from the prober thread each time a relay responds to a probe.
+         *
+         * @param message
+         *            The advertisement message.
+         * @param roundTripTime
+         *            The smoothed round-trip time of the relay in nanoseconds.
+         */
+        void relayAdvertised(AmtRelayAdvertisementMessage message, long roundTripTime);
+    }
+
+    /**
+     * A discovery message that is waiting for an advertisement.
+     */
+    private static final class Probe {
+
+        final InetAddress discoveryAddress;
+
+        final long sendTime;
+
+        Probe(final InetAddress discoveryAddress, final long sendTime) {
+            this.discoveryAddress = discoveryAddress;
+            this.sendTime = sendTime;
+        }
+    }
+
+    /**
+     * Measurements recorded for a relay that has responded to a probe.
+     */
+    private static final class Relay {
+
+        final InetAddress relayAddress;
+
+        AmtRelayAdvertisementMessage advertisement = null;
+
+        long roundTripTime = 0;
+
+        long lastAdvertisedTime = 0;
+
+        long holdDownExpiration = 0;
+
+        Relay(final InetAddress relayAddress) {
+            this.relayAddress = relayAddress;
+        }
+    }
+
+    /*-- Static Variables ---------------------------------------------------*/
+
+    /**
+     * The static logger instance for this class.
+     */
+    public static final Logger logger = Logger.getLogger(RelayProber.class.getName());
+
+    /**
+     * The number of probe intervals a relay may go without responding before it
+     * is removed from the ranking.
+     */
+    static final int STALE_PROBE_COUNT = 3;
+
+    /**
+     * The number of probe intervals a failed relay is excluded from selection.
+     */
+    static final int HOLD_DOWN_PROBE_COUNT = 3;
+
+    /**
+     * Orders relays by increasing round-trip time.
+     */
+    private static final Comparator<Relay> RANK_ORDER = new Comparator<Relay>() {
+        @Override
+        public int compare(final Relay r1, final Relay r2) {
+            return r1.roundTripTime < r2.roundTripTime ? -1 : (r1.roundTripTime == r2.roundTripTime ? 0 : 1);
+        }
+    };
+
+    /*-- Member Variables ---------------------------------------------------*/
+
+    protected final Log log = new Log(this);
+
+    /**
+     * Object used for synchronizing access to state variables.
+     */
+    private final Object lock = new Object();
+
+    private final List<InetAddress> discoveryAddresses;
+
+    private final long probeInterval;
+
+    private final Listener listener;
+
+    private final AmtMessage.Parser advertisementParser;
+
+    private final HashedWheelTimer taskTimer;
+
+    /**
+     * Outstanding probes indexed by discovery nonce.
+     */
+    private final HashMap<Integer, Probe> probes = new HashMap<Integer, Probe>();
+
+    private final HashMap<InetAddress, Relay> relays = new HashMap<InetAddress, Relay>();
+
+    private UdpSocketEndpoint udpEndpoint = null;
+
+    private TimerHandle probeTask = null;
+
+    private Thread handlerThread = null;
+
+    private volatile boolean isRunning = false;
+
+    /*-- Member Functions ---------------------------------------------------*/
+
+    /**
+     * @param discoveryAddresses
+     *            The relay discovery addresses that are probed in parallel.
+     * @param probeInterval
+     *            The interval between probes in milliseconds.
+     * @param listener
+     *            The listener that receives advertisement notifications.
+     */
+    RelayProber(final List<InetAddress> discoveryAddresses, final long probeInterval, final Listener listener) {
+
+        if (logger.isLoggable(Level.FINER)) {
+            logger.finer(this.log.entry("RelayProber.RelayProber", discoveryAddresses, probeInterval, listener));
+        }
+
+        this.discoveryAddresses = new ArrayList<InetAddress>(discoveryAddresses);
+        this.probeInterval = probeInterval;
+        this.listener = listener;
+        this.advertisementParser = new AmtMessage.Parser();
+        this.advertisementParser.add(AmtRelayAdvertisementMessage.constructParser());
+        this.taskTimer = AmtTunnelEndpoint.getControlTimer();
+    }
+
+    /**
+     * Opens the probe socket and starts sending probes.
+     *
+     * @throws IOException
+     */
+    void start() throws IOException {
+
+        if (logger.isLoggable(Level.FINER)) {
+            logger.finer(this.log.entry("RelayProber.start"));
+        }
+
+        synchronized (this.lock) {
+
+            if (!this.isRunning) {
+
+                this.udpEndpoint = new UdpSocketEndpoint(0);
+
+                this.isRunning = true;
+
+                this.handlerThread = new Thread(this, this.toString() + " probe");
+                this.handlerThread.setDaemon(true);
+                this.handlerThread.start();
+
+                this.probeTask = this.taskTimer.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        RelayProber.this.probe();
+                    }
+                }, 0, this.probeInterval);
+            }
+        }
+    }
+
+    /**
+     * Stops sending probes and closes the probe socket.
+     *
+     * @throws IOException
+     */
+    void stop() throws IOException {
+
+        if (logger.isLoggable(Level.FINER)) {
+            logger.finer(this.log.entry("RelayProber.stop"));
+        }
+
+        synchronized (this.lock) {
+
+            if (this.isRunning) {
+
+                this.isRunning = false;
+
+                this.probeTask.cancel();
+                this.probeTask = null;
+
+                // Close the endpoint to abort the read operation on socket
+                this.udpEndpoint.close(true);
+
+                this.handlerThread.interrupt();
+
+                this.probes.clear();
+            }
+        }
+    }
+
+    /**
+     * Sends a Relay Discovery message to each discovery address.
+     * Probes that have not been answered by the time the next probe is
+     * sent are discarded.
+     */
+    void probe() {
+
+        if (logger.isLoggable(Level.FINER)) {
+            logger.finer(this.log.entry("RelayProber.probe"));
+        }
+
+        synchronized (this.lock) {
+
+            if (!this.isRunning) {
+                return;
+            }
+
+            this.probes.clear();
+
+            long now = System.nanoTime();
+
+            // Forget relays that have stopped responding
+            long staleTime = now - STALE_PROBE_COUNT * this.probeInterval * 1000000;
+            Iterator<Relay> iter = this.relays.values().iterator();
+            while (iter.hasNext()) {
+                Relay relay = iter.next();
+                if (relay.lastAdvertisedTime - staleTime < 0) {
+                    if (logger.isLoggable(Level.FINE)) {
+                        logger.fine(this.log.msg("relay " + Logging.address(relay.relayAddress) + " no longer responding"));
+                    }
+                    iter.remove();
+                }
+            }
+
+            for (InetAddress discoveryAddress : this.discoveryAddresses) {
+
+                AmtRelayDiscoveryMessage message = new AmtRelayDiscoveryMessage();
+
+                if (logger.isLoggable(Level.FINE)) {
+                    logger.fine(this.log.msg("sending AMT Relay Discovery Message: relay-discovery-address="
+                                             + Logging.address(discoveryAddress)));
+                }
+
+                ByteBuffer buffer = ByteBuffer.allocate(message.getTotalLength());
+                message.writeTo(buffer);
+                buffer.flip();
+
+                this.probes.put(message.getDiscoveryNonce(), new Probe(discoveryAddress, System.nanoTime()));
+
+                try {
+                    this.udpEndpoint.send(new UdpDatagram(discoveryAddress, AmtTunnelEndpoint.AMT_PORT, buffer),
+                                          Integer.MAX_VALUE);
+                }
+                catch (IOException e) {
+                    // Unreachable discovery addresses simply produce no advertisements
+                    if (logger.isLoggable(Level.FINE)) {
+                        logger.fine(this.log.msg("attempt to send AMT Relay Discovery Message to "
+                                                 + Logging.address(discoveryAddress) + " failed - "
+                                                 + e.getClass().getSimpleName() + ":" + e.getMessage()));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Excludes a relay from selection for a hold-down period and
+     * immediately re-probes the discovery addresses.
+     *
+     * @param relayAddress
+     */
+    void markFailed(final InetAddress relayAddress) {
+
+        if (logger.isLoggable(Level.FINER)) {
+            logger.finer(this.log.entry("RelayProber.markFailed", Logging.address(relayAddress)));
+        }
+
+        synchronized (this.lock) {
+
+            Relay relay = this.relays.get(relayAddress);
+            if (relay == null) {
+                relay = new Relay(relayAddress);
+                relay.lastAdvertisedTime = System.nanoTime();
+                this.relays.put(relayAddress, relay);
+            }
+
+            relay.holdDownExpiration = System.nanoTime() + HOLD_DOWN_PROBE_COUNT * this.probeInterval * 1000000;
+
+            if (this.isRunning) {
+                this.taskTimer.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        RelayProber.this.probe();
+                    }
+                }, 0);
+            }
+        }
+    }
+
+    /**
+     * @param excludedAddress
+     *            A relay address that must not be selected or <code>null</code>.
+     * @return The last advertisement received from the relay with the lowest
+     *         round-trip time that is not held down, or <code>null</code> if no
+     *         such relay has responded.
+     */
+    AmtRelayAdvertisementMessage selectRelay(final InetAddress excludedAddress) {
+        synchronized (this.lock) {
+            long now = System.nanoTime();
+            Relay best = null;
+            for (Relay relay : this.relays.values()) {
+                if (relay.advertisement != null &&
+                    !relay.relayAddress.equals(excludedAddress) &&
+                    relay.holdDownExpiration - now <= 0 &&
+                    (best == null || RANK_ORDER.compare(relay, best) < 0)) {
+                    best = relay;
+                }
+            }
+            return best != null ? best.advertisement : null;
+        }
+    }
+
+    /**
+     * @return The addresses of the relays that are not held down, ordered by
+     *         increasing round-trip time.
+     */
+    List<InetAddress> getRankedRelays() {
+        synchronized (this.lock) {
+            long now = System.nanoTime();
+            ArrayList<Relay> ranked = new ArrayList<Relay>();
+            for (Relay relay : this.relays.values()) {
+                if (relay.advertisement != null && relay.holdDownExpiration - now <= 0) {
+                    ranked.add(relay);
+                }
+            }
+            Collections.sort(ranked, RANK_ORDER);
+            ArrayList<InetAddress> addresses = new ArrayList<InetAddress>(ranked.size());
+            for (Relay relay : ranked) {
+                addresses.add(relay.relayAddress);
+            }
+            return addresses;
+        }
+    }
+
+    /**
+     * @param relayAddress
+     * @return The smoothed round-trip time of the relay in nanoseconds or -1
+     *         if the relay has not responded.
+     */
+    long getRoundTripTime(final InetAddress relayAddress) {
+        synchronized (this.lock) {
+            Relay relay = this.relays.get(relayAddress);
+            return relay != null && relay.advertisement != null ? relay.roundTripTime : -1;
+        }
+    }
+
+    /**
+     * Records the round-trip time of an advertisement that answers an outstanding probe.
+     *
+     * @param message
+     * @param receiveTime
+     * @return The smoothed round-trip time of the relay or -1 if the advertisement was unexpected.
+     */
+    private long handleAdvertisementMessage(final AmtRelayAdvertisementMessage message, final long receiveTime) {
+
+        if (logger.isLoggable(Level.FINER)) {
+            logger.finer(this.log.entry("RelayProber.handleAdvertisementMessage", message));
+        }
+
+        synchronized (this.lock) {
+
+            Probe probe = this.probes.remove(message.getDiscoveryNonce());
+
+            if (probe == null) {
+                if (logger.isLoggable(Level.FINE)) {
+                    logger.fine(this.log.msg("received unexpected AMT Relay Advertisement Message: discovery-nonce=" +
+                                             message.getDiscoveryNonce()));
+                }
+                return -1;
+            }
+
+            InetAddress relayAddress;
+            try {
+                relayAddress = InetAddress.getByAddress(message.getRelayAddress());
+            }
+            catch (UnknownHostException e) {
+                throw new Error(e);
+            }
+
+            long sample = receiveTime - probe.sendTime;
+
+            Relay relay = this.relays.get(relayAddress);
+            if (relay == null) {
+                relay = new Relay(relayAddress);
+                relay.roundTripTime = sample;
+                this.relays.put(relayAddress, relay);
+            }
+            else if (relay.advertisement == null) {
+                relay.roundTripTime = sample;
+            }
+            else {
+                // Smooth the measurement as described in RFC 6298
+                relay.roundTripTime += (sample - relay.roundTripTime) >> 3;
+            }
+
+            relay.advertisement = message;
+            relay.lastAdvertisedTime = receiveTime;
+
+            if (logger.isLoggable(Level.FINE)) {
+                logger.fine(this.log.msg("relay " + Logging.address(relayAddress) + " advertised by " +
+                                         Logging.address(probe.discoveryAddress) + " rtt=" + (sample / 1000) +
+                                         "us srtt=" + (relay.roundTripTime / 1000) + "us"));
+            }
+
+            return relay.roundTripTime;
+        }
+    }
+
+    @Override
+    public void run() {
+
+        if (logger.isLoggable(Level.FINER)) {
+            logger.finer(this.log.entry("RelayProber.run"));
+        }
+
+        while (this.isRunning) {
+
+            UdpDatagram datagram;
+
+            try {
+                datagram = this.udpEndpoint.receive(Integer.MAX_VALUE);
+            }
+            catch (InterruptedIOException e) {
+                break;
+            }
+            catch (SocketException e) {
+                if (this.isRunning) {
+                    logger.warning(this.log.msg("receive operation failed - " + e.getClass().getSimpleName() + ":"
+                                                + e.getMessage()));
+                }
+                break;
+            }
+            catch (IOException e) {
+                if (this.isRunning) {
+                    logger.fine(this.log.msg("receive operation failed - " + e.getClass().getSimpleName() + ":"
+                                             + e.getMessage()));
+                    continue;
+                }
+                break;
+            }
+
+            long receiveTime = System.nanoTime();
+
+            if (!this.isRunning || datagram.getPayload().remaining() == 0) {
+                continue;
+            }
+
+            AmtRelayAdvertisementMessage message;
+            long roundTripTime;
+
+            try {
+                message = (AmtRelayAdvertisementMessage) this.advertisementParser.parse(datagram.getPayload());
+                roundTripTime = handleAdvertisementMessage(message, receiveTime);
+            }
+            catch (ParseException e) {
+                logger.fine(this.log.msg("discarding AMT message - " + e.getMessage()));
+                continue;
+            }
+            catch (MissingParserException e) {
+                logger.fine(this.log.msg("discarding AMT message - " + e.getMessage()));
+                continue;
+            }
+
+            if (roundTripTime >= 0) {
+                this.listener.relayAdvertised(message, roundTripTime);
+            }
+        }
+
+        if (logger.isLoggable(Level.FINER)) {
+            logger.finer(this.log.msg("exiting probe handler thread"));
+        }
+    }
+
+}
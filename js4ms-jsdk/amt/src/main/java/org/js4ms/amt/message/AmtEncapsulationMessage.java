@@ -29,6 +29,7 @@ import java.util.logging.Logger;
 
 import org.js4ms.common.exception.ParseException;
 import org.js4ms.common.util.buffer.parser.MissingParserException;
+import org.js4ms.ip.ChecksumException;
 import org.js4ms.ip.IPPacket;
 
 
@@ -55,6 +56,13 @@ abstract class AmtEncapsulationMessage
 
         IPPacket.BufferParser ipParser = null;
 
+        ChecksumPolicy checksumPolicy = null;
+
+        /**
+         * Tracks the verification state last applied to the IP packet parser.
+         */
+        private boolean isChecksumVerificationEnabled = true;
+
         /**
          * @param ipParser
          */
@@ -62,11 +70,42 @@ abstract class AmtEncapsulationMessage
             setIPPacketParser(ipParser);
         }
 
+        /**
+         * Sets the policy used to decide whether encapsulated packet checksums are
+         * verified. A <code>null</code> policy verifies every packet but, for
+         * compatibility, only rejects packets with invalid protocol checksums.
+         * When a policy is set, packets with an invalid header checksum are also
+         * rejected with a {@link ChecksumException}.
+         * 
+         * @param checksumPolicy
+         */
+        public void setChecksumPolicy(final ChecksumPolicy checksumPolicy) {
+            this.checksumPolicy = checksumPolicy;
+        }
+
+        /**
+         * @return
+         */
+        public ChecksumPolicy getChecksumPolicy() {
+            return this.checksumPolicy;
+        }
+
+        /**
+         * Indicates whether messages constructed by this parser carry control-plane
+         * (IGMP/MLD query) packets.
+         * 
+         * @return
+         */
+        protected boolean isControlPlane() {
+            return false;
+        }
+
         /**
          * @param ipParser
          */
         public void setIPPacketParser(final IPPacket.BufferParser ipParser) {
             this.ipParser = ipParser;
+            this.isChecksumVerificationEnabled = true;
         }
 
         /**
@@ -88,8 +127,30 @@ abstract class AmtEncapsulationMessage
             // Precondition.checkReference(buffer);
             AmtEncapsulationMessage message = constructMessage(buffer);
             if (this.ipParser != null) {
-                message.verifyPacketChecksum(this.ipParser);
-                message.parsePacket(this.ipParser);
+                ChecksumPolicy policy = this.checksumPolicy;
+                boolean isVerifying = policy == null || policy.isVerificationRequired(isControlPlane());
+                if (isVerifying != this.isChecksumVerificationEnabled) {
+                    this.ipParser.setChecksumVerificationEnabled(isVerifying);
+                    this.isChecksumVerificationEnabled = isVerifying;
+                }
+                if (isVerifying && !message.verifyPacketChecksum(this.ipParser)) {
+                    if (policy != null) {
+                        policy.recordFailure();
+                    }
+                    throw new ChecksumException("invalid checksum detected in encapsulated IP packet header");
+                }
+                try {
+                    message.parsePacket(this.ipParser);
+                }
+                catch (ChecksumException e) {
+                    if (policy != null) {
+                        policy.recordFailure();
+                    }
+                    throw e;
+                }
+                if (isVerifying && policy != null) {
+                    policy.recordVerified();
+                }
             }
             return message;
         }
@@ -144,6 +205,23 @@ abstract class AmtEncapsulationMessage
         }
     }
 
+    /**
+     * Rebinds this message to the contents of a ByteBuffer.
+     * The previously parsed IP packet, if any, is discarded.
+     * @param buffer The ByteBuffer containing the message.
+     * @param baseMessageLength The number of bytes that appear in front of the encapsulated packet.
+     */
+    protected final void rebind(final ByteBuffer buffer, final int baseMessageLength) {
+        setBufferInternal(consume(buffer, baseMessageLength));
+
+        if (logger.isLoggable(Level.FINER)) {
+            logger.finer(this.log.entry("AmtEncapsulationMessage.rebind", buffer, baseMessageLength));
+        }
+
+        this.unparsedPacket = consume(buffer, buffer.remaining());
+        this.packet = null;
+    }
+
     @Override
     public void log(final Logger logger, final Level level) {
         super.log(logger, level);
@@ -179,7 +257,14 @@ abstract class AmtEncapsulationMessage
 
     @Override
     public final int getTotalLength() {
-        return getBufferInternal().limit() + (getPacket() != null ? getPacket().getTotalLength() : 0);
+        return getBufferInternal().limit() + (getPacket() != null ? getPacket().getTotalLength() : 0) + getTrailerLength();
+    }
+
+    /**
+     * @return The number of bytes written after the encapsulated packet by {@link #writeTo(ByteBuffer)}.
+     */
+    protected int getTrailerLength() {
+        return 0;
     }
 
     /**
@@ -208,10 +293,11 @@ abstract class AmtEncapsulationMessage
 
     /**
      * @param parser
+     * @return <code>false</code> if the encapsulated packet header checksum is invalid.
      * @throws MissingParserException
      * @throws ParseException
      */
-    public final void verifyPacketChecksum(final IPPacket.BufferParser parser) throws MissingParserException, ParseException {
+    public final boolean verifyPacketChecksum(final IPPacket.BufferParser parser) throws MissingParserException, ParseException {
 
         if (logger.isLoggable(Level.FINER)) {
             logger.finer(this.log.entry("AmtEncapsulationMessage.verifyPacketChecksum", parser));
@@ -219,8 +305,9 @@ abstract class AmtEncapsulationMessage
 
         if (this.unparsedPacket != null) {
             // Check the IP packet checksum
-            parser.verifyChecksum(this.unparsedPacket);
+            return parser.verifyChecksum(this.unparsedPacket);
         }
+        return true;
     }
 
     /**
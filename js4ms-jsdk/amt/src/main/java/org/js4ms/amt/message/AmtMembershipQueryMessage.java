@@ -234,6 +234,11 @@ public final class AmtMembershipQueryMessage
             return new AmtMembershipQueryMessage(buffer);
         }
 
+        @Override
+        protected boolean isControlPlane() {
+            return true;
+        }
+
         @Override
         public Object getKey() {
             return MESSAGE_TYPE;
@@ -247,6 +252,11 @@ public final class AmtMembershipQueryMessage
 
     private static final int BASE_MESSAGE_LENGTH = 12;
 
+    /**
+     * The length of the gateway port and address fields that follow the query packet.
+     */
+    private static final int GATEWAY_ADDRESS_LENGTH = 18;
+
     /**
      * Singleton instance of parser for IP packets carrying IGMP or MLD query messages.
      */
@@ -396,8 +406,6 @@ public final class AmtMembershipQueryMessage
         }
         super.writeTo(buffer);
         if (this.unparsedPacket == null && this.gatewayAddress != null) {
-            buffer.put((byte) 0);
-            buffer.put((byte) 0);
             int port = this.gatewayAddress.getPort();
             buffer.put((byte) ((port >> 8) & 0xFF));
             buffer.put((byte) (port & 0xFF));
@@ -416,6 +424,11 @@ public final class AmtMembershipQueryMessage
         }
     }
 
+    @Override
+    protected int getTrailerLength() {
+        return this.unparsedPacket == null && this.gatewayAddress != null ? GATEWAY_ADDRESS_LENGTH : 0;
+    }
+
     @Override
     public Byte getType() {
         return MESSAGE_TYPE;
@@ -526,7 +539,7 @@ public final class AmtMembershipQueryMessage
     public InetSocketAddress getGatewayAddress() {
         if (this.unparsedPacket != null) {
             int index = this.packet.getTotalLength();
-            short port = (short) ((this.unparsedPacket.get(index++) << 8) | this.unparsedPacket.get(index++));
+            int port = ((this.unparsedPacket.get(index++) & 0xFF) << 8) | (this.unparsedPacket.get(index++) & 0xFF);
             byte[] address = new byte[16];
             for (int i = 0; i < 16; i++) {
                 address[i] = this.unparsedPacket.get(index++);
@@ -551,7 +564,7 @@ public final class AmtMembershipQueryMessage
         this.gatewayAddress = gatewayAddress;
         setGatewayAddressFlag(gatewayAddress != null);
         if (this.unparsedPacket != null) {
-            int index = this.packet.getTotalLength() + 2;
+            int index = this.packet.getTotalLength();
             int port = this.gatewayAddress.getPort();
             this.unparsedPacket.put(index++, (byte) ((port >> 8) & 0xFF));
             this.unparsedPacket.put(index++, (byte) (port & 0xFF));
@@ -32,14 +32,9 @@ import org.js4ms.common.util.buffer.field.ByteArrayField;
 import org.js4ms.common.util.buffer.field.ByteField;
 import org.js4ms.common.util.buffer.field.IntegerField;
 import org.js4ms.common.util.logging.Logging;
-import org.js4ms.ip.IPMessage;
 import org.js4ms.ip.IPPacket;
 import org.js4ms.ip.protocol.igmp.IGMPMessage;
-import org.js4ms.ip.protocol.igmp.IGMPv2LeaveMessage;
-import org.js4ms.ip.protocol.igmp.IGMPv3ReportMessage;
 import org.js4ms.ip.protocol.mld.MLDMessage;
-import org.js4ms.ip.protocol.mld.MLDv1DoneMessage;
-import org.js4ms.ip.protocol.mld.MLDv1ReportMessage;
 
 
 
@@ -223,17 +218,9 @@ public final class AmtMembershipUpdateMessage
      *         the encapsulated packet from an AMT Membership Update message.
      */
     public static IPPacket.BufferParser getUpdatePacketParser() {
-        IGMPMessage.Parser igmpMessageParser = new IGMPMessage.Parser();
-        igmpMessageParser.add(new IGMPv3ReportMessage.Parser());
-        igmpMessageParser.add(new IGMPv2LeaveMessage.Parser());
-        MLDMessage.Parser mldMessageParser = new MLDMessage.Parser();
-        mldMessageParser.add(new MLDv1ReportMessage.Parser());
-        mldMessageParser.add(new MLDv1DoneMessage.Parser());
-        IPMessage.Parser ipv4MessageParser = new IPMessage.Parser();
-        ipv4MessageParser.add(igmpMessageParser);
-        IPMessage.Parser ipv6MessageParser = new IPMessage.Parser();
-        ipv6MessageParser.add(mldMessageParser);
         IPPacket.BufferParser ipParser = new IPPacket.BufferParser();
+        ipParser.add(IGMPMessage.getIPv4PacketParser());
+        ipParser.add(MLDMessage.getIPv6PacketParser());
         return ipParser;
     }
 
@@ -28,7 +28,6 @@ import java.util.logging.Logger;
 
 import org.js4ms.common.util.buffer.BufferBackedObject;
 import org.js4ms.common.util.buffer.field.ByteField;
-import org.js4ms.common.util.buffer.field.SelectorField;
 import org.js4ms.common.util.buffer.parser.KeyedApplicationMessage;
 
 
@@ -62,7 +61,7 @@ public abstract class AmtMessage
          * 
          */
         public Parser() {
-            super(new SelectorField<Byte>(AmtMessage.MessageType));
+            super(AmtMessage.MessageType);
         }
 
     }
@@ -84,10 +83,45 @@ public abstract class AmtMessage
      *         Used to parse messages sent from a relay to a gateway.
      */
     public final static AmtMessage.Parser constructAmtGatewayParser() {
+        return constructAmtGatewayParser(null);
+    }
+
+    /**
+     * @param checksumPolicy
+     *            The policy that determines whether the checksums of packets
+     *            encapsulated in query and data messages are verified.
+     *            A <code>null</code> policy verifies every packet.
+     * @return A parser that constructs an AMT messages object from the contents of a
+     *         ByteBuffer.
+     *         Used to parse messages sent from a relay to a gateway.
+     */
+    public final static AmtMessage.Parser constructAmtGatewayParser(final ChecksumPolicy checksumPolicy) {
+        return constructAmtGatewayParser(checksumPolicy, false);
+    }
+
+    /**
+     * @param checksumPolicy
+     *            The policy that determines whether the checksums of packets
+     *            encapsulated in query and data messages are verified.
+     *            A <code>null</code> policy verifies every packet.
+     * @param isDataReuseEnabled
+     *            Indicates whether Multicast Data messages and the IPv4 packets they
+     *            carry are parsed into per-thread instances that are rebound to each
+     *            new message. See {@link AmtMulticastDataMessage.Parser#setReuseEnabled(boolean)}.
+     * @return A parser that constructs an AMT messages object from the contents of a
+     *         ByteBuffer.
+     *         Used to parse messages sent from a relay to a gateway.
+     */
+    public final static AmtMessage.Parser constructAmtGatewayParser(final ChecksumPolicy checksumPolicy,
+                                                                    final boolean isDataReuseEnabled) {
         AmtMessage.Parser parser = new AmtMessage.Parser();
         parser.add(AmtRelayAdvertisementMessage.constructParser());
-        parser.add(AmtMembershipQueryMessage.constructParser());
-        parser.add(AmtMulticastDataMessage.constructParser());
+        AmtMembershipQueryMessage.Parser queryParser = AmtMembershipQueryMessage.constructParser();
+        queryParser.setChecksumPolicy(checksumPolicy);
+        parser.add(queryParser);
+        AmtMulticastDataMessage.Parser dataParser = AmtMulticastDataMessage.constructParser(isDataReuseEnabled);
+        dataParser.setChecksumPolicy(checksumPolicy);
+        parser.add(dataParser);
         return parser;
     }
 
@@ -99,7 +133,9 @@ public abstract class AmtMessage
     public final static AmtMessage.Parser constructAmtRelayParser() {
         AmtMessage.Parser parser = new AmtMessage.Parser();
         parser.add(AmtRelayDiscoveryMessage.constructParser());
+        parser.add(AmtRequestMessage.constructParser());
         parser.add(AmtMembershipUpdateMessage.constructParser());
+        parser.add(AmtTeardownMessage.constructParser());
         return parser;
     }
 
@@ -175,7 +211,7 @@ public abstract class AmtMessage
 
     @Override
     public Byte getType() {
-        return MessageType.get(getBufferInternal());
+        return MessageType.getByte(getBufferInternal());
     }
 
     /**
@@ -120,6 +120,12 @@ public final class AmtMulticastDataMessage
     public static class Parser
                     extends AmtEncapsulationMessage.Parser {
 
+        /**
+         * Per-thread message instances that are rebound to each buffer parsed while
+         * reuse is enabled.
+         */
+        private ThreadLocal<AmtMulticastDataMessage> reusableMessage = null;
+
         /**
          * 
          */
@@ -134,9 +140,47 @@ public final class AmtMulticastDataMessage
             super(ipParser);
         }
 
+        /**
+         * Enables or disables message reuse.
+         * While reuse is enabled, the parser rebinds a message instance owned by the
+         * calling thread instead of constructing a new message, so the returned
+         * message is only valid until the same thread parses another buffer.
+         * 
+         * @param isEnabled
+         */
+        public void setReuseEnabled(final boolean isEnabled) {
+            if (isEnabled) {
+                if (this.reusableMessage == null) {
+                    this.reusableMessage = new ThreadLocal<AmtMulticastDataMessage>();
+                }
+            }
+            else {
+                this.reusableMessage = null;
+            }
+        }
+
+        /**
+         * @return
+         */
+        public boolean isReuseEnabled() {
+            return this.reusableMessage != null;
+        }
+
         @Override
         public AmtEncapsulationMessage constructMessage(final ByteBuffer buffer) throws ParseException {
-            return new AmtMulticastDataMessage(buffer);
+            ThreadLocal<AmtMulticastDataMessage> reusableMessage = this.reusableMessage;
+            if (reusableMessage == null) {
+                return new AmtMulticastDataMessage(buffer);
+            }
+            AmtMulticastDataMessage message = reusableMessage.get();
+            if (message == null) {
+                message = new AmtMulticastDataMessage(buffer);
+                reusableMessage.set(message);
+            }
+            else {
+                message.rebind(buffer, BASE_MESSAGE_LENGTH);
+            }
+            return message;
         }
 
         @Override
@@ -167,10 +211,23 @@ public final class AmtMulticastDataMessage
      *         of a ByteBuffer.
      */
     public static IPPacket.BufferParser getDataPacketParser() {
+        return getDataPacketParser(false);
+    }
+
+    /**
+     * @param isReuseEnabled
+     *            Indicates whether the parser should rebind per-thread IPv4 packet
+     *            instances rather than construct a new packet for each buffer.
+     *            See {@link IPv4Packet.Parser#setReuseEnabled(boolean)}.
+     * @return A parser that constructs an IPPacket object from the contents
+     *         of a ByteBuffer.
+     */
+    public static IPPacket.BufferParser getDataPacketParser(final boolean isReuseEnabled) {
         // UdpPacket.Parser udpParser = new UdpPacket.Parser();
         // IPMessage.Parser ipMessageParser = new IPMessage.Parser();
         // ipMessageParser.add(udpParser);
         IPv4Packet.Parser ipv4Parser = new IPv4Packet.Parser();
+        ipv4Parser.setReuseEnabled(isReuseEnabled);
         // TODO header options?
         // ipv4Parser.setProtocolParser(ipMessageParser);
         IPv6Packet.Parser ipv6Parser = IPv6Packet.getIPv6MessageParser(); // Adds
@@ -189,8 +246,20 @@ public final class AmtMulticastDataMessage
      *         contents of a ByteBuffer.
      */
     public static AmtMulticastDataMessage.Parser constructParser() {
+        return constructParser(false);
+    }
+
+    /**
+     * @param isReuseEnabled
+     *            Indicates whether the parser should rebind per-thread message and
+     *            IPv4 packet instances rather than construct new objects for each buffer.
+     * @return A parser that construct an AmtMulticastDataMessage object from the
+     *         contents of a ByteBuffer.
+     */
+    public static AmtMulticastDataMessage.Parser constructParser(final boolean isReuseEnabled) {
         AmtMulticastDataMessage.Parser parser = new AmtMulticastDataMessage.Parser();
-        parser.setIPPacketParser(getDataPacketParser());
+        parser.setReuseEnabled(isReuseEnabled);
+        parser.setIPPacketParser(getDataPacketParser(isReuseEnabled));
         return parser;
     }
 
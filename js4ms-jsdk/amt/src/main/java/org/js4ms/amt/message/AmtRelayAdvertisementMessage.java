@@ -142,7 +142,7 @@ public final class AmtRelayAdvertisementMessage
 
     public static final byte MESSAGE_TYPE = 0x2;
 
-    private static final int BASE_MESSAGE_LENGTH = 12;
+    private static final int BASE_MESSAGE_LENGTH = 8;
 
     private static final int MIN_MESSAGE_LENGTH = 12;
 
@@ -202,7 +202,7 @@ public final class AmtRelayAdvertisementMessage
      *             message.
      */
     public AmtRelayAdvertisementMessage(ByteBuffer buffer) throws ParseException {
-        super(consume(buffer, buffer.limit() > MIN_MESSAGE_LENGTH ? MAX_MESSAGE_LENGTH : MIN_MESSAGE_LENGTH));
+        super(consume(buffer, buffer.remaining() > MIN_MESSAGE_LENGTH ? MAX_MESSAGE_LENGTH : MIN_MESSAGE_LENGTH));
 
         if (logger.isLoggable(Level.FINER)) {
             logger.finer(this.log.entry("AmtRelayAdvertisementMessage.AmtRelayAdvertisementMessage", buffer));
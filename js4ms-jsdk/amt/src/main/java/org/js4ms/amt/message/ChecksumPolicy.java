@@ -0,0 +1,233 @@
+package org.js4ms.amt.message;
+
+/*
+ * #%L
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *  
+ * ChecksumPolicy.java [org.js4ms.jsdk:amt]
+ * %%
+ * Copyright (C) 2009 - 2014 Cisco Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import java.util.concurrent.atomic.AtomicLong;
+
+
+
+/**
+ * Controls whether the checksums of IP packets encapsulated in AMT messages are
+ * verified when those messages are parsed, and counts the results.
+ * <p>
+ * The policy modes are:
+ * <ul>
+ * <li>{@link Mode#ALWAYS} - verify every encapsulated packet (the default).</li>
+ * <li>{@link Mode#NEVER} - never verify encapsulated packets.</li>
+ * <li>{@link Mode#SAMPLED} - verify one packet out of every <i>N</i> data packets and
+ * every control-plane packet.</li>
+ * <li>{@link Mode#CONTROL_PLANE_ONLY} - verify only packets carried in AMT Membership
+ * Query messages (IGMP/MLD queries).</li>
+ * </ul>
+ * A packet is verified when the IPv4 header checksum, if any, and the checksum
+ * of the UDP, IGMP or MLD message it carries are checked. Each packet for which
+ * {@link #isVerificationRequired(boolean)} returns <code>true</code> is counted
+ * once as either verified or failed.
+ * <p>
+ * A policy instance may be shared by several parsers; the counters are thread-safe.
+ * 
+ * @author Gregory Bumgardner (gbumgard)
+ */
+public final class ChecksumPolicy {
+
+    /*-- Inner Classes ------------------------------------------------------*/
+
+    /**
+     * Checksum verification modes.
+     */
+    public enum Mode {
+        ALWAYS,
+        NEVER,
+        SAMPLED,
+        CONTROL_PLANE_ONLY
+    }
+
+    /*-- Static Variables ---------------------------------------------------*/
+
+    public static final int DEFAULT_SAMPLE_INTERVAL = 100;
+
+    /*-- Static Functions ---------------------------------------------------*/
+
+    /**
+     * Constructs a policy from a string representation.
+     * The string is one of <code>always</code>, <code>never</code>,
+     * <code>control-plane-only</code> or <code>sampled[:N]</code>.
+     * 
+     * @param value
+     * @return
+     * @throws IllegalArgumentException
+     *             The string does not describe a valid policy.
+     */
+    public static ChecksumPolicy valueOf(final String value) throws IllegalArgumentException {
+        String mode = value.trim().toLowerCase();
+        if (mode.equals("always")) {
+            return new ChecksumPolicy(Mode.ALWAYS);
+        }
+        else if (mode.equals("never")) {
+            return new ChecksumPolicy(Mode.NEVER);
+        }
+        else if (mode.equals("control-plane-only")) {
+            return new ChecksumPolicy(Mode.CONTROL_PLANE_ONLY);
+        }
+        else if (mode.startsWith("sampled")) {
+            int interval = DEFAULT_SAMPLE_INTERVAL;
+            int index = mode.indexOf(':');
+            if (index != -1) {
+                try {
+                    interval = Integer.parseInt(mode.substring(index + 1));
+                }
+                catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("invalid checksum sample interval in '" + value + "'");
+                }
+            }
+            return new ChecksumPolicy(Mode.SAMPLED, interval);
+        }
+        throw new IllegalArgumentException("invalid checksum policy '" + value + "'");
+    }
+
+    /*-- Member Variables ---------------------------------------------------*/
+
+    private final Mode mode;
+
+    private final int sampleInterval;
+
+    private final AtomicLong sampleCounter = new AtomicLong();
+
+    private final AtomicLong verifiedCount = new AtomicLong();
+
+    private final AtomicLong failureCount = new AtomicLong();
+
+    private final AtomicLong skippedCount = new AtomicLong();
+
+    /*-- Member Functions ---------------------------------------------------*/
+
+    /**
+     * @param mode
+     */
+    public ChecksumPolicy(final Mode mode) {
+        this(mode, DEFAULT_SAMPLE_INTERVAL);
+    }
+
+    /**
+     * @param mode
+     * @param sampleInterval
+     *            The number of data packets per verified packet in {@link Mode#SAMPLED}
+     *            mode.
+     */
+    public ChecksumPolicy(final Mode mode, final int sampleInterval) {
+        if (sampleInterval < 1) {
+            throw new IllegalArgumentException("sample interval must be greater than zero");
+        }
+        this.mode = mode;
+        this.sampleInterval = sampleInterval;
+    }
+
+    /**
+     * @return
+     */
+    public Mode getMode() {
+        return this.mode;
+    }
+
+    /**
+     * @return
+     */
+    public int getSampleInterval() {
+        return this.sampleInterval;
+    }
+
+    /**
+     * Determines whether the next encapsulated packet should be verified.
+     * Packets that are not verified are counted as skipped.
+     * 
+     * @param isControlPlane
+     *            Indicates whether the packet carries control-plane (IGMP/MLD query)
+     *            messages.
+     * @return
+     */
+    public boolean isVerificationRequired(final boolean isControlPlane) {
+        boolean isRequired;
+        switch (this.mode) {
+            case NEVER:
+                isRequired = false;
+                break;
+            case CONTROL_PLANE_ONLY:
+                isRequired = isControlPlane;
+                break;
+            case SAMPLED:
+                isRequired = isControlPlane || (this.sampleCounter.getAndIncrement() % this.sampleInterval) == 0;
+                break;
+            default:
+                isRequired = true;
+                break;
+        }
+        if (!isRequired) {
+            this.skippedCount.incrementAndGet();
+        }
+        return isRequired;
+    }
+
+    /**
+     * Records a packet whose IP header and payload checksums were all verified successfully.
+     */
+    public void recordVerified() {
+        this.verifiedCount.incrementAndGet();
+    }
+
+    /**
+     * Records a packet that failed checksum verification.
+     */
+    public void recordFailure() {
+        this.failureCount.incrementAndGet();
+    }
+
+    /**
+     * @return The number of packets whose IP header and payload checksums passed verification.
+     */
+    public long getVerifiedCount() {
+        return this.verifiedCount.get();
+    }
+
+    /**
+     * @return The number of packets that failed checksum verification.
+     */
+    public long getFailureCount() {
+        return this.failureCount.get();
+    }
+
+    /**
+     * @return The number of packets that were not verified.
+     */
+    public long getSkippedCount() {
+        return this.skippedCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return this.mode + (this.mode == Mode.SAMPLED ? ":" + this.sampleInterval : "") +
+               " verified=" + getVerifiedCount() +
+               " failed=" + getFailureCount() +
+               " skipped=" + getSkippedCount();
+    }
+}
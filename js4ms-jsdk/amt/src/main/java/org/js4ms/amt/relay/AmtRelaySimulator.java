@@ -0,0 +1,852 @@
+package org.js4ms.amt.relay;
+
+/*
+ * #%L
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * AmtRelaySimulator.java [org.js4ms.jsdk:amt]
+ * %%
+ * Copyright (C) 2009 - 2014 Cisco Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Random;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.js4ms.amt.message.AmtMembershipQueryMessage;
+import org.js4ms.amt.message.AmtMembershipUpdateMessage;
+import org.js4ms.amt.message.AmtMessage;
+import org.js4ms.amt.message.AmtRelayAdvertisementMessage;
+import org.js4ms.amt.message.AmtRelayDiscoveryMessage;
+import org.js4ms.amt.message.AmtRequestMessage;
+import org.js4ms.amt.message.AmtTeardownMessage;
+import org.js4ms.common.exception.ParseException;
+import org.js4ms.common.util.buffer.parser.MissingParserException;
+import org.js4ms.common.util.logging.Log;
+import org.js4ms.common.util.logging.Logging;
+import org.js4ms.io.channel.OutputChannel;
+import org.js4ms.io.net.UdpDatagram;
+import org.js4ms.io.net.UdpInputChannel;
+import org.js4ms.io.net.UdpOutputChannel;
+import org.js4ms.io.net.UdpSocketEndpoint;
+import org.js4ms.ip.IPMessage;
+import org.js4ms.ip.IPPacket;
+import org.js4ms.ip.ipv4.IPv4Packet;
+import org.js4ms.ip.protocol.igmp.IGMPGroupRecord;
+import org.js4ms.ip.protocol.igmp.IGMPMessage;
+import org.js4ms.ip.protocol.igmp.IGMPv3ReportMessage;
+import org.js4ms.ip.protocol.mld.MLDGroupRecord;
+import org.js4ms.ip.protocol.mld.MLDMessage;
+import org.js4ms.ip.protocol.mld.MLDv2ReportMessage;
+
+
+
+/**
+ * A stand-in for an AMT relay that can be used to load-test a gateway without
+ * access to a multicast network.
+ * The simulator answers Relay Discovery, Request, Membership Update and Teardown
+ * messages and uses a {@link TrafficGenerator} to send AMT Multicast Data messages to
+ * each gateway for every (S,G) channel the gateway has joined.
+ * <p>
+ * Channels joined in EXCLUDE mode (any-source joins) receive traffic from
+ * {@link #ANY_SOURCE_IPV4_ADDRESS} or {@link #ANY_SOURCE_IPV6_ADDRESS}.
+ * The simulator does not compute a response MAC from the gateway address and nonce
+ * as a real relay would; it assigns a random MAC to each gateway and checks that it
+ * is returned in each Membership Update message.
+ * <p>
+ * The simulator may be started within the same process as a gateway, or run as a
+ * separate process using {@link #main(String[])}. Gateways always send AMT messages to
+ * the IANA assigned port, so the simulator must be bound to port 2268 on the relay
+ * discovery address used by the gateway, typically the loopback address.
+ * The simulator and {@link TrafficProfile} are configured using properties:
+ * <ul>
+ * <li>{@link #ADDRESS_PROPERTY} - the local address to bind. The default is the loopback address.</li>
+ * <li>{@link #PORT_PROPERTY} - the local port to bind. The default is 2268.</li>
+ * <li>{@link #RELAY_ADDRESS_PROPERTY} - the relay address returned in Relay Advertisement
+ * messages. The default is the bound address.</li>
+ * <li>{@link #DURATION_PROPERTY} - the number of seconds {@link #main(String[])} runs the
+ * simulator. The default (zero) runs the simulator until the process is terminated.</li>
+ * </ul>
+ *
+ * @author Greg Bumgardner (gbumgard)
+ */
+public final class AmtRelaySimulator
+                implements Runnable {
+
+    /*-- Inner Classes ------------------------------------------------------*/
+
+    /**
+     * The state maintained for each gateway that has sent a Request message.
+     */
+    private static final class Session {
+
+        final InetSocketAddress gatewayAddress;
+
+        final byte[] responseMac;
+
+        int requestNonce;
+
+        /**
+         * The sources joined within each group.
+         */
+        final HashMap<InetAddress, HashSet<InetAddress>> channels = new HashMap<InetAddress, HashSet<InetAddress>>();
+
+        Session(final InetSocketAddress gatewayAddress, final byte[] responseMac) {
+            this.gatewayAddress = gatewayAddress;
+            this.responseMac = responseMac;
+        }
+    }
+
+    /*-- Static Variables ---------------------------------------------------*/
+
+    /**
+     * The static logger instance for this class.
+     */
+    public static final Logger logger = Logger.getLogger(AmtRelaySimulator.class.getName());
+
+    public static final String PROPERTY_PREFIX = "org.js4ms.amt.relay.simulator.";
+
+    public static final String ADDRESS_PROPERTY = PROPERTY_PREFIX + "address";
+
+    public static final String PORT_PROPERTY = PROPERTY_PREFIX + "port";
+
+    public static final String RELAY_ADDRESS_PROPERTY = PROPERTY_PREFIX + "relay.address";
+
+    public static final String DURATION_PROPERTY = PROPERTY_PREFIX + "duration";
+
+    /**
+     * The IANA assigned AMT port.
+     */
+    public static final int DEFAULT_PORT = 2268;
+
+    /**
+     * The source address used for IPv4 groups joined in EXCLUDE mode (TEST-NET-1).
+     */
+    public static final byte[] ANY_SOURCE_IPV4_ADDRESS = {
+                    (byte) 192, 0, 2, 1
+    };
+
+    /**
+     * The source address used for IPv6 groups joined in EXCLUDE mode (2001:db8::1).
+     */
+    public static final byte[] ANY_SOURCE_IPV6_ADDRESS = {
+                    0x20, 0x01, 0x0D, (byte) 0xB8, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 1
+    };
+
+    /*-- Member Variables ---------------------------------------------------*/
+
+    protected final Log log = new Log(this);
+
+    /**
+     * Object used for synchronizing access to state variables.
+     */
+    private final Object lock = new Object();
+
+    private final InetSocketAddress localAddress;
+
+    private final InetAddress relayAddress;
+
+    private final AmtMessage.Parser amtMessageParser = AmtMessage.constructAmtRelayParser();
+
+    private final TrafficGenerator trafficGenerator;
+
+    private final HashMap<InetSocketAddress, Session> sessions = new HashMap<InetSocketAddress, Session>();
+
+    private final Random random = new Random();
+
+    private UdpSocketEndpoint udpEndpoint;
+
+    private UdpOutputChannel udpOutputChannel;
+
+    private UdpInputChannel udpInputChannel;
+
+    private Thread handlerThread;
+
+    private volatile boolean isRunning = false;
+
+    private volatile long discoveryCount = 0;
+
+    private volatile long requestCount = 0;
+
+    private volatile long updateCount = 0;
+
+    private volatile long teardownCount = 0;
+
+    /*-- Member Functions ---------------------------------------------------*/
+
+    /**
+     * @param localAddress
+     *            The local address and port to bind. If the address is the wildcard
+     *            address, the loopback address is returned in Relay Advertisement messages.
+     * @param profile
+     *            The description of the traffic sent on each channel.
+     */
+    public AmtRelaySimulator(final InetSocketAddress localAddress, final TrafficProfile profile) {
+        this(localAddress, getAdvertisedAddress(localAddress.getAddress()), profile);
+    }
+
+    /**
+     * @param localAddress
+     *            The local address and port to bind.
+     * @param relayAddress
+     *            The relay address returned in Relay Advertisement messages.
+     * @param profile
+     *            The description of the traffic sent on each channel.
+     */
+    public AmtRelaySimulator(final InetSocketAddress localAddress,
+                             final InetAddress relayAddress,
+                             final TrafficProfile profile) {
+
+        if (logger.isLoggable(Level.FINER)) {
+            logger.finer(this.log.entry("AmtRelaySimulator.AmtRelaySimulator",
+                                        Logging.address(localAddress),
+                                        Logging.address(relayAddress),
+                                        profile));
+        }
+
+        this.localAddress = localAddress;
+        this.relayAddress = relayAddress;
+        this.trafficGenerator = new TrafficGenerator(profile, new OutputChannel<UdpDatagram>() {
+
+            @Override
+            public void send(final UdpDatagram datagram, final int milliseconds) throws IOException, InterruptedException {
+                AmtRelaySimulator.this.udpOutputChannel.send(datagram, milliseconds);
+            }
+
+            @Override
+            public void close() {
+                // Do nothing
+            }
+        });
+    }
+
+    /**
+     * Constructs a simulator using the properties described in the class description
+     * and {@link TrafficProfile}.
+     *
+     * @param properties
+     * @throws UnknownHostException
+     *             The value of an address property could not be resolved.
+     */
+    public AmtRelaySimulator(final Properties properties) throws UnknownHostException {
+        this(getLocalAddress(properties), getRelayAddress(properties), new TrafficProfile(properties));
+    }
+
+    /**
+     * @return The local address and port to which the simulator is bound.
+     */
+    public InetSocketAddress getLocalAddress() {
+        return this.localAddress;
+    }
+
+    /**
+     * @return The relay address returned in Relay Advertisement messages.
+     */
+    public InetAddress getRelayAddress() {
+        return this.relayAddress;
+    }
+
+    /**
+     * @return The generator that sends multicast data to the gateways.
+     *         Used to retrieve traffic counters.
+     */
+    public TrafficGenerator getTrafficGenerator() {
+        return this.trafficGenerator;
+    }
+
+    /**
+     * @return The number of gateways that have an active session.
+     */
+    public int getSessionCount() {
+        synchronized (this.lock) {
+            return this.sessions.size();
+        }
+    }
+
+    /**
+     * @return The number of Relay Discovery messages received.
+     */
+    public long getDiscoveryCount() {
+        return this.discoveryCount;
+    }
+
+    /**
+     * @return The number of Request messages received.
+     */
+    public long getRequestCount() {
+        return this.requestCount;
+    }
+
+    /**
+     * @return The number of Membership Update messages accepted.
+     */
+    public long getUpdateCount() {
+        return this.updateCount;
+    }
+
+    /**
+     * @return The number of Teardown messages accepted.
+     */
+    public long getTeardownCount() {
+        return this.teardownCount;
+    }
+
+    /**
+     * Binds the simulator socket and starts the message handler and traffic generator threads.
+     *
+     * @throws IOException
+     */
+    public void start() throws IOException {
+
+        if (logger.isLoggable(Level.FINER)) {
+            logger.finer(this.log.entry("AmtRelaySimulator.start"));
+        }
+
+        synchronized (this.lock) {
+
+            if (!this.isRunning) {
+
+                this.udpEndpoint = new UdpSocketEndpoint(this.localAddress);
+                this.udpOutputChannel = new UdpOutputChannel(this.udpEndpoint);
+                this.udpInputChannel = new UdpInputChannel(this.udpEndpoint);
+
+                this.isRunning = true;
+
+                this.handlerThread = new Thread(this, this.toString() + " receive");
+                this.handlerThread.setDaemon(true);
+                this.handlerThread.start();
+
+                this.trafficGenerator.start();
+            }
+        }
+
+        if (logger.isLoggable(Level.INFO)) {
+            logger.info(this.log.msg("AMT relay simulator listening on " + Logging.address(this.localAddress) +
+                                     " " + this.trafficGenerator.getProfile()));
+        }
+    }
+
+    /**
+     * Stops the simulator and closes its socket.
+     * Gateway sessions are discarded.
+     *
+     * @throws InterruptedException
+     * @throws IOException
+     */
+    public void stop() throws InterruptedException, IOException {
+
+        if (logger.isLoggable(Level.FINER)) {
+            logger.finer(this.log.entry("AmtRelaySimulator.stop"));
+        }
+
+        Thread handlerThread;
+
+        synchronized (this.lock) {
+
+            if (!this.isRunning) {
+                return;
+            }
+
+            this.isRunning = false;
+            this.sessions.clear();
+            handlerThread = this.handlerThread;
+        }
+
+        this.trafficGenerator.stop();
+
+        // Close the endpoint to abort the read operation on socket
+        this.udpEndpoint.close(true);
+        handlerThread.interrupt();
+        handlerThread.join();
+
+        if (logger.isLoggable(Level.INFO)) {
+            logger.info(this.log.msg("AMT relay simulator stopped discoveries=" + this.discoveryCount +
+                                     " requests=" + this.requestCount +
+                                     " updates=" + this.updateCount +
+                                     " teardowns=" + this.teardownCount +
+                                     " packets=" + this.trafficGenerator.getPacketCount() +
+                                     " fragmented=" + this.trafficGenerator.getFragmentedPacketCount() +
+                                     " datagrams=" + this.trafficGenerator.getDatagramCount() +
+                                     " discarded=" + this.trafficGenerator.getDiscardedDatagramCount() +
+                                     " failed=" + this.trafficGenerator.getFailedDatagramCount()));
+        }
+    }
+
+    @Override
+    public void run() {
+
+        if (logger.isLoggable(Level.FINER)) {
+            logger.finer(this.log.entry("AmtRelaySimulator.run"));
+        }
+
+        while (this.isRunning) {
+
+            UdpDatagram datagram;
+
+            try {
+                datagram = this.udpInputChannel.receive(Integer.MAX_VALUE);
+            }
+            catch (InterruptedIOException e) {
+                logger.fine(this.log.msg("I/O operation interrupted - exiting message hander thread"));
+                break;
+            }
+            catch (InterruptedException e) {
+                logger.fine(this.log.msg("thread interrupted - exiting message hander thread"));
+                break;
+            }
+            catch (SocketException e) {
+                if (this.isRunning) {
+                    logger.warning(this.log.msg("receive operation failed - " + e.getClass().getSimpleName() + ":"
+                                                + e.getMessage()));
+                }
+                break;
+            }
+            catch (IOException e) {
+                logger.warning(this.log.msg("receive operation failed - " + e.getClass().getSimpleName() + ":" + e.getMessage()));
+                continue;
+            }
+
+            if (!this.isRunning) {
+                break;
+            }
+
+            if (datagram.getPayload().remaining() == 0) {
+                // Every AMT message starts with a type byte
+                continue;
+            }
+
+            try {
+
+                AmtMessage message = (AmtMessage) this.amtMessageParser.parse(datagram.getPayload());
+
+                if (logger.isLoggable(Level.FINE)) {
+                    logger.fine(this.log.msg("received AMT message " + message.getClass().getSimpleName() + " from "
+                                             + Logging.address(datagram.getSourceSocketAddress())));
+                    if (logger.isLoggable(Level.FINEST)) {
+                        message.log(Level.FINEST);
+                    }
+                }
+
+                switch (message.getType()) {
+
+                    case AmtRelayDiscoveryMessage.MESSAGE_TYPE:
+                        handleDiscoveryMessage(datagram.getSourceSocketAddress(), (AmtRelayDiscoveryMessage) message);
+                        break;
+
+                    case AmtRequestMessage.MESSAGE_TYPE:
+                        handleRequestMessage(datagram.getSourceSocketAddress(), (AmtRequestMessage) message);
+                        break;
+
+                    case AmtMembershipUpdateMessage.MESSAGE_TYPE:
+                        handleUpdateMessage(datagram.getSourceSocketAddress(), (AmtMembershipUpdateMessage) message);
+                        break;
+
+                    case AmtTeardownMessage.MESSAGE_TYPE:
+                        handleTeardownMessage((AmtTeardownMessage) message);
+                        break;
+
+                    default:
+                        if (logger.isLoggable(Level.FINE)) {
+                            logger.fine(this.log.msg("ignoring AMT message " + message.getClass().getSimpleName()));
+                        }
+                        break;
+                }
+            }
+            catch (ParseException e) {
+                logger.warning(this.log.msg("discarding AMT message - " + e.getMessage()));
+            }
+            catch (MissingParserException e) {
+                logger.warning(this.log.msg("discarding AMT message - " + e.getMessage()));
+            }
+            catch (InterruptedIOException e) {
+                logger.fine(this.log.msg("I/O operation interrupted - exiting message hander thread"));
+                break;
+            }
+            catch (InterruptedException e) {
+                logger.fine(this.log.msg("thread interrupted - exiting message hander thread"));
+                break;
+            }
+            catch (IOException e) {
+                logger.warning(this.log.msg("unable to send AMT message - " + e.getClass().getSimpleName() + ":"
+                                            + e.getMessage()));
+            }
+        }
+
+        if (logger.isLoggable(Level.FINER)) {
+            logger.finer(this.log.msg("exiting message handler thread"));
+        }
+    }
+
+    /**
+     * @param gatewayAddress
+     * @param message
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    private void handleDiscoveryMessage(final InetSocketAddress gatewayAddress,
+                                        final AmtRelayDiscoveryMessage message) throws IOException, InterruptedException {
+
+        if (logger.isLoggable(Level.FINER)) {
+            logger.finer(this.log.entry("AmtRelaySimulator.handleDiscoveryMessage", Logging.address(gatewayAddress), message));
+        }
+
+        this.discoveryCount++;
+
+        send(gatewayAddress, new AmtRelayAdvertisementMessage(message.getDiscoveryNonce(), this.relayAddress.getAddress()));
+    }
+
+    /**
+     * @param gatewayAddress
+     * @param message
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    private void handleRequestMessage(final InetSocketAddress gatewayAddress,
+                                      final AmtRequestMessage message) throws IOException, InterruptedException {
+
+        if (logger.isLoggable(Level.FINER)) {
+            logger.finer(this.log.entry("AmtRelaySimulator.handleRequestMessage", Logging.address(gatewayAddress), message));
+        }
+
+        this.requestCount++;
+
+        byte[] responseMac;
+
+        synchronized (this.lock) {
+            Session session = this.sessions.get(gatewayAddress);
+            if (session == null) {
+                byte[] mac = new byte[6];
+                this.random.nextBytes(mac);
+                session = new Session(gatewayAddress, mac);
+                this.sessions.put(gatewayAddress, session);
+            }
+            session.requestNonce = message.getRequestNonce();
+            responseMac = session.responseMac;
+        }
+
+        IPPacket queryPacket = message.getProtocolFlag()
+                                                        ? AmtMembershipQueryMessage.mldGeneralQueryPacket
+                                                        : AmtMembershipQueryMessage.igmpGeneralQueryPacket;
+
+        send(gatewayAddress, new AmtMembershipQueryMessage(responseMac, message.getRequestNonce(), queryPacket, gatewayAddress));
+    }
+
+    /**
+     * @param gatewayAddress
+     * @param message
+     * @throws UnknownHostException
+     */
+    private void handleUpdateMessage(final InetSocketAddress gatewayAddress,
+                                     final AmtMembershipUpdateMessage message) throws UnknownHostException {
+
+        if (logger.isLoggable(Level.FINER)) {
+            logger.finer(this.log.entry("AmtRelaySimulator.handleUpdateMessage", Logging.address(gatewayAddress), message));
+        }
+
+        synchronized (this.lock) {
+
+            Session session = this.sessions.get(gatewayAddress);
+
+            if (session == null ||
+                session.requestNonce != message.getRequestNonce() ||
+                !Arrays.equals(session.responseMac, message.getResponseMac())) {
+                logger.info(this.log.msg("discarding AMT Membership Update Message from " + Logging.address(gatewayAddress) +
+                                         " - unknown gateway or invalid response MAC or nonce"));
+                return;
+            }
+
+            this.updateCount++;
+
+            IPPacket packet = message.getPacket();
+
+            if (packet.getVersion() == IPv4Packet.INTERNET_PROTOCOL_VERSION) {
+                IPMessage ipMessage = packet.getProtocolMessage(IGMPMessage.IP_PROTOCOL_NUMBER);
+                if (ipMessage instanceof IGMPv3ReportMessage) {
+                    IGMPv3ReportMessage report = (IGMPv3ReportMessage) ipMessage;
+                    for (int i = 0; i < report.getNumberOfGroupRecords(); i++) {
+                        IGMPGroupRecord record = report.getGroupRecord(i);
+                        byte[][] sources = new byte[record.getNumberOfSources()][];
+                        for (int j = 0; j < sources.length; j++) {
+                            sources[j] = record.getSource(j);
+                        }
+                        updateChannels(session, record.getType(), record.getGroupAddress(), sources);
+                    }
+                    return;
+                }
+            }
+            else {
+                IPMessage ipMessage = packet.getProtocolMessage(MLDMessage.IP_PROTOCOL_NUMBER);
+                if (ipMessage instanceof MLDv2ReportMessage) {
+                    MLDv2ReportMessage report = (MLDv2ReportMessage) ipMessage;
+                    for (int i = 0; i < report.getNumberOfGroupRecords(); i++) {
+                        MLDGroupRecord record = report.getGroupRecord(i);
+                        byte[][] sources = new byte[record.getNumberOfSources()][];
+                        for (int j = 0; j < sources.length; j++) {
+                            sources[j] = record.getSource(j);
+                        }
+                        updateChannels(session, record.getType(), record.getGroupAddress(), sources);
+                    }
+                    return;
+                }
+            }
+
+            if (logger.isLoggable(Level.FINE)) {
+                logger.fine(this.log.msg("ignoring AMT Membership Update Message that does not carry an IGMPv3 or MLDv2 report"));
+            }
+        }
+    }
+
+    /**
+     * @param message
+     */
+    private void handleTeardownMessage(final AmtTeardownMessage message) {
+
+        if (logger.isLoggable(Level.FINER)) {
+            logger.finer(this.log.entry("AmtRelaySimulator.handleTeardownMessage", message));
+        }
+
+        InetSocketAddress gatewayAddress = message.getGatewayAddress();
+
+        synchronized (this.lock) {
+
+            Session session = this.sessions.get(gatewayAddress);
+
+            if (session == null ||
+                session.requestNonce != message.getRequestNonce() ||
+                !Arrays.equals(session.responseMac, message.getResponseMac())) {
+                logger.info(this.log.msg("discarding AMT Teardown Message for " + Logging.address(gatewayAddress) +
+                                         " - unknown gateway or invalid response MAC or nonce"));
+                return;
+            }
+
+            this.teardownCount++;
+            this.sessions.remove(gatewayAddress);
+            this.trafficGenerator.removeFlows(gatewayAddress, null, null);
+        }
+    }
+
+    /**
+     * Applies a group record to the channels joined by a gateway and starts or stops
+     * the corresponding traffic flows. IGMPv3 and MLDv2 group records use the same
+     * record type values.
+     *
+     * @param session
+     * @param recordType
+     * @param groupAddress
+     * @param sourceAddresses
+     * @throws UnknownHostException
+     */
+    private void updateChannels(final Session session,
+                                final byte recordType,
+                                final byte[] groupAddress,
+                                final byte[][] sourceAddresses) throws UnknownHostException {
+
+        if (logger.isLoggable(Level.FINER)) {
+            logger.finer(this.log.entry("AmtRelaySimulator.updateChannels",
+                                        Logging.address(session.gatewayAddress),
+                                        recordType,
+                                        Logging.address(groupAddress)));
+        }
+
+        InetAddress group = InetAddress.getByAddress(groupAddress);
+
+        HashSet<InetAddress> sources = new HashSet<InetAddress>();
+        for (byte[] sourceAddress : sourceAddresses) {
+            sources.add(InetAddress.getByAddress(sourceAddress));
+        }
+
+        HashSet<InetAddress> current = session.channels.get(group);
+        if (current == null) {
+            current = new HashSet<InetAddress>();
+        }
+
+        HashSet<InetAddress> next;
+
+        switch (recordType) {
+
+            case IGMPGroupRecord.MODE_IS_INCLUDE:
+            case IGMPGroupRecord.CHANGE_TO_INCLUDE_MODE:
+                next = sources;
+                break;
+
+            case IGMPGroupRecord.MODE_IS_EXCLUDE:
+            case IGMPGroupRecord.CHANGE_TO_EXCLUDE_MODE:
+                // Excluded sources are ignored
+                next = new HashSet<InetAddress>();
+                next.add(InetAddress.getByAddress(groupAddress.length == 4 ? ANY_SOURCE_IPV4_ADDRESS : ANY_SOURCE_IPV6_ADDRESS));
+                break;
+
+            case IGMPGroupRecord.ALLOW_NEW_SOURCES:
+                next = new HashSet<InetAddress>(current);
+                next.addAll(sources);
+                break;
+
+            case IGMPGroupRecord.BLOCK_OLD_SOURCES:
+                next = new HashSet<InetAddress>(current);
+                next.removeAll(sources);
+                break;
+
+            default:
+                logger.info(this.log.msg("ignoring group record with unknown type " + recordType));
+                return;
+        }
+
+        for (InetAddress source : current) {
+            if (!next.contains(source)) {
+                this.trafficGenerator.removeFlows(session.gatewayAddress, source.getAddress(), groupAddress);
+            }
+        }
+
+        for (InetAddress source : next) {
+            if (!current.contains(source)) {
+                this.trafficGenerator.addFlow(session.gatewayAddress, source.getAddress(), groupAddress);
+            }
+        }
+
+        if (next.isEmpty()) {
+            session.channels.remove(group);
+        }
+        else {
+            session.channels.put(group, next);
+        }
+    }
+
+    /**
+     * @param gatewayAddress
+     * @param message
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    private void send(final InetSocketAddress gatewayAddress, final AmtMessage message) throws IOException, InterruptedException {
+
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine(this.log.msg("sending " + message.getClass().getSimpleName() + " to " + Logging.address(gatewayAddress)));
+            if (logger.isLoggable(Level.FINEST)) {
+                message.log(Level.FINEST);
+            }
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(message.getTotalLength());
+        message.writeTo(buffer);
+        buffer.flip();
+
+        this.udpOutputChannel.send(new UdpDatagram(gatewayAddress, buffer), Integer.MAX_VALUE);
+    }
+
+    /*-- Static Functions ---------------------------------------------------*/
+
+    /**
+     * @param properties
+     * @return
+     * @throws UnknownHostException
+     */
+    private static InetSocketAddress getLocalAddress(final Properties properties) throws UnknownHostException {
+        String address = properties.getProperty(ADDRESS_PROPERTY);
+        int port = TrafficProfile.getIntegerProperty(properties, PORT_PROPERTY, DEFAULT_PORT);
+        // A null host name resolves to the loopback address
+        return new InetSocketAddress(InetAddress.getByName(address), port);
+    }
+
+    /**
+     * @param properties
+     * @return
+     * @throws UnknownHostException
+     */
+    private static InetAddress getRelayAddress(final Properties properties) throws UnknownHostException {
+        String address = properties.getProperty(RELAY_ADDRESS_PROPERTY);
+        if (address != null) {
+            return InetAddress.getByName(address);
+        }
+        return getAdvertisedAddress(getLocalAddress(properties).getAddress());
+    }
+
+    /**
+     * @param localAddress
+     * @return The local address or the loopback address if the local address is the wildcard address.
+     */
+    private static InetAddress getAdvertisedAddress(final InetAddress localAddress) {
+        if (localAddress.isAnyLocalAddress()) {
+            try {
+                return InetAddress.getByName(null);
+            }
+            catch (UnknownHostException e) {
+                throw new Error(e);
+            }
+        }
+        return localAddress;
+    }
+
+    /**
+     * Runs the simulator using the properties described in the class description
+     * and {@link TrafficProfile}, which are read from the system properties.
+     *
+     * @param args
+     */
+    public static void main(final String[] args) {
+
+        try {
+            Logging.configureLogging();
+        }
+        catch (IOException e) {
+        }
+
+        try {
+
+            final AmtRelaySimulator simulator = new AmtRelaySimulator(System.getProperties());
+
+            simulator.start();
+
+            Runtime.getRuntime().addShutdownHook(new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        simulator.stop();
+                    }
+                    catch (Exception e) {
+                    }
+                }
+            });
+
+            int duration = TrafficProfile.getIntegerProperty(System.getProperties(), DURATION_PROPERTY, 0);
+            if (duration > 0) {
+                Thread.sleep(duration * 1000L);
+                simulator.stop();
+            }
+            else {
+                simulator.handlerThread.join();
+            }
+        }
+        catch (IOException e) {
+            logger.severe("unable to start AMT relay simulator - " + e.getClass().getSimpleName() + ":" + e.getMessage());
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
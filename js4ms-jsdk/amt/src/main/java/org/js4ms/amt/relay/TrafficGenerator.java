@@ -0,0 +1,619 @@
+package org.js4ms.amt.relay;
+
+/*
+ * #%L
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * TrafficGenerator.java [org.js4ms.jsdk:amt]
+ * %%
+ * Copyright (C) 2009 - 2014 Cisco Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.js4ms.amt.message.AmtMulticastDataMessage;
+import org.js4ms.common.util.logging.Log;
+import org.js4ms.common.util.logging.Logging;
+import org.js4ms.io.channel.OutputChannel;
+import org.js4ms.io.net.UdpDatagram;
+import org.js4ms.ip.ipv4.IPv4Packet;
+import org.js4ms.ip.protocol.udp.UdpPacket;
+
+
+
+/**
+ * Generates AMT Multicast Data messages for a set of (S,G) flows.
+ * Each flow sends packets to one gateway at the rate given by a {@link TrafficProfile}.
+ * A single thread paces all flows and builds each message directly in a reusable
+ * buffer, so no packet buffers are allocated once the generator is running.
+ * <p>
+ * The first sixteen bytes of each UDP payload hold a sequence number and the
+ * {@link System#nanoTime()} value recorded when the packet was built.
+ * Receivers may use {@link #getSequenceNumber(ByteBuffer)} and
+ * {@link #getTimestamp(ByteBuffer)} to measure loss and latency. Sequence numbers
+ * are assigned to discarded packets so that receivers can count them.
+ * <p>
+ * IPv4 packets may be sent as fragments. IPv6 packets are never fragmented.
+ *
+ * @author Greg Bumgardner (gbumgard)
+ */
+public final class TrafficGenerator
+                implements Runnable {
+
+    /*-- Static Variables ---------------------------------------------------*/
+
+    /**
+     * The static logger instance for this class.
+     */
+    public static final Logger logger = Logger.getLogger(TrafficGenerator.class.getName());
+
+    /**
+     * The maximum number of packets a flow may send at once to catch up with its schedule.
+     */
+    static final int MAX_BURST = 16;
+
+    static final long IDLE_PERIOD = 100 * 1000000; // 100 ms
+
+    private static final int AMT_HEADER_LENGTH = 2;
+
+    private static final int IPV4_HEADER_LENGTH = 20;
+
+    private static final int IPV6_HEADER_LENGTH = 40;
+
+    private static final int UDP_HEADER_LENGTH = 8;
+
+    private static final byte DATA_TTL = 32;
+
+    /*-- Inner Classes ------------------------------------------------------*/
+
+    /**
+     * A stream of packets sent from a source to a group and delivered to a gateway.
+     */
+    private static final class Flow {
+
+        final InetSocketAddress gatewayAddress;
+
+        final byte[] sourceAddress;
+
+        final byte[] groupAddress;
+
+        long sequenceNumber = 0;
+
+        long nextSendTime;
+
+        int lossBurstRemaining = 0;
+
+        Flow(final InetSocketAddress gatewayAddress, final byte[] sourceAddress, final byte[] groupAddress) {
+            this.gatewayAddress = gatewayAddress;
+            this.sourceAddress = sourceAddress;
+            this.groupAddress = groupAddress;
+        }
+
+        boolean matches(final InetSocketAddress gatewayAddress, final byte[] sourceAddress, final byte[] groupAddress) {
+            return this.gatewayAddress.equals(gatewayAddress) &&
+                   (sourceAddress == null || Arrays.equals(this.sourceAddress, sourceAddress)) &&
+                   (groupAddress == null || Arrays.equals(this.groupAddress, groupAddress));
+        }
+    }
+
+    /*-- Member Variables ---------------------------------------------------*/
+
+    protected final Log log = new Log(this);
+
+    /**
+     * Monitor object used for thread synchronization.
+     */
+    private final Object lock = new Object();
+
+    private final TrafficProfile profile;
+
+    private final OutputChannel<UdpDatagram> outputChannel;
+
+    private final CopyOnWriteArrayList<Flow> flows = new CopyOnWriteArrayList<Flow>();
+
+    private final Random random;
+
+    private final long sendInterval;
+
+    private final byte[] buffer = new byte[AMT_HEADER_LENGTH + IPV6_HEADER_LENGTH + UDP_HEADER_LENGTH
+                                           + TrafficProfile.MAXIMUM_PAYLOAD_SIZE];
+
+    private final ByteBuffer message = ByteBuffer.wrap(this.buffer);
+
+    private short identification = 0;
+
+    private volatile Thread thread = null;
+
+    private volatile boolean isRunning = false;
+
+    private volatile long packetCount = 0;
+
+    private volatile long fragmentedPacketCount = 0;
+
+    private volatile long datagramCount = 0;
+
+    private volatile long discardedDatagramCount = 0;
+
+    private volatile long failedDatagramCount = 0;
+
+    /*-- Member Functions ---------------------------------------------------*/
+
+    /**
+     * @param profile
+     *            The description of the traffic sent on each flow.
+     * @param outputChannel
+     *            The channel used to send datagrams containing AMT Multicast Data messages.
+     *            The channel must not retain the datagram payload after its send method returns.
+     */
+    public TrafficGenerator(final TrafficProfile profile, final OutputChannel<UdpDatagram> outputChannel) {
+
+        if (logger.isLoggable(Level.FINER)) {
+            logger.finer(this.log.entry("TrafficGenerator.TrafficGenerator", profile, outputChannel));
+        }
+
+        this.profile = profile;
+        this.outputChannel = outputChannel;
+        this.random = new Random(profile.getSeed());
+        this.sendInterval = Math.max(1000000000L / profile.getRate(), 1);
+
+        // The AMT message type never changes
+        this.buffer[0] = AmtMulticastDataMessage.MESSAGE_TYPE;
+        this.buffer[1] = 0;
+    }
+
+    /**
+     * @return The traffic profile used by this generator.
+     */
+    public TrafficProfile getProfile() {
+        return this.profile;
+    }
+
+    /**
+     * Starts the generator thread.
+     */
+    public void start() {
+
+        if (logger.isLoggable(Level.FINER)) {
+            logger.finer(this.log.entry("TrafficGenerator.start"));
+        }
+
+        synchronized (this.lock) {
+            if (!this.isRunning) {
+                this.isRunning = true;
+                this.thread = new Thread(this, this.toString() + " traffic");
+                this.thread.setDaemon(true);
+                this.thread.start();
+            }
+        }
+    }
+
+    /**
+     * Stops the generator thread.
+     *
+     * @throws InterruptedException
+     */
+    public void stop() throws InterruptedException {
+
+        if (logger.isLoggable(Level.FINER)) {
+            logger.finer(this.log.entry("TrafficGenerator.stop"));
+        }
+
+        Thread thread;
+        synchronized (this.lock) {
+            if (!this.isRunning) {
+                return;
+            }
+            this.isRunning = false;
+            thread = this.thread;
+            this.thread = null;
+        }
+
+        LockSupport.unpark(thread);
+        thread.join();
+    }
+
+    /**
+     * Starts sending packets from a source to a group.
+     * Does nothing if the flow already exists.
+     *
+     * @param gatewayAddress
+     *            The address and port of the gateway that receives the packets.
+     * @param sourceAddress
+     * @param groupAddress
+     */
+    public void addFlow(final InetSocketAddress gatewayAddress, final byte[] sourceAddress, final byte[] groupAddress) {
+
+        if (logger.isLoggable(Level.FINER)) {
+            logger.finer(this.log.entry("TrafficGenerator.addFlow",
+                                        Logging.address(gatewayAddress),
+                                        Logging.address(sourceAddress),
+                                        Logging.address(groupAddress)));
+        }
+
+        if (sourceAddress.length != groupAddress.length) {
+            throw new IllegalArgumentException("source and group address families differ");
+        }
+
+        synchronized (this.lock) {
+            for (Flow flow : this.flows) {
+                if (flow.matches(gatewayAddress, sourceAddress, groupAddress)) {
+                    return;
+                }
+            }
+            Flow flow = new Flow(gatewayAddress, sourceAddress.clone(), groupAddress.clone());
+            flow.nextSendTime = System.nanoTime();
+            this.flows.add(flow);
+        }
+
+        LockSupport.unpark(this.thread);
+    }
+
+    /**
+     * Stops sending packets on the flows that match the specified addresses.
+     *
+     * @param gatewayAddress
+     *            The address and port of the gateway that receives the packets.
+     * @param sourceAddress
+     *            The source address or <code>null</code> to match any source.
+     * @param groupAddress
+     *            The group address or <code>null</code> to match any group.
+     */
+    public void removeFlows(final InetSocketAddress gatewayAddress, final byte[] sourceAddress, final byte[] groupAddress) {
+
+        if (logger.isLoggable(Level.FINER)) {
+            logger.finer(this.log.entry("TrafficGenerator.removeFlows",
+                                        Logging.address(gatewayAddress),
+                                        Logging.address(sourceAddress),
+                                        Logging.address(groupAddress)));
+        }
+
+        synchronized (this.lock) {
+            // The iterator of a copy-on-write list does not support removal
+            for (Flow flow : this.flows) {
+                if (flow.matches(gatewayAddress, sourceAddress, groupAddress)) {
+                    this.flows.remove(flow);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The number of active flows.
+     */
+    public int getFlowCount() {
+        return this.flows.size();
+    }
+
+    /**
+     * @return The number of packets built, including packets that were discarded.
+     */
+    public long getPacketCount() {
+        return this.packetCount;
+    }
+
+    /**
+     * @return The number of packets that were sent as fragments.
+     */
+    public long getFragmentedPacketCount() {
+        return this.fragmentedPacketCount;
+    }
+
+    /**
+     * @return The number of datagrams sent to the output channel.
+     */
+    public long getDatagramCount() {
+        return this.datagramCount;
+    }
+
+    /**
+     * @return The number of datagrams discarded to simulate packet loss.
+     */
+    public long getDiscardedDatagramCount() {
+        return this.discardedDatagramCount;
+    }
+
+    /**
+     * @return The number of datagrams the output channel failed to send.
+     */
+    public long getFailedDatagramCount() {
+        return this.failedDatagramCount;
+    }
+
+    @Override
+    public void run() {
+
+        if (logger.isLoggable(Level.FINER)) {
+            logger.finer(this.log.entry("TrafficGenerator.run"));
+        }
+
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine(this.log.msg("starting traffic generator " + this.profile));
+        }
+
+        try {
+            while (this.isRunning) {
+
+                long now = System.nanoTime();
+                long wakeTime = now + IDLE_PERIOD;
+
+                Iterator<Flow> iter = this.flows.iterator();
+                while (iter.hasNext()) {
+                    Flow flow = iter.next();
+                    int burst = 0;
+                    while (flow.nextSendTime - now <= 0 && burst++ < MAX_BURST) {
+                        send(flow, now);
+                        flow.nextSendTime += this.sendInterval;
+                    }
+                    if (now - flow.nextSendTime > MAX_BURST * this.sendInterval) {
+                        // The flow has fallen too far behind - drop the backlog
+                        flow.nextSendTime = now + this.sendInterval;
+                    }
+                    if (flow.nextSendTime - wakeTime < 0) {
+                        wakeTime = flow.nextSendTime;
+                    }
+                }
+
+                long delay = wakeTime - System.nanoTime();
+                if (delay > 0) {
+                    LockSupport.parkNanos(this, delay);
+                }
+            }
+        }
+        catch (InterruptedIOException e) {
+            logger.fine(this.log.msg("I/O operation interrupted - exiting traffic generator thread"));
+        }
+        catch (InterruptedException e) {
+            logger.fine(this.log.msg("thread interrupted - exiting traffic generator thread"));
+        }
+
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine(this.log.msg("traffic generator stopped packets=" + this.packetCount +
+                                     " fragmented=" + this.fragmentedPacketCount +
+                                     " datagrams=" + this.datagramCount +
+                                     " discarded=" + this.discardedDatagramCount +
+                                     " failed=" + this.failedDatagramCount));
+        }
+    }
+
+    /**
+     * Builds the next packet on a flow and sends it as one or more AMT Multicast Data messages.
+     *
+     * @param flow
+     * @param now
+     * @throws InterruptedIOException
+     * @throws InterruptedException
+     */
+    private void send(final Flow flow, final long now) throws InterruptedIOException, InterruptedException {
+
+        this.packetCount++;
+
+        int payloadSize = this.profile.getPayloadSize();
+        int udpLength = UDP_HEADER_LENGTH + payloadSize;
+        boolean isIPv4 = flow.groupAddress.length == 4;
+        int headerLength = isIPv4 ? IPV4_HEADER_LENGTH : IPV6_HEADER_LENGTH;
+        int udpOffset = AMT_HEADER_LENGTH + headerLength;
+
+        // UDP header and payload
+        ByteBuffer message = this.message;
+        message.clear();
+        message.putShort(udpOffset, (short) this.profile.getDestinationPort());
+        message.putShort(udpOffset + 2, (short) this.profile.getDestinationPort());
+        message.putShort(udpOffset + 4, (short) udpLength);
+        message.putShort(udpOffset + 6, (short) 0);
+        message.putLong(udpOffset + UDP_HEADER_LENGTH, flow.sequenceNumber++);
+        message.putLong(udpOffset + UDP_HEADER_LENGTH + 8, now);
+
+        if (isIPv4) {
+
+            short identification = this.identification++;
+
+            boolean isFragmented = udpLength > this.profile.getFragmentSize()
+                                   && this.random.nextDouble() < this.profile.getFragmentRatio();
+
+            if (!isFragmented) {
+                writeIPv4Header(flow, identification, udpLength, 0, false);
+                sendDatagram(flow, AMT_HEADER_LENGTH + IPV4_HEADER_LENGTH + udpLength);
+                return;
+            }
+
+            this.fragmentedPacketCount++;
+
+            // The headers for each fragment are written in front of the fragment data,
+            // overwriting the tail of the previous fragment, so the fragments are sent in order.
+            int fragmentSize = this.profile.getFragmentSize();
+            for (int offset = 0; offset < udpLength; offset += fragmentSize) {
+                int length = Math.min(fragmentSize, udpLength - offset);
+                boolean moreFragments = offset + length < udpLength;
+                if (offset == 0) {
+                    writeIPv4Header(flow, identification, length, 0, moreFragments);
+                    sendDatagram(flow, AMT_HEADER_LENGTH + IPV4_HEADER_LENGTH + length);
+                }
+                else {
+                    message.clear();
+                    message.position(offset);
+                    message.limit(offset + AMT_HEADER_LENGTH + IPV4_HEADER_LENGTH + length);
+                    ByteBuffer fragment = message.slice();
+                    fragment.put(0, AmtMulticastDataMessage.MESSAGE_TYPE);
+                    fragment.put(1, (byte) 0);
+                    writeIPv4Header(fragment, flow, identification, length, offset, moreFragments);
+                    sendDatagram(flow, fragment);
+                }
+            }
+        }
+        else {
+            writeIPv6Header(flow, udpLength);
+            ByteBuffer udpPacket = ByteBuffer.wrap(this.buffer, udpOffset, udpLength).slice();
+            udpPacket.putShort(6, UdpPacket.calculateChecksum(udpPacket, flow.sourceAddress, flow.groupAddress));
+            sendDatagram(flow, udpOffset + udpLength);
+        }
+    }
+
+    /**
+     * @param flow
+     * @param identification
+     * @param payloadLength
+     * @param fragmentOffset
+     * @param moreFragments
+     */
+    private void writeIPv4Header(final Flow flow,
+                                 final short identification,
+                                 final int payloadLength,
+                                 final int fragmentOffset,
+                                 final boolean moreFragments) {
+        this.message.clear();
+        writeIPv4Header(this.message, flow, identification, payloadLength, fragmentOffset, moreFragments);
+    }
+
+    /**
+     * Writes an IPv4 header that follows the AMT message header in a buffer.
+     *
+     * @param buffer
+     *            A buffer that starts with an AMT message header.
+     * @param flow
+     * @param identification
+     * @param payloadLength
+     * @param fragmentOffset
+     *            The fragment offset in bytes. Must be a multiple of eight.
+     * @param moreFragments
+     */
+    private static void writeIPv4Header(final ByteBuffer buffer,
+                                        final Flow flow,
+                                        final short identification,
+                                        final int payloadLength,
+                                        final int fragmentOffset,
+                                        final boolean moreFragments) {
+        int start = AMT_HEADER_LENGTH;
+        buffer.put(start, (byte) 0x45);
+        buffer.put(start + 1, (byte) 0);
+        buffer.putShort(start + 2, (short) (IPV4_HEADER_LENGTH + payloadLength));
+        buffer.putShort(start + 4, identification);
+        buffer.putShort(start + 6, (short) ((moreFragments ? 0x2000 : 0) | (fragmentOffset >> 3)));
+        buffer.put(start + 8, DATA_TTL);
+        buffer.put(start + 9, UdpPacket.IP_PROTOCOL_NUMBER);
+        buffer.putShort(start + 10, (short) 0);
+        for (int i = 0; i < 4; i++) {
+            buffer.put(start + 12 + i, flow.sourceAddress[i]);
+            buffer.put(start + 16 + i, flow.groupAddress[i]);
+        }
+        buffer.position(start);
+        IPv4Packet.setChecksum(buffer.slice());
+        buffer.position(0);
+    }
+
+    /**
+     * Writes an IPv6 header that follows the AMT message header in the message buffer.
+     * The packet carries no extension headers.
+     *
+     * @param flow
+     * @param payloadLength
+     */
+    private void writeIPv6Header(final Flow flow, final int payloadLength) {
+        ByteBuffer buffer = this.message;
+        int start = AMT_HEADER_LENGTH;
+        buffer.putInt(start, 0x60000000);
+        buffer.putShort(start + 4, (short) payloadLength);
+        buffer.put(start + 6, UdpPacket.IP_PROTOCOL_NUMBER);
+        buffer.put(start + 7, DATA_TTL);
+        for (int i = 0; i < 16; i++) {
+            buffer.put(start + 8 + i, flow.sourceAddress[i]);
+            buffer.put(start + 24 + i, flow.groupAddress[i]);
+        }
+    }
+
+    /**
+     * @param flow
+     * @param length
+     *            The number of bytes at the start of the message buffer to send.
+     * @throws InterruptedIOException
+     * @throws InterruptedException
+     */
+    private void sendDatagram(final Flow flow, final int length) throws InterruptedIOException, InterruptedException {
+        this.message.clear();
+        this.message.limit(length);
+        sendDatagram(flow, this.message);
+    }
+
+    /**
+     * Sends a datagram unless the loss pattern calls for it to be discarded.
+     *
+     * @param flow
+     * @param payload
+     * @throws InterruptedIOException
+     * @throws InterruptedException
+     */
+    private void sendDatagram(final Flow flow, final ByteBuffer payload) throws InterruptedIOException, InterruptedException {
+
+        if (flow.lossBurstRemaining == 0 && this.profile.getLossRate() > 0.0
+            && this.random.nextDouble() < this.profile.getLossRate()) {
+            flow.lossBurstRemaining = this.profile.getLossBurstLength();
+        }
+
+        if (flow.lossBurstRemaining > 0) {
+            flow.lossBurstRemaining--;
+            this.discardedDatagramCount++;
+            return;
+        }
+
+        try {
+            this.outputChannel.send(new UdpDatagram(flow.gatewayAddress, payload), Integer.MAX_VALUE);
+            this.datagramCount++;
+        }
+        catch (InterruptedIOException e) {
+            throw e;
+        }
+        catch (InterruptedException e) {
+            throw e;
+        }
+        catch (Exception e) {
+            this.failedDatagramCount++;
+            if (logger.isLoggable(Level.FINE)) {
+                logger.fine(this.log.msg("unable to send datagram to " + Logging.address(flow.gatewayAddress) +
+                                         " - " + e.getClass().getSimpleName() + ":" + e.getMessage()));
+            }
+        }
+    }
+
+    /*-- Static Functions ---------------------------------------------------*/
+
+    /**
+     * @param payload
+     *            A UDP payload produced by a traffic generator, starting at the current position.
+     * @return The sequence number of the packet within its flow.
+     */
+    public static long getSequenceNumber(final ByteBuffer payload) {
+        return payload.getLong(payload.position());
+    }
+
+    /**
+     * @param payload
+     *            A UDP payload produced by a traffic generator, starting at the current position.
+     * @return The {@link System#nanoTime()} value recorded when the packet was built.
+     */
+    public static long getTimestamp(final ByteBuffer payload) {
+        return payload.getLong(payload.position() + 8);
+    }
+
+}
@@ -0,0 +1,322 @@
+package org.js4ms.amt.relay;
+
+/*
+ * #%L
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * TrafficProfile.java [org.js4ms.jsdk:amt]
+ * %%
+ * Copyright (C) 2009 - 2014 Cisco Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import java.util.Properties;
+import java.util.logging.Logger;
+
+
+
+/**
+ * Describes the multicast data traffic produced by a {@link TrafficGenerator}
+ * for each (S,G) channel joined by a gateway.
+ * <p>
+ * A profile may be constructed directly or from a set of properties that use the
+ * following names:
+ * <ul>
+ * <li>{@link #RATE_PROPERTY} - packets per second sent on each channel.</li>
+ * <li>{@link #PAYLOAD_SIZE_PROPERTY} - the number of UDP payload bytes in each packet.</li>
+ * <li>{@link #DESTINATION_PORT_PROPERTY} - the destination UDP port of each packet.</li>
+ * <li>{@link #FRAGMENT_RATIO_PROPERTY} - the fraction [0,1] of IPv4 packets that are sent
+ * as fragments.</li>
+ * <li>{@link #FRAGMENT_SIZE_PROPERTY} - the maximum number of IP payload bytes carried in
+ * each fragment.</li>
+ * <li>{@link #LOSS_RATE_PROPERTY} - the probability [0,1] that a loss burst starts at any
+ * datagram.</li>
+ * <li>{@link #LOSS_BURST_PROPERTY} - the number of consecutive datagrams discarded in each
+ * loss burst.</li>
+ * <li>{@link #SEED_PROPERTY} - the seed used to generate the fragmentation and loss
+ * pattern.</li>
+ * </ul>
+ *
+ * @author Greg Bumgardner (gbumgard)
+ */
+public final class TrafficProfile {
+
+    /*-- Static Variables ---------------------------------------------------*/
+
+    /**
+     * The static logger instance for this class.
+     */
+    public static final Logger logger = Logger.getLogger(TrafficProfile.class.getName());
+
+    public static final String PROPERTY_PREFIX = "org.js4ms.amt.relay.traffic.";
+
+    public static final String RATE_PROPERTY = PROPERTY_PREFIX + "rate";
+
+    public static final String PAYLOAD_SIZE_PROPERTY = PROPERTY_PREFIX + "payload.size";
+
+    public static final String DESTINATION_PORT_PROPERTY = PROPERTY_PREFIX + "destination.port";
+
+    public static final String FRAGMENT_RATIO_PROPERTY = PROPERTY_PREFIX + "fragment.ratio";
+
+    public static final String FRAGMENT_SIZE_PROPERTY = PROPERTY_PREFIX + "fragment.size";
+
+    public static final String LOSS_RATE_PROPERTY = PROPERTY_PREFIX + "loss.rate";
+
+    public static final String LOSS_BURST_PROPERTY = PROPERTY_PREFIX + "loss.burst";
+
+    public static final String SEED_PROPERTY = PROPERTY_PREFIX + "seed";
+
+    public static final int DEFAULT_RATE = 100;
+
+    /** Seven MPEG-TS packets. */
+    public static final int DEFAULT_PAYLOAD_SIZE = 1316;
+
+    public static final int DEFAULT_DESTINATION_PORT = 5004;
+
+    public static final int DEFAULT_FRAGMENT_SIZE = 512;
+
+    /**
+     * The minimum payload size. Each payload starts with a sequence number and timestamp.
+     */
+    public static final int MINIMUM_PAYLOAD_SIZE = 16;
+
+    /** The largest UDP payload that can be carried in an unfragmented IPv6 packet within an AMT message. */
+    public static final int MAXIMUM_PAYLOAD_SIZE = 8192 - 2 - 40 - 8;
+
+    /*-- Member Variables ---------------------------------------------------*/
+
+    private final int rate;
+
+    private final int payloadSize;
+
+    private final int destinationPort;
+
+    private final double fragmentRatio;
+
+    private final int fragmentSize;
+
+    private final double lossRate;
+
+    private final int lossBurstLength;
+
+    private final long seed;
+
+    /*-- Member Functions ---------------------------------------------------*/
+
+    /**
+     * Constructs a profile that sends unfragmented packets without loss
+     * using the default rate, payload size and destination port.
+     */
+    public TrafficProfile() {
+        this(DEFAULT_RATE, DEFAULT_PAYLOAD_SIZE, DEFAULT_DESTINATION_PORT, 0.0, DEFAULT_FRAGMENT_SIZE, 0.0, 1, 0);
+    }
+
+    /**
+     * @param rate
+     *            The number of packets sent per second on each channel.
+     * @param payloadSize
+     *            The number of UDP payload bytes in each packet.
+     * @param destinationPort
+     *            The destination UDP port of each packet.
+     * @param fragmentRatio
+     *            The fraction of IPv4 packets that are sent as fragments.
+     * @param fragmentSize
+     *            The maximum number of IP payload bytes carried in each fragment.
+     *            Rounded down to a multiple of eight.
+     * @param lossRate
+     *            The probability that a loss burst starts at any datagram.
+     * @param lossBurstLength
+     *            The number of consecutive datagrams discarded in each loss burst.
+     * @param seed
+     *            The seed used to generate the fragmentation and loss pattern.
+     */
+    public TrafficProfile(final int rate,
+                          final int payloadSize,
+                          final int destinationPort,
+                          final double fragmentRatio,
+                          final int fragmentSize,
+                          final double lossRate,
+                          final int lossBurstLength,
+                          final long seed) {
+
+        if (rate <= 0) {
+            throw new IllegalArgumentException("rate must be greater than zero");
+        }
+
+        if (payloadSize < MINIMUM_PAYLOAD_SIZE || payloadSize > MAXIMUM_PAYLOAD_SIZE) {
+            throw new IllegalArgumentException("payload size must be in the range [" + MINIMUM_PAYLOAD_SIZE + ","
+                                               + MAXIMUM_PAYLOAD_SIZE + "]");
+        }
+
+        if (destinationPort <= 0 || destinationPort > 0xFFFF) {
+            throw new IllegalArgumentException("invalid destination port " + destinationPort);
+        }
+
+        if (fragmentRatio < 0.0 || fragmentRatio > 1.0) {
+            throw new IllegalArgumentException("fragment ratio must be in the range [0,1]");
+        }
+
+        if (fragmentSize < 8) {
+            throw new IllegalArgumentException("fragment size must be at least 8 bytes");
+        }
+
+        if (lossRate < 0.0 || lossRate > 1.0) {
+            throw new IllegalArgumentException("loss rate must be in the range [0,1]");
+        }
+
+        if (lossBurstLength < 1) {
+            throw new IllegalArgumentException("loss burst length must be greater than zero");
+        }
+
+        this.rate = rate;
+        this.payloadSize = payloadSize;
+        this.destinationPort = destinationPort;
+        this.fragmentRatio = fragmentRatio;
+        this.fragmentSize = fragmentSize & ~0x7;
+        this.lossRate = lossRate;
+        this.lossBurstLength = lossBurstLength;
+        this.seed = seed;
+    }
+
+    /**
+     * Constructs a profile from properties. Missing or invalid properties
+     * are replaced with default values.
+     *
+     * @param properties
+     */
+    public TrafficProfile(final Properties properties) {
+        this(Math.max(getIntegerProperty(properties, RATE_PROPERTY, DEFAULT_RATE), 1),
+             Math.min(Math.max(getIntegerProperty(properties, PAYLOAD_SIZE_PROPERTY, DEFAULT_PAYLOAD_SIZE),
+                               MINIMUM_PAYLOAD_SIZE), MAXIMUM_PAYLOAD_SIZE),
+             getIntegerProperty(properties, DESTINATION_PORT_PROPERTY, DEFAULT_DESTINATION_PORT) & 0xFFFF,
+             getRatioProperty(properties, FRAGMENT_RATIO_PROPERTY),
+             Math.max(getIntegerProperty(properties, FRAGMENT_SIZE_PROPERTY, DEFAULT_FRAGMENT_SIZE), 8),
+             getRatioProperty(properties, LOSS_RATE_PROPERTY),
+             Math.max(getIntegerProperty(properties, LOSS_BURST_PROPERTY, 1), 1),
+             getIntegerProperty(properties, SEED_PROPERTY, 0));
+    }
+
+    /**
+     * @return The number of packets sent per second on each channel.
+     */
+    public int getRate() {
+        return this.rate;
+    }
+
+    /**
+     * @return The number of UDP payload bytes in each packet.
+     */
+    public int getPayloadSize() {
+        return this.payloadSize;
+    }
+
+    /**
+     * @return The destination UDP port of each packet.
+     */
+    public int getDestinationPort() {
+        return this.destinationPort;
+    }
+
+    /**
+     * @return The fraction of IPv4 packets that are sent as fragments.
+     */
+    public double getFragmentRatio() {
+        return this.fragmentRatio;
+    }
+
+    /**
+     * @return The maximum number of IP payload bytes carried in each fragment.
+     */
+    public int getFragmentSize() {
+        return this.fragmentSize;
+    }
+
+    /**
+     * @return The probability that a loss burst starts at any datagram.
+     */
+    public double getLossRate() {
+        return this.lossRate;
+    }
+
+    /**
+     * @return The number of consecutive datagrams discarded in each loss burst.
+     */
+    public int getLossBurstLength() {
+        return this.lossBurstLength;
+    }
+
+    /**
+     * @return The seed used to generate the fragmentation and loss pattern.
+     */
+    public long getSeed() {
+        return this.seed;
+    }
+
+    @Override
+    public String toString() {
+        return "rate=" + this.rate +
+               " payload-size=" + this.payloadSize +
+               " destination-port=" + this.destinationPort +
+               " fragment-ratio=" + this.fragmentRatio +
+               " fragment-size=" + this.fragmentSize +
+               " loss-rate=" + this.lossRate +
+               " loss-burst=" + this.lossBurstLength +
+               " seed=" + this.seed;
+    }
+
+    /*-- Static Functions ---------------------------------------------------*/
+
+    /**
+     * @param properties
+     * @param name
+     * @param defaultValue
+     * @return
+     */
+    static int getIntegerProperty(final Properties properties, final String name, final int defaultValue) {
+        String property = properties.getProperty(name);
+        if (property != null) {
+            try {
+                return Integer.parseInt(property.trim());
+            }
+            catch (NumberFormatException e) {
+                logger.warning(name + "=" + property + " is not a valid integer value");
+            }
+        }
+        return defaultValue;
+    }
+
+    /**
+     * @param properties
+     * @param name
+     * @return A value in the range [0,1] or zero if the property is missing or invalid.
+     */
+    private static double getRatioProperty(final Properties properties, final String name) {
+        String property = properties.getProperty(name);
+        if (property != null) {
+            try {
+                double value = Double.parseDouble(property.trim());
+                if (value >= 0.0 && value <= 1.0) {
+                    return value;
+                }
+            }
+            catch (NumberFormatException e) {
+            }
+            logger.warning(name + "=" + property + " is not a value in the range [0,1]");
+        }
+        return 0.0;
+    }
+
+}
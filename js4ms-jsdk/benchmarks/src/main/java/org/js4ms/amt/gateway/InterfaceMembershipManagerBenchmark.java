@@ -0,0 +1,152 @@
+package org.js4ms.amt.gateway;
+
+/*
+ * #%L
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * InterfaceMembershipManagerBenchmark.java [org.js4ms.jsdk:benchmarks]
+ * %%
+ * Copyright (C) 2009 - 2014 Cisco Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.TimeUnit;
+
+import org.js4ms.amt.proxy.MembershipReport;
+import org.js4ms.common.util.task.HashedWheelTimer;
+import org.js4ms.io.channel.OutputChannel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+
+/**
+ * Measures the cost of an SSM join and leave on an interface that already has
+ * reception state for many (S,G) channels. The channels are either spread across
+ * one group per channel or share a single group, so the cost can be compared
+ * as the number of groups and the size of their source lists grow.
+ * 
+ * @author Gregory Bumgardner (gbumgard)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InterfaceMembershipManagerBenchmark {
+
+    /**
+     * An output channel that counts the reports it receives.
+     */
+    static final class CountingChannel
+                    implements OutputChannel<MembershipReport> {
+
+        volatile long count = 0;
+
+        @Override
+        public void send(final MembershipReport report, final int milliseconds) {
+            this.count++;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * The number of (S,G) channels joined before measurement begins.
+     */
+    @Param({ "1000", "50000" })
+    public int channelCount;
+
+    /**
+     * Indicates whether the channels share one group or each use their own group.
+     */
+    @Param({ "false", "true" })
+    public boolean isSingleGroup;
+
+    private HashedWheelTimer taskTimer;
+
+    private InterfaceMembershipManager manager;
+
+    private InetAddress[] groupAddresses;
+
+    private InetAddress[] sourceAddresses;
+
+    /**
+     * Sources that are not joined during setup.
+     */
+    private InetAddress[] extraSourceAddresses;
+
+    private int index = 0;
+
+    /**
+     * @param prefix
+     * @param value
+     * @return An IPv4 address formed from the prefix byte and the low 24 bits of the value.
+     * @throws UnknownHostException
+     */
+    private static InetAddress address(final int prefix, final int value) throws UnknownHostException {
+        return InetAddress.getByAddress(new byte[] { (byte) prefix, (byte) (value >> 16), (byte) (value >> 8), (byte) value });
+    }
+
+    @Setup
+    public void setup() throws IOException {
+        this.taskTimer = new HashedWheelTimer("InterfaceMembershipManagerBenchmark");
+        this.manager = new InterfaceMembershipManager(this.taskTimer);
+        this.manager.setOutgoingReportChannel(new CountingChannel());
+
+        this.groupAddresses = new InetAddress[this.channelCount];
+        this.sourceAddresses = new InetAddress[this.channelCount];
+        this.extraSourceAddresses = new InetAddress[this.channelCount];
+        for (int i = 0; i < this.channelCount; i++) {
+            this.groupAddresses[i] = address(232, this.isSingleGroup ? 0 : i);
+            this.sourceAddresses[i] = address(10, i);
+            this.extraSourceAddresses[i] = address(11, i);
+            this.manager.join(this.groupAddresses[i], this.sourceAddresses[i]);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.taskTimer.stop();
+    }
+
+    /**
+     * Joins and leaves an additional source in one of the existing groups.
+     */
+    @Benchmark
+    public int joinLeave() throws IOException {
+        int i = this.index++ % this.channelCount;
+        this.manager.join(this.groupAddresses[i], this.extraSourceAddresses[i]);
+        this.manager.leave(this.groupAddresses[i], this.extraSourceAddresses[i]);
+        return this.manager.getGroupCount();
+    }
+}
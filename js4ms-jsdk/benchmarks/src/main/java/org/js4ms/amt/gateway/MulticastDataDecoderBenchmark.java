@@ -0,0 +1,87 @@
+package org.js4ms.amt.gateway;
+
+/*
+ * #%L
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * MulticastDataDecoderBenchmark.java [org.js4ms.jsdk:benchmarks]
+ * %%
+ * Copyright (C) 2009 - 2014 Cisco Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.js4ms.amt.message.ChecksumPolicy;
+import org.js4ms.benchmarks.Samples;
+import org.js4ms.io.net.UdpDatagram;
+import org.js4ms.ip.ChecksumException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+
+/**
+ * Measures the tunnel fast path that decodes UDP datagrams directly from
+ * AMT Multicast Data messages.
+ * 
+ * @author Gregory Bumgardner (gbumgard)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MulticastDataDecoderBenchmark {
+
+    @Param({ "4", "6" })
+    public int version;
+
+    @Param({ "1316" })
+    public int payloadLength;
+
+    /**
+     * A checksum policy name accepted by {@link ChecksumPolicy#valueOf(String)}.
+     */
+    @Param({ "always", "never" })
+    public String checksumPolicy;
+
+    private ByteBuffer message;
+
+    private ChecksumPolicy policy;
+
+    @Setup
+    public void setup() {
+        this.message = Samples.amtMulticastData(Samples.udpPacket(this.version == 6, this.payloadLength));
+        this.policy = ChecksumPolicy.valueOf(this.checksumPolicy);
+    }
+
+    @Benchmark
+    public UdpDatagram decode() throws ChecksumException {
+        return MulticastDataDecoder.decode(this.message, this.policy);
+    }
+}
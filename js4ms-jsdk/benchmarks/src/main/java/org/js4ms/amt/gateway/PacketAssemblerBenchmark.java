@@ -0,0 +1,132 @@
+package org.js4ms.amt.gateway;
+
+/*
+ * #%L
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * PacketAssemblerBenchmark.java [org.js4ms.jsdk:benchmarks]
+ * %%
+ * Copyright (C) 2009 - 2014 Cisco Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.js4ms.amt.message.AmtMulticastDataMessage;
+import org.js4ms.benchmarks.Samples;
+import org.js4ms.common.exception.ParseException;
+import org.js4ms.common.util.buffer.parser.MissingParserException;
+import org.js4ms.io.channel.OutputChannel;
+import org.js4ms.ip.IPPacket;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+
+/**
+ * Measures reassembly of fragmented IPv4 datagrams.
+ * Each operation parses every fragment of one datagram with the parser used for
+ * AMT Multicast Data messages and passes the fragments to the assembler.
+ * 
+ * @author Gregory Bumgardner (gbumgard)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PacketAssemblerBenchmark {
+
+    private static final int UDP_HEADER_LENGTH = 8;
+
+    /**
+     * An output channel that counts the datagrams it receives.
+     */
+    static final class CountingChannel
+                    implements OutputChannel<IPPacket> {
+
+        long count = 0;
+
+        @Override
+        public void send(final IPPacket packet, final int milliseconds) {
+            this.count++;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Param({ "2", "8" })
+    public int fragmentCount;
+
+    private ByteBuffer[] fragments;
+
+    /**
+     * Receive buffers that are refilled with the fragments for each operation since
+     * the assembler updates the header of the first fragment in place.
+     */
+    private ByteBuffer[] receiveBuffers;
+
+    private IPPacket.BufferParser parser;
+
+    private CountingChannel outputChannel;
+
+    private PacketAssembler assembler;
+
+    @Setup
+    public void setup() {
+        int payloadLength = this.fragmentCount * Samples.MAX_FRAGMENT_PAYLOAD_LENGTH - UDP_HEADER_LENGTH;
+        this.fragments = Samples.fragment(Samples.udpPacket(false, payloadLength), Samples.MAX_FRAGMENT_PAYLOAD_LENGTH);
+        this.receiveBuffers = new ByteBuffer[this.fragments.length];
+        for (int i = 0; i < this.fragments.length; i++) {
+            this.receiveBuffers[i] = ByteBuffer.allocate(this.fragments[i].limit());
+        }
+        this.parser = AmtMulticastDataMessage.getDataPacketParser();
+        this.outputChannel = new CountingChannel();
+        this.assembler = new PacketAssembler(this.outputChannel, AmtUDPInterface.MAX_REASSEMBLY_CACHE_SIZE);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException, InterruptedException {
+        this.assembler.close();
+    }
+
+    @Benchmark
+    public long reassemble() throws IOException, InterruptedException, ParseException, MissingParserException {
+        for (int i = 0; i < this.fragments.length; i++) {
+            ByteBuffer buffer = this.receiveBuffers[i];
+            buffer.clear();
+            buffer.put(this.fragments[i].duplicate());
+            buffer.flip();
+            this.assembler.send(this.parser.parse(buffer), Integer.MAX_VALUE);
+        }
+        return this.outputChannel.count;
+    }
+}
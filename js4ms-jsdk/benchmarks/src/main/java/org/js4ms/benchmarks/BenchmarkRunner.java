@@ -0,0 +1,91 @@
+package org.js4ms.benchmarks;
+
+/*
+ * #%L
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * BenchmarkRunner.java [org.js4ms.jsdk:benchmarks]
+ * %%
+ * Copyright (C) 2009 - 2014 Cisco Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+
+
+/**
+ * Runs the JMH benchmarks in this module.
+ * Unless overridden on the command line, every benchmark is run with the GC profiler
+ * so that allocation rates are reported alongside throughput, and the results are
+ * written in JSON format to {@link #DEFAULT_RESULT_FILE} so that runs can be
+ * compared between releases. Any standard JMH option may be specified, e.g.
+ * 
+ * <pre>
+ * java -jar benchmarks/target/benchmarks.jar -rff release-1.json IPPacketBenchmark
+ * </pre>
+ * 
+ * @author Gregory Bumgardner (gbumgard)
+ */
+public final class BenchmarkRunner {
+
+    /*-- Static Variables ---------------------------------------------------*/
+
+    public static final String DEFAULT_RESULT_FILE = "jmh-result.json";
+
+    /*-- Static Functions ---------------------------------------------------*/
+
+    /**
+     * @param args
+     *            JMH command line options.
+     * @throws Exception
+     */
+    public static void main(final String[] args) throws Exception {
+
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+
+        if (commandLine.shouldHelp() || commandLine.shouldList() || commandLine.shouldListProfilers()
+            || commandLine.shouldListResultFormats()) {
+            Main.main(args);
+            return;
+        }
+
+        OptionsBuilder options = new OptionsBuilder();
+        options.parent(commandLine);
+
+        if (commandLine.getProfilers().isEmpty()) {
+            options.addProfiler(GCProfiler.class);
+        }
+
+        if (!commandLine.getResultFormat().hasValue()) {
+            options.resultFormat(ResultFormatType.JSON);
+        }
+
+        if (!commandLine.getResult().hasValue()) {
+            options.result(DEFAULT_RESULT_FILE);
+        }
+
+        new Runner(options.build()).run();
+    }
+
+    private BenchmarkRunner() {
+    }
+}
@@ -0,0 +1,195 @@
+package org.js4ms.benchmarks;
+
+/*
+ * #%L
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Samples.java [org.js4ms.jsdk:benchmarks]
+ * %%
+ * Copyright (C) 2009 - 2014 Cisco Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+
+import org.js4ms.ip.IPPacket;
+import org.js4ms.ip.ipv4.IPv4Packet;
+import org.js4ms.ip.ipv6.IPv6Packet;
+import org.js4ms.ip.protocol.udp.UdpPacket;
+
+
+
+/**
+ * Constructs the packets and messages used as benchmark input.
+ * All packets carry UDP datagrams sent from an SSM source to a multicast group
+ * and have valid header and UDP checksums.
+ * 
+ * @author Gregory Bumgardner (gbumgard)
+ */
+public final class Samples {
+
+    /*-- Static Variables ---------------------------------------------------*/
+
+    public static final byte[] IPV4_SOURCE_ADDRESS = { 10, 1, 2, 3 };
+
+    public static final byte[] IPV4_GROUP_ADDRESS = { (byte) 232, 1, 2, 3 };
+
+    public static final byte[] IPV6_SOURCE_ADDRESS = {
+            0x20, 0x01, 0x0D, (byte) 0xB8, 0, 0, 0, 0, 0, 0, 0, 0, 0, 1, 2, 3
+    };
+
+    public static final byte[] IPV6_GROUP_ADDRESS = {
+            (byte) 0xFF, 0x3E, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 1, 2, 3
+    };
+
+    public static final int SOURCE_PORT = 40000;
+
+    public static final int DESTINATION_PORT = 5004;
+
+    /** Type of AMT Multicast Data messages. */
+    public static final byte AMT_MULTICAST_DATA_TYPE = 6;
+
+    public static final int MAX_FRAGMENT_PAYLOAD_LENGTH = 1480;
+
+    /*-- Static Functions ---------------------------------------------------*/
+
+    /**
+     * @param isIPv6
+     *            Selects the IP version of the packet.
+     * @param payloadLength
+     *            The length of the UDP payload.
+     * @return A packet object that carries a UDP datagram.
+     */
+    public static IPPacket constructUdpPacket(final boolean isIPv6, final int payloadLength) {
+        ByteBuffer payload = ByteBuffer.allocate(payloadLength);
+        for (int i = 0; i < payloadLength; i++) {
+            payload.put(i, (byte) i);
+        }
+        UdpPacket udpPacket = new UdpPacket(SOURCE_PORT, DESTINATION_PORT, payload);
+        if (isIPv6) {
+            return new IPv6Packet((byte) 0, 0, (byte) 64, IPV6_SOURCE_ADDRESS, IPV6_GROUP_ADDRESS, udpPacket);
+        }
+        else {
+            return new IPv4Packet((byte) 0,
+                                  (short) 1,
+                                  false,
+                                  false,
+                                  (short) 0,
+                                  (byte) 64,
+                                  IPV4_SOURCE_ADDRESS,
+                                  IPV4_GROUP_ADDRESS,
+                                  udpPacket);
+        }
+    }
+
+    /**
+     * @param isIPv6
+     *            Selects the IP version of the packet.
+     * @param payloadLength
+     *            The length of the UDP payload.
+     * @return A buffer containing an IP packet that carries a UDP datagram.
+     */
+    public static ByteBuffer udpPacket(final boolean isIPv6, final int payloadLength) {
+        IPPacket packet = constructUdpPacket(isIPv6, payloadLength);
+        // The IPv4 header length is not computed until the packet is written
+        ByteBuffer buffer = ByteBuffer.allocate(65535);
+        packet.writeTo(buffer);
+        buffer.flip();
+        ByteBuffer result = ByteBuffer.allocate(buffer.limit());
+        result.put(buffer);
+        result.flip();
+        return result;
+    }
+
+    /**
+     * @param packet
+     *            A buffer containing an IP packet.
+     * @return A buffer containing an AMT Multicast Data message that carries the packet.
+     */
+    public static ByteBuffer amtMulticastData(final ByteBuffer packet) {
+        ByteBuffer message = ByteBuffer.allocate(2 + packet.remaining());
+        message.put(AMT_MULTICAST_DATA_TYPE);
+        message.put((byte) 0);
+        message.put(packet.duplicate());
+        message.flip();
+        return message;
+    }
+
+    /**
+     * Splits an IPv4 packet into fragments.
+     * 
+     * @param packet
+     *            A buffer containing an IPv4 packet without options.
+     * @param fragmentPayloadLength
+     *            The maximum payload length of each fragment. Must be a multiple of 8.
+     * @return Buffers containing the fragments in order.
+     */
+    public static ByteBuffer[] fragment(final ByteBuffer packet, final int fragmentPayloadLength) {
+        int headerLength = (packet.get(0) & 0xF) * 4;
+        int payloadLength = packet.remaining() - headerLength;
+        int count = (payloadLength + fragmentPayloadLength - 1) / fragmentPayloadLength;
+        ByteBuffer[] fragments = new ByteBuffer[count];
+        for (int i = 0; i < count; i++) {
+            int offset = i * fragmentPayloadLength;
+            int length = Math.min(fragmentPayloadLength, payloadLength - offset);
+            ByteBuffer fragment = ByteBuffer.allocate(headerLength + length);
+            ByteBuffer header = packet.duplicate();
+            header.limit(headerLength);
+            fragment.put(header);
+            ByteBuffer data = packet.duplicate();
+            data.position(headerLength + offset);
+            data.limit(headerLength + offset + length);
+            fragment.put(data);
+            fragment.flip();
+            IPv4Packet.TotalLength.setShort(fragment, (short) (headerLength + length));
+            IPv4Packet.MoreFragments.setBoolean(fragment, i < count - 1);
+            IPv4Packet.FragmentOffset.setShort(fragment, (short) (offset / 8));
+            IPv4Packet.setChecksum(fragment);
+            fragments[i] = fragment;
+        }
+        return fragments;
+    }
+
+    /**
+     * @param method
+     *            An RTSP method name (e.g. "DESCRIBE" or "SETUP").
+     * @return The bytes of a typical RTSP request from a media player.
+     */
+    public static byte[] rtspRequest(final String method) {
+        StringBuilder request = new StringBuilder();
+        request.append(method).append(" rtsp://127.0.0.1:8054/reflect?relay=amt-relay.example.com&source=10.1.2.3&group=232.1.2.3&port=5004 RTSP/1.0\r\n");
+        request.append("CSeq: 2\r\n");
+        request.append("User-Agent: LibVLC/2.1.5 (LIVE555 Streaming Media v2014.05.27)\r\n");
+        if (method.equals("SETUP")) {
+            request.append("Transport: RTP/AVP;multicast;destination=232.1.2.3;port=5004-5005\r\n");
+            request.append("Session: 6EC1D4A7B2F3\r\n");
+        }
+        else {
+            request.append("Accept: application/sdp\r\n");
+        }
+        request.append("\r\n");
+        try {
+            return request.toString().getBytes("UTF8");
+        }
+        catch (UnsupportedEncodingException e) {
+            throw new Error(e);
+        }
+    }
+
+    private Samples() {
+    }
+}
@@ -0,0 +1,140 @@
+package org.js4ms.io.channel;
+
+/*
+ * #%L
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * OutputChannelBenchmark.java [org.js4ms.jsdk:benchmarks]
+ * %%
+ * Copyright (C) 2009 - 2014 Cisco Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.js4ms.benchmarks.Samples;
+import org.js4ms.io.net.UdpDatagram;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+
+/**
+ * Measures datagram fan-out through {@link OutputChannelTee} and routing through
+ * {@link OutputChannelMap}, the channels used to deliver multicast datagrams to
+ * subscribers.
+ * 
+ * @author Gregory Bumgardner (gbumgard)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OutputChannelBenchmark {
+
+    /**
+     * An output channel that counts the datagrams it receives.
+     */
+    static final class CountingChannel
+                    implements OutputChannel<UdpDatagram> {
+
+        long count = 0;
+
+        @Override
+        public void send(final UdpDatagram datagram, final int milliseconds) {
+            this.count++;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * The number of channels attached to the tee or map.
+     */
+    @Param({ "1", "8", "64" })
+    public int channelCount;
+
+    private OutputChannelTee<UdpDatagram> tee;
+
+    private OutputChannelMap<UdpDatagram> map;
+
+    private CountingChannel[] channels;
+
+    private UdpDatagram[] datagrams;
+
+    private int next = 0;
+
+    @Setup
+    public void setup() {
+        this.tee = new OutputChannelTee<UdpDatagram>();
+        this.map = new OutputChannelMap<UdpDatagram>(new MessageKeyExtractor<UdpDatagram>() {
+
+            @Override
+            public Object getKey(final UdpDatagram datagram) {
+                return datagram.getDestinationPort();
+            }
+        });
+
+        this.channels = new CountingChannel[this.channelCount];
+        this.datagrams = new UdpDatagram[this.channelCount];
+        ByteBuffer payload = ByteBuffer.allocate(1316);
+        for (int i = 0; i < this.channelCount; i++) {
+            this.channels[i] = new CountingChannel();
+            this.tee.add(this.channels[i]);
+            this.map.put(Samples.DESTINATION_PORT + i, this.channels[i]);
+            this.datagrams[i] = new UdpDatagram(Samples.IPV4_SOURCE_ADDRESS,
+                                                Samples.SOURCE_PORT,
+                                                Samples.IPV4_GROUP_ADDRESS,
+                                                Samples.DESTINATION_PORT + i,
+                                                payload);
+        }
+    }
+
+    /**
+     * Sends one datagram to every channel attached to the tee.
+     */
+    @Benchmark
+    public long tee() throws IOException, InterruptedException {
+        this.tee.send(this.datagrams[0], Integer.MAX_VALUE);
+        return this.channels[0].count;
+    }
+
+    /**
+     * Routes one datagram to the channel registered for its destination port.
+     */
+    @Benchmark
+    public long map() throws IOException, InterruptedException {
+        int index = this.next;
+        this.next = index + 1 == this.channelCount ? 0 : index + 1;
+        this.map.send(this.datagrams[index], Integer.MAX_VALUE);
+        return this.channels[index].count;
+    }
+}
@@ -0,0 +1,99 @@
+package org.js4ms.ip;
+
+/*
+ * #%L
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * IPPacketBenchmark.java [org.js4ms.jsdk:benchmarks]
+ * %%
+ * Copyright (C) 2009 - 2014 Cisco Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.js4ms.benchmarks.Samples;
+import org.js4ms.common.exception.ParseException;
+import org.js4ms.common.util.buffer.parser.MissingParserException;
+import org.js4ms.ip.protocol.udp.UdpPacket;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+
+/**
+ * Measures parsing and serialization of IPv4 and IPv6 packets carrying UDP datagrams.
+ * 
+ * @author Gregory Bumgardner (gbumgard)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IPPacketBenchmark {
+
+    @Param({ "4", "6" })
+    public int version;
+
+    @Param({ "64", "1316" })
+    public int payloadLength;
+
+    private ByteBuffer buffer;
+
+    private IPPacket.BufferParser parser;
+
+    private IPPacket packet;
+
+    private ByteBuffer output;
+
+    @Setup
+    public void setup() throws ParseException, MissingParserException {
+        this.buffer = Samples.udpPacket(this.version == 6, this.payloadLength);
+        this.parser = UdpPacket.constructIPPacketParser();
+        this.packet = this.parser.parse(this.buffer.duplicate());
+        this.output = ByteBuffer.allocate(this.buffer.limit());
+    }
+
+    /**
+     * Parses the packet headers and UDP datagram and verifies their checksums.
+     */
+    @Benchmark
+    public IPPacket parse() throws ParseException, MissingParserException {
+        return this.parser.parse(this.buffer.duplicate());
+    }
+
+    /**
+     * Serializes a parsed packet, recomputing the header and UDP checksums.
+     */
+    @Benchmark
+    public int writeTo() {
+        this.output.clear();
+        this.packet.writeTo(this.output);
+        return this.output.position();
+    }
+}
@@ -0,0 +1,154 @@
+package org.js4ms.ip.protocol.udp;
+
+/*
+ * #%L
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * UdpChecksumBenchmark.java [org.js4ms.jsdk:benchmarks]
+ * %%
+ * Copyright (C) 2009 - 2014 Cisco Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.js4ms.benchmarks.Samples;
+import org.js4ms.ip.InternetChecksum;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+
+/**
+ * Measures UDP checksum calculation and verification.
+ * The <code>legacy</code> benchmark measures the 16-bit byte-at-a-time summing loop
+ * that {@link InternetChecksum} replaced so the two can be compared in one run.
+ * 
+ * @author Gregory Bumgardner (gbumgard)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UdpChecksumBenchmark {
+
+    @Param({ "64", "1316", "8192" })
+    public int payloadLength;
+
+    @Param({ "heap", "direct" })
+    public String bufferType;
+
+    private ByteBuffer segment;
+
+    private long addressSum;
+
+    @Setup
+    public void setup() {
+        ByteBuffer packet = Samples.udpPacket(false, this.payloadLength);
+        packet.position((packet.get(0) & 0xF) * 4);
+        if (this.bufferType.equals("direct")) {
+            this.segment = ByteBuffer.allocateDirect(packet.remaining());
+            this.segment.put(packet);
+            this.segment.flip();
+        }
+        else {
+            this.segment = packet.slice();
+        }
+        this.addressSum = InternetChecksum.sumAddresses(Samples.IPV4_SOURCE_ADDRESS, Samples.IPV4_GROUP_ADDRESS);
+    }
+
+    @Benchmark
+    public boolean verify() {
+        return UdpPacket.verifyChecksum(this.segment, true, this.addressSum);
+    }
+
+    @Benchmark
+    public short calculate() {
+        return UdpPacket.calculateChecksum(this.segment, Samples.IPV4_SOURCE_ADDRESS, Samples.IPV4_GROUP_ADDRESS);
+    }
+
+    @Benchmark
+    public short legacy() {
+        return legacyChecksum(this.segment, Samples.IPV4_SOURCE_ADDRESS, Samples.IPV4_GROUP_ADDRESS);
+    }
+
+    /**
+     * The checksum algorithm used before {@link InternetChecksum} was introduced.
+     * Direct buffers are copied to an array first since the algorithm could only
+     * operate on array-backed buffers.
+     */
+    static short legacyChecksum(final ByteBuffer buffer, final byte[] sourceAddress, final byte[] destinationAddress) {
+
+        short originalChecksum = UdpPacket.Checksum.get(buffer);
+        UdpPacket.Checksum.set(buffer, (short) 0);
+
+        int packetLength = UdpPacket.Length.get(buffer) & 0xFFFF;
+
+        byte[] bytes;
+        int offset;
+        if (buffer.hasArray()) {
+            bytes = buffer.array();
+            offset = buffer.arrayOffset();
+        }
+        else {
+            bytes = new byte[packetLength];
+            buffer.duplicate().get(bytes);
+            offset = 0;
+        }
+
+        int total = 0;
+
+        for (int i = 0; i < sourceAddress.length;) {
+            total += (((sourceAddress[i++] & 0xFF) << 8) | (sourceAddress[i++] & 0xFF));
+        }
+
+        for (int i = 0; i < destinationAddress.length;) {
+            total += (((destinationAddress[i++] & 0xFF) << 8) | (destinationAddress[i++] & 0xFF));
+        }
+
+        total += UdpPacket.IP_PROTOCOL_NUMBER;
+
+        total += (((packetLength >> 16) & 0xFFFF) | (packetLength & 0xFFFF));
+
+        int end = offset + (packetLength & ~1);
+        while (offset < end) {
+            total += (((bytes[offset++] & 0xFF) << 8) | (bytes[offset++] & 0xFF));
+        }
+        if ((packetLength & 0x1) != 0) {
+            total += ((bytes[offset] & 0xFF) << 8);
+        }
+
+        while ((total & 0xFFFF0000) != 0) {
+            total = (total & 0xFFFF) + (total >> 16);
+        }
+
+        UdpPacket.Checksum.set(buffer, originalChecksum);
+
+        return (short) (~total & 0xFFFF);
+    }
+}
@@ -0,0 +1,133 @@
+package org.js4ms.rest.message;
+
+/*
+ * #%L
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * MessageParserBenchmark.java [org.js4ms.jsdk:benchmarks]
+ * %%
+ * Copyright (C) 2009 - 2014 Cisco Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PushbackInputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+import org.js4ms.benchmarks.Samples;
+import org.js4ms.common.exception.ParseException;
+import org.js4ms.rest.common.MessageException;
+import org.js4ms.rest.handler.RequestHandler;
+import org.js4ms.rest.server.RequestParser;
+import org.js4ms.server.Connection;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+
+/**
+ * Measures parsing of RTSP requests by the {@link RequestParser} used by the RTSP server.
+ * 
+ * @author Gregory Bumgardner (gbumgard)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageParserBenchmark {
+
+    /**
+     * A connection that reads requests from memory.
+     */
+    static final class MemoryConnection
+                    extends Connection {
+
+        MemoryConnection() {
+            super(new ByteArrayInputStream(new byte[0]), new ByteArrayOutputStream());
+        }
+
+        @Override
+        public InetSocketAddress getRemoteAddress() {
+            return null;
+        }
+
+        @Override
+        public void shutdownInput() {
+        }
+
+        @Override
+        public void shutdownOutput() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * A request handler that retains the last request it receives.
+     */
+    static final class LastRequestHandler
+                    implements RequestHandler {
+
+        Request request;
+
+        @Override
+        public void handleRequest(final Request request) {
+            this.request = request;
+        }
+    }
+
+    @Param({ "DESCRIBE", "SETUP" })
+    public String method;
+
+    private byte[] request;
+
+    private MemoryConnection connection;
+
+    private LastRequestHandler handler;
+
+    private RequestParser parser;
+
+    @Setup
+    public void setup() {
+        this.request = Samples.rtspRequest(this.method);
+        this.connection = new MemoryConnection();
+        this.handler = new LastRequestHandler();
+        this.parser = new RequestParser(new MessageHeaderParser(), this.handler);
+    }
+
+    @Benchmark
+    public Request parse() throws IOException, MessageException, ParseException {
+        this.connection.setInputStream(new PushbackInputStream(new ByteArrayInputStream(this.request)));
+        this.parser.parse(this.connection);
+        return this.handler.request;
+    }
+}
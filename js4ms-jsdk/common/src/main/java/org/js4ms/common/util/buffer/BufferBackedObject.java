@@ -23,6 +23,7 @@ package org.js4ms.common.util.buffer;
  */
 
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
@@ -39,7 +40,7 @@ import org.js4ms.common.util.logging.LoggableBase;
 public abstract class BufferBackedObject
                 extends LoggableBase {
 
-    final ByteBuffer buffer;
+    ByteBuffer buffer;
 
     /**
      * Creates a slice of the remaining bytes within the buffer, sets the
@@ -61,7 +62,15 @@ public abstract class BufferBackedObject
      */
     public static ByteBuffer consume(final InputStream is, final int size) throws IOException {
         ByteBuffer buffer = ByteBuffer.allocate(size);
-        is.read(buffer.array(), 0, size);
+        byte[] bytes = buffer.array();
+        int count = 0;
+        while (count < size) {
+            int result = is.read(bytes, count, size - count);
+            if (result == -1) {
+                throw new EOFException();
+            }
+            count += result;
+        }
         return buffer;
     }
 
@@ -114,6 +123,18 @@ public abstract class BufferBackedObject
         return this.buffer;
     }
 
+    /**
+     * Replaces the ByteBuffer instance referenced by this object.
+     * Used by subclasses that support rebinding an existing instance to a new
+     * message so that a parser can reuse the instance rather than construct a new one.
+     * 
+     * @param buffer
+     *            - The buffer that will back this object. The buffer is not sliced.
+     */
+    protected final void setBufferInternal(final ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
     /**
      * @param buffer
      */
@@ -135,7 +156,7 @@ public abstract class BufferBackedObject
      * @param logger
      */
     private void logState(final Logger logger, final Level level) {
-        logger.log(level,this.log.msg(": buffer array-offset=" + this.buffer.arrayOffset() +
+        logger.log(level,this.log.msg(": buffer array-offset=" + (this.buffer.hasArray() ? this.buffer.arrayOffset() : "direct") +
                                       ", position=" + this.buffer.position() +
                                       ", remaining=" + this.buffer.remaining() +
                                       ", limit=" + this.buffer.limit() +
@@ -27,7 +27,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
 
-public final class ByteField extends ByteAlignedField<Byte> {
+public final class ByteField extends ByteAlignedField<Byte> implements ByteValuedField {
 
     public ByteField(final int byteOffset) {
         super(byteOffset);
@@ -45,11 +45,21 @@ public final class ByteField extends ByteAlignedField<Byte> {
 
     @Override
     public Byte get(final ByteBuffer buffer) {
+        return getByte(buffer);
+    }
+
+    @Override
+    public byte getByte(final ByteBuffer buffer) {
         return buffer.get(this.offset);
     }
 
     @Override
     public void set(final ByteBuffer buffer, final Byte value) {
+        setByte(buffer, value);
+    }
+
+    @Override
+    public void setByte(final ByteBuffer buffer, final byte value) {
         buffer.put(this.offset, value);
     }
 
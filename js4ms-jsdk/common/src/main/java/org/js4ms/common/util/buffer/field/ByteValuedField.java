@@ -0,0 +1,36 @@
+package org.js4ms.common.util.buffer.field;
+
+/*
+ * #%L
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *  
+ * ByteValuedField.java [org.js4ms.jsdk:common]
+ * %%
+ * Copyright (C) 2009 - 2014 Cisco Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.nio.ByteBuffer;
+
+/**
+ * A field whose value can be read and written as a primitive byte, allowing
+ * callers such as parser selectors to avoid boxing the value.
+ * 
+ * @author Gregory Bumgardner
+ */
+public interface ByteValuedField extends Field<Byte> {
+    public byte getByte(final ByteBuffer buffer);
+    public void setByte(final ByteBuffer buffer, final byte value);
+}
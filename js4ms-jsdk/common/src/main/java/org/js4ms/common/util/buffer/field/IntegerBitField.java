@@ -57,11 +57,19 @@ public final class IntegerBitField extends BitField<Integer> {
 
     @Override
     public Integer get(final ByteBuffer buffer) {
+        return getInt(buffer);
+    }
+
+    public int getInt(final ByteBuffer buffer) {
         return (int)((buffer.getInt(this.offset) >> this.shift) & this.valueMask);
     }
 
     @Override
     public void set(final ByteBuffer buffer, final Integer value) {
-        buffer.putInt(this.offset,(int)((buffer.getInt(this.offset) & this.erasureMask) | ((value & this.valueMask) << this.offset)));
+        setInt(buffer, value);
+    }
+
+    public void setInt(final ByteBuffer buffer, final int value) {
+        buffer.putInt(this.offset,(int)((buffer.getInt(this.offset) & this.erasureMask) | ((value & this.valueMask) << this.shift)));
     }
 }
@@ -54,11 +54,19 @@ public final class IntegerField extends ByteAlignedField<Integer> {
 
     @Override
     public Integer get(final ByteBuffer buffer) {
+        return getInt(buffer);
+    }
+
+    public int getInt(final ByteBuffer buffer) {
         return buffer.getInt(this.offset);
     }
 
     @Override
     public void set(final ByteBuffer buffer, final Integer value) {
+        setInt(buffer, value);
+    }
+
+    public void setInt(final ByteBuffer buffer, final int value) {
         buffer.putInt(this.offset, value);
     }
 
@@ -53,12 +53,20 @@ public final class LongBitField extends BitField<Long> {
 
     @Override
     public Long get(final ByteBuffer buffer) {
+        return getLong(buffer);
+    }
+
+    public long getLong(final ByteBuffer buffer) {
         return (long)((buffer.getLong(this.offset) >> this.shift) & this.valueMask);
     }
 
     @Override
     public void set(final ByteBuffer buffer, final Long value) {
-        buffer.putLong(this.offset,(long)((buffer.getLong(this.offset) & this.erasureMask) | ((value & this.valueMask) << this.offset)));
+        setLong(buffer, value);
+    }
+
+    public void setLong(final ByteBuffer buffer, final long value) {
+        buffer.putLong(this.offset,(long)((buffer.getLong(this.offset) & this.erasureMask) | ((value & this.valueMask) << this.shift)));
     }
 
 }
@@ -51,11 +51,19 @@ public final class LongField extends ByteAlignedField<Long> {
 
     @Override
     public Long get(final ByteBuffer buffer) {
+        return getLong(buffer);
+    }
+
+    public long getLong(final ByteBuffer buffer) {
         return buffer.getLong(this.offset);
     }
 
     @Override
     public void set(final ByteBuffer buffer, final Long value) {
+        setLong(buffer, value);
+    }
+
+    public void setLong(final ByteBuffer buffer, final long value) {
         buffer.putLong(this.offset, value);
     }
 
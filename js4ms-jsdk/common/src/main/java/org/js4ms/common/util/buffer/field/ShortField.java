@@ -54,11 +54,19 @@ public final class ShortField extends ByteAlignedField<Short> {
 
     @Override
     public Short get(final ByteBuffer buffer) {
+        return getShort(buffer);
+    }
+
+    public short getShort(final ByteBuffer buffer) {
         return buffer.getShort(this.offset);
     }
 
     @Override
     public void set(final ByteBuffer buffer, final Short value) {
+        setShort(buffer, value);
+    }
+
+    public void setShort(final ByteBuffer buffer, final short value) {
         buffer.putShort(this.offset, value);
     }
 
@@ -24,6 +24,7 @@ package org.js4ms.common.util.buffer.parser;
 
 
 import java.nio.ByteBuffer;
+import java.util.Collection;
 import java.util.HashMap;
 
 import org.js4ms.common.exception.ParseException;
@@ -33,8 +34,23 @@ import org.js4ms.common.exception.ParseException;
 public class BufferParserMap<T> {
 
     final private HashMap<Object,BufferParser<T>> parsers = new HashMap<Object,BufferParser<T>>();
-    
+
+    /**
+     * Parsers registered with {@link Byte} keys, indexed by the unsigned key value
+     * so that {@link #parse(ByteBuffer, byte)} can select a parser without boxing
+     * or hashing the key.
+     */
+    final private BufferParser<T>[] byteKeyedParsers;
+
+    /**
+     * The parser registered with a <code>null</code> key.
+     */
+    private BufferParser<T> defaultParser = null;
+
     public BufferParserMap() {
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        BufferParser<T>[] byteKeyedParsers = new BufferParser[256];
+        this.byteKeyedParsers = byteKeyedParsers;
     }
 
     public void add(final KeyedBufferParser<T> parser) {
@@ -43,18 +59,38 @@ public class BufferParserMap<T> {
 
     public void add(final Object key, final BufferParser<T> parser) {
         this.parsers.put(key, parser);
+        if (key == null) {
+            this.defaultParser = parser;
+        }
+        else if (key instanceof Byte) {
+            this.byteKeyedParsers[((Byte)key) & 0xFF] = parser;
+        }
     }
 
     public BufferParser<T> get(final Object key) {
         return this.parsers.get(key);
     }
 
+    public BufferParser<T> get(final byte key) {
+        return this.byteKeyedParsers[key & 0xFF];
+    }
+
+    public Collection<BufferParser<T>> getParsers() {
+        return this.parsers.values();
+    }
+
     public boolean contains(final Object key) {
         return this.parsers.containsKey(key);
     }
 
     public void remove(final Object key) {
         this.parsers.remove(key);
+        if (key == null) {
+            this.defaultParser = null;
+        }
+        else if (key instanceof Byte) {
+            this.byteKeyedParsers[((Byte)key) & 0xFF] = null;
+        }
     }
 
     public T parse(final ByteBuffer buffer, final Object key) throws ParseException, MissingParserException {
@@ -69,4 +105,16 @@ public class BufferParserMap<T> {
         return parser.parse(buffer);
     }
 
+    public T parse(final ByteBuffer buffer, final byte key) throws ParseException, MissingParserException {
+        BufferParser<T> parser = this.byteKeyedParsers[key & 0xFF];
+        if (parser == null) {
+            // Check for default parser (null key)
+            parser = this.defaultParser;
+            if (parser == null) {
+                throw new MissingParserException("unable to locate parser for key="+key);
+            }
+        }
+        return parser.parse(buffer);
+    }
+
 }
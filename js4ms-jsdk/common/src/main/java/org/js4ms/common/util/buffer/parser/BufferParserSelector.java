@@ -26,7 +26,9 @@ package org.js4ms.common.util.buffer.parser;
 import java.nio.ByteBuffer;
 
 import org.js4ms.common.exception.ParseException;
+import org.js4ms.common.util.buffer.field.ByteValuedField;
 import org.js4ms.common.util.buffer.field.Field;
+import org.js4ms.common.util.buffer.field.SelectorField;
 
 
 
@@ -34,16 +36,32 @@ import org.js4ms.common.util.buffer.field.Field;
 public class BufferParserSelector<T> extends BufferParserMap<T> {
 
     private Field<Object> keyField;
+
+    private ByteValuedField byteKeyField = null;
     
     public BufferParserSelector(final Field<Object> keyField) {
         this.keyField = keyField;
     }
 
+    /**
+     * Constructs a selector that reads a byte key from each buffer and selects
+     * a parser registered with a {@link Byte} key without boxing the key value.
+     * 
+     * @param keyField
+     */
+    public BufferParserSelector(final ByteValuedField keyField) {
+        this.keyField = new SelectorField<Byte>(keyField);
+        this.byteKeyField = keyField;
+    }
+
     protected Object getKeyField(final ByteBuffer buffer) {
         return this.keyField != null ? this.keyField.get(buffer) : null;
     }
 
     public T parse(final ByteBuffer buffer) throws ParseException, MissingParserException {
+        if (this.byteKeyField != null) {
+            return parse(buffer, this.byteKeyField.getByte(buffer));
+        }
         return parse(buffer, getKeyField(buffer));
     }
 
@@ -0,0 +1,184 @@
+package org.js4ms.common.util.buffer.parser;
+
+/*
+ * #%L
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *  
+ * BufferedStreamParser.java [org.js4ms.jsdk:common]
+ * %%
+ * Copyright (C) 2009 - 2014 Cisco Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+
+import org.js4ms.common.exception.ParseException;
+
+
+
+/**
+ * A stream parser that reads messages from a stream or channel into a reusable
+ * read-ahead buffer and passes each message to a {@link BufferParser}.
+ * Field values are never read from the stream one at a time; the stream is read in
+ * bulk and a {@link MessageFramer} is used to locate message boundaries.
+ * <p>
+ * Because bytes are read ahead, all messages in a stream must be read using the
+ * same parser instance. By default each message is copied into a new buffer before
+ * it is parsed so the returned object may be retained. If reuse is enabled, messages
+ * are parsed in place and the returned object is only valid until the next call to
+ * <code>parse</code>.
+ * 
+ * @param <T>
+ * @author Gregory Bumgardner (gbumgard)
+ */
+public class BufferedStreamParser<T>
+                implements StreamParser<T> {
+
+    /** Default size of the read-ahead buffer. */
+    public static final int DEFAULT_BUFFER_SIZE = 65536 * 2;
+
+    private final BufferParser<T> parser;
+
+    private final MessageFramer framer;
+
+    private final ByteBuffer readBuffer;
+
+    private boolean isReuseEnabled = false;
+
+    private InputStream lastInputStream = null;
+
+    private ReadableByteChannel lastChannel = null;
+
+    /**
+     * @param parser
+     *            - the parser used to parse each message.
+     * @param framer
+     *            - the framer used to determine the length of each message.
+     */
+    public BufferedStreamParser(final BufferParser<T> parser, final MessageFramer framer) {
+        this(parser, framer, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * @param parser
+     *            - the parser used to parse each message.
+     * @param framer
+     *            - the framer used to determine the length of each message.
+     * @param bufferSize
+     *            - the size of the read-ahead buffer. Must be larger than the largest
+     *            message in the stream.
+     */
+    public BufferedStreamParser(final BufferParser<T> parser, final MessageFramer framer, final int bufferSize) {
+        this.parser = parser;
+        this.framer = framer;
+        this.readBuffer = ByteBuffer.allocate(bufferSize);
+        this.readBuffer.limit(0);
+    }
+
+    /**
+     * Enables or disables in-place parsing of messages.
+     * 
+     * @param isEnabled
+     */
+    public final void setReuseEnabled(final boolean isEnabled) {
+        this.isReuseEnabled = isEnabled;
+    }
+
+    /**
+     * @return
+     */
+    public final boolean isReuseEnabled() {
+        return this.isReuseEnabled;
+    }
+
+    @Override
+    public T parse(final InputStream is) throws ParseException, MissingParserException, IOException {
+        if (is != this.lastInputStream) {
+            this.lastInputStream = is;
+            this.lastChannel = Channels.newChannel(is);
+        }
+        return parse(this.lastChannel);
+    }
+
+    /**
+     * Reads and parses the next message in a channel.
+     * 
+     * @param channel
+     * @return
+     * @throws ParseException
+     * @throws MissingParserException
+     * @throws IOException
+     * @throws EOFException
+     *             If the channel contains no more messages.
+     */
+    public T parse(final ReadableByteChannel channel) throws ParseException, MissingParserException, IOException {
+        fill(channel, this.framer.getPrefixLength());
+        int length = this.framer.getMessageLength(this.readBuffer);
+        if (length > this.readBuffer.capacity()) {
+            throw new ParseException("message length " + length + " exceeds read buffer size");
+        }
+        fill(channel, length);
+
+        ByteBuffer message;
+        if (this.isReuseEnabled) {
+            message = this.readBuffer.slice();
+            message.limit(length);
+            this.readBuffer.position(this.readBuffer.position() + length);
+        }
+        else {
+            message = ByteBuffer.allocate(length);
+            this.readBuffer.get(message.array(), 0, length);
+        }
+        return this.parser.parse(message);
+    }
+
+    /**
+     * Discards any bytes read ahead from the current stream or channel.
+     */
+    public void reset() {
+        this.readBuffer.clear();
+        this.readBuffer.limit(0);
+        this.lastInputStream = null;
+        this.lastChannel = null;
+    }
+
+    /**
+     * Ensures that the read buffer holds at least <code>count</code> bytes
+     * following the current position.
+     */
+    private void fill(final ReadableByteChannel channel, final int count) throws IOException {
+        ByteBuffer buffer = this.readBuffer;
+        if (buffer.remaining() >= count) {
+            return;
+        }
+        buffer.compact();
+        try {
+            while (buffer.position() < count) {
+                if (channel.read(buffer) == -1) {
+                    throw new EOFException();
+                }
+            }
+        }
+        finally {
+            buffer.flip();
+        }
+    }
+}
@@ -22,6 +22,7 @@ package org.js4ms.common.util.buffer.parser;
  * #L%
  */
 
+import org.js4ms.common.util.buffer.field.ByteValuedField;
 import org.js4ms.common.util.buffer.field.Field;
 
 /**
@@ -59,6 +60,10 @@ public interface KeyedApplicationMessage<KeyType>
             super(keyField);
         }
 
+        public Parser(ByteValuedField keyField) {
+            super(keyField);
+        }
+
     }
 
     /*-- Member Functions ---------------------------------------------------*/
@@ -0,0 +1,55 @@
+package org.js4ms.common.util.buffer.parser;
+
+/*
+ * #%L
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *  
+ * MessageFramer.java [org.js4ms.jsdk:common]
+ * %%
+ * Copyright (C) 2009 - 2014 Cisco Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import java.nio.ByteBuffer;
+
+import org.js4ms.common.exception.ParseException;
+
+
+
+/**
+ * Determines the length of a message from the leading bytes of its header.
+ * Used by {@link BufferedStreamParser} to split a byte stream into messages.
+ * 
+ * @author Gregory Bumgardner (gbumgard)
+ */
+public interface MessageFramer {
+
+    /**
+     * @return The number of leading bytes required to determine the message length.
+     */
+    public int getPrefixLength();
+
+    /**
+     * @param buffer
+     *            - a buffer containing at least {@link #getPrefixLength()} bytes of the
+     *            message starting at the current position.
+     * @return The total length of the message in bytes.
+     * @throws ParseException
+     *             If the prefix does not describe a valid message.
+     */
+    public int getMessageLength(ByteBuffer buffer) throws ParseException;
+
+}
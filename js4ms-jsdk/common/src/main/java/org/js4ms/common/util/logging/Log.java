@@ -22,51 +22,80 @@ package org.js4ms.common.util.logging;
  * #L%
  */
 
+/**
+ * Formats log messages prefixed with the identity of the object that generates them.
+ * The class prefix and identity strings are only constructed when the first message
+ * is formatted, so objects that never log do not pay for them.
+ */
 public final class Log {
 
-    final String classPrefix;
-    final String objectId;
-    final String prefix;
+    private final Object object;
+    private final Class<?> clazz;
+    private String classPrefix = null;
+    private String objectId = null;
+    private String prefix = null;
 
     public Log(final Object object) {
-        if (object instanceof Class) {
-            this.classPrefix = ((Class<?>)object).getSimpleName() + ".";
-            this.objectId = "[ static ]";
-        }
-        else {
-            this.classPrefix = object.getClass().getSimpleName() + ".";
-            this.objectId = Logging.identify(object);
-        }
-        this.prefix = this.objectId + " ";
+        this.object = object;
+        this.clazz = null;
     }
 
     public Log(final Object object, final Class<?> clazz) {
-        this.classPrefix = clazz.getSimpleName() + ".";
-        this.objectId = Logging.identify(object);
-        this.prefix = this.objectId + " ";
+        this.object = object;
+        this.clazz = clazz;
+    }
+
+    private String getClassPrefix() {
+        if (this.classPrefix == null) {
+            if (this.clazz != null) {
+                this.classPrefix = this.clazz.getSimpleName() + ".";
+            }
+            else if (this.object instanceof Class) {
+                this.classPrefix = ((Class<?>)this.object).getSimpleName() + ".";
+            }
+            else {
+                this.classPrefix = this.object.getClass().getSimpleName() + ".";
+            }
+        }
+        return this.classPrefix;
+    }
+
+    private String getObjectId() {
+        if (this.objectId == null) {
+            if (this.clazz == null && this.object instanceof Class) {
+                this.objectId = "[ static ]";
+            }
+            else {
+                this.objectId = Logging.identify(this.object);
+            }
+        }
+        return this.objectId;
     }
 
     public final String entry(final String methodName, final Object ...args) {
-        return Logging.entering(this.objectId, this.classPrefix+methodName, args);
+        return Logging.entering(getObjectId(), getClassPrefix()+methodName, args);
     }
 
     public final String entry(final String methodName) {
-        return Logging.entering(this.objectId, this.classPrefix+methodName);
+        return Logging.entering(getObjectId(), getClassPrefix()+methodName);
     }
 
     public final String exit(final String methodName) {
-        return Logging.exiting(this.objectId, this.classPrefix+methodName);
+        return Logging.exiting(getObjectId(), getClassPrefix()+methodName);
     }
 
     public final String exit(final String methodName, final Object result) {
-        return Logging.exiting(this.objectId, this.classPrefix+methodName, result);
+        return Logging.exiting(getObjectId(), getClassPrefix()+methodName, result);
     }
 
     public final String msg(String message) {
-        return this.prefix + message;
+        return getPrefix() + message;
     }
 
     public final String getPrefix() {
+        if (this.prefix == null) {
+            this.prefix = getObjectId() + " ";
+        }
         return this.prefix;
     }
 
@@ -0,0 +1,329 @@
+package org.js4ms.common.util.net;
+
+/*
+ * #%L
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * InternedAddress.java [org.js4ms.jsdk:common]
+ * %%
+ * Copyright (C) 2009 - 2014 Cisco Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+
+
+
+/**
+ * A canonical representation of an IPv4 or IPv6 address.
+ * IPv4 addresses are identified by an <code>int</code> value and IPv6 addresses by
+ * a pair of <code>long</code> values. Interned instances are held in a process-wide
+ * table so that repeated lookups of the same address, such as those made for each
+ * received packet, return the same object without allocation.
+ * <p>
+ * Instances are intended for use as hash keys. The hash code is computed once and
+ * equality is determined by comparing the primitive address values, so neither
+ * operation requires access to an {@link InetAddress}.
+ * <p>
+ * The number of interned addresses is bounded. Once the table is full, lookups of
+ * new addresses return equal but uninterned instances.
+ *
+ * @author Gregory Bumgardner (gbumgard)
+ */
+public final class InternedAddress {
+
+    /**
+     * An open-addressed hash table of interned addresses for one address family.
+     * Lookups are lock-free; insertions are serialized and replace the slot array
+     * when it must grow.
+     */
+    private static final class Table {
+
+        private volatile InternedAddress[] slots = new InternedAddress[INITIAL_CAPACITY];
+
+        private int size = 0;
+
+        InternedAddress find(final long high, final long low, final int hash) {
+            InternedAddress[] slots = this.slots;
+            int mask = slots.length - 1;
+            for (int index = hash & mask;; index = (index + 1) & mask) {
+                InternedAddress entry = slots[index];
+                if (entry == null) {
+                    return null;
+                }
+                if (entry.low == low && entry.high == high) {
+                    return entry;
+                }
+            }
+        }
+
+        synchronized InternedAddress intern(final InternedAddress address) {
+            InternedAddress entry = find(address.high, address.low, address.hash);
+            if (entry != null) {
+                return entry;
+            }
+            if (this.size >= MAX_ENTRIES) {
+                return address;
+            }
+            InternedAddress[] slots = this.slots;
+            if ((this.size + 1) * 2 > slots.length) {
+                slots = new InternedAddress[this.slots.length * 2];
+                for (InternedAddress existing : this.slots) {
+                    if (existing != null) {
+                        insert(slots, existing);
+                    }
+                }
+                insert(slots, address);
+                this.slots = slots;
+            }
+            else {
+                insert(slots, address);
+            }
+            this.size++;
+            return address;
+        }
+
+        synchronized int size() {
+            return this.size;
+        }
+
+        private static void insert(final InternedAddress[] slots, final InternedAddress address) {
+            int mask = slots.length - 1;
+            int index = address.hash & mask;
+            while (slots[index] != null) {
+                index = (index + 1) & mask;
+            }
+            slots[index] = address;
+        }
+    }
+
+    /*-- Static Variables ---------------------------------------------------*/
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    /** The maximum number of addresses interned for each address family. */
+    public static final int MAX_ENTRIES = 65536;
+
+    private static final Table IPV4_TABLE = new Table();
+
+    private static final Table IPV6_TABLE = new Table();
+
+    /*-- Static Functions ---------------------------------------------------*/
+
+    /**
+     * Returns the canonical instance for an IPv4 address.
+     *
+     * @param address
+     *            An IPv4 address in network byte order.
+     */
+    public static InternedAddress get(final int address) {
+        long low = address & 0xFFFFFFFFL;
+        int hash = hash(0, low);
+        InternedAddress entry = IPV4_TABLE.find(0, low, hash);
+        return entry != null ? entry : IPV4_TABLE.intern(new InternedAddress(true, 0, low, hash));
+    }
+
+    /**
+     * Returns the canonical instance for an IPv6 address.
+     *
+     * @param high
+     *            The first eight bytes of the address in network byte order.
+     * @param low
+     *            The last eight bytes of the address in network byte order.
+     */
+    public static InternedAddress get(final long high, final long low) {
+        int hash = hash(high, low);
+        InternedAddress entry = IPV6_TABLE.find(high, low, hash);
+        return entry != null ? entry : IPV6_TABLE.intern(new InternedAddress(false, high, low, hash));
+    }
+
+    /**
+     * Returns the canonical instance for an address stored in a buffer.
+     * The position of the buffer is not modified.
+     *
+     * @param buffer
+     *            A big-endian buffer containing the address.
+     * @param index
+     *            The absolute index of the first byte of the address.
+     * @param length
+     *            The address length; 4 for IPv4 or 16 for IPv6.
+     */
+    public static InternedAddress get(final ByteBuffer buffer, final int index, final int length) {
+        if (length == 4) {
+            return get(buffer.getInt(index));
+        }
+        else if (length == 16) {
+            return get(buffer.getLong(index), buffer.getLong(index + 8));
+        }
+        throw new IllegalArgumentException("invalid address length " + length);
+    }
+
+    /**
+     * Returns the canonical instance for an IPv4 (4-byte) or IPv6 (16-byte) address.
+     *
+     * @param address
+     */
+    public static InternedAddress get(final byte[] address) {
+        if (address.length == 4) {
+            return get(getInt(address, 0));
+        }
+        else if (address.length == 16) {
+            return get(getLong(address, 0), getLong(address, 8));
+        }
+        throw new IllegalArgumentException("invalid address length " + address.length);
+    }
+
+    /**
+     * Returns the canonical instance for an {@link InetAddress}.
+     *
+     * @param address
+     */
+    public static InternedAddress get(final InetAddress address) {
+        return get(address.getAddress());
+    }
+
+    /**
+     * @return The number of interned IPv4 and IPv6 addresses.
+     */
+    public static int getInternedCount() {
+        return IPV4_TABLE.size() + IPV6_TABLE.size();
+    }
+
+    private static int hash(final long high, final long low) {
+        long h = (high * 0x9E3779B97F4A7C15L) ^ low;
+        h *= 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private static int getInt(final byte[] bytes, final int offset) {
+        return ((bytes[offset] & 0xFF) << 24) |
+               ((bytes[offset + 1] & 0xFF) << 16) |
+               ((bytes[offset + 2] & 0xFF) << 8) |
+               (bytes[offset + 3] & 0xFF);
+    }
+
+    private static long getLong(final byte[] bytes, final int offset) {
+        return ((getInt(bytes, offset) & 0xFFFFFFFFL) << 32) | (getInt(bytes, offset + 4) & 0xFFFFFFFFL);
+    }
+
+    /*-- Member Variables ---------------------------------------------------*/
+
+    private final boolean isIPv4;
+
+    private final long high;
+
+    private final long low;
+
+    private final int hash;
+
+    private volatile InetAddress inetAddress = null;
+
+    /*-- Member Functions ---------------------------------------------------*/
+
+    private InternedAddress(final boolean isIPv4, final long high, final long low, final int hash) {
+        this.isIPv4 = isIPv4;
+        this.high = high;
+        this.low = low;
+        this.hash = hash;
+    }
+
+    /**
+     * @return <code>true</code> if this is an IPv4 address.
+     */
+    public boolean isIPv4() {
+        return this.isIPv4;
+    }
+
+    /**
+     * @return The IPv4 address value. Only valid for IPv4 addresses.
+     */
+    public int getIPv4Address() {
+        return (int) this.low;
+    }
+
+    /**
+     * @return The first eight bytes of an IPv6 address.
+     */
+    public long getHigh() {
+        return this.high;
+    }
+
+    /**
+     * @return The last eight bytes of an IPv6 address, or the IPv4 address value.
+     */
+    public long getLow() {
+        return this.low;
+    }
+
+    /**
+     * @return A new byte array containing the address.
+     */
+    public byte[] getAddress() {
+        byte[] bytes;
+        if (this.isIPv4) {
+            bytes = new byte[4];
+            ByteBuffer.wrap(bytes).putInt((int) this.low);
+        }
+        else {
+            bytes = new byte[16];
+            ByteBuffer.wrap(bytes).putLong(this.high).putLong(this.low);
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns the {@link InetAddress} for this address.
+     * The object is constructed on first use and cached.
+     */
+    public InetAddress getInetAddress() {
+        InetAddress inetAddress = this.inetAddress;
+        if (inetAddress == null) {
+            try {
+                inetAddress = InetAddress.getByAddress(getAddress());
+            }
+            catch (UnknownHostException e) {
+                // Only thrown for invalid address length
+                throw new Error(e);
+            }
+            this.inetAddress = inetAddress;
+        }
+        return inetAddress;
+    }
+
+    @Override
+    public int hashCode() {
+        return this.hash;
+    }
+
+    @Override
+    public boolean equals(final Object object) {
+        if (object == this) {
+            return true;
+        }
+        if (!(object instanceof InternedAddress)) {
+            return false;
+        }
+        InternedAddress other = (InternedAddress) object;
+        return this.low == other.low && this.high == other.high && this.isIPv4 == other.isIPv4;
+    }
+
+    @Override
+    public String toString() {
+        return getInetAddress().getHostAddress();
+    }
+}
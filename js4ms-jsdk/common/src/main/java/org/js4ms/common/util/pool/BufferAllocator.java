@@ -0,0 +1,57 @@
+package org.js4ms.common.util.pool;
+
+/*
+ * #%L
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * BufferAllocator.java [org.js4ms.jsdk:common]
+ * %%
+ * Copyright (C) 2009 - 2014 Cisco Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import java.nio.ByteBuffer;
+
+
+
+/**
+ * A source of fixed-size byte buffers that may be recycled once released.
+ * Implemented by {@link ByteBufferPool} for heap buffers and by
+ * {@link ByteBufferArena} for off-heap buffers.
+ *
+ * @author Gregory Bumgardner (gbumgard)
+ */
+public interface BufferAllocator {
+
+    /**
+     * Returns a cleared buffer whose capacity is equal to the allocator buffer size.
+     */
+    public ByteBuffer acquire();
+
+    /**
+     * Returns a buffer previously obtained from {@link #acquire()} to the allocator.
+     * Buffers that were not supplied by the allocator are ignored.
+     *
+     * @param buffer
+     */
+    public void release(ByteBuffer buffer);
+
+    /**
+     * @return The capacity of the buffers supplied by this allocator.
+     */
+    public int getBufferSize();
+
+}
@@ -0,0 +1,438 @@
+package org.js4ms.common.util.pool;
+
+/*
+ * #%L
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * ByteBufferArena.java [org.js4ms.jsdk:common]
+ * %%
+ * Copyright (C) 2009 - 2014 Cisco Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.js4ms.common.util.logging.LoggableBase;
+import org.js4ms.common.util.task.HashedWheelTimer;
+
+
+
+/**
+ * An arena of fixed-size, off-heap byte buffers carved from direct memory slabs.
+ * Slabs are allocated on demand, up to a fixed limit, and are never freed, so
+ * buffers that circulate through the arena generate no garbage.
+ * <p>
+ * Each buffer carries a reference count that is set to one by {@link #acquire()},
+ * incremented by {@link #retain(ByteBuffer)} and decremented by {@link #release(ByteBuffer)};
+ * the buffer returns to the arena when the count reaches zero. Buffers are identified
+ * by reference, so only the buffer returned by {@link #acquire()} may be passed to
+ * {@link #retain(ByteBuffer)} and {@link #release(ByteBuffer)} - not a slice or duplicate.
+ * When every slab is in use the arena returns heap buffers, which are left to the GC
+ * when released.
+ * <p>
+ * If debug mode is enabled, the arena records where each buffer was acquired so that
+ * {@link #reportLeaks(long)} can identify buffers that have not been released and
+ * {@link #release(ByteBuffer)} can identify buffers released more than once.
+ *
+ * @author Gregory Bumgardner (gbumgard)
+ */
+public final class ByteBufferArena
+                extends LoggableBase
+                implements BufferAllocator {
+
+    /*-- Inner Classes ------------------------------------------------------*/
+
+    /**
+     * A buffer slot within a slab.
+     */
+    static final class Chunk {
+
+        final ByteBuffer buffer;
+
+        final AtomicInteger referenceCount = new AtomicInteger();
+
+        volatile long acquisitionTime;
+
+        volatile Throwable acquisitionSite;
+
+        Chunk(final ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+    }
+
+    /*-- Static Variables ---------------------------------------------------*/
+
+    public static final Logger logger = Logger.getLogger(ByteBufferArena.class.getName());
+
+    /**
+     * System property used to enable the shared arenas returned by
+     * {@link #getSharedArena(int)}. If set to a positive value, each shared arena
+     * may allocate up to that many megabytes of direct memory. The default (zero)
+     * disables the shared arenas so callers use heap buffers.
+     */
+    public static final String SIZE_PROPERTY = "org.js4ms.common.util.pool.arena.size";
+
+    /**
+     * System property used to enable debug mode in the shared arenas.
+     * If set to <code>true</code>, buffers that have been held longer than
+     * {@link #LEAK_AGE} milliseconds are periodically reported as possible leaks.
+     */
+    public static final String DEBUG_PROPERTY = "org.js4ms.common.util.pool.arena.debug";
+
+    /**
+     * The number of bytes of direct memory allocated for each slab.
+     */
+    public static final int SLAB_SIZE = 1024 * 1024;
+
+    /**
+     * The age in milliseconds at which shared arena buffers are reported as possible leaks.
+     */
+    public static final long LEAK_AGE = 60000;
+
+    private static final HashMap<Integer, ByteBufferArena> sharedArenas = new HashMap<Integer, ByteBufferArena>();
+
+    /*-- Static Functions ---------------------------------------------------*/
+
+    /**
+     * Returns the arena shared by all callers that require buffers of the specified size.
+     *
+     * @param bufferSize
+     * @return The shared arena or <code>null</code> if shared arenas have not been
+     *         enabled by {@link #SIZE_PROPERTY}.
+     */
+    public static ByteBufferArena getSharedArena(final int bufferSize) {
+        int megabytes = 0;
+        String property = System.getProperty(SIZE_PROPERTY);
+        if (property != null) {
+            try {
+                megabytes = Integer.parseInt(property);
+            }
+            catch (NumberFormatException e) {
+                logger.warning(SIZE_PROPERTY + "=" + property + " is not a valid integer value");
+            }
+        }
+        if (megabytes <= 0) {
+            return null;
+        }
+        synchronized (sharedArenas) {
+            ByteBufferArena arena = sharedArenas.get(bufferSize);
+            if (arena == null) {
+                arena = new ByteBufferArena(bufferSize,
+                                            (long) megabytes * 1024 * 1024,
+                                            Boolean.parseBoolean(System.getProperty(DEBUG_PROPERTY)));
+                if (arena.isDebugEnabled()) {
+                    final ByteBufferArena debugArena = arena;
+                    HashedWheelTimer.getInstance().scheduleAtFixedRate(new Runnable() {
+                        @Override
+                        public void run() {
+                            debugArena.reportLeaks(LEAK_AGE);
+                        }
+                    }, LEAK_AGE, LEAK_AGE);
+                }
+                sharedArenas.put(bufferSize, arena);
+            }
+            return arena;
+        }
+    }
+
+    /*-- Member Variables ---------------------------------------------------*/
+
+    private final Object lock = new Object();
+
+    private final ArrayDeque<Chunk> freeChunks = new ArrayDeque<Chunk>();
+
+    /**
+     * Maps each arena buffer to its chunk. Replaced rather than modified when a
+     * slab is added so that lookups need not hold the lock.
+     */
+    private volatile IdentityHashMap<ByteBuffer, Chunk> chunks = new IdentityHashMap<ByteBuffer, Chunk>();
+
+    private final int bufferSize;
+
+    private final int buffersPerSlab;
+
+    private final int maxSlabs;
+
+    private final boolean isDebugEnabled;
+
+    private int slabCount = 0;
+
+    private int inUseCount = 0;
+
+    private int peakInUseCount = 0;
+
+    private long acquiredCount = 0;
+
+    private long overflowCount = 0;
+
+    /*-- Member Functions ---------------------------------------------------*/
+
+    /**
+     * @param bufferSize
+     *            The capacity of each buffer in the arena.
+     * @param maxBytes
+     *            The maximum number of bytes of direct memory the arena may allocate.
+     *            At least one slab is always allowed.
+     * @param isDebugEnabled
+     *            Indicates whether the arena should record where buffers are acquired.
+     */
+    public ByteBufferArena(final int bufferSize, final long maxBytes, final boolean isDebugEnabled) {
+        if (logger.isLoggable(Level.FINER)) {
+            logger.finer(this.log.entry("ByteBufferArena.ByteBufferArena", bufferSize, maxBytes, isDebugEnabled));
+        }
+        this.bufferSize = bufferSize;
+        this.buffersPerSlab = Math.max(SLAB_SIZE / bufferSize, 1);
+        this.maxSlabs = (int) Math.max(maxBytes / ((long) this.buffersPerSlab * bufferSize), 1);
+        this.isDebugEnabled = isDebugEnabled;
+    }
+
+    @Override
+    public Logger getLogger() {
+        return logger;
+    }
+
+    @Override
+    public void log(final Logger logger, final Level level) {
+        super.log(logger, level);
+        synchronized (this.lock) {
+            logger.log(level, this.log.msg(": buffer-size=" + this.bufferSize));
+            logger.log(level, this.log.msg(": slabs=" + this.slabCount + " of " + this.maxSlabs));
+            logger.log(level, this.log.msg(": in-use=" + this.inUseCount + " of " + this.slabCount * this.buffersPerSlab));
+            logger.log(level, this.log.msg(": peak-in-use=" + this.peakInUseCount));
+            logger.log(level, this.log.msg(": acquired=" + this.acquiredCount));
+            logger.log(level, this.log.msg(": overflow=" + this.overflowCount));
+        }
+    }
+
+    /**
+     * Returns a cleared buffer whose capacity is equal to the arena buffer size and
+     * whose reference count is one. The buffer is a direct buffer unless every slab
+     * is in use.
+     */
+    @Override
+    public ByteBuffer acquire() {
+        Chunk chunk;
+        synchronized (this.lock) {
+            chunk = this.freeChunks.pollFirst();
+            if (chunk == null && this.slabCount < this.maxSlabs) {
+                addSlab();
+                chunk = this.freeChunks.pollFirst();
+            }
+            if (chunk == null) {
+                this.overflowCount++;
+            }
+            else {
+                this.acquiredCount++;
+                if (++this.inUseCount > this.peakInUseCount) {
+                    this.peakInUseCount = this.inUseCount;
+                }
+            }
+        }
+        if (chunk == null) {
+            return ByteBuffer.allocate(this.bufferSize);
+        }
+        chunk.referenceCount.set(1);
+        if (this.isDebugEnabled) {
+            chunk.acquisitionTime = System.currentTimeMillis();
+            chunk.acquisitionSite = new Throwable("buffer acquired by " + Thread.currentThread().getName());
+        }
+        chunk.buffer.clear();
+        return chunk.buffer;
+    }
+
+    /**
+     * Increments the reference count of a buffer previously acquired from this arena.
+     *
+     * @param buffer
+     *            The buffer returned by {@link #acquire()}.
+     * @return <code>true</code> if the buffer belongs to the arena, or <code>false</code>
+     *         if it is a heap buffer that need not be released.
+     * @throws IllegalStateException
+     *             The buffer has already been returned to the arena.
+     */
+    public boolean retain(final ByteBuffer buffer) {
+        Chunk chunk = this.chunks.get(buffer);
+        if (chunk == null) {
+            return false;
+        }
+        while (true) {
+            int count = chunk.referenceCount.get();
+            if (count <= 0) {
+                throw new IllegalStateException("buffer has already been released");
+            }
+            if (chunk.referenceCount.compareAndSet(count, count + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Decrements the reference count of a buffer previously acquired from this arena
+     * and returns the buffer to the arena when the count reaches zero.
+     * Buffers that do not belong to the arena are ignored.
+     *
+     * @param buffer
+     *            The buffer returned by {@link #acquire()}.
+     */
+    @Override
+    public void release(final ByteBuffer buffer) {
+        Chunk chunk = this.chunks.get(buffer);
+        if (chunk == null) {
+            return;
+        }
+        int count = chunk.referenceCount.decrementAndGet();
+        if (count == 0) {
+            chunk.acquisitionSite = null;
+            synchronized (this.lock) {
+                this.inUseCount--;
+                this.freeChunks.addFirst(chunk);
+            }
+        }
+        else if (count < 0) {
+            chunk.referenceCount.incrementAndGet();
+            if (this.isDebugEnabled) {
+                logger.log(Level.WARNING, this.log.msg("buffer released more than once"), new Throwable("released here"));
+            }
+            else {
+                logger.warning(this.log.msg("buffer released more than once"));
+            }
+        }
+    }
+
+    /**
+     * Logs a warning for each buffer that has been held longer than the specified age.
+     * Buffers are only tracked in debug mode.
+     *
+     * @param age
+     *            The age in milliseconds beyond which a buffer is considered leaked.
+     * @return The number of buffers reported.
+     */
+    public int reportLeaks(final long age) {
+        if (!this.isDebugEnabled) {
+            return 0;
+        }
+        long now = System.currentTimeMillis();
+        int count = 0;
+        for (Chunk chunk : this.chunks.values()) {
+            Throwable site = chunk.acquisitionSite;
+            if (site != null && chunk.referenceCount.get() > 0 && now - chunk.acquisitionTime > age) {
+                logger.log(Level.WARNING,
+                           this.log.msg("possible leak - " + this.bufferSize + "-byte buffer held for "
+                                        + (now - chunk.acquisitionTime) + "ms"),
+                           site);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Allocates a new slab and adds its buffers to the free list.
+     * Must be called while holding the lock.
+     */
+    private void addSlab() {
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine(this.log.msg("allocating slab " + (this.slabCount + 1) + " of " + this.maxSlabs));
+        }
+        ByteBuffer slab = ByteBuffer.allocateDirect(this.buffersPerSlab * this.bufferSize);
+        IdentityHashMap<ByteBuffer, Chunk> chunks = new IdentityHashMap<ByteBuffer, Chunk>(this.chunks);
+        for (int i = 0; i < this.buffersPerSlab; i++) {
+            slab.limit((i + 1) * this.bufferSize);
+            slab.position(i * this.bufferSize);
+            Chunk chunk = new Chunk(slab.slice());
+            chunks.put(chunk.buffer, chunk);
+            this.freeChunks.addLast(chunk);
+        }
+        this.chunks = chunks;
+        this.slabCount++;
+    }
+
+    /**
+     * @return The capacity of the buffers managed by this arena.
+     */
+    @Override
+    public int getBufferSize() {
+        return this.bufferSize;
+    }
+
+    /**
+     * @return <code>true</code> if the arena records where buffers are acquired.
+     */
+    public boolean isDebugEnabled() {
+        return this.isDebugEnabled;
+    }
+
+    /**
+     * @return The number of bytes of direct memory allocated by the arena.
+     */
+    public long getAllocatedBytes() {
+        synchronized (this.lock) {
+            return (long) this.slabCount * this.buffersPerSlab * this.bufferSize;
+        }
+    }
+
+    /**
+     * @return The number of arena buffers currently held by callers.
+     */
+    public int getInUseCount() {
+        synchronized (this.lock) {
+            return this.inUseCount;
+        }
+    }
+
+    /**
+     * @return The largest number of arena buffers held by callers at one time.
+     */
+    public int getPeakInUseCount() {
+        synchronized (this.lock) {
+            return this.peakInUseCount;
+        }
+    }
+
+    /**
+     * @return The fraction of the maximum arena capacity currently held by callers.
+     */
+    public double getUtilization() {
+        synchronized (this.lock) {
+            return (double) this.inUseCount / ((long) this.maxSlabs * this.buffersPerSlab);
+        }
+    }
+
+    /**
+     * @return The number of acquire requests satisfied by an arena buffer.
+     */
+    public long getAcquiredCount() {
+        synchronized (this.lock) {
+            return this.acquiredCount;
+        }
+    }
+
+    /**
+     * @return The number of acquire requests satisfied by a heap buffer because
+     *         every slab was in use.
+     */
+    public long getOverflowCount() {
+        synchronized (this.lock) {
+            return this.overflowCount;
+        }
+    }
+}
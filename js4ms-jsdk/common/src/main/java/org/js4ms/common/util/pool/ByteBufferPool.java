@@ -0,0 +1,180 @@
+package org.js4ms.common.util.pool;
+
+/*
+ * #%L
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * ByteBufferPool.java [org.js4ms.jsdk:common]
+ * %%
+ * Copyright (C) 2009 - 2014 Cisco Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.js4ms.common.util.logging.LoggableBase;
+
+
+
+/**
+ * A lightweight pool of fixed-size, heap-backed byte buffers.
+ * Buffers are recycled by backing array, so a slice or duplicate of an acquired
+ * buffer may be used to return the buffer to the pool.
+ * The pool never blocks; a new buffer is allocated if the pool is empty and
+ * released buffers are discarded if the pool already holds <code>maxRetained</code>
+ * buffers.
+ * <p>
+ * A buffer must not be used after it has been released, and must be released at
+ * most once.
+ *
+ * @author Gregory Bumgardner (gbumgard)
+ */
+public final class ByteBufferPool
+                extends LoggableBase
+                implements BufferAllocator {
+
+    /*-- Static Variables ---------------------------------------------------*/
+
+    public static final Logger logger = Logger.getLogger(ByteBufferPool.class.getName());
+
+    public static final int DEFAULT_MAX_RETAINED = 64;
+
+    /*-- Member Variables ---------------------------------------------------*/
+
+    private final Object lock = new Object();
+
+    private final ArrayDeque<byte[]> buffers;
+
+    private final int bufferSize;
+
+    private final int maxRetained;
+
+    private long allocatedCount = 0;
+
+    private long recycledCount = 0;
+
+    /*-- Member Functions ---------------------------------------------------*/
+
+    /**
+     * @param bufferSize
+     *            The capacity of each buffer in the pool.
+     */
+    public ByteBufferPool(final int bufferSize) {
+        this(bufferSize, DEFAULT_MAX_RETAINED);
+    }
+
+    /**
+     * @param bufferSize
+     *            The capacity of each buffer in the pool.
+     * @param maxRetained
+     *            The maximum number of released buffers that will be retained for reuse.
+     */
+    public ByteBufferPool(final int bufferSize, final int maxRetained) {
+        if (logger.isLoggable(Level.FINER)) {
+            logger.finer(this.log.entry("ByteBufferPool.ByteBufferPool", bufferSize, maxRetained));
+        }
+        this.bufferSize = bufferSize;
+        this.maxRetained = Math.max(maxRetained, 0);
+        this.buffers = new ArrayDeque<byte[]>(this.maxRetained);
+    }
+
+    @Override
+    public Logger getLogger() {
+        return logger;
+    }
+
+    /**
+     * Returns a cleared buffer whose capacity is equal to the pool buffer size.
+     */
+    @Override
+    public ByteBuffer acquire() {
+        byte[] array;
+        synchronized (this.lock) {
+            array = this.buffers.pollFirst();
+            if (array == null) {
+                this.allocatedCount++;
+            }
+            else {
+                this.recycledCount++;
+            }
+        }
+        if (array == null) {
+            array = new byte[this.bufferSize];
+        }
+        return ByteBuffer.wrap(array);
+    }
+
+    /**
+     * Returns the backing array of a buffer previously acquired from this pool.
+     * Buffers that were not allocated by a pool of the same size are ignored.
+     *
+     * @param buffer
+     *            The acquired buffer or a slice or duplicate of that buffer.
+     */
+    @Override
+    public void release(final ByteBuffer buffer) {
+        if (buffer == null || !buffer.hasArray()) {
+            return;
+        }
+        byte[] array = buffer.array();
+        if (array.length != this.bufferSize) {
+            return;
+        }
+        synchronized (this.lock) {
+            if (this.buffers.size() < this.maxRetained) {
+                this.buffers.addFirst(array);
+            }
+        }
+    }
+
+    /**
+     * @return The capacity of the buffers managed by this pool.
+     */
+    @Override
+    public int getBufferSize() {
+        return this.bufferSize;
+    }
+
+    /**
+     * @return The number of buffers currently held by the pool.
+     */
+    public int getRetainedCount() {
+        synchronized (this.lock) {
+            return this.buffers.size();
+        }
+    }
+
+    /**
+     * @return The number of buffers allocated because the pool was empty.
+     */
+    public long getAllocatedCount() {
+        synchronized (this.lock) {
+            return this.allocatedCount;
+        }
+    }
+
+    /**
+     * @return The number of acquire requests satisfied by a recycled buffer.
+     */
+    public long getRecycledCount() {
+        synchronized (this.lock) {
+            return this.recycledCount;
+        }
+    }
+}
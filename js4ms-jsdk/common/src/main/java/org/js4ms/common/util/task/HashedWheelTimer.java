@@ -0,0 +1,558 @@
+package org.js4ms.common.util.task;
+
+/*
+ * #%L
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * HashedWheelTimer.java [org.js4ms.jsdk:common]
+ * %%
+ * Copyright (C) 2009 - 2014 Cisco Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.js4ms.common.util.logging.Log;
+
+
+
+/**
+ * A timer that runs tasks on a single thread using a hashed timing wheel.
+ * Scheduling and cancelling a task are constant-time operations; tasks are
+ * run within one tick of their scheduled time. Unlike {@link java.util.Timer},
+ * a task that throws an exception does not stop the timer.
+ * <p>
+ * Most components should use the shared instance returned by {@link #getInstance()}
+ * so the number of timer threads does not grow with the number of timers in use.
+ * Tasks run on the timer thread and must not block, unless the timer is constructed
+ * with an {@link Executor}, in which case the timer thread hands each expired task
+ * to the executor and tasks may block. A periodic task is not handed to the executor
+ * again until its previous execution has completed.
+ *
+ * @author Gregory Bumgardner (gbumgard)
+ */
+public final class HashedWheelTimer {
+
+    /*-- Static Variables ---------------------------------------------------*/
+
+    public static final Logger logger = Logger.getLogger(HashedWheelTimer.class.getName());
+
+    /**
+     * The default tick duration in milliseconds.
+     */
+    public static final long DEFAULT_TICK_DURATION = 10;
+
+    /**
+     * The default number of buckets in the wheel.
+     */
+    public static final int DEFAULT_WHEEL_SIZE = 512;
+
+    /**
+     * The maximum number of newly scheduled tasks moved onto the wheel in one tick.
+     */
+    private static final int MAX_TRANSFERS_PER_TICK = 100000;
+
+    private static final int SCHEDULED = 0;
+
+    private static final int RUNNING = 1;
+
+    private static final int CANCELLED = 2;
+
+    private static final int EXPIRED = 3;
+
+    private static HashedWheelTimer instance = null;
+
+    /*-- Static Functions ---------------------------------------------------*/
+
+    /**
+     * @return The process-wide shared timer.
+     */
+    public static HashedWheelTimer getInstance() {
+        synchronized (HashedWheelTimer.class) {
+            if (HashedWheelTimer.instance == null) {
+                HashedWheelTimer.instance = new HashedWheelTimer("js4ms timer");
+            }
+            return HashedWheelTimer.instance;
+        }
+    }
+
+    /*-- Inner Classes ------------------------------------------------------*/
+
+    /**
+     * A scheduled task. Bucket membership is only modified by the timer thread.
+     */
+    private final class Entry
+                    implements TimerHandle {
+
+        final Runnable task;
+
+        final long period;
+
+        final boolean isFixedRate;
+
+        final AtomicInteger state = new AtomicInteger(SCHEDULED);
+
+        /**
+         * The time at which the task should next run, in nanoseconds since the timer started.
+         */
+        long deadline;
+
+        long remainingRounds = 0;
+
+        Bucket bucket = null;
+
+        Entry next = null;
+
+        Entry prev = null;
+
+        Entry(final Runnable task, final long deadline, final long period, final boolean isFixedRate) {
+            this.task = task;
+            this.deadline = deadline;
+            this.period = period;
+            this.isFixedRate = isFixedRate;
+        }
+
+        @Override
+        public boolean cancel() {
+            if (this.state.compareAndSet(SCHEDULED, CANCELLED) || this.state.compareAndSet(RUNNING, CANCELLED)) {
+                HashedWheelTimer.this.cancelledEntries.add(this);
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return this.state.get() == CANCELLED;
+        }
+    }
+
+    /**
+     * A doubly-linked list of entries that hash to the same wheel position.
+     */
+    private static final class Bucket {
+
+        Entry head = null;
+
+        Entry tail = null;
+
+        void add(final Entry entry) {
+            entry.bucket = this;
+            entry.next = null;
+            entry.prev = this.tail;
+            if (this.tail == null) {
+                this.head = entry;
+            }
+            else {
+                this.tail.next = entry;
+            }
+            this.tail = entry;
+        }
+
+        void remove(final Entry entry) {
+            if (entry.bucket != this) {
+                return;
+            }
+            if (entry.prev == null) {
+                this.head = entry.next;
+            }
+            else {
+                entry.prev.next = entry.next;
+            }
+            if (entry.next == null) {
+                this.tail = entry.prev;
+            }
+            else {
+                entry.next.prev = entry.prev;
+            }
+            entry.bucket = null;
+            entry.next = null;
+            entry.prev = null;
+        }
+    }
+
+    /*-- Member Variables ---------------------------------------------------*/
+
+    protected final Log log = new Log(this);
+
+    private final Bucket[] wheel;
+
+    private final int mask;
+
+    private final long tickDuration;
+
+    private final long startTime;
+
+    private final ConcurrentLinkedQueue<Entry> pendingEntries = new ConcurrentLinkedQueue<Entry>();
+
+    private final ConcurrentLinkedQueue<Entry> cancelledEntries = new ConcurrentLinkedQueue<Entry>();
+
+    private final Thread thread;
+
+    /**
+     * Runs expired tasks, or <code>null</code> if tasks run on the timer thread.
+     */
+    private final Executor executor;
+
+    private volatile boolean isRunning = true;
+
+    /*-- Member Functions ---------------------------------------------------*/
+
+    /**
+     * Constructs and starts a timer that uses the default tick duration and wheel size.
+     *
+     * @param name
+     *            The name given to the timer thread.
+     */
+    public HashedWheelTimer(final String name) {
+        this(name, DEFAULT_TICK_DURATION, DEFAULT_WHEEL_SIZE, null);
+    }
+
+    /**
+     * Constructs and starts a timer that uses the default tick duration and wheel size
+     * and runs tasks on threads supplied by an executor.
+     *
+     * @param name
+     *            The name given to the timer thread.
+     * @param executor
+     *            Runs the expired tasks.
+     */
+    public HashedWheelTimer(final String name, final Executor executor) {
+        this(name, DEFAULT_TICK_DURATION, DEFAULT_WHEEL_SIZE, executor);
+    }
+
+    /**
+     * Constructs and starts a timer.
+     *
+     * @param name
+     *            The name given to the timer thread.
+     * @param tickDuration
+     *            The timer resolution in milliseconds.
+     * @param wheelSize
+     *            The number of buckets in the wheel. Rounded up to a power of two.
+     */
+    public HashedWheelTimer(final String name, final long tickDuration, final int wheelSize) {
+        this(name, tickDuration, wheelSize, null);
+    }
+
+    /**
+     * Constructs and starts a timer.
+     *
+     * @param name
+     *            The name given to the timer thread.
+     * @param tickDuration
+     *            The timer resolution in milliseconds.
+     * @param wheelSize
+     *            The number of buckets in the wheel. Rounded up to a power of two.
+     * @param executor
+     *            Runs the expired tasks, or <code>null</code> to run tasks on the timer thread.
+     */
+    public HashedWheelTimer(final String name, final long tickDuration, final int wheelSize, final Executor executor) {
+
+        if (logger.isLoggable(Level.FINER)) {
+            logger.finer(this.log.entry("HashedWheelTimer.HashedWheelTimer", name, tickDuration, wheelSize, executor));
+        }
+
+        if (tickDuration <= 0) {
+            throw new IllegalArgumentException("tick duration must be greater than zero");
+        }
+
+        int size = 1;
+        while (size < wheelSize) {
+            size <<= 1;
+        }
+
+        this.wheel = new Bucket[size];
+        for (int i = 0; i < size; i++) {
+            this.wheel[i] = new Bucket();
+        }
+        this.mask = size - 1;
+        this.executor = executor;
+        this.tickDuration = TimeUnit.MILLISECONDS.toNanos(tickDuration);
+        this.startTime = System.nanoTime();
+
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                HashedWheelTimer.this.run();
+            }
+        }, name);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Schedules a task for a single execution after the specified delay.
+     *
+     * @param task
+     * @param delay
+     *            The delay in milliseconds.
+     * @return A handle that may be used to cancel the task.
+     */
+    public TimerHandle schedule(final Runnable task, final long delay) {
+        return schedule(task, delay, 0, false);
+    }
+
+    /**
+     * Schedules a task for repeated execution, with each execution starting
+     * the specified period after the previous execution.
+     *
+     * @param task
+     * @param delay
+     *            The delay in milliseconds before the first execution.
+     * @param period
+     *            The time in milliseconds between executions.
+     * @return A handle that may be used to cancel the task.
+     */
+    public TimerHandle schedule(final Runnable task, final long delay, final long period) {
+        if (period <= 0) {
+            throw new IllegalArgumentException("period must be greater than zero");
+        }
+        return schedule(task, delay, period, false);
+    }
+
+    /**
+     * Schedules a task for repeated execution at a fixed rate.
+     *
+     * @param task
+     * @param delay
+     *            The delay in milliseconds before the first execution.
+     * @param period
+     *            The time in milliseconds between scheduled execution times.
+     * @return A handle that may be used to cancel the task.
+     */
+    public TimerHandle scheduleAtFixedRate(final Runnable task, final long delay, final long period) {
+        if (period <= 0) {
+            throw new IllegalArgumentException("period must be greater than zero");
+        }
+        return schedule(task, delay, period, true);
+    }
+
+    /**
+     * Stops the timer thread. Tasks that have not run are discarded.
+     * The shared timer instance should not be stopped.
+     */
+    public void stop() {
+
+        if (logger.isLoggable(Level.FINER)) {
+            logger.finer(this.log.entry("HashedWheelTimer.stop"));
+        }
+
+        this.isRunning = false;
+        this.thread.interrupt();
+    }
+
+    /**
+     * @param task
+     * @param delay
+     * @param period
+     * @param isFixedRate
+     * @return
+     */
+    private TimerHandle schedule(final Runnable task, final long delay, final long period, final boolean isFixedRate) {
+        if (task == null) {
+            throw new NullPointerException("task must not be null");
+        }
+        Entry entry = new Entry(task,
+                                getCurrentTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(delay, 0)),
+                                TimeUnit.MILLISECONDS.toNanos(period),
+                                isFixedRate);
+        this.pendingEntries.add(entry);
+        return entry;
+    }
+
+    /**
+     * @return The number of nanoseconds since the timer started.
+     */
+    private long getCurrentTime() {
+        return System.nanoTime() - this.startTime;
+    }
+
+    /**
+     * The timer thread loop.
+     */
+    private void run() {
+
+        if (logger.isLoggable(Level.FINER)) {
+            logger.finer(this.log.entry("HashedWheelTimer.run"));
+        }
+
+        long tick = 0;
+
+        while (this.isRunning) {
+
+            long currentTime = waitForTick(tick);
+            if (currentTime < 0) {
+                break;
+            }
+
+            removeCancelledEntries();
+            transferPendingEntries(tick);
+            expireEntries(this.wheel[(int) (tick & this.mask)], currentTime);
+
+            tick++;
+        }
+
+        if (logger.isLoggable(Level.FINER)) {
+            logger.finer(this.log.msg("timer thread stopped"));
+        }
+    }
+
+    /**
+     * Sleeps until the end of the specified tick.
+     *
+     * @param tick
+     * @return The current time or -1 if the timer has been stopped.
+     */
+    private long waitForTick(final long tick) {
+        long deadline = this.tickDuration * (tick + 1);
+        while (true) {
+            long currentTime = getCurrentTime();
+            long sleepTime = (deadline - currentTime + 999999) / 1000000;
+            if (sleepTime <= 0) {
+                return currentTime;
+            }
+            try {
+                Thread.sleep(sleepTime);
+            }
+            catch (InterruptedException e) {
+                if (!this.isRunning) {
+                    return -1;
+                }
+            }
+        }
+    }
+
+    private void removeCancelledEntries() {
+        Entry entry;
+        while ((entry = this.cancelledEntries.poll()) != null) {
+            if (entry.bucket != null) {
+                entry.bucket.remove(entry);
+            }
+        }
+    }
+
+    /**
+     * Moves newly scheduled entries onto the wheel.
+     *
+     * @param tick
+     */
+    private void transferPendingEntries(final long tick) {
+        for (int i = 0; i < MAX_TRANSFERS_PER_TICK; i++) {
+            Entry entry = this.pendingEntries.poll();
+            if (entry == null) {
+                break;
+            }
+            if (entry.isCancelled()) {
+                continue;
+            }
+            long calculatedTick = entry.deadline / this.tickDuration;
+            entry.remainingRounds = (calculatedTick - tick) / this.wheel.length;
+            this.wheel[(int) (Math.max(calculatedTick, tick) & this.mask)].add(entry);
+        }
+    }
+
+    /**
+     * Runs the entries in a bucket that have reached their deadline.
+     *
+     * @param bucket
+     * @param currentTime
+     */
+    private void expireEntries(final Bucket bucket, final long currentTime) {
+        Entry entry = bucket.head;
+        while (entry != null) {
+            Entry next = entry.next;
+            if (entry.isCancelled()) {
+                bucket.remove(entry);
+            }
+            else if (entry.remainingRounds <= 0) {
+                bucket.remove(entry);
+                if (entry.deadline <= currentTime) {
+                    runEntry(entry, currentTime);
+                }
+                else {
+                    // Not due yet - place it back on the wheel
+                    this.pendingEntries.add(entry);
+                }
+            }
+            else {
+                entry.remainingRounds--;
+            }
+            entry = next;
+        }
+    }
+
+    /**
+     * @param entry
+     * @param currentTime
+     */
+    private void runEntry(final Entry entry, final long currentTime) {
+        if (entry.state.compareAndSet(SCHEDULED, entry.period == 0 ? EXPIRED : RUNNING)) {
+            if (this.executor == null) {
+                completeEntry(entry);
+            }
+            else {
+                try {
+                    this.executor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            completeEntry(entry);
+                        }
+                    });
+                }
+                catch (RejectedExecutionException e) {
+                    entry.state.set(EXPIRED);
+                    logger.warning(this.log.msg("timer task rejected by executor - " + e.getMessage()));
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs the task of an expired entry and reschedules the entry if it is periodic.
+     * Called from the timer thread or an executor thread.
+     *
+     * @param entry
+     */
+    private void completeEntry(final Entry entry) {
+        runTask(entry.task);
+        if (entry.period != 0) {
+            entry.deadline = entry.isFixedRate ? entry.deadline + entry.period : getCurrentTime() + entry.period;
+            if (entry.state.compareAndSet(RUNNING, SCHEDULED)) {
+                // Rescheduled entries are placed on the wheel in the next tick
+                this.pendingEntries.add(entry);
+            }
+        }
+    }
+
+    /**
+     * @param task
+     */
+    private void runTask(final Runnable task) {
+        try {
+            task.run();
+        }
+        catch (Throwable t) {
+            logger.warning(this.log.msg("timer task failed - " + t.getClass().getSimpleName() + ":" + t.getMessage()));
+        }
+    }
+}
@@ -23,34 +23,38 @@ package org.js4ms.common.util.task;
  */
 
 
-import java.util.Timer;
-import java.util.TimerTask;
-
+/**
+ * A task that may be scheduled, rescheduled and cancelled any number of times.
+ * Each call to a schedule method cancels any pending execution before scheduling
+ * the task again on a {@link HashedWheelTimer}.
+ *
+ * @author Gregory Bumgardner (gbumgard)
+ */
 public abstract class ReschedulableTask implements Runnable {
 
-    class Task extends TimerTask {
+    final HashedWheelTimer timer;
 
-        ReschedulableTask task;
+    TimerHandle handle = null;
 
-        Task(ReschedulableTask task) {
-            this.task = task;
-        }
-        
-        @Override
-        public void run() {
-            this.task.execute();
-        }
-    }
+    /**
+     * Incremented each time the task is scheduled or cancelled so that an execution
+     * already in progress when the task was rescheduled is ignored.
+     */
+    int generation = 0;
 
-    Timer timer;
-    TimerTask task = null;
-    
     long period = 0;
     long nextTime = 0;
     boolean isPeriodic = false;
     boolean isScheduled = false;
-    
-    protected ReschedulableTask(Timer timer) {
+
+    /**
+     * Constructs a task that runs on the shared {@link HashedWheelTimer}.
+     */
+    protected ReschedulableTask() {
+        this(HashedWheelTimer.getInstance());
+    }
+
+    protected ReschedulableTask(HashedWheelTimer timer) {
         this.timer = timer;
     }
     
@@ -61,7 +65,7 @@ public abstract class ReschedulableTask implements Runnable {
     public synchronized void schedule(long delay) {
         init(delay, 0);
         this.isPeriodic = false;
-        this.timer.schedule(this.task, delay);
+        this.handle = this.timer.schedule(newTask(), delay);
     }
 
     /**
@@ -71,7 +75,7 @@ public abstract class ReschedulableTask implements Runnable {
     public synchronized void schedule(long delay, long period) {
         init(delay, period);
         this.isPeriodic = true;
-        this.timer.schedule(this.task, delay, period);
+        this.handle = this.timer.schedule(newTask(), delay, period);
     }
     
     /**
@@ -81,15 +85,17 @@ public abstract class ReschedulableTask implements Runnable {
     public synchronized void scheduleAtFixedRate(long delay, long period) {
         init(delay, period);
         this.isPeriodic = true;
-        this.timer.scheduleAtFixedRate(this.task, delay, period);
+        this.handle = this.timer.scheduleAtFixedRate(newTask(), delay, period);
     }
 
     /**
      * Cancels task. A task may cancel itself.
      */
     public synchronized void cancel() {
-        if (this.task != null) {
-            this.task.cancel();
+        if (this.handle != null) {
+            this.handle.cancel();
+            this.handle = null;
+            this.generation++;
             this.isScheduled = false;
         }
     }
@@ -112,16 +118,28 @@ public abstract class ReschedulableTask implements Runnable {
     }
     
     private void init(long delay, long period) {
-        if (task != null) {
-            this.task.cancel();
+        if (this.handle != null) {
+            this.handle.cancel();
         }
-        this.period = 0;
+        this.period = period;
         this.nextTime = System.currentTimeMillis() + delay;
-        this.task = new Task(this);
         this.isScheduled = true;
     }
 
-    private synchronized void execute() {
+    private Runnable newTask() {
+        final int generation = ++this.generation;
+        return new Runnable() {
+            @Override
+            public void run() {
+                execute(generation);
+            }
+        };
+    }
+
+    private synchronized void execute(int generation) {
+        if (generation != this.generation) {
+            return;
+        }
         this.nextTime = System.currentTimeMillis() + this.period;
         this.isScheduled = this.isPeriodic;
         run();
@@ -0,0 +1,46 @@
+package org.js4ms.common.util.task;
+
+/*
+ * #%L
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * TimerHandle.java [org.js4ms.jsdk:common]
+ * %%
+ * Copyright (C) 2009 - 2014 Cisco Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+/**
+ * A handle returned when a task is scheduled with a {@link HashedWheelTimer}.
+ *
+ * @author Gregory Bumgardner (gbumgard)
+ */
+public interface TimerHandle {
+
+    /**
+     * Cancels the scheduled task. A periodic task may cancel itself while running.
+     *
+     * @return <code>true</code> if this call cancelled the task, or <code>false</code>
+     *         if the task was already cancelled or has run for the last time.
+     */
+    public boolean cancel();
+
+    /**
+     * @return <code>true</code> if the task has been cancelled.
+     */
+    public boolean isCancelled();
+
+}
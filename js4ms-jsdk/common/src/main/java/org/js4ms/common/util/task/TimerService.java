@@ -25,7 +25,6 @@ package org.js4ms.common.util.task;
 
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.Timer;
 import java.util.TimerTask;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -36,7 +35,7 @@ import org.js4ms.common.util.logging.Logging;
 
 
 /**
- * 
+ * Runs a set of tasks at a common interval using the shared {@link HashedWheelTimer}.
  *
  * @author Gregory Bumgardner
  */
@@ -44,7 +43,7 @@ public class TimerService {
 
     public static final Logger logger = Logger.getLogger(TimerService.class.getName());
 
-    static class TimerServiceTask extends TimerTask {
+    static class TimerServiceTask implements Runnable {
 
         private TimerService service;
         
@@ -63,7 +62,9 @@ public class TimerService {
     
     private long interval = 10000; // Default to 10 secs
 
-    Timer timer = null;
+    private final HashedWheelTimer timer;
+
+    TimerHandle handle = null;
 
     private HashSet<TimerTask> tasks = new HashSet<TimerTask>();
 
@@ -77,35 +78,34 @@ public class TimerService {
     }
     
     public TimerService() {
+        this.timer = HashedWheelTimer.getInstance();
     }
 
     public TimerService(long milliseconds) {
+        this();
         this.interval = milliseconds;
     }
     
     public synchronized void setInterval(long milliseconds) {
         this.interval = milliseconds;
-        if (this.timer != null) {
-            this.timer.cancel();
-            this.timer = new Timer("TimerService",true);
-            this.timer.schedule(new TimerServiceTask(this), 0, this.interval);
+        if (this.handle != null) {
+            this.handle.cancel();
+            this.handle = this.timer.schedule(new TimerServiceTask(this), 0, this.interval);
         }
     }
     
     public synchronized void start() {
         if (logger.isLoggable(Level.FINE)) logger.fine(Logging.entry(this));
-        if (this.timer == null) {
-            this.timer = new Timer("TimerService", true);
-            this.timer.schedule(new TimerServiceTask(this), 0, this.interval);
+        if (this.handle == null) {
+            this.handle = this.timer.schedule(new TimerServiceTask(this), 0, this.interval);
         }
     }
 
     public synchronized void stop() {
         if (logger.isLoggable(Level.FINE)) logger.fine(Logging.entry(this));
-        if (this.timer != null) {
-            this.timer.cancel();
-            this.timer.purge();
-            this.timer = null;
+        if (this.handle != null) {
+            this.handle.cancel();
+            this.handle = null;
         }
     }
 
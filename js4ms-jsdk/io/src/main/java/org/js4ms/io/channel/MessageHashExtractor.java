@@ -0,0 +1,48 @@
+package org.js4ms.io.channel;
+
+/*
+ * #%L
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *  
+ * MessageHashExtractor.java [org.js4ms.jsdk:io]
+ * %%
+ * Copyright (C) 2009 - 2014 Cisco Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+/**
+ * Interface exposed by objects that compute an integer hash from a message.
+ * Hash extractors are used to partition messages without allocating a key object
+ * for each message.
+ * 
+ * @param <MessageType>
+ *            The message object type.
+ * @see MessageKeyExtractor
+ * @author Greg Bumgardner (gbumgard)
+ */
+public interface MessageHashExtractor<MessageType> {
+
+    /**
+     * Returns a hash derived from one or more attributes of a message.
+     * Messages that must be kept in order return the same value.
+     * 
+     * @param message
+     *            The message from which to compute a hash.
+     * @return The hash value.
+     */
+    public int getHash(MessageType message);
+
+}
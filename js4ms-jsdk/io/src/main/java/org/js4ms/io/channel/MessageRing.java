@@ -0,0 +1,302 @@
+package org.js4ms.io.channel;
+
+/*
+ * #%L
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * MessageRing.java [org.js4ms.jsdk:io]
+ * %%
+ * Copyright (C) 2009 - 2014 Cisco Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+/**
+ * A bounded message pipe backed by a fixed-size ring buffer.
+ * The ring supports exactly one sending thread and one receiving thread;
+ * messages are handed off without locking and the {@link WaitStrategy} determines
+ * how a thread waits when the ring is full or empty.
+ * Use a {@link MessageQueue} if more than one thread may send or receive.
+ *
+ * @param <MessageType>
+ *            The message object type.
+ * @author Greg Bumgardner (gbumgard)
+ */
+public final class MessageRing<MessageType>
+                implements MessagePipe<MessageType> {
+
+    /*-- Inner Classes -------------------------------------------------------*/
+
+    /**
+     * Enumeration of the methods a thread may use to wait for the ring to become
+     * non-full or non-empty.
+     */
+    public enum WaitStrategy {
+
+        /**
+         * Waits on a monitor. Uses the least CPU but adds wake-up latency.
+         */
+        BLOCKING,
+
+        /**
+         * Spins calling {@link Thread#yield()}.
+         */
+        YIELDING,
+
+        /**
+         * Spins without yielding. Lowest latency, but each waiting thread
+         * occupies a processor.
+         */
+        BUSY_SPIN
+    }
+
+    /*-- Member Variables ----------------------------------------------------*/
+
+    private final Object[] entries;
+
+    private final int mask;
+
+    private final WaitStrategy waitStrategy;
+
+    /**
+     * Sequence number of the next entry to receive. Only written by the receiver.
+     */
+    private volatile long head = 0;
+
+    /**
+     * Sequence number of the next entry to send. Only written by the sender.
+     */
+    private volatile long tail = 0;
+
+    private volatile boolean isSenderWaiting = false;
+
+    private volatile boolean isReceiverWaiting = false;
+
+    /**
+     * Monitor object used by the {@link WaitStrategy#BLOCKING} strategy.
+     */
+    private final Object lock = new Object();
+
+    /*-- Member Functions ----------------------------------------------------*/
+
+    /**
+     * Constructs a ring that uses the {@link WaitStrategy#BLOCKING} wait strategy.
+     *
+     * @param capacity
+     *            The minimum number of messages the ring can hold.
+     *            The actual capacity is rounded up to a power of two.
+     */
+    public MessageRing(final int capacity) {
+        this(capacity, WaitStrategy.BLOCKING);
+    }
+
+    /**
+     * @param capacity
+     *            The minimum number of messages the ring can hold.
+     *            The actual capacity is rounded up to a power of two.
+     * @param waitStrategy
+     *            The strategy used by a thread waiting to send or receive a message.
+     */
+    public MessageRing(final int capacity, final WaitStrategy waitStrategy) {
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        this.entries = new Object[size];
+        this.mask = size - 1;
+        this.waitStrategy = waitStrategy;
+    }
+
+    /**
+     * @return The maximum number of messages the ring can hold.
+     */
+    public int getCapacity() {
+        return this.entries.length;
+    }
+
+    /**
+     * @return The number of messages currently held in the ring.
+     */
+    public int size() {
+        return (int) (this.tail - this.head);
+    }
+
+    /**
+     * @return The wait strategy used by this ring.
+     */
+    public WaitStrategy getWaitStrategy() {
+        return this.waitStrategy;
+    }
+
+    @Override
+    public final void send(final MessageType message, final int milliseconds) throws IOException,
+                                                                             InterruptedIOException,
+                                                                             InterruptedException {
+
+        long position = this.tail;
+
+        if (position - this.head > this.mask && !await(true, position, milliseconds)) {
+            throw new InterruptedIOException("send operation timed out");
+        }
+
+        this.entries[(int) position & this.mask] = message;
+        this.tail = position + 1;
+
+        if (this.isReceiverWaiting) {
+            synchronized (this.lock) {
+                this.lock.notifyAll();
+            }
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public final MessageType receive(final int milliseconds) throws IOException,
+                                                            InterruptedIOException,
+                                                            InterruptedException {
+
+        long position = this.head;
+
+        if (position == this.tail && !await(false, position, milliseconds)) {
+            throw new InterruptedIOException("receive operation timed out");
+        }
+
+        int index = (int) position & this.mask;
+        MessageType message = (MessageType) this.entries[index];
+        this.entries[index] = null;
+        this.head = position + 1;
+
+        if (this.isSenderWaiting) {
+            synchronized (this.lock) {
+                this.lock.notifyAll();
+            }
+        }
+
+        return message;
+    }
+
+    /**
+     * Removes the next message from the ring without waiting.
+     * Only called by the receiving thread, or after that thread has exited.
+     *
+     * @return The next message, or <code>null</code> if the ring is empty.
+     */
+    @SuppressWarnings("unchecked")
+    public final MessageType poll() {
+
+        long position = this.head;
+
+        if (position == this.tail) {
+            return null;
+        }
+
+        int index = (int) position & this.mask;
+        MessageType message = (MessageType) this.entries[index];
+        this.entries[index] = null;
+        this.head = position + 1;
+
+        if (this.isSenderWaiting) {
+            synchronized (this.lock) {
+                this.lock.notifyAll();
+            }
+        }
+
+        return message;
+    }
+
+    /**
+     * @param isSender
+     * @param position
+     * @return
+     */
+    private boolean isReady(final boolean isSender, final long position) {
+        return isSender ? position - this.head <= this.mask : position != this.tail;
+    }
+
+    /**
+     * Waits until the sender may write or the receiver may read the entry at
+     * the specified position.
+     *
+     * @param isSender
+     * @param position
+     * @param milliseconds
+     * @return <code>false</code> if the wait timed out.
+     * @throws InterruptedException
+     */
+    private boolean await(final boolean isSender, final long position, final int milliseconds) throws InterruptedException {
+
+        long deadline = milliseconds == Integer.MAX_VALUE ? Long.MAX_VALUE : System.nanoTime() + milliseconds * 1000000L;
+
+        while (!isReady(isSender, position)) {
+
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+
+            long remaining = deadline == Long.MAX_VALUE ? Long.MAX_VALUE : deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+
+            switch (this.waitStrategy) {
+
+                case BUSY_SPIN:
+                    break;
+
+                case YIELDING:
+                    Thread.yield();
+                    break;
+
+                default:
+                    setWaiting(isSender, true);
+                    try {
+                        synchronized (this.lock) {
+                            if (!isReady(isSender, position)) {
+                                if (remaining == Long.MAX_VALUE) {
+                                    this.lock.wait();
+                                }
+                                else {
+                                    this.lock.wait(Math.max(remaining / 1000000L, 1));
+                                }
+                            }
+                        }
+                    }
+                    finally {
+                        setWaiting(isSender, false);
+                    }
+                    break;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * @param isSender
+     * @param isWaiting
+     */
+    private void setWaiting(final boolean isSender, final boolean isWaiting) {
+        if (isSender) {
+            this.isSenderWaiting = isWaiting;
+        }
+        else {
+            this.isReceiverWaiting = isWaiting;
+        }
+    }
+
+}
@@ -0,0 +1,425 @@
+package org.js4ms.io.channel;
+
+/*
+ * #%L
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * OutputChannelDispatcher.java [org.js4ms.jsdk:io]
+ * %%
+ * Copyright (C) 2009 - 2014 Cisco Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.js4ms.common.util.logging.Log;
+
+
+
+/**
+ * An output channel that hands messages off to a pool of worker threads that
+ * forward the messages to a single output channel.
+ * Messages are partitioned across the workers using a key or hash extracted from each
+ * message, so messages that share a key are forwarded in the order they were sent.
+ * Each worker receives messages from its own {@link MessageRing}, so only one
+ * thread may call {@link #send(Object, int)} at a time.
+ * <p>
+ * The output channel must tolerate concurrent calls from the worker threads.
+ * A worker that catches an exception from the output channel logs it and
+ * continues with the next message.
+ * Messages still held by the workers when the dispatcher is closed, or sent
+ * after it is closed, are passed to the discard channel, if one is set.
+ *
+ * @param <MessageType>
+ *            The message object type.
+ * @see MessageKeyExtractor
+ * @see MessageHashExtractor
+ * @author Greg Bumgardner (gbumgard)
+ */
+public final class OutputChannelDispatcher<MessageType>
+                implements OutputChannel<MessageType> {
+
+    /*-- Static Variables ----------------------------------------------------*/
+
+    /**
+     * The logger used to generate logging messages produced by instances of this class.
+     */
+    public static final Logger logger = Logger.getLogger(OutputChannelDispatcher.class.getName());
+
+    /*-- Inner Classes -------------------------------------------------------*/
+
+    /**
+     * A worker thread that forwards the messages held in one partition.
+     */
+    private final class Worker
+                    implements Runnable {
+
+        private final MessageRing<MessageType> ring;
+
+        private final Thread thread;
+
+        private volatile long dispatchedCount = 0;
+
+        private volatile long failedCount = 0;
+
+        Worker(final String name, final int capacity, final MessageRing.WaitStrategy waitStrategy) {
+            this.ring = new MessageRing<MessageType>(capacity, waitStrategy);
+            this.thread = new Thread(this, name);
+            this.thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+
+            if (logger.isLoggable(Level.FINER)) {
+                logger.finer(log.msg("dispatch worker " + this.thread.getName() + " started"));
+            }
+
+            while (OutputChannelDispatcher.this.isRunning) {
+
+                MessageType message;
+
+                try {
+                    message = this.ring.receive(Integer.MAX_VALUE);
+                }
+                catch (InterruptedException e) {
+                    break;
+                }
+                catch (IOException e) {
+                    // Receive timed out
+                    continue;
+                }
+
+                try {
+                    OutputChannelDispatcher.this.outputChannel.send(message, Integer.MAX_VALUE);
+                    this.dispatchedCount++;
+                }
+                catch (InterruptedIOException e) {
+                    logger.fine(log.msg("dispatch worker " + this.thread.getName() + " interrupted in I/O operation"));
+                    break;
+                }
+                catch (InterruptedException e) {
+                    logger.fine(log.msg("dispatch worker " + this.thread.getName() + " interrupted"));
+                    break;
+                }
+                catch (Exception e) {
+                    this.failedCount++;
+                    logger.warning(log.msg("dispatch worker " + this.thread.getName() + " failed to send message - "
+                                           + e.getClass().getSimpleName() + ":" + e.getMessage()));
+                }
+            }
+
+            if (logger.isLoggable(Level.FINER)) {
+                logger.finer(log.msg("dispatch worker " + this.thread.getName() + " stopped"));
+            }
+        }
+    }
+
+    /*-- Member Variables ----------------------------------------------------*/
+
+    /**
+     * Helper object used to construct log messages.
+     */
+    protected final Log log = new Log(this);
+
+    /**
+     * Monitor object used for thread synchronization.
+     */
+    private final Object lock = new Object();
+
+    private final MessageHashExtractor<MessageType> hashExtractor;
+
+    private final OutputChannel<MessageType> outputChannel;
+
+    private OutputChannel<MessageType> discardChannel = null;
+
+    private final ArrayList<Worker> workers;
+
+    private volatile boolean isRunning = true;
+
+    /**
+     * Set once the worker threads have exited and their rings have been drained.
+     */
+    private boolean isClosed = false;
+
+    private long droppedCount = 0;
+
+    /*-- Member Functions ----------------------------------------------------*/
+
+    /**
+     * Constructs a dispatcher and starts its worker threads.
+     *
+     * @param name
+     *            The prefix used to name the worker threads.
+     * @param keyExtractor
+     *            Extracts the partition key from each message. Messages with a
+     *            <code>null</code> key are assigned to the first worker.
+     * @param outputChannel
+     *            The channel that will receive messages from the worker threads.
+     * @param workerCount
+     *            The number of worker threads.
+     * @param capacity
+     *            The number of messages each worker can hold before
+     *            {@link #send(Object, int)} must wait.
+     * @param waitStrategy
+     *            The strategy used by the sender and workers to wait on each other.
+     */
+    public OutputChannelDispatcher(final String name,
+                                   final MessageKeyExtractor<MessageType> keyExtractor,
+                                   final OutputChannel<MessageType> outputChannel,
+                                   final int workerCount,
+                                   final int capacity,
+                                   final MessageRing.WaitStrategy waitStrategy) {
+        this(name,
+             new MessageHashExtractor<MessageType>() {
+                 @Override
+                 public int getHash(final MessageType message) {
+                     Object key = keyExtractor.getKey(message);
+                     return key == null ? 0 : key.hashCode();
+                 }
+             },
+             outputChannel,
+             workerCount,
+             capacity,
+             waitStrategy);
+    }
+
+    /**
+     * Constructs a dispatcher that partitions messages by an integer hash and
+     * starts its worker threads.
+     *
+     * @param name
+     *            The prefix used to name the worker threads.
+     * @param hashExtractor
+     *            Computes the partition hash of each message.
+     * @param outputChannel
+     *            The channel that will receive messages from the worker threads.
+     * @param workerCount
+     *            The number of worker threads.
+     * @param capacity
+     *            The number of messages each worker can hold before
+     *            {@link #send(Object, int)} must wait.
+     * @param waitStrategy
+     *            The strategy used by the sender and workers to wait on each other.
+     */
+    public OutputChannelDispatcher(final String name,
+                                   final MessageHashExtractor<MessageType> hashExtractor,
+                                   final OutputChannel<MessageType> outputChannel,
+                                   final int workerCount,
+                                   final int capacity,
+                                   final MessageRing.WaitStrategy waitStrategy) {
+
+        if (logger.isLoggable(Level.FINER)) {
+            logger.finer(this.log.entry("OutputChannelDispatcher.OutputChannelDispatcher",
+                                        name, hashExtractor, outputChannel, workerCount, capacity, waitStrategy));
+        }
+
+        if (workerCount < 1) {
+            throw new IllegalArgumentException("worker count must be greater than zero");
+        }
+
+        this.hashExtractor = hashExtractor;
+        this.outputChannel = outputChannel;
+        this.workers = new ArrayList<Worker>(workerCount);
+
+        for (int i = 0; i < workerCount; i++) {
+            this.workers.add(new Worker(name + " dispatch-" + i, capacity, waitStrategy));
+        }
+
+        for (Worker worker : this.workers) {
+            worker.thread.start();
+        }
+    }
+
+    @Override
+    public final void send(final MessageType message, final int milliseconds) throws IOException,
+                                                                             InterruptedIOException,
+                                                                             InterruptedException {
+
+        int index = (this.hashExtractor.getHash(message) & 0x7FFFFFFF) % this.workers.size();
+
+        Worker worker = this.workers.get(index);
+
+        if (!this.isRunning) {
+            synchronized (this.lock) {
+                discard(message);
+            }
+            return;
+        }
+
+        try {
+            worker.ring.send(message, milliseconds);
+        }
+        catch (InterruptedIOException e) {
+            synchronized (this.lock) {
+                this.droppedCount++;
+            }
+            throw e;
+        }
+
+        if (!this.isRunning) {
+            // The dispatcher was closed while the message was being sent -
+            // the workers may have exited before the message was received.
+            synchronized (this.lock) {
+                if (this.isClosed) {
+                    drain(worker);
+                }
+            }
+        }
+    }
+
+    /**
+     * Sets the channel that receives messages discarded when the dispatcher
+     * is closed, e.g. to return pooled buffers held by those messages.
+     * The discard channel is not closed by the dispatcher.
+     *
+     * @param discardChannel
+     *            The channel that will receive discarded messages, or
+     *            <code>null</code> to drop them.
+     */
+    public void setDiscardChannel(final OutputChannel<MessageType> discardChannel) {
+        synchronized (this.lock) {
+            this.discardChannel = discardChannel;
+        }
+    }
+
+    /**
+     * Stops the worker threads and closes the output channel.
+     * Messages that have not been forwarded are passed to the discard channel.
+     */
+    @Override
+    public final void close() throws IOException, InterruptedException {
+
+        if (logger.isLoggable(Level.FINER)) {
+            logger.finer(this.log.entry("OutputChannelDispatcher.close"));
+        }
+
+        synchronized (this.lock) {
+            if (!this.isRunning) {
+                return;
+            }
+            this.isRunning = false;
+        }
+
+        for (Worker worker : this.workers) {
+            worker.thread.interrupt();
+        }
+
+        for (Worker worker : this.workers) {
+            worker.thread.join();
+        }
+
+        synchronized (this.lock) {
+            for (Worker worker : this.workers) {
+                drain(worker);
+            }
+            this.isClosed = true;
+        }
+
+        this.outputChannel.close();
+    }
+
+    /**
+     * Discards the messages remaining in a worker's ring.
+     * Must be called while holding the lock after the worker thread has exited.
+     *
+     * @param worker
+     */
+    private void drain(final Worker worker) {
+        MessageType message;
+        while ((message = worker.ring.poll()) != null) {
+            discard(message);
+        }
+    }
+
+    /**
+     * Passes an undelivered message to the discard channel.
+     * Must be called while holding the lock.
+     *
+     * @param message
+     */
+    private void discard(final MessageType message) {
+        this.droppedCount++;
+        if (this.discardChannel != null) {
+            try {
+                this.discardChannel.send(message, 0);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            catch (Exception e) {
+                logger.warning(this.log.msg("failed to discard message - "
+                                            + e.getClass().getSimpleName() + ":" + e.getMessage()));
+            }
+        }
+    }
+
+    /**
+     * @return The number of worker threads.
+     */
+    public int getWorkerCount() {
+        return this.workers.size();
+    }
+
+    /**
+     * @return The number of messages waiting to be forwarded by the workers.
+     */
+    public int getBacklog() {
+        int backlog = 0;
+        for (Worker worker : this.workers) {
+            backlog += worker.ring.size();
+        }
+        return backlog;
+    }
+
+    /**
+     * @return The number of messages forwarded to the output channel.
+     */
+    public long getDispatchedCount() {
+        long count = 0;
+        for (Worker worker : this.workers) {
+            count += worker.dispatchedCount;
+        }
+        return count;
+    }
+
+    /**
+     * @return The number of messages the output channel failed to accept.
+     */
+    public long getFailedCount() {
+        long count = 0;
+        for (Worker worker : this.workers) {
+            count += worker.failedCount;
+        }
+        return count;
+    }
+
+    /**
+     * @return The number of messages discarded because a worker did not
+     *         accept them within the time allotted to {@link #send(Object, int)}
+     *         or because the dispatcher was closed.
+     */
+    public long getDroppedCount() {
+        synchronized (this.lock) {
+            return this.droppedCount;
+        }
+    }
+
+}
@@ -25,6 +25,7 @@ package org.js4ms.io.channel;
 
 import java.io.IOException;
 import java.io.InterruptedIOException;
+import java.util.AbstractSet;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
@@ -35,8 +36,11 @@ import java.util.Set;
  * of one or more output channels based on a key value extracted from the message.
  * The channel map only allows one channel per key value. A channel added previously
  * can be replaced by adding a different channel using the same key value.
- * A thread should not attempt to add or remove channels while executing in the
- * {@link #send(Object, int)} method as this may result in an exception.
+ * <p>
+ * The key-to-channel map is replaced, never modified, when a channel is added or
+ * removed, so {@link #send(Object, int)} does not take a lock and a slow channel
+ * does not delay other senders or changes to the map. Channels may be added or
+ * removed while a send is in progress; the change applies to subsequent sends.
  * 
  * @param <MessageType>
  *            The message object type.
@@ -49,9 +53,9 @@ public final class OutputChannelMap<MessageType>
     /*-- Member Variables ----------------------------------------------------*/
 
     /**
-     * A hash map that maps message keys to output channels.
+     * Snapshot of the hash map that maps message keys to output channels.
      */
-    private final HashMap<Object, OutputChannel<MessageType>> channelMap = new HashMap<Object, OutputChannel<MessageType>>();
+    private volatile HashMap<Object, OutputChannel<MessageType>> channelMap = new HashMap<Object, OutputChannel<MessageType>>();
 
     /**
      * A message key extractor that will be used to extract a key from each message
@@ -60,7 +64,7 @@ public final class OutputChannelMap<MessageType>
     private final MessageKeyExtractor<MessageType> keyExtractor;
 
     /**
-     * Monitor object used for thread synchronization.
+     * Monitor object used to serialize changes to the channel map snapshot.
      */
     private final Object lock = new Object();
 
@@ -88,7 +92,9 @@ public final class OutputChannelMap<MessageType>
      */
     public final void put(final Object key, final OutputChannel<MessageType> channel) {
         synchronized (this.lock) {
-            this.channelMap.put(key, channel);
+            HashMap<Object, OutputChannel<MessageType>> channelMap = new HashMap<Object, OutputChannel<MessageType>>(this.channelMap);
+            channelMap.put(key, channel);
+            this.channelMap = channelMap;
         }
     }
 
@@ -99,9 +105,7 @@ public final class OutputChannelMap<MessageType>
      *            The key value used to add a channel.
      */
     public final OutputChannel<MessageType> get(final Object key) {
-        synchronized (this.lock) {
-            return this.channelMap.get(key);
-        }
+        return this.channelMap.get(key);
     }
 
     /**
@@ -112,20 +116,57 @@ public final class OutputChannelMap<MessageType>
      *         one or more channels are currently mapped.
      */
     public final boolean isEmpty() {
-        synchronized (this.lock) {
-            return this.channelMap.isEmpty();
-        }
+        return this.channelMap.isEmpty();
     }
 
     /**
-     * Returns the current key set.
+     * Returns the key set as it was when this method was called.
+     * Removing a key using the iterator of the returned set removes
+     * the corresponding channel from the map.
      * 
      * @return The current output channel key set.
      */
     public final Set<Object> getKeys() {
-        synchronized (this.lock) {
-            return this.channelMap.keySet();
-        }
+        final Set<Object> keys = this.channelMap.keySet();
+        return new AbstractSet<Object>() {
+
+            @Override
+            public Iterator<Object> iterator() {
+                final Iterator<Object> iter = keys.iterator();
+                return new Iterator<Object>() {
+
+                    private Object key;
+
+                    private boolean isRemovable = false;
+
+                    @Override
+                    public boolean hasNext() {
+                        return iter.hasNext();
+                    }
+
+                    @Override
+                    public Object next() {
+                        this.key = iter.next();
+                        this.isRemovable = true;
+                        return this.key;
+                    }
+
+                    @Override
+                    public void remove() {
+                        if (!this.isRemovable) {
+                            throw new IllegalStateException();
+                        }
+                        OutputChannelMap.this.remove(this.key);
+                        this.isRemovable = false;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return keys.size();
+            }
+        };
     }
 
     /**
@@ -136,7 +177,11 @@ public final class OutputChannelMap<MessageType>
      */
     public final void remove(final Object key) {
         synchronized (this.lock) {
-            this.channelMap.remove(key);
+            if (this.channelMap.containsKey(key)) {
+                HashMap<Object, OutputChannel<MessageType>> channelMap = new HashMap<Object, OutputChannel<MessageType>>(this.channelMap);
+                channelMap.remove(key);
+                this.channelMap = channelMap;
+            }
         }
     }
 
@@ -148,11 +193,11 @@ public final class OutputChannelMap<MessageType>
      */
     public final void remove(final OutputChannel<MessageType> channel) {
         synchronized (this.lock) {
-            Iterator<Map.Entry<Object, OutputChannel<MessageType>>> iter = this.channelMap.entrySet().iterator();
-            while (iter.hasNext()) {
-                Map.Entry<Object, OutputChannel<MessageType>> entry = iter.next();
+            for (Map.Entry<Object, OutputChannel<MessageType>> entry : this.channelMap.entrySet()) {
                 if (entry.getValue() == channel) {
-                    iter.remove();
+                    HashMap<Object, OutputChannel<MessageType>> channelMap = new HashMap<Object, OutputChannel<MessageType>>(this.channelMap);
+                    channelMap.remove(entry.getKey());
+                    this.channelMap = channelMap;
                     return;
                 }
             }
@@ -161,11 +206,13 @@ public final class OutputChannelMap<MessageType>
 
     @Override
     public final void close() throws IOException, InterruptedException {
+        HashMap<Object, OutputChannel<MessageType>> channelMap;
         synchronized (this.lock) {
-            for (Map.Entry<Object, OutputChannel<MessageType>> entry : this.channelMap.entrySet()) {
-                entry.getValue().close();
-            }
-            this.channelMap.clear();
+            channelMap = this.channelMap;
+            this.channelMap = new HashMap<Object, OutputChannel<MessageType>>();
+        }
+        for (Map.Entry<Object, OutputChannel<MessageType>> entry : channelMap.entrySet()) {
+            entry.getValue().close();
         }
     }
 
@@ -173,13 +220,10 @@ public final class OutputChannelMap<MessageType>
     public final void send(final MessageType message, final int milliseconds) throws IOException,
                                                                              InterruptedIOException,
                                                                              InterruptedException {
-        synchronized (this.lock) {
-            OutputChannel<MessageType> channel = this.channelMap.get(this.keyExtractor.getKey(message));
-            if (channel != null) {
-                channel.send(message, milliseconds);
-            }
+        OutputChannel<MessageType> channel = this.channelMap.get(this.keyExtractor.getKey(message));
+        if (channel != null) {
+            channel.send(message, milliseconds);
         }
-
     }
 
 }
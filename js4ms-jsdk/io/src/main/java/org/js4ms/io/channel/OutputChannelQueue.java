@@ -0,0 +1,386 @@
+package org.js4ms.io.channel;
+
+/*
+ * #%L
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * OutputChannelQueue.java [org.js4ms.jsdk:io]
+ * %%
+ * Copyright (C) 2009 - 2014 Cisco Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.js4ms.common.util.logging.Log;
+
+
+
+/**
+ * An output channel that holds messages in a bounded queue until a thread
+ * supplied by an {@link Executor} forwards them to another output channel.
+ * The {@link #send(Object, int)} method never waits, so a slow or stalled
+ * output channel cannot hold up the sender or the other queues that share
+ * the executor. When the queue is full, the {@link OverflowPolicy} decides
+ * which message is discarded or whether the channel is disconnected.
+ * <p>
+ * Each queue is drained by at most one executor thread at a time, so messages
+ * are forwarded in the order they were sent. A thread forwards a limited number
+ * of messages before handing the queue back to the executor so that queues
+ * sharing a small pool of threads are serviced fairly.
+ * <p>
+ * Once the output channel throws an exception or the queue is disconnected by
+ * the overflow policy, subsequent calls to {@link #send(Object, int)} throw an
+ * {@link IOException} so the sender can remove the channel.
+ *
+ * @param <MessageType>
+ *            The message object type.
+ * @author Greg Bumgardner (gbumgard)
+ */
+public final class OutputChannelQueue<MessageType>
+                implements OutputChannel<MessageType> {
+
+    /**
+     * Selects the action taken when a message is sent to a full queue.
+     */
+    public enum OverflowPolicy {
+
+        /**
+         * Discard the message at the head of the queue to make room for the new message.
+         */
+        DROP_OLDEST,
+
+        /**
+         * Discard the new message.
+         */
+        DROP_NEWEST,
+
+        /**
+         * Discard all queued messages and fail this and all subsequent sends.
+         */
+        DISCONNECT;
+
+        /**
+         * Parses a policy name such as <code>drop-oldest</code> or <code>DROP_OLDEST</code>.
+         *
+         * @param name
+         * @return The policy.
+         * @throws IllegalArgumentException
+         *             If the name does not identify a policy.
+         */
+        public static OverflowPolicy parse(final String name) {
+            return valueOf(name.trim().toUpperCase().replace('-', '_'));
+        }
+    }
+
+    /*-- Static Variables ----------------------------------------------------*/
+
+    /**
+     * The logger used to generate logging messages produced by instances of this class.
+     */
+    public static final Logger logger = Logger.getLogger(OutputChannelQueue.class.getName());
+
+    /**
+     * The maximum number of messages forwarded each time the queue is serviced by
+     * an executor thread.
+     */
+    static final int DRAIN_LIMIT = 64;
+
+    /*-- Member Variables ----------------------------------------------------*/
+
+    /**
+     * Helper object used to construct log messages.
+     */
+    protected final Log log = new Log(this);
+
+    private final OutputChannel<MessageType> outputChannel;
+
+    private final ArrayBlockingQueue<MessageType> queue;
+
+    private final OverflowPolicy overflowPolicy;
+
+    private final Executor executor;
+
+    /**
+     * Indicates whether the drain task has been handed to the executor.
+     */
+    private final AtomicBoolean isScheduled = new AtomicBoolean(false);
+
+    /**
+     * The reason sends are no longer accepted, or <code>null</code> if the
+     * channel is still accepting messages.
+     */
+    private volatile String failure = null;
+
+    private final AtomicLong droppedCount = new AtomicLong(0);
+
+    private volatile long deliveredCount = 0;
+
+    private volatile int peakDepth = 0;
+
+    /**
+     * Forwards queued messages to the output channel.
+     */
+    private final Runnable drainTask = new Runnable() {
+
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    /*-- Member Functions ----------------------------------------------------*/
+
+    /**
+     * @param outputChannel
+     *            The channel that will receive messages from the executor threads.
+     * @param capacity
+     *            The number of messages the queue can hold.
+     * @param overflowPolicy
+     *            The action taken when a message is sent to a full queue.
+     * @param executor
+     *            Supplies the threads that forward messages. May be shared by many queues.
+     */
+    public OutputChannelQueue(final OutputChannel<MessageType> outputChannel,
+                              final int capacity,
+                              final OverflowPolicy overflowPolicy,
+                              final Executor executor) {
+
+        if (logger.isLoggable(Level.FINER)) {
+            logger.finer(this.log.entry("OutputChannelQueue.OutputChannelQueue",
+                                        outputChannel, capacity, overflowPolicy, executor));
+        }
+
+        this.outputChannel = outputChannel;
+        this.queue = new ArrayBlockingQueue<MessageType>(capacity);
+        this.overflowPolicy = overflowPolicy;
+        this.executor = executor;
+    }
+
+    /**
+     * Adds a message to the queue without waiting.
+     * The timeout is ignored.
+     *
+     * @throws IOException
+     *             If the output channel has failed, the queue has been closed or
+     *             the queue was full and the overflow policy is {@link OverflowPolicy#DISCONNECT}.
+     */
+    @Override
+    public void send(final MessageType message, final int milliseconds) throws IOException,
+                                                                       InterruptedIOException,
+                                                                       InterruptedException {
+
+        if (this.failure != null) {
+            throw new IOException(this.failure);
+        }
+
+        if (!this.queue.offer(message)) {
+            switch (this.overflowPolicy) {
+                case DROP_OLDEST:
+                    // The drain thread may empty the queue between the offer and the
+                    // poll, in which case nothing is discarded.
+                    while (!this.queue.offer(message)) {
+                        if (this.queue.poll() != null) {
+                            this.droppedCount.incrementAndGet();
+                        }
+                    }
+                    break;
+                case DROP_NEWEST:
+                    this.droppedCount.incrementAndGet();
+                    return;
+                case DISCONNECT:
+                    disconnect("queue overflow");
+                    throw new IOException(this.failure);
+            }
+        }
+
+        int depth = this.queue.size();
+        if (depth > this.peakDepth) {
+            this.peakDepth = depth;
+        }
+
+        schedule();
+    }
+
+    /**
+     * Discards any queued messages and closes the output channel.
+     */
+    @Override
+    public void close() throws IOException, InterruptedException {
+
+        if (logger.isLoggable(Level.FINER)) {
+            logger.finer(this.log.entry("OutputChannelQueue.close"));
+        }
+
+        disconnect("channel closed");
+        this.outputChannel.close();
+    }
+
+    /**
+     * Stops accepting messages and discards any queued messages without closing
+     * the output channel. A message that is being forwarded when this method is
+     * called may still be delivered.
+     */
+    public void stop() {
+
+        if (logger.isLoggable(Level.FINER)) {
+            logger.finer(this.log.entry("OutputChannelQueue.stop"));
+        }
+
+        disconnect("queue stopped");
+    }
+
+    /**
+     * @return The number of messages waiting to be forwarded.
+     */
+    public int getDepth() {
+        return this.queue.size();
+    }
+
+    /**
+     * @return The largest number of messages held in the queue.
+     */
+    public int getPeakDepth() {
+        return this.peakDepth;
+    }
+
+    /**
+     * @return The number of messages the queue can hold.
+     */
+    public int getCapacity() {
+        return this.queue.size() + this.queue.remainingCapacity();
+    }
+
+    /**
+     * @return The action taken when a message is sent to a full queue.
+     */
+    public OverflowPolicy getOverflowPolicy() {
+        return this.overflowPolicy;
+    }
+
+    /**
+     * @return The number of messages forwarded to the output channel.
+     */
+    public long getDeliveredCount() {
+        return this.deliveredCount;
+    }
+
+    /**
+     * @return The number of messages discarded by the overflow policy, by a
+     *         disconnect or by a failure of the output channel.
+     */
+    public long getDroppedCount() {
+        return this.droppedCount.get();
+    }
+
+    /**
+     * @return <code>true</code> if the queue no longer accepts messages.
+     */
+    public boolean isDisconnected() {
+        return this.failure != null;
+    }
+
+    @Override
+    public String toString() {
+        return "depth=" + getDepth() + " peak=" + this.peakDepth + " capacity=" + getCapacity() +
+               " delivered=" + this.deliveredCount + " dropped=" + this.droppedCount.get() +
+               (this.failure != null ? " disconnected=" + this.failure : "");
+    }
+
+    /**
+     * Hands the drain task to the executor if it is not already scheduled or running.
+     */
+    private void schedule() {
+        if (this.isScheduled.compareAndSet(false, true)) {
+            try {
+                this.executor.execute(this.drainTask);
+            }
+            catch (RejectedExecutionException e) {
+                this.isScheduled.set(false);
+                disconnect("executor rejected drain task");
+            }
+        }
+    }
+
+    /**
+     * Forwards up to {@link #DRAIN_LIMIT} messages to the output channel.
+     * Called from an executor thread.
+     */
+    private void drain() {
+
+        try {
+            for (int i = 0; i < DRAIN_LIMIT && this.failure == null; i++) {
+
+                MessageType message = this.queue.poll();
+                if (message == null) {
+                    break;
+                }
+
+                try {
+                    this.outputChannel.send(message, Integer.MAX_VALUE);
+                    this.deliveredCount++;
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    disconnect("interrupted");
+                }
+                catch (IOException e) {
+                    disconnect(e.getClass().getSimpleName() + ":" + e.getMessage());
+                }
+                catch (RuntimeException e) {
+                    disconnect(e.getClass().getSimpleName() + ":" + e.getMessage());
+                }
+            }
+        }
+        finally {
+            this.isScheduled.set(false);
+        }
+
+        // A message may have been added after the last poll but before the task
+        // was marked as idle, or the drain limit may have been reached.
+        if (this.failure == null && !this.queue.isEmpty()) {
+            schedule();
+        }
+    }
+
+    /**
+     * Stops accepting messages and discards the messages still in the queue.
+     *
+     * @param reason
+     */
+    private void disconnect(final String reason) {
+        if (this.failure == null) {
+            this.failure = reason;
+            if (logger.isLoggable(Level.FINE)) {
+                logger.fine(this.log.msg("disconnecting " + this + " - " + reason));
+            }
+        }
+        int discarded = 0;
+        while (this.queue.poll() != null) {
+            discarded++;
+        }
+        this.droppedCount.addAndGet(discarded);
+    }
+
+}
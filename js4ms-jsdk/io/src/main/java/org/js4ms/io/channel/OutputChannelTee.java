@@ -25,7 +25,6 @@ package org.js4ms.io.channel;
 
 import java.io.IOException;
 import java.io.InterruptedIOException;
-import java.util.LinkedHashSet;
 
 import org.js4ms.common.exception.BoundException;
 import org.js4ms.io.MultiIOException;
@@ -37,8 +36,13 @@ import org.js4ms.io.MultiIOException;
  * Messages are delivered to channels in the order the channels were added to the Tee.
  * The Tee does not allow an output channel to be added multiple times -
  * it will ignore any attempt to add the same output channel more than once.
- * A thread should not attempt to add or remove channels while executing in the
- * {@link #send(Object, int)} method as this may result in an exception.
+ * <p>
+ * The attached channels are held in an array that is replaced, never modified, when a
+ * channel is added or removed, so {@link #send(Object, int)} does not take a lock and
+ * a slow channel does not delay other senders or changes to the channel set.
+ * Channels may be added or removed while a send is in progress; the change applies
+ * to subsequent sends. An exception thrown by one channel does not prevent delivery
+ * to the remaining channels.
  * 
  * @param <MessageType>
  * @author Greg Bumgardner (gbumgard)
@@ -49,16 +53,23 @@ public final class OutputChannelTee<MessageType>
     /*-- Member Variables ----------------------------------------------------*/
 
     /**
-     * Collection of output channels that will receive messages sent to this output
-     * channel.
+     * Snapshot of the output channels that will receive messages sent to this
+     * output channel.
      */
-    private final LinkedHashSet<OutputChannel<MessageType>> channels = new LinkedHashSet<OutputChannel<MessageType>>();
+    private volatile OutputChannel<MessageType>[] channels = newArray(0);
 
     /**
-     * Monitor object used for thread synchronization.
+     * Monitor object used to serialize changes to the channel snapshot.
      */
     private final Object lock = new Object();
 
+    /*-- Static Functions ----------------------------------------------------*/
+
+    @SuppressWarnings("unchecked")
+    private static <MessageType> OutputChannel<MessageType>[] newArray(final int length) {
+        return (OutputChannel<MessageType>[]) new OutputChannel<?>[length];
+    }
+
     /*-- Member Functions ----------------------------------------------------*/
 
     /**
@@ -76,7 +87,7 @@ public final class OutputChannelTee<MessageType>
     @SafeVarargs
 	public OutputChannelTee(final OutputChannel<MessageType>... channels) {
         for (OutputChannel<MessageType> channel : channels) {
-            this.channels.add(channel);
+            add(channel);
         }
     }
 
@@ -87,7 +98,13 @@ public final class OutputChannelTee<MessageType>
      */
     public final void add(OutputChannel<MessageType> channel) {
         synchronized (this.lock) {
-            this.channels.add(channel);
+            OutputChannel<MessageType>[] channels = this.channels;
+            if (indexOf(channels, channel) == -1) {
+                OutputChannel<MessageType>[] newChannels = newArray(channels.length + 1);
+                System.arraycopy(channels, 0, newChannels, 0, channels.length);
+                newChannels[channels.length] = channel;
+                this.channels = newChannels;
+            }
         }
     }
 
@@ -98,10 +115,26 @@ public final class OutputChannelTee<MessageType>
      */
     public final void remove(OutputChannel<MessageType> channel) {
         synchronized (this.lock) {
-            this.channels.remove(channel);
+            OutputChannel<MessageType>[] channels = this.channels;
+            int index = indexOf(channels, channel);
+            if (index != -1) {
+                OutputChannel<MessageType>[] newChannels = newArray(channels.length - 1);
+                System.arraycopy(channels, 0, newChannels, 0, index);
+                System.arraycopy(channels, index + 1, newChannels, index, channels.length - index - 1);
+                this.channels = newChannels;
+            }
         }
     }
 
+    private static int indexOf(final OutputChannel<?>[] channels, final OutputChannel<?> channel) {
+        for (int i = 0; i < channels.length; i++) {
+            if (channels[i].equals(channel)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
     /**
      * Indicates whether there are any output channel attached to the Tee.
      * 
@@ -110,47 +143,61 @@ public final class OutputChannelTee<MessageType>
      *         indicates that one or more channels are currently attached.
      */
     public final boolean isEmpty() {
-        synchronized (this.lock) {
-            return this.channels.isEmpty();
-        }
+        return this.channels.length == 0;
+    }
+
+    /**
+     * @return The number of output channels currently attached to the Tee.
+     */
+    public final int size() {
+        return this.channels.length;
     }
 
     @Override
     public final void close() throws IOException, InterruptedException {
+        OutputChannel<MessageType>[] channels;
         synchronized (this.lock) {
-            MultiIOException me = new MultiIOException();
-            for (OutputChannel<MessageType> channel : this.channels) {
-                try {
-                    channel.close();
-                }
-                catch (IOException e) {
-                    me.add(new BoundException(channel, e));
-                }
+            channels = this.channels;
+            this.channels = newArray(0);
+        }
+        MultiIOException me = new MultiIOException();
+        for (OutputChannel<MessageType> channel : channels) {
+            try {
+                channel.close();
+            }
+            catch (IOException e) {
+                me.add(new BoundException(channel, e));
             }
-            // Throws the multi-exception if an IOException was stored in it
-            me.rethrow();
-            this.channels.clear();
         }
+        // Throws the multi-exception if an IOException was stored in it
+        me.rethrow();
     }
 
     @Override
     public final void send(final MessageType message, final int milliseconds) throws IOException,
                                                                              InterruptedIOException,
                                                                              InterruptedException {
-        synchronized (this.lock) {
-            MultiIOException me = new MultiIOException();
-            for (OutputChannel<MessageType> channel : this.channels) {
-                try {
-                    channel.send(message, milliseconds);
+        MultiIOException me = null;
+        for (OutputChannel<MessageType> channel : this.channels) {
+            try {
+                channel.send(message, milliseconds);
+            }
+            catch (IOException e) {
+                if (me == null) {
+                    me = new MultiIOException();
                 }
-                catch (IOException e) {
-                    me.add(new BoundException(channel, e));
+                me.add(new BoundException(channel, e));
+            }
+            catch (RuntimeException e) {
+                if (me == null) {
+                    me = new MultiIOException();
                 }
+                me.add(new BoundException(channel, e));
             }
-            // Throws the multi-exception if an IOException was stored in it
-            me.rethrow();
         }
-
+        if (me != null) {
+            throw me;
+        }
     }
 
 }
@@ -35,6 +35,7 @@ import java.util.logging.Logger;
 
 import org.js4ms.common.util.logging.LoggableBase;
 import org.js4ms.common.util.logging.Logging;
+import org.js4ms.common.util.net.InternedAddress;
 
 
 /**
@@ -144,12 +145,21 @@ public final class UdpDatagram
 
     byte[] destinationAddress = null;
 
+    InternedAddress sourceAddressKey = null;
+
+    InternedAddress destinationAddressKey = null;
+
     int sourcePort;
 
     int destinationPort;
 
     ByteBuffer payload;
 
+    /**
+     * The buffer acquired by the receiving endpoint, from which the payload was sliced.
+     */
+    ByteBuffer receiveBuffer = null;
+
     /*-- Member Functions ---------------------------------------------------*/
 
     /**
@@ -314,6 +324,45 @@ public final class UdpDatagram
         }
     }
 
+    /**
+     * Constructs a datagram from interned addresses. Address byte arrays and
+     * {@link InetAddress} objects are not constructed unless requested.
+     * 
+     * @param sourceAddressKey
+     * @param sourcePort
+     * @param destinationAddressKey
+     * @param destinationPort
+     * @param payload
+     */
+    public UdpDatagram(final InternedAddress sourceAddressKey,
+                       final int sourcePort,
+                       final InternedAddress destinationAddressKey,
+                       final int destinationPort,
+                       final ByteBuffer payload) {
+
+        if (logger.isLoggable(Level.FINER)) {
+            logger.finer(this.log.entry(
+                                        "UdpDatagram.UdpDatagram",
+                                        sourceAddressKey,
+                                        sourcePort,
+                                        destinationAddressKey,
+                                        destinationPort,
+                                        payload));
+        }
+
+        if (sourceAddressKey.isIPv4() != destinationAddressKey.isIPv4()) {
+            throw new IllegalArgumentException("invalid address specified - all addresses must have the same length (must be IPv4 or IPv6)");
+        }
+
+        this.sourceAddressKey = sourceAddressKey;
+        this.sourcePort = sourcePort;
+
+        this.destinationAddressKey = destinationAddressKey;
+        this.destinationPort = destinationPort;
+
+        this.payload = payload.slice();
+    }
+
     @Override
     public Logger getLogger() {
         return logger;
@@ -333,8 +382,8 @@ public final class UdpDatagram
     private void logState(final Logger logger, final Level level) {
         logger.log(level,this.log.msg(": source=" + Logging.address(getSourceAddress()) + ":" + getSourcePort()));
         logger.log(level,this.log.msg(": destination=" + Logging.address(getDestinationAddress()) + ":" + getDestinationPort()));
-        logger.log(level,this.log.msg(": payload buffer=" + this.payload.array() +
-                                 " offset=" + this.payload.arrayOffset() +
+        logger.log(level,this.log.msg(": payload buffer=" + (this.payload.hasArray() ? this.payload.array() : "direct") +
+                                 " offset=" + (this.payload.hasArray() ? this.payload.arrayOffset() : 0) +
                                  " limit=" + this.payload.limit()));
     }
 
@@ -354,8 +403,18 @@ public final class UdpDatagram
 
     /**
      * Constructs a DatagramPacket bound the UdpPacket payload buffer.
+     * A payload held in a direct buffer is copied since a DatagramPacket requires an array.
      */
     public DatagramPacket constructDatagramPacket() {
+        if (!this.payload.hasArray()) {
+            byte[] bytes = new byte[this.payload.limit()];
+            ((ByteBuffer)this.payload.duplicate().rewind()).get(bytes);
+            return new DatagramPacket(bytes,
+                                      0,
+                                      bytes.length,
+                                      getDestinationInetAddress(),
+                                      getDestinationPort());
+        }
         return new DatagramPacket(this.payload.array(),
                                   this.payload.arrayOffset(),
                                   this.payload.limit(),
@@ -367,21 +426,29 @@ public final class UdpDatagram
      * @return
      */
     public byte[] getSourceAddress() {
+        if (this.sourceAddress == null) {
+            this.sourceAddress = this.sourceAddressKey.getAddress();
+        }
         return this.sourceAddress.clone();
     }
 
+    /**
+     * Returns the interned source address.
+     * Suitable for use as a hash key on the data path.
+     */
+    public InternedAddress getSourceAddressKey() {
+        if (this.sourceAddressKey == null) {
+            this.sourceAddressKey = InternedAddress.get(this.sourceAddress);
+        }
+        return this.sourceAddressKey;
+    }
+
     /**
      * @return
      */
     public InetAddress getSourceInetAddress() {
         if (this.sourceSocketAddress == null) {
-            try {
-                this.sourceSocketAddress = new InetSocketAddress(InetAddress.getByAddress(this.sourceAddress), this.sourcePort);
-            }
-            catch (UnknownHostException e) {
-                // Only thrown for invalid address length
-                throw new Error(e);
-            }
+            return getSourceAddressKey().getInetAddress();
         }
         return this.sourceSocketAddress.getAddress();
     }
@@ -391,13 +458,7 @@ public final class UdpDatagram
      */
     public InetSocketAddress getSourceSocketAddress() {
         if (this.sourceSocketAddress == null) {
-            try {
-                this.sourceSocketAddress = new InetSocketAddress(InetAddress.getByAddress(this.sourceAddress), this.sourcePort);
-            }
-            catch (UnknownHostException e) {
-                // Only thrown for invalid address length
-                throw new Error(e);
-            }
+            this.sourceSocketAddress = new InetSocketAddress(getSourceAddressKey().getInetAddress(), this.sourcePort);
         }
         return this.sourceSocketAddress;
     }
@@ -414,6 +475,7 @@ public final class UdpDatagram
 
         this.sourceSocketAddress = new InetSocketAddress(sourceInetAddress, sourcePort);
         this.sourceAddress = sourceInetAddress.getAddress();
+        this.sourceAddressKey = null;
         this.sourcePort = sourcePort;
     }
 
@@ -436,6 +498,7 @@ public final class UdpDatagram
             }
         }
         this.sourceAddress = sourceAddress.clone();
+        this.sourceAddressKey = null;
         this.sourcePort = sourcePort;
     }
 
@@ -450,21 +513,29 @@ public final class UdpDatagram
      * @return
      */
     public byte[] getDestinationAddress() {
+        if (this.destinationAddress == null) {
+            this.destinationAddress = this.destinationAddressKey.getAddress();
+        }
         return this.destinationAddress.clone();
     }
 
+    /**
+     * Returns the interned destination address.
+     * Suitable for use as a hash key on the data path.
+     */
+    public InternedAddress getDestinationAddressKey() {
+        if (this.destinationAddressKey == null) {
+            this.destinationAddressKey = InternedAddress.get(this.destinationAddress);
+        }
+        return this.destinationAddressKey;
+    }
+
     /**
      * @return
      */
     public InetAddress getDestinationInetAddress() {
         if (this.destinationSocketAddress == null) {
-            try {
-                this.destinationSocketAddress = new InetSocketAddress(InetAddress.getByAddress(this.destinationAddress),
-                                                                      this.destinationPort);
-            }
-            catch (UnknownHostException e) {
-                throw new Error(e);
-            }
+            return getDestinationAddressKey().getInetAddress();
         }
         return this.destinationSocketAddress.getAddress();
     }
@@ -474,13 +545,8 @@ public final class UdpDatagram
      */
     public InetSocketAddress getDestinationSocketAddress() {
         if (this.destinationSocketAddress == null) {
-            try {
-                this.destinationSocketAddress = new InetSocketAddress(InetAddress.getByAddress(this.destinationAddress),
-                                                                      this.destinationPort);
-            }
-            catch (UnknownHostException e) {
-                throw new Error(e);
-            }
+            this.destinationSocketAddress = new InetSocketAddress(getDestinationAddressKey().getInetAddress(),
+                                                                  this.destinationPort);
         }
         return this.destinationSocketAddress;
     }
@@ -496,6 +562,7 @@ public final class UdpDatagram
 
         this.destinationSocketAddress = destinationAddress;
         this.destinationAddress = this.destinationSocketAddress.getAddress().getAddress();
+        this.destinationAddressKey = null;
         this.destinationPort = destinationAddress.getPort();
     }
 
@@ -512,6 +579,7 @@ public final class UdpDatagram
 
         this.destinationSocketAddress = new InetSocketAddress(destinationInetAddress, destinationPort);
         this.destinationAddress = this.destinationSocketAddress.getAddress().getAddress();
+        this.destinationAddressKey = null;
         this.destinationPort = destinationPort;
     }
 
@@ -534,6 +602,7 @@ public final class UdpDatagram
             }
         }
         this.destinationAddress = destinationAddress.clone();
+        this.destinationAddressKey = null;
         this.destinationPort = destinationPort;
     }
 
@@ -567,6 +636,8 @@ public final class UdpDatagram
         checkAddresses(sourceAddress, destinationAddress);
         this.sourceAddress = sourceAddress;
         this.destinationAddress = destinationAddress;
+        this.sourceAddressKey = null;
+        this.destinationAddressKey = null;
         this.sourcePort = sourcePort;
         this.destinationPort = destinationPort;
     }
@@ -23,6 +23,7 @@ package org.js4ms.io.net;
  */
 
 
+import java.io.IOException;
 import java.net.InetSocketAddress;
 
 import org.js4ms.io.channel.DuplexChannel;
@@ -43,4 +44,24 @@ public interface UdpEndpoint
 
     InetSocketAddress getRemoteSocketAddress();
 
+    /**
+     * Receives one or more datagrams.
+     * 
+     * @param datagrams
+     *            The array that will receive the datagrams.
+     * @param milliseconds
+     *            The amount of time to wait for the first datagram to arrive.
+     * @return The number of datagrams stored in the array.
+     * @throws IOException
+     */
+    int receive(UdpDatagram[] datagrams, int milliseconds) throws IOException, InterruptedException;
+
+    /**
+     * Indicates that a received datagram is no longer in use so that its payload
+     * buffer may be reused.
+     * 
+     * @param datagram
+     */
+    void release(UdpDatagram datagram);
+
 }
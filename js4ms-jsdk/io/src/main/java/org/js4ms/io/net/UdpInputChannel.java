@@ -59,6 +59,32 @@ public final class UdpInputChannel
         return endpoint.receive(milliseconds);
     }
 
+    /**
+     * Receives up to <code>datagrams.length</code> datagrams from the endpoint.
+     * See {@link UdpEndpoint#receive(UdpDatagram[], int)}.
+     * 
+     * @param datagrams
+     *            The array that will receive the datagrams.
+     * @param milliseconds
+     *            The amount of time to wait for the first datagram to arrive.
+     * @return The number of datagrams stored in the array.
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public final int receive(final UdpDatagram[] datagrams, final int milliseconds) throws IOException, InterruptedException {
+        return endpoint.receive(datagrams, milliseconds);
+    }
+
+    /**
+     * Returns the payload buffer of a received datagram to the endpoint.
+     * See {@link UdpEndpoint#release(UdpDatagram)}.
+     * 
+     * @param datagram
+     */
+    public final void release(final UdpDatagram datagram) {
+        endpoint.release(datagram);
+    }
+
     /**
      * Closes this channel. This implementation does nothing.
      * Call { @link UdpEndpoint#close() } to close the endpoint.
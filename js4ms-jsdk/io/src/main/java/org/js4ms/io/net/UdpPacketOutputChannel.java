@@ -82,9 +82,16 @@ public class UdpPacketOutputChannel
     public void send(final ByteBuffer packet, final int milliseconds) throws IOException, InterruptedIOException, InterruptedException {
 
         try {
-            this.socket.send(new DatagramPacket(packet.array(),
-                                                packet.arrayOffset(),
-                                                packet.limit()));
+            if (packet.hasArray()) {
+                this.socket.send(new DatagramPacket(packet.array(),
+                                                    packet.arrayOffset(),
+                                                    packet.limit()));
+            }
+            else {
+                byte[] bytes = new byte[packet.limit()];
+                ((ByteBuffer)packet.duplicate().rewind()).get(bytes);
+                this.socket.send(new DatagramPacket(bytes, 0, bytes.length));
+            }
         }
         catch (IOException e) {
             logger.finer(log.msg("attempt to send packet failed with exception: " + e.getClass().getSimpleName() + ": "
@@ -24,29 +24,63 @@ package org.js4ms.io.net;
 
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
 import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.js4ms.common.util.logging.Logging;
+import org.js4ms.common.util.pool.BufferAllocator;
+import org.js4ms.common.util.pool.ByteBufferPool;
 
 
 /**
- * A {@link UdpEndpoint} implementation that uses a DatagramChannel to provide transport.
+ * A {@link UdpEndpoint} implementation that uses a DatagramSocket or DatagramChannel to
+ * provide transport.
+ * <p>
+ * In the default {@link ReceiveMode#SOCKET} mode each call to {@link #receive(int)}
+ * allocates a new buffer and reads a single datagram from a blocking socket.
+ * In {@link ReceiveMode#CHANNEL} mode the endpoint reads from a non-blocking
+ * DatagramChannel into buffers taken from a {@link BufferAllocator};
+ * {@link #receive(UdpDatagram[], int)} drains as many queued datagrams as will fit
+ * in the array each time the channel becomes readable, and {@link #release(UdpDatagram)}
+ * returns a datagram buffer to the pool once the datagram is no longer referenced.
  * 
  * @author Gregory Bumgardner (gbumgard)
  */
 public final class UdpSocketEndpoint
                 implements UdpEndpoint {
 
+    /*-- Inner Classes ------------------------------------------------------*/
+
+    /**
+     * Selects the mechanism used to receive datagrams.
+     */
+    public enum ReceiveMode {
+        /** Blocking DatagramSocket receive with a new buffer per datagram. */
+        SOCKET,
+        /** Non-blocking DatagramChannel receive into pooled buffers. */
+        CHANNEL
+    }
+
     /*-- Static Variables ---------------------------------------------------*/
 
     public static final Logger logger = Logger.getLogger(UdpSocketEndpoint.class.getName());
 
+    // TODO max size really is 65507 for UDP over IP
+    public static final int MAX_DATAGRAM_SIZE = 8192;
+
     /*-- Member Variables ---------------------------------------------------*/
 
     protected final Object receiveLock = new Object();
@@ -57,6 +91,25 @@ public final class UdpSocketEndpoint
 
     protected InetSocketAddress localHostBinding;
 
+    protected final ReceiveMode receiveMode;
+
+    /**
+     * Channel used to receive datagrams in {@link ReceiveMode#CHANNEL} mode.
+     */
+    protected final DatagramChannel channel;
+
+    protected final Selector selector;
+
+    protected final Object sendLock = new Object();
+
+    /**
+     * Selector used to wait until the channel can accept a datagram when the
+     * channel send buffer is full. Opened on first use.
+     */
+    private volatile Selector sendSelector = null;
+
+    protected final BufferAllocator bufferPool;
+
     /*-- Member Functions ---------------------------------------------------*/
 
     /**
@@ -69,10 +122,23 @@ public final class UdpSocketEndpoint
         }
         this.socket = socket;
         this.localHostBinding = (InetSocketAddress) this.socket.getLocalSocketAddress();
+        this.receiveMode = ReceiveMode.SOCKET;
+        this.channel = null;
+        this.selector = null;
+        this.bufferPool = null;
     }
 
     public UdpSocketEndpoint(final int port) throws IOException {
-        this(new InetSocketAddress(port));
+        this(port, ReceiveMode.SOCKET);
+    }
+
+    /**
+     * @param port
+     * @param receiveMode
+     * @throws IOException
+     */
+    public UdpSocketEndpoint(final int port, final ReceiveMode receiveMode) throws IOException {
+        this(new InetSocketAddress(port), receiveMode);
         this.localHostBinding = (InetSocketAddress) this.socket.getLocalSocketAddress();
     }
 
@@ -81,16 +147,90 @@ public final class UdpSocketEndpoint
      * @throws IOException
      */
     public UdpSocketEndpoint(final InetSocketAddress localHostBinding) throws IOException {
+        this(localHostBinding, ReceiveMode.SOCKET);
+    }
+
+    /**
+     * @param localHostBinding
+     * @param receiveMode
+     * @throws IOException
+     */
+    public UdpSocketEndpoint(final InetSocketAddress localHostBinding, final ReceiveMode receiveMode) throws IOException {
+        this(localHostBinding, receiveMode, ByteBufferPool.DEFAULT_MAX_RETAINED);
+    }
+
+    /**
+     * @param localHostBinding
+     * @param receiveMode
+     * @param maxPooledBuffers
+     *            The maximum number of receive buffers retained for reuse in
+     *            {@link ReceiveMode#CHANNEL} mode.
+     * @throws IOException
+     */
+    public UdpSocketEndpoint(final InetSocketAddress localHostBinding,
+                             final ReceiveMode receiveMode,
+                             final int maxPooledBuffers) throws IOException {
+        this(localHostBinding,
+             receiveMode,
+             receiveMode == ReceiveMode.CHANNEL ? new ByteBufferPool(MAX_DATAGRAM_SIZE, maxPooledBuffers) : null);
+    }
+
+    /**
+     * @param localHostBinding
+     * @param receiveMode
+     * @param bufferAllocator
+     *            The source of receive buffers in {@link ReceiveMode#CHANNEL} mode.
+     *            The allocator buffer size must be at least {@link #MAX_DATAGRAM_SIZE}.
+     *            Ignored in {@link ReceiveMode#SOCKET} mode.
+     * @throws IOException
+     */
+    public UdpSocketEndpoint(final InetSocketAddress localHostBinding,
+                             final ReceiveMode receiveMode,
+                             final BufferAllocator bufferAllocator) throws IOException {
 
         if (logger.isLoggable(Level.FINER)) {
-            logger.finer(Logging.entering(ObjectId, "UdpSocketEndpoint.UdpSocketEndpoint", Logging.address(localHostBinding)));
+            logger.finer(Logging.entering(ObjectId, "UdpSocketEndpoint.UdpSocketEndpoint", Logging.address(localHostBinding),
+                                          receiveMode, bufferAllocator));
+        }
+
+        if (receiveMode == ReceiveMode.CHANNEL && bufferAllocator == null) {
+            throw new IllegalArgumentException("a buffer allocator is required in channel receive mode");
         }
 
-        this.socket = new DatagramSocket(localHostBinding);
+        this.receiveMode = receiveMode;
+
+        if (receiveMode == ReceiveMode.CHANNEL) {
+            this.channel = DatagramChannel.open();
+            try {
+                this.channel.socket().bind(localHostBinding);
+                this.channel.configureBlocking(false);
+                this.selector = Selector.open();
+                this.channel.register(this.selector, SelectionKey.OP_READ);
+            }
+            catch (IOException e) {
+                this.channel.close();
+                throw e;
+            }
+            this.socket = this.channel.socket();
+            this.bufferPool = bufferAllocator;
+        }
+        else {
+            this.channel = null;
+            this.selector = null;
+            this.bufferPool = null;
+            this.socket = new DatagramSocket(localHostBinding);
+        }
 
         this.localHostBinding = localHostBinding;
     }
 
+    /**
+     * @return The mechanism used to receive datagrams.
+     */
+    public ReceiveMode getReceiveMode() {
+        return this.receiveMode;
+    }
+
     /**
      * Connects to the remote host address to eliminate the address security check
      * that occurs for each channel I/O operation when a channel is not connected.
@@ -139,6 +279,16 @@ public final class UdpSocketEndpoint
         }
 
         this.socket.close();
+
+        if (this.selector != null) {
+            // Wakes any thread blocked in select()
+            this.selector.close();
+        }
+
+        Selector sendSelector = this.sendSelector;
+        if (sendSelector != null) {
+            sendSelector.close();
+        }
     }
 
     /**
@@ -160,8 +310,13 @@ public final class UdpSocketEndpoint
             logger.finer(Logging.entering(ObjectId, "UdpSocketEndpoint.receive", milliseconds));
         }
 
-        // TODO max size really is 65507 for UDP over IP
-        byte[] buffer = new byte[8192];
+        if (this.receiveMode == ReceiveMode.CHANNEL) {
+            UdpDatagram[] datagrams = new UdpDatagram[1];
+            receive(datagrams, milliseconds);
+            return datagrams[0];
+        }
+
+        byte[] buffer = new byte[MAX_DATAGRAM_SIZE];
         if (logger.isLoggable(Level.FINER)) {
             logger.finer(ObjectId + " waiting to receive datagram");
         }
@@ -198,21 +353,157 @@ public final class UdpSocketEndpoint
                         " length=" + packet.getLength());
         }
 
-        /*
-         * Workaround for situation where socket binding address and packet source address
-         * are not of the same type (IPv4 vs. IPv6).
-         * TODO: Fix this in code that constructs the endpoint.
-         */
-        if (!packet.getAddress().getClass().equals(this.localHostBinding.getAddress().getClass())) {
+        return new UdpDatagram((InetSocketAddress) packet.getSocketAddress(),
+                               getLocalHostBinding(packet.getAddress()),
+                               ByteBuffer.wrap(buffer, 0, packet.getLength()));
+    }
+
+    /**
+     * Waits to receive one or more datagrams from the endpoint.
+     * In {@link ReceiveMode#CHANNEL} mode, this method waits until the channel is
+     * readable and then drains up to <code>datagrams.length</code> datagrams from the
+     * channel without blocking. In {@link ReceiveMode#SOCKET} mode, this method
+     * receives a single datagram.
+     * The payload buffer of each datagram returned by this method should be passed to
+     * {@link #release(UdpDatagram)} once the datagram and any objects that reference its
+     * payload are no longer in use.
+     * 
+     * @param datagrams
+     *            The array that will receive the datagrams.
+     * @param milliseconds
+     *            The amount of time to wait for the first datagram to arrive.
+     *            A value of zero results in an infinite timeout.
+     * @return The number of datagrams stored in the array (at least one).
+     * @throws IOException
+     *             The receive operation failed because there was an IO error,
+     *             the receive was interrupted or the endpoint was closed.
+     */
+    @Override
+    public final int receive(final UdpDatagram[] datagrams, final int milliseconds) throws IOException {
+
+        if (logger.isLoggable(Level.FINER)) {
+            logger.finer(Logging.entering(ObjectId, "UdpSocketEndpoint.receive", datagrams.length, milliseconds));
+        }
+
+        if (this.receiveMode != ReceiveMode.CHANNEL) {
+            datagrams[0] = receive(milliseconds);
+            return 1;
+        }
+
+        long deadline = milliseconds == 0 ? 0 : System.currentTimeMillis() + milliseconds;
+
+        synchronized (this.receiveLock) {
+
+            try {
+                while (true) {
+
+                    // Drain whatever is already queued before waiting on the selector
+                    int count = 0;
+                    while (count < datagrams.length) {
+                        ByteBuffer buffer = this.bufferPool.acquire();
+                        InetSocketAddress sourceAddress = (InetSocketAddress) this.channel.receive(buffer);
+                        if (sourceAddress == null) {
+                            this.bufferPool.release(buffer);
+                            break;
+                        }
+                        buffer.flip();
+                        UdpDatagram datagram = new UdpDatagram(sourceAddress,
+                                                               getLocalHostBinding(sourceAddress.getAddress()),
+                                                               buffer);
+                        datagram.receiveBuffer = buffer;
+                        datagrams[count++] = datagram;
+                    }
+
+                    if (count > 0) {
+                        if (logger.isLoggable(Level.FINER)) {
+                            logger.finer(ObjectId + " received " + count + " datagram(s)");
+                        }
+                        return count;
+                    }
+
+                    long timeout = 0;
+                    if (deadline != 0) {
+                        timeout = deadline - System.currentTimeMillis();
+                        if (timeout <= 0) {
+                            throw new SocketTimeoutException("Receive timed out");
+                        }
+                    }
+
+                    if (logger.isLoggable(Level.FINER)) {
+                        logger.finer(ObjectId + " waiting to receive datagram");
+                    }
+
+                    this.selector.select(timeout);
+                    this.selector.selectedKeys().clear();
+
+                    if (Thread.currentThread().isInterrupted()) {
+                        throw new InterruptedIOException("receive interrupted");
+                    }
+
+                    if (!this.channel.isOpen()) {
+                        throw new SocketException("Socket closed");
+                    }
+                }
+            }
+            catch (ClosedChannelException e) {
+                throw new SocketException("Socket closed");
+            }
+            catch (ClosedSelectorException e) {
+                throw new SocketException("Socket closed");
+            }
+            catch (IOException e) {
+                if (!(e instanceof InterruptedIOException)) {
+                    logger.warning(ObjectId + " channel receive failed with an IO exception - " + e.getClass().getSimpleName()
+                                   + ":" + e.getMessage());
+                }
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Returns the payload buffer of a datagram obtained from this endpoint to the
+     * receive buffer pool. The datagram and any objects that reference its payload
+     * must not be used after this method is called.
+     * This method does nothing in {@link ReceiveMode#SOCKET} mode.
+     * 
+     * @param datagram
+     *            A datagram returned by one of the receive methods.
+     */
+    @Override
+    public final void release(final UdpDatagram datagram) {
+        if (this.bufferPool != null && datagram != null && datagram.receiveBuffer != null) {
+            ByteBuffer buffer = datagram.receiveBuffer;
+            datagram.receiveBuffer = null;
+            this.bufferPool.release(buffer);
+        }
+    }
+
+    /**
+     * @return The allocator used to supply receive buffers or <code>null</code> if the
+     *         endpoint uses {@link ReceiveMode#SOCKET} mode.
+     */
+    public final BufferAllocator getBufferPool() {
+        return this.bufferPool;
+    }
+
+    /**
+     * Workaround for situation where socket binding address and packet source address
+     * are not of the same type (IPv4 vs. IPv6).
+     * TODO: Fix this in code that constructs the endpoint.
+     * 
+     * @param sourceAddress
+     * @return
+     * @throws IOException
+     */
+    private InetSocketAddress getLocalHostBinding(final InetAddress sourceAddress) throws IOException {
+        if (!sourceAddress.getClass().equals(this.localHostBinding.getAddress().getClass())) {
             if (this.localHostBinding.getAddress().isAnyLocalAddress()) {
-                this.localHostBinding = new InetSocketAddress(InetAddress.getByAddress(new byte[packet.getAddress().getAddress().length]),
+                this.localHostBinding = new InetSocketAddress(InetAddress.getByAddress(new byte[sourceAddress.getAddress().length]),
                                                               this.localHostBinding.getPort());
             }
         }
-
-        return new UdpDatagram((InetSocketAddress) packet.getSocketAddress(),
-                               (InetSocketAddress) this.localHostBinding,
-                               ByteBuffer.wrap(buffer, 0, packet.getLength()));
+        return this.localHostBinding;
     }
 
     /**
@@ -223,10 +514,11 @@ public final class UdpSocketEndpoint
      *            The UdpDatagram whose payload will be sent.
      * @param milliseconds
      *            The amount of time to allow for the send operation to complete.
-     *            Ignored in this class.
+     *            Only used in {@link ReceiveMode#CHANNEL} mode, where the send waits
+     *            for room in the channel send buffer. A value of 0 waits indefinitely.
      * @throws IOException
      *             The send operation failed because there was an IO error, the send was
-     *             interrupted or the endpoint was closed.
+     *             interrupted or timed out, or the endpoint was closed.
      */
     @Override
     public final void send(final UdpDatagram datagram, final int milliseconds) throws IOException {
@@ -237,13 +529,21 @@ public final class UdpSocketEndpoint
 
         ByteBuffer payload = datagram.getPayload();
 
-        DatagramPacket packet = new DatagramPacket(payload.array(),
-                                                   payload.arrayOffset(),
-                                                   payload.limit(),
-                                                   datagram.getDestinationSocketAddress());
+        if (this.channel != null) {
+            if (logger.isLoggable(Level.FINE)) {
+                logger.fine(ObjectId + " sending datagram to " + Logging.address(datagram.getDestinationSocketAddress())
+                            + " length=" + payload.limit());
+            }
+            if (this.channel.send(payload, datagram.getDestinationSocketAddress()) == 0) {
+                send(payload, datagram.getDestinationSocketAddress(), milliseconds);
+            }
+            return;
+        }
+
+        DatagramPacket packet = datagram.constructDatagramPacket();
 
         if (logger.isLoggable(Level.FINER)) {
-            logger.finer(ObjectId + " datagram payload buffer=" + payload.array() + " offset=" + payload.arrayOffset() + " limit="
+            logger.finer(ObjectId + " datagram payload buffer=" + (payload.hasArray() ? payload.array() : "direct") + " limit="
                          + payload.limit() + " remaining=" + payload.remaining());
             logger.fine(ObjectId + " sending DatagramPacket to " + Logging.address(datagram.getDestinationSocketAddress())
                         + " length=" + payload.limit());
@@ -252,6 +552,73 @@ public final class UdpSocketEndpoint
         this.socket.send(packet);
     }
 
+    /**
+     * Waits until the channel send buffer has room for the payload and sends it.
+     * 
+     * @param payload
+     * @param destinationAddress
+     * @param milliseconds
+     *            The amount of time to wait. A value of 0 waits indefinitely.
+     * @throws IOException
+     *             The send operation failed because there was an IO error, the send was
+     *             interrupted or timed out, or the endpoint was closed.
+     */
+    private void send(final ByteBuffer payload,
+                      final InetSocketAddress destinationAddress,
+                      final int milliseconds) throws IOException {
+
+        long deadline = milliseconds == 0 ? 0 : System.currentTimeMillis() + milliseconds;
+
+        synchronized (this.sendLock) {
+
+            try {
+                if (this.sendSelector == null) {
+                    Selector sendSelector = Selector.open();
+                    try {
+                        this.channel.register(sendSelector, SelectionKey.OP_WRITE);
+                    }
+                    catch (IOException e) {
+                        sendSelector.close();
+                        throw e;
+                    }
+                    this.sendSelector = sendSelector;
+                }
+
+                while (this.channel.send(payload, destinationAddress) == 0) {
+
+                    long timeout = 0;
+                    if (deadline != 0) {
+                        timeout = deadline - System.currentTimeMillis();
+                        if (timeout <= 0) {
+                            throw new SocketTimeoutException("Send timed out");
+                        }
+                    }
+
+                    if (logger.isLoggable(Level.FINER)) {
+                        logger.finer(ObjectId + " waiting for room in the channel send buffer");
+                    }
+
+                    this.sendSelector.select(timeout);
+                    this.sendSelector.selectedKeys().clear();
+
+                    if (Thread.currentThread().isInterrupted()) {
+                        throw new InterruptedIOException("send interrupted");
+                    }
+
+                    if (!this.channel.isOpen()) {
+                        throw new SocketException("Socket closed");
+                    }
+                }
+            }
+            catch (ClosedChannelException e) {
+                throw new SocketException("Socket closed");
+            }
+            catch (ClosedSelectorException e) {
+                throw new SocketException("Socket closed");
+            }
+        }
+    }
+
     /**
      * @return
      */
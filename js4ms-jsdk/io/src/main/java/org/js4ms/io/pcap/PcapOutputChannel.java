@@ -0,0 +1,83 @@
+package org.js4ms.io.pcap;
+
+/*
+ * #%L
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * PcapOutputChannel.java [org.js4ms.jsdk:io]
+ * %%
+ * Copyright (C) 2009 - 2014 Cisco Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.js4ms.io.channel.MessageTransform;
+import org.js4ms.io.channel.OutputChannel;
+
+
+
+/**
+ * An output channel that records each message sent to it in a capture file.
+ * Messages are converted into IP packets by a {@link MessageTransform} and written
+ * to a {@link PcapWriter}. The channel is typically attached to an existing
+ * output channel using an {@link org.js4ms.io.channel.OutputChannelTee}.
+ * 
+ * @param <MessageType>
+ *            The message type.
+ * @author Gregory Bumgardner (gbumgard)
+ */
+public final class PcapOutputChannel<MessageType>
+                implements OutputChannel<MessageType> {
+
+    /*-- Member Variables ----------------------------------------------------*/
+
+    private final PcapWriter writer;
+
+    private final MessageTransform<MessageType, ByteBuffer> encoder;
+
+    /*-- Member Functions ----------------------------------------------------*/
+
+    /**
+     * @param writer
+     *            The writer that will receive the encoded messages. The writer may be
+     *            shared by several channels.
+     * @param encoder
+     *            Converts each message into a buffer containing an IP packet.
+     */
+    public PcapOutputChannel(final PcapWriter writer, final MessageTransform<MessageType, ByteBuffer> encoder) {
+        this.writer = writer;
+        this.encoder = encoder;
+    }
+
+    @Override
+    public void send(final MessageType message, final int milliseconds) throws IOException {
+        ByteBuffer packet = this.encoder.transform(message);
+        if (packet != null) {
+            this.writer.write(packet);
+        }
+    }
+
+    /**
+     * Flushes the capture file.
+     * The writer is not closed since it may be shared by other channels.
+     */
+    @Override
+    public void close() throws IOException {
+        this.writer.flush();
+    }
+}
@@ -0,0 +1,410 @@
+package org.js4ms.io.pcap;
+
+/*
+ * #%L
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * PcapReader.java [org.js4ms.jsdk:io]
+ * %%
+ * Copyright (C) 2009 - 2014 Cisco Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.js4ms.common.util.logging.LoggableBase;
+
+
+
+/**
+ * Reads IP packets from a capture file.
+ * The reader accepts libpcap files with microsecond or nanosecond timestamps and
+ * pcapng files containing enhanced or simple packet blocks, in either byte order.
+ * Records captured on raw IP, Ethernet (including 802.1Q tagged frames) and
+ * Linux "cooked" interfaces are supported; records that do not carry an
+ * IPv4 or IPv6 packet are skipped.
+ * 
+ * @author Gregory Bumgardner (gbumgard)
+ */
+public final class PcapReader
+                extends LoggableBase {
+
+    /*-- Static Variables ---------------------------------------------------*/
+
+    public static final Logger logger = Logger.getLogger(PcapReader.class.getName());
+
+    public static final int LINKTYPE_ETHERNET = 1;
+
+    public static final int LINKTYPE_RAW = PcapWriter.LINKTYPE_RAW;
+
+    public static final int LINKTYPE_LINUX_SLL = 113;
+
+    public static final int LINKTYPE_IPV4 = 228;
+
+    public static final int LINKTYPE_IPV6 = 229;
+
+    private static final int PCAPNG_SECTION_HEADER = 0x0A0D0D0A;
+
+    private static final int PCAPNG_BYTE_ORDER_MAGIC = 0x1A2B3C4D;
+
+    private static final int PCAPNG_INTERFACE_DESCRIPTION = 1;
+
+    private static final int PCAPNG_SIMPLE_PACKET = 3;
+
+    private static final int PCAPNG_ENHANCED_PACKET = 6;
+
+    private static final int PCAPNG_IF_TSRESOL = 9;
+
+    /*-- Member Variables ---------------------------------------------------*/
+
+    private final InputStream inputStream;
+
+    private final boolean isPcapNg;
+
+    private ByteOrder byteOrder;
+
+    /**
+     * Link type of each pcapng interface or of the single libpcap interface.
+     */
+    private final ArrayList<Integer> linkTypes = new ArrayList<Integer>();
+
+    /**
+     * Nanoseconds per timestamp unit of each pcapng interface.
+     * Values are negative when the resolution is a power of two.
+     */
+    private final ArrayList<Long> timestampUnits = new ArrayList<Long>();
+
+    private long timestamp;
+
+    private ByteBuffer packet;
+
+    /*-- Member Functions ---------------------------------------------------*/
+
+    /**
+     * @param file
+     *            The capture file.
+     * @throws IOException
+     *             The file could not be opened or is not a capture file.
+     */
+    public PcapReader(final File file) throws IOException {
+        this(new BufferedInputStream(new FileInputStream(file), 65536));
+    }
+
+    /**
+     * @param inputStream
+     *            A stream positioned at the start of a capture.
+     * @throws IOException
+     *             The stream does not contain a supported capture format.
+     */
+    public PcapReader(final InputStream inputStream) throws IOException {
+
+        if (logger.isLoggable(Level.FINER)) {
+            logger.finer(this.log.entry("PcapReader.PcapReader", inputStream));
+        }
+
+        this.inputStream = inputStream;
+
+        ByteBuffer magic = read(4, ByteOrder.BIG_ENDIAN);
+        int value = magic.getInt(0);
+
+        if (value == PCAPNG_SECTION_HEADER) {
+            this.isPcapNg = true;
+            readSectionHeader();
+        }
+        else {
+            this.isPcapNg = false;
+            long unit;
+            if (value == PcapWriter.NANOSECOND_MAGIC || value == PcapWriter.MICROSECOND_MAGIC) {
+                this.byteOrder = ByteOrder.BIG_ENDIAN;
+            }
+            else if (Integer.reverseBytes(value) == PcapWriter.NANOSECOND_MAGIC
+                     || Integer.reverseBytes(value) == PcapWriter.MICROSECOND_MAGIC) {
+                this.byteOrder = ByteOrder.LITTLE_ENDIAN;
+                value = Integer.reverseBytes(value);
+            }
+            else {
+                throw new IOException("unrecognized capture file format");
+            }
+            unit = value == PcapWriter.NANOSECOND_MAGIC ? 1 : 1000;
+            ByteBuffer header = read(20, this.byteOrder);
+            this.linkTypes.add(header.getInt(16) & 0xFFFF);
+            this.timestampUnits.add(unit);
+        }
+    }
+
+    @Override
+    public Logger getLogger() {
+        return logger;
+    }
+
+    /**
+     * Advances to the next IP packet in the capture.
+     * 
+     * @return <code>true</code> if a packet was read or <code>false</code> if
+     *         the end of the capture was reached.
+     * @throws IOException
+     *             The capture could not be read or is malformed.
+     */
+    public boolean next() throws IOException {
+        try {
+            while (true) {
+                boolean isRecord = this.isPcapNg ? readBlock() : readRecord();
+                if (isRecord && this.packet != null) {
+                    return true;
+                }
+            }
+        }
+        catch (EOFException e) {
+            this.packet = null;
+            return false;
+        }
+    }
+
+    /**
+     * @return The timestamp of the current packet in nanoseconds since the epoch.
+     */
+    public long getTimestamp() {
+        return this.timestamp;
+    }
+
+    /**
+     * @return A buffer containing the current packet, starting with the IP header.
+     *         The buffer is not reused by the reader.
+     */
+    public ByteBuffer getPacket() {
+        return this.packet;
+    }
+
+    /**
+     * Closes the underlying stream.
+     * 
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        this.inputStream.close();
+    }
+
+    private boolean readRecord() throws IOException {
+        ByteBuffer header = read(16, this.byteOrder);
+        long seconds = header.getInt(0) & 0xFFFFFFFFL;
+        long fraction = header.getInt(4) & 0xFFFFFFFFL;
+        int capturedLength = header.getInt(8);
+        this.timestamp = seconds * 1000000000L + fraction * this.timestampUnits.get(0);
+        this.packet = extract(this.linkTypes.get(0), read(capturedLength, ByteOrder.BIG_ENDIAN));
+        return true;
+    }
+
+    private void readSectionHeader() throws IOException {
+        ByteBuffer prefix = read(8, ByteOrder.BIG_ENDIAN);
+        int byteOrderMagic = prefix.getInt(4);
+        if (byteOrderMagic == PCAPNG_BYTE_ORDER_MAGIC) {
+            this.byteOrder = ByteOrder.BIG_ENDIAN;
+        }
+        else if (Integer.reverseBytes(byteOrderMagic) == PCAPNG_BYTE_ORDER_MAGIC) {
+            this.byteOrder = ByteOrder.LITTLE_ENDIAN;
+        }
+        else {
+            throw new IOException("invalid pcapng section header");
+        }
+        int blockLength = prefix.order(this.byteOrder).getInt(0);
+        skip(blockLength - 12);
+        this.linkTypes.clear();
+        this.timestampUnits.clear();
+    }
+
+    private boolean readBlock() throws IOException {
+        ByteBuffer prefix = read(4, ByteOrder.BIG_ENDIAN);
+        if (prefix.getInt(0) == PCAPNG_SECTION_HEADER) {
+            readSectionHeader();
+            return false;
+        }
+
+        int blockType = prefix.order(this.byteOrder).getInt(0);
+        int blockLength = read(4, this.byteOrder).getInt(0);
+        if (blockLength < 12 || (blockLength & 3) != 0) {
+            throw new IOException("invalid pcapng block length " + blockLength);
+        }
+
+        ByteBuffer body = read(blockLength - 8, this.byteOrder);
+
+        switch (blockType) {
+            case PCAPNG_INTERFACE_DESCRIPTION:
+                this.linkTypes.add(body.getShort(0) & 0xFFFF);
+                this.timestampUnits.add(getTimestampUnit(body, 8, blockLength - 12));
+                return false;
+
+            case PCAPNG_ENHANCED_PACKET: {
+                int interfaceId = body.getInt(0);
+                long ticks = ((body.getInt(4) & 0xFFFFFFFFL) << 32) | (body.getInt(8) & 0xFFFFFFFFL);
+                int capturedLength = body.getInt(12);
+                this.timestamp = toNanoseconds(ticks, this.timestampUnits.get(interfaceId));
+                this.packet = extract(this.linkTypes.get(interfaceId), copy(body, 20, capturedLength));
+                return true;
+            }
+
+            case PCAPNG_SIMPLE_PACKET: {
+                int originalLength = body.getInt(0);
+                int capturedLength = Math.min(originalLength, blockLength - 16);
+                this.timestamp = 0;
+                this.packet = extract(this.linkTypes.get(0), copy(body, 4, capturedLength));
+                return true;
+            }
+
+            default:
+                return false;
+        }
+    }
+
+    private static long getTimestampUnit(final ByteBuffer body, int offset, final int limit) {
+        while (offset + 4 <= limit) {
+            int code = body.getShort(offset) & 0xFFFF;
+            int length = body.getShort(offset + 2) & 0xFFFF;
+            if (code == 0) {
+                break;
+            }
+            if (code == PCAPNG_IF_TSRESOL && length >= 1) {
+                int resolution = body.get(offset + 4);
+                if ((resolution & 0x80) != 0) {
+                    return -(resolution & 0x7F);
+                }
+                long unit = 1000000000L;
+                for (int i = 0; i < resolution && unit > 0; i++) {
+                    unit /= 10;
+                }
+                return Math.max(unit, 1);
+            }
+            offset += 4 + ((length + 3) & ~3);
+        }
+        // Default resolution is microseconds
+        return 1000;
+    }
+
+    private static long toNanoseconds(final long ticks, final long unit) {
+        if (unit >= 0) {
+            return ticks * unit;
+        }
+        int shift = (int) -unit;
+        long seconds = ticks >>> shift;
+        long fraction = ticks & ((1L << shift) - 1);
+        return seconds * 1000000000L + ((fraction * 1000000000L) >>> shift);
+    }
+
+    /**
+     * Strips the link layer header from a captured frame.
+     * 
+     * @return A buffer positioned at the start of an IP packet or <code>null</code>
+     *         if the frame does not carry an IP packet.
+     */
+    private static ByteBuffer extract(final int linkType, final ByteBuffer frame) {
+        int offset;
+        int etherType;
+        switch (linkType) {
+            case LINKTYPE_RAW:
+            case LINKTYPE_IPV4:
+            case LINKTYPE_IPV6:
+                offset = 0;
+                break;
+
+            case LINKTYPE_ETHERNET:
+                if (frame.limit() < 14) {
+                    return null;
+                }
+                offset = 14;
+                etherType = frame.getShort(12) & 0xFFFF;
+                while (etherType == 0x8100 && frame.limit() >= offset + 4) {
+                    etherType = frame.getShort(offset + 2) & 0xFFFF;
+                    offset += 4;
+                }
+                if (etherType != 0x0800 && etherType != 0x86DD) {
+                    return null;
+                }
+                break;
+
+            case LINKTYPE_LINUX_SLL:
+                if (frame.limit() < 16) {
+                    return null;
+                }
+                offset = 16;
+                etherType = frame.getShort(14) & 0xFFFF;
+                if (etherType != 0x0800 && etherType != 0x86DD) {
+                    return null;
+                }
+                break;
+
+            default:
+                return null;
+        }
+
+        if (frame.limit() <= offset) {
+            return null;
+        }
+        int version = (frame.get(offset) >> 4) & 0xF;
+        if (version != 4 && version != 6) {
+            return null;
+        }
+        frame.position(offset);
+        return frame.slice();
+    }
+
+    private static ByteBuffer copy(final ByteBuffer body, final int offset, final int length) throws IOException {
+        if (length < 0 || offset + length > body.limit()) {
+            throw new IOException("invalid pcapng packet length " + length);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        buffer.put(body.array(), body.arrayOffset() + offset, length);
+        buffer.flip();
+        return buffer;
+    }
+
+    private ByteBuffer read(final int length, final ByteOrder order) throws IOException {
+        if (length < 0) {
+            throw new IOException("invalid record length " + length);
+        }
+        byte[] bytes = new byte[length];
+        int count = 0;
+        while (count < length) {
+            int result = this.inputStream.read(bytes, count, length - count);
+            if (result < 0) {
+                throw new EOFException();
+            }
+            count += result;
+        }
+        return ByteBuffer.wrap(bytes).order(order);
+    }
+
+    private void skip(long count) throws IOException {
+        while (count > 0) {
+            long result = this.inputStream.skip(count);
+            if (result <= 0) {
+                if (this.inputStream.read() < 0) {
+                    throw new EOFException();
+                }
+                result = 1;
+            }
+            count -= result;
+        }
+    }
+}
@@ -0,0 +1,342 @@
+package org.js4ms.io.pcap;
+
+/*
+ * #%L
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * PcapReplayEndpoint.java [org.js4ms.jsdk:io]
+ * %%
+ * Copyright (C) 2009 - 2014 Cisco Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.js4ms.common.util.logging.Logging;
+import org.js4ms.io.net.UdpDatagram;
+import org.js4ms.io.net.UdpEndpoint;
+
+
+
+/**
+ * A {@link UdpEndpoint} that replays UDP datagrams read from a capture file.
+ * The datagrams are loaded when the endpoint is constructed so that replay
+ * is not limited by file access. Datagrams are returned at the rate they were
+ * captured, at a multiple of that rate or as fast as they can be consumed.
+ * Once the capture has been replayed the requested number of times, receive
+ * operations block until the endpoint is closed.
+ * Datagrams sent to the endpoint are discarded.
+ * <p>
+ * Wrap the endpoint in a {@link org.js4ms.io.net.UdpInputChannel} to feed the
+ * captured datagrams to a component that normally reads from a socket.
+ * 
+ * @author Gregory Bumgardner (gbumgard)
+ */
+public final class PcapReplayEndpoint
+                implements UdpEndpoint {
+
+    /*-- Static Variables ---------------------------------------------------*/
+
+    public static final Logger logger = Logger.getLogger(PcapReplayEndpoint.class.getName());
+
+    private static final byte UDP_PROTOCOL = 17;
+
+    /*-- Member Variables ---------------------------------------------------*/
+
+    private final String ObjectId = Logging.identify(this);
+
+    private final ArrayList<UdpDatagram> datagrams = new ArrayList<UdpDatagram>();
+
+    private final ArrayList<Long> timestamps = new ArrayList<Long>();
+
+    private final double rate;
+
+    private final int repeatCount;
+
+    private final Object lock = new Object();
+
+    private int index = 0;
+
+    private int iteration = 0;
+
+    private long startTime = 0;
+
+    private boolean isClosed = false;
+
+    /*-- Member Functions ---------------------------------------------------*/
+
+    /**
+     * Constructs an endpoint that replays all UDP datagrams in a capture file once
+     * at the rate they were captured.
+     * 
+     * @param file
+     *            The capture file.
+     * @throws IOException
+     */
+    public PcapReplayEndpoint(final File file) throws IOException {
+        this(file, 0, 1.0, 1);
+    }
+
+    /**
+     * @param file
+     *            The capture file.
+     * @param port
+     *            If non-zero, only datagrams with this source or destination port are replayed.
+     * @param rate
+     *            The replay speed relative to the capture. A value of <code>1.0</code>
+     *            replays datagrams with their original spacing and a value of zero
+     *            replays datagrams as fast as they are received.
+     * @param repeatCount
+     *            The number of times the capture is replayed. A value of zero
+     *            replays the capture until the endpoint is closed.
+     * @throws IOException
+     *             The capture file could not be read.
+     */
+    public PcapReplayEndpoint(final File file, final int port, final double rate, final int repeatCount) throws IOException {
+
+        if (logger.isLoggable(Level.FINER)) {
+            logger.finer(Logging.entering(ObjectId, "PcapReplayEndpoint.PcapReplayEndpoint", file, port, rate, repeatCount));
+        }
+
+        this.rate = rate;
+        this.repeatCount = repeatCount;
+
+        PcapReader reader = new PcapReader(file);
+        try {
+            while (reader.next()) {
+                UdpDatagram datagram = decode(reader.getPacket());
+                if (datagram != null
+                    && (port == 0 || datagram.getSourcePort() == port || datagram.getDestinationPort() == port)) {
+                    this.datagrams.add(datagram);
+                    this.timestamps.add(reader.getTimestamp());
+                }
+            }
+        }
+        finally {
+            reader.close();
+        }
+
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine(ObjectId + " loaded " + this.datagrams.size() + " datagrams from " + file);
+        }
+    }
+
+    /**
+     * Decodes a UDP datagram carried in an unfragmented IPv4 or IPv6 packet.
+     * 
+     * @param packet
+     *            A buffer containing an IP packet.
+     * @return A datagram whose payload shares the packet buffer or <code>null</code>
+     *         if the packet does not carry a complete UDP datagram.
+     */
+    static UdpDatagram decode(final ByteBuffer packet) {
+        int limit = packet.limit();
+        if (limit < 1) {
+            return null;
+        }
+
+        int version = (packet.get(0) >> 4) & 0xF;
+        int offset;
+        byte[] sourceAddress;
+        byte[] destinationAddress;
+
+        if (version == 4) {
+            if (limit < 20) {
+                return null;
+            }
+            offset = (packet.get(0) & 0xF) * 4;
+            if (packet.get(9) != UDP_PROTOCOL || (packet.getShort(6) & 0x3FFF) != 0) {
+                // Not UDP or a fragment
+                return null;
+            }
+            limit = Math.min(limit, packet.getShort(2) & 0xFFFF);
+            sourceAddress = new byte[4];
+            destinationAddress = new byte[4];
+            copy(packet, 12, sourceAddress);
+            copy(packet, 16, destinationAddress);
+        }
+        else if (version == 6) {
+            if (limit < 40 || packet.get(6) != UDP_PROTOCOL) {
+                return null;
+            }
+            offset = 40;
+            limit = Math.min(limit, offset + (packet.getShort(4) & 0xFFFF));
+            sourceAddress = new byte[16];
+            destinationAddress = new byte[16];
+            copy(packet, 8, sourceAddress);
+            copy(packet, 24, destinationAddress);
+        }
+        else {
+            return null;
+        }
+
+        if (offset + 8 > limit) {
+            return null;
+        }
+
+        int sourcePort = packet.getShort(offset) & 0xFFFF;
+        int destinationPort = packet.getShort(offset + 2) & 0xFFFF;
+        int end = Math.min(limit, offset + (packet.getShort(offset + 4) & 0xFFFF));
+
+        ByteBuffer payload = packet.duplicate();
+        payload.limit(Math.max(end, offset + 8));
+        payload.position(offset + 8);
+
+        return new UdpDatagram(sourceAddress, sourcePort, destinationAddress, destinationPort, payload);
+    }
+
+    private static void copy(final ByteBuffer buffer, final int offset, final byte[] bytes) {
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(offset + i);
+        }
+    }
+
+    /**
+     * @return The number of datagrams loaded from the capture.
+     */
+    public int getDatagramCount() {
+        return this.datagrams.size();
+    }
+
+    @Override
+    public InetSocketAddress getLocalSocketAddress() {
+        return null;
+    }
+
+    @Override
+    public InetSocketAddress getRemoteSocketAddress() {
+        return null;
+    }
+
+    @Override
+    public UdpDatagram receive(final int milliseconds) throws IOException, InterruptedException {
+        UdpDatagram[] datagrams = new UdpDatagram[1];
+        receive(datagrams, milliseconds);
+        return datagrams[0];
+    }
+
+    /**
+     * Returns the next datagrams in the capture.
+     * Each datagram is returned with a new view of its payload so replayed
+     * datagrams may be modified or released by the receiver.
+     * 
+     * @param datagrams
+     *            The array that will receive the datagrams.
+     * @param milliseconds
+     *            Ignored. The call waits until the next datagram is due.
+     * @return The number of datagrams stored in the array (at least one).
+     * @throws InterruptedIOException
+     *             The endpoint was closed.
+     * @throws InterruptedException
+     */
+    @Override
+    public int receive(final UdpDatagram[] datagrams, final int milliseconds) throws IOException, InterruptedException {
+
+        if (logger.isLoggable(Level.FINER)) {
+            logger.finer(Logging.entering(ObjectId, "PcapReplayEndpoint.receive", datagrams.length, milliseconds));
+        }
+
+        synchronized (this.lock) {
+
+            while (!this.isClosed && (this.datagrams.isEmpty() || (this.repeatCount > 0 && this.iteration >= this.repeatCount))) {
+                // Replay is complete - wait for the endpoint to be closed
+                this.lock.wait();
+            }
+
+            if (this.isClosed) {
+                throw new InterruptedIOException("endpoint closed");
+            }
+
+            int count = 0;
+            long firstTimestamp = this.timestamps.get(0);
+
+            if (this.index == 0) {
+                this.startTime = System.nanoTime();
+            }
+
+            while (count < datagrams.length) {
+
+                if (this.rate > 0) {
+                    long due = this.startTime + (long) ((this.timestamps.get(this.index) - firstTimestamp) / this.rate);
+                    long delay = due - System.nanoTime();
+                    if (delay > 0) {
+                        if (count > 0) {
+                            // Return the datagrams that are already due
+                            break;
+                        }
+                        this.lock.wait(delay / 1000000, (int) (delay % 1000000));
+                        if (this.isClosed) {
+                            throw new InterruptedIOException("endpoint closed");
+                        }
+                        continue;
+                    }
+                }
+
+                UdpDatagram datagram = this.datagrams.get(this.index);
+                datagrams[count++] = new UdpDatagram(datagram.getSourceAddress(),
+                                                     datagram.getSourcePort(),
+                                                     datagram.getDestinationAddress(),
+                                                     datagram.getDestinationPort(),
+                                                     datagram.getPayload().duplicate());
+
+                if (++this.index == this.datagrams.size()) {
+                    this.index = 0;
+                    this.iteration++;
+                    break;
+                }
+            }
+
+            return count;
+        }
+    }
+
+    /**
+     * Does nothing since replayed datagram buffers are not pooled.
+     */
+    @Override
+    public void release(final UdpDatagram datagram) {
+    }
+
+    /**
+     * Discards the datagram.
+     */
+    @Override
+    public void send(final UdpDatagram datagram, final int milliseconds) {
+        if (logger.isLoggable(Level.FINEST)) {
+            logger.finest(Logging.entering(ObjectId, "PcapReplayEndpoint.send", datagram, milliseconds));
+        }
+    }
+
+    @Override
+    public void close(final boolean isCloseAll) {
+
+        if (logger.isLoggable(Level.FINER)) {
+            logger.finer(Logging.entering(ObjectId, "PcapReplayEndpoint.close", isCloseAll));
+        }
+
+        synchronized (this.lock) {
+            this.isClosed = true;
+            this.lock.notifyAll();
+        }
+    }
+}
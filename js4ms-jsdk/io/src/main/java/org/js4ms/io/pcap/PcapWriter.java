@@ -0,0 +1,214 @@
+package org.js4ms.io.pcap;
+
+/*
+ * #%L
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * PcapWriter.java [org.js4ms.jsdk:io]
+ * %%
+ * Copyright (C) 2009 - 2014 Cisco Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.js4ms.common.util.logging.LoggableBase;
+
+
+
+/**
+ * Writes packets to a capture file in the libpcap format.
+ * Files use nanosecond timestamps and the raw IP link type so that each record
+ * contains an IPv4 or IPv6 packet starting with the IP header. The files can be
+ * read by {@link PcapReader} and by common packet analysis tools.
+ * <p>
+ * Records may be written by multiple threads.
+ *
+ * @author Gregory Bumgardner (gbumgard)
+ */
+public final class PcapWriter
+                extends LoggableBase {
+
+    /*-- Static Variables ---------------------------------------------------*/
+
+    public static final Logger logger = Logger.getLogger(PcapWriter.class.getName());
+
+    /** Magic number identifying a libpcap file with nanosecond timestamps. */
+    static final int NANOSECOND_MAGIC = 0xA1B23C4D;
+
+    /** Magic number identifying a libpcap file with microsecond timestamps. */
+    static final int MICROSECOND_MAGIC = 0xA1B2C3D4;
+
+    /** Link type for packets that start with an IPv4 or IPv6 header. */
+    public static final int LINKTYPE_RAW = 101;
+
+    public static final int DEFAULT_SNAPSHOT_LENGTH = 65535;
+
+    private static final int FILE_HEADER_LENGTH = 24;
+
+    private static final int RECORD_HEADER_LENGTH = 16;
+
+    /*-- Member Variables ---------------------------------------------------*/
+
+    private final OutputStream outputStream;
+
+    private final int snapshotLength;
+
+    private final ByteBuffer recordHeader = ByteBuffer.allocate(RECORD_HEADER_LENGTH);
+
+    /**
+     * Offset used to convert {@link System#nanoTime()} values into wall-clock time.
+     */
+    private final long epochOffset = System.currentTimeMillis() * 1000000L - System.nanoTime();
+
+    private long recordCount = 0;
+
+    private boolean isClosed = false;
+
+    /*-- Member Functions ---------------------------------------------------*/
+
+    /**
+     * @param file
+     *            The capture file. An existing file is replaced.
+     * @throws IOException
+     */
+    public PcapWriter(final File file) throws IOException {
+        this(new BufferedOutputStream(new FileOutputStream(file), 65536), DEFAULT_SNAPSHOT_LENGTH);
+    }
+
+    /**
+     * @param outputStream
+     *            The stream that will receive the capture.
+     * @param snapshotLength
+     *            The maximum number of bytes captured from each packet.
+     * @throws IOException
+     */
+    public PcapWriter(final OutputStream outputStream, final int snapshotLength) throws IOException {
+
+        if (logger.isLoggable(Level.FINER)) {
+            logger.finer(this.log.entry("PcapWriter.PcapWriter", outputStream, snapshotLength));
+        }
+
+        this.outputStream = outputStream;
+        this.snapshotLength = snapshotLength;
+
+        ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_LENGTH);
+        header.putInt(NANOSECOND_MAGIC);
+        header.putShort((short) 2);
+        header.putShort((short) 4);
+        header.putInt(0);
+        header.putInt(0);
+        header.putInt(snapshotLength);
+        header.putInt(LINKTYPE_RAW);
+        this.outputStream.write(header.array());
+    }
+
+    @Override
+    public Logger getLogger() {
+        return logger;
+    }
+
+    /**
+     * Writes a packet using the current time as the record timestamp.
+     *
+     * @param packet
+     *            A buffer containing an IP packet between its position and limit.
+     *            The position of the buffer is not modified.
+     * @throws IOException
+     */
+    public void write(final ByteBuffer packet) throws IOException {
+        write(this.epochOffset + System.nanoTime(), packet);
+    }
+
+    /**
+     * Writes a packet.
+     *
+     * @param timestamp
+     *            The record timestamp in nanoseconds since the epoch.
+     * @param packet
+     *            A buffer containing an IP packet between its position and limit.
+     *            The position of the buffer is not modified.
+     * @throws IOException
+     */
+    public synchronized void write(final long timestamp, final ByteBuffer packet) throws IOException {
+
+        if (this.isClosed) {
+            throw new IOException("capture file is closed");
+        }
+
+        int length = packet.remaining();
+        int capturedLength = Math.min(length, this.snapshotLength);
+
+        ByteBuffer header = this.recordHeader;
+        header.clear();
+        header.putInt((int) (timestamp / 1000000000L));
+        header.putInt((int) (timestamp % 1000000000L));
+        header.putInt(capturedLength);
+        header.putInt(length);
+        this.outputStream.write(header.array(), 0, RECORD_HEADER_LENGTH);
+
+        if (packet.hasArray()) {
+            this.outputStream.write(packet.array(), packet.arrayOffset() + packet.position(), capturedLength);
+        }
+        else {
+            byte[] bytes = new byte[capturedLength];
+            packet.duplicate().get(bytes);
+            this.outputStream.write(bytes);
+        }
+
+        this.recordCount++;
+    }
+
+    /**
+     * @return The number of records written.
+     */
+    public synchronized long getRecordCount() {
+        return this.recordCount;
+    }
+
+    /**
+     * Writes any buffered records to the underlying stream.
+     *
+     * @throws IOException
+     */
+    public synchronized void flush() throws IOException {
+        this.outputStream.flush();
+    }
+
+    /**
+     * Flushes and closes the capture.
+     *
+     * @throws IOException
+     */
+    public synchronized void close() throws IOException {
+
+        if (logger.isLoggable(Level.FINER)) {
+            logger.finer(this.log.entry("PcapWriter.close"));
+        }
+
+        if (!this.isClosed) {
+            this.isClosed = true;
+            this.outputStream.close();
+        }
+    }
+}
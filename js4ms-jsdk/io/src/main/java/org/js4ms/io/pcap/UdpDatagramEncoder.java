@@ -0,0 +1,121 @@
+package org.js4ms.io.pcap;
+
+/*
+ * #%L
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * UdpDatagramEncoder.java [org.js4ms.jsdk:io]
+ * %%
+ * Copyright (C) 2009 - 2014 Cisco Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.js4ms.io.channel.MessageTransform;
+import org.js4ms.io.net.UdpDatagram;
+
+
+
+/**
+ * A {@link MessageTransform} that encodes a {@link UdpDatagram} as an IPv4 or IPv6
+ * packet containing a UDP packet so that the datagram can be written to a capture file.
+ * The IPv4 header checksum is computed but the UDP checksum is left at zero
+ * (no checksum) since the pseudo-header sum adds nothing to a capture.
+ * The datagram payload is not modified.
+ * 
+ * @author Gregory Bumgardner (gbumgard)
+ */
+public final class UdpDatagramEncoder
+                implements MessageTransform<UdpDatagram, ByteBuffer> {
+
+    /*-- Static Variables ---------------------------------------------------*/
+
+    private static final byte UDP_PROTOCOL = 17;
+
+    private static final byte DEFAULT_TTL = 64;
+
+    private static final int IPV4_HEADER_LENGTH = 20;
+
+    private static final int IPV6_HEADER_LENGTH = 40;
+
+    private static final int UDP_HEADER_LENGTH = 8;
+
+    /*-- Member Functions ---------------------------------------------------*/
+
+    public UdpDatagramEncoder() {
+    }
+
+    @Override
+    public ByteBuffer transform(final UdpDatagram datagram) throws IOException {
+        byte[] sourceAddress = datagram.getSourceAddress();
+        byte[] destinationAddress = datagram.getDestinationAddress();
+        if (sourceAddress == null) {
+            sourceAddress = destinationAddress.length == 4 ? UdpDatagram.INADDR_ANY : UdpDatagram.IN6ADDR_ANY;
+        }
+
+        ByteBuffer payload = datagram.getPayload().duplicate();
+        int udpLength = UDP_HEADER_LENGTH + payload.remaining();
+        boolean isIPv4 = destinationAddress.length == 4;
+        int headerLength = isIPv4 ? IPV4_HEADER_LENGTH : IPV6_HEADER_LENGTH;
+
+        ByteBuffer packet = ByteBuffer.allocate(headerLength + udpLength);
+
+        if (isIPv4) {
+            packet.put((byte) 0x45);
+            packet.put((byte) 0);
+            packet.putShort((short) (IPV4_HEADER_LENGTH + udpLength));
+            packet.putInt(0);
+            packet.put(DEFAULT_TTL);
+            packet.put(UDP_PROTOCOL);
+            packet.putShort((short) 0);
+            packet.put(sourceAddress);
+            packet.put(destinationAddress);
+            packet.putShort(10, checksum(packet.array(), 0, IPV4_HEADER_LENGTH));
+        }
+        else {
+            packet.putInt(0x60000000);
+            packet.putShort((short) udpLength);
+            packet.put(UDP_PROTOCOL);
+            packet.put(DEFAULT_TTL);
+            packet.put(sourceAddress);
+            packet.put(destinationAddress);
+        }
+
+        packet.putShort((short) datagram.getSourcePort());
+        packet.putShort((short) datagram.getDestinationPort());
+        packet.putShort((short) udpLength);
+        packet.putShort((short) 0);
+        packet.put(payload);
+        packet.flip();
+        return packet;
+    }
+
+    /**
+     * Computes the one's complement checksum of an IPv4 header.
+     */
+    private static short checksum(final byte[] bytes, final int offset, final int length) {
+        int sum = 0;
+        for (int i = offset; i < offset + length; i += 2) {
+            sum += ((bytes[i] & 0xFF) << 8) | (bytes[i + 1] & 0xFF);
+        }
+        while ((sum >>> 16) != 0) {
+            sum = (sum & 0xFFFF) + (sum >>> 16);
+        }
+        return (short) ~sum;
+    }
+}
@@ -1,10 +1,10 @@
-package org.js4ms.amt.gateway;
+package org.js4ms.ip;
 
 /*
  * #%L
  * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
  *  
- * GeneralQueryReportTimer.java [org.js4ms.jsdk:amt]
+ * ChecksumException.java [org.js4ms.jsdk:ip]
  * %%
  * Copyright (C) 2009 - 2014 Cisco Systems, Inc.
  * %%
@@ -23,24 +23,24 @@ package org.js4ms.amt.gateway;
  */
 
 
-import java.util.Timer;
+import org.js4ms.common.exception.ParseException;
 
-import org.js4ms.common.util.task.ReschedulableTask;
 
 
+/**
+ * Thrown when a header or protocol checksum verification fails while parsing a packet.
+ * 
+ * @author Gregory Bumgardner (gbumgard)
+ */
+public class ChecksumException
+                extends ParseException {
 
-final class GeneralQueryReportTimer extends ReschedulableTask {
-
-    private final InterfaceMembershipManager interfaceMembershipManager;
-
-    GeneralQueryReportTimer(final Timer taskTimer, final InterfaceMembershipManager interfaceMembershipManager) {
-        super(taskTimer);
-        this.interfaceMembershipManager = interfaceMembershipManager;
-    }
+    private static final long serialVersionUID = 3279524011958166391L;
 
-    @Override
-    public void run() {
-        this.interfaceMembershipManager.sendGeneralQueryResponse();
+    /**
+     * @param message
+     */
+    public ChecksumException(String message) {
+        super(message);
     }
-
 }
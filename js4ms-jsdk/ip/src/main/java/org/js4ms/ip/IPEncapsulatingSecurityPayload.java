@@ -285,8 +285,8 @@ public class IPEncapsulatingSecurityPayload
      * @param logger
      */
     private void logState(final Logger logger, final Level level) {
-        logger.log(level, this.log.msg(": payload array=" + this.payload.array() +
-                                       " offset=" + this.payload.arrayOffset() +
+        logger.log(level, this.log.msg(": payload array=" + (this.payload.hasArray() ? this.payload.array() : "direct") +
+                                       " offset=" + (this.payload.hasArray() ? this.payload.arrayOffset() : 0) +
                                        " limit=" + this.payload.limit()));
     }
 
@@ -31,7 +31,6 @@ import org.js4ms.common.util.buffer.BufferBackedObject;
 import org.js4ms.common.util.buffer.field.BooleanField;
 import org.js4ms.common.util.buffer.field.ByteBitField;
 import org.js4ms.common.util.buffer.field.ByteField;
-import org.js4ms.common.util.buffer.field.SelectorField;
 import org.js4ms.common.util.buffer.parser.BufferParserSelector;
 import org.js4ms.common.util.buffer.parser.KeyedBufferParser;
 import org.js4ms.ip.ipv4.IPv4RouterAlertOption;
@@ -114,7 +113,7 @@ public abstract class IPHeaderOption
                     extends BufferParserSelector<IPHeaderOption> {
 
         public Parser() {
-            super(new SelectorField<Byte>(IPHeaderOption.OptionCode));
+            super(IPHeaderOption.OptionCode);
         }
 
     }
@@ -62,6 +62,26 @@ public interface IPMessage
 
     }
 
+    /**
+     * Interface implemented by message parsers whose checksum covers a pseudo-header.
+     * Allows the address portion of the pseudo-header sum to be computed once per packet.
+     */
+    public static interface PseudoHeaderParserType
+                    extends ParserType {
+
+        /**
+         * @param buffer
+         * @param sourceAddress
+         * @param destinationAddress
+         * @param addressSum
+         *            - the partial sum of the pseudo-header addresses as returned by
+         *            {@link org.js4ms.ip.InternetChecksum#sumAddresses(byte[], byte[])}.
+         * @return
+         */
+        public boolean verifyChecksum(ByteBuffer buffer, byte[] sourceAddress, byte[] destinationAddress, long addressSum);
+
+    }
+
     /**
      * Base class for parsers that parse a family of IP messages.
      * Typically used in base message classes associated with a single IP protocol.
@@ -69,6 +89,26 @@ public interface IPMessage
     public static class Parser
                     extends BufferParserMap<IPMessage> {
 
+        private boolean isChecksumVerificationEnabled = true;
+
+        /**
+         * Enables or disables protocol checksum verification.
+         * While disabled, {@link #verifyChecksum(ByteBuffer, byte, byte[], byte[])}
+         * reports every checksum as valid.
+         * 
+         * @param isEnabled
+         */
+        public void setChecksumVerificationEnabled(final boolean isEnabled) {
+            this.isChecksumVerificationEnabled = isEnabled;
+        }
+
+        /**
+         * @return
+         */
+        public boolean isChecksumVerificationEnabled() {
+            return this.isChecksumVerificationEnabled;
+        }
+
         /**
          * @param buffer
          * @param protocolNumber
@@ -82,6 +122,42 @@ public interface IPMessage
                                       final byte protocolNumber,
                                       final byte[] sourceAddress,
                                       final byte[] destinationAddress) throws MissingParserException, ParseException {
+            if (!this.isChecksumVerificationEnabled) {
+                return true;
+            }
+            ParserType parser = (ParserType) get(protocolNumber);
+            if (parser == null) {
+                // Check for default parser (null key)
+                parser = (ParserType) get(null);
+                if (parser == null) {
+                    throw new MissingParserException();
+                }
+            }
+            return parser.verifyChecksum(buffer, sourceAddress, destinationAddress);
+        }
+
+        /**
+         * Verifies a message checksum using a pseudo-header address sum that has
+         * already been computed for the enclosing packet. Parsers that do not
+         * implement {@link PseudoHeaderParserType} compute their own sum.
+         * 
+         * @param buffer
+         * @param protocolNumber
+         * @param sourceAddress
+         * @param destinationAddress
+         * @param addressSum
+         * @return
+         * @throws MissingParserException
+         * @throws ParseException
+         */
+        public boolean verifyChecksum(final ByteBuffer buffer,
+                                      final byte protocolNumber,
+                                      final byte[] sourceAddress,
+                                      final byte[] destinationAddress,
+                                      final long addressSum) throws MissingParserException, ParseException {
+            if (!this.isChecksumVerificationEnabled) {
+                return true;
+            }
             ParserType parser = (ParserType) get(protocolNumber);
             if (parser == null) {
                 // Check for default parser (null key)
@@ -90,6 +166,9 @@ public interface IPMessage
                     throw new MissingParserException();
                 }
             }
+            if (parser instanceof PseudoHeaderParserType) {
+                return ((PseudoHeaderParserType) parser).verifyChecksum(buffer, sourceAddress, destinationAddress, addressSum);
+            }
             return parser.verifyChecksum(buffer, sourceAddress, destinationAddress);
         }
 
@@ -33,9 +33,11 @@ import org.js4ms.common.util.buffer.BufferBackedObject;
 import org.js4ms.common.util.buffer.field.ByteBitField;
 import org.js4ms.common.util.buffer.field.Field;
 import org.js4ms.common.util.buffer.field.SelectorField;
+import org.js4ms.common.util.buffer.field.ShortField;
 import org.js4ms.common.util.buffer.parser.BufferParserSelector;
 import org.js4ms.common.util.buffer.parser.KeyedBufferParser;
 import org.js4ms.common.util.buffer.parser.KeyedStreamParser;
+import org.js4ms.common.util.buffer.parser.MessageFramer;
 import org.js4ms.common.util.buffer.parser.MissingParserException;
 import org.js4ms.common.util.buffer.parser.StreamParserSelector;
 import org.js4ms.common.util.logging.Logging;
@@ -62,20 +64,28 @@ public abstract class IPPacket
 
         public boolean verifyChecksum(ByteBuffer buffer) throws MissingParserException, ParseException;
 
+        /**
+         * Enables or disables header and protocol checksum verification.
+         * 
+         * @param isEnabled
+         */
+        public void setChecksumVerificationEnabled(boolean isEnabled);
+
     }
 
     /**
      *
      */
     public static class BufferParser
-                    extends BufferParserSelector<IPPacket> {
+                    extends BufferParserSelector<IPPacket>
+                    implements org.js4ms.common.util.buffer.parser.BufferParser<IPPacket> {
 
         public BufferParser() {
-            super(new SelectorField<Byte>(IPPacket.Version));
+            super(IPPacket.Version);
         }
 
         public boolean verifyChecksum(final ByteBuffer buffer) throws MissingParserException, ParseException {
-            ParserType parser = (ParserType) get(getKeyField(buffer));
+            ParserType parser = (ParserType) get(IPPacket.Version.getByte(buffer));
             if (parser == null) {
                 // Check for default parser (null key)
                 parser = (ParserType) get(null);
@@ -85,6 +95,18 @@ public abstract class IPPacket
             }
             return parser.verifyChecksum(buffer);
         }
+
+        /**
+         * Enables or disables header and protocol checksum verification in
+         * all of the packet parsers registered with this parser.
+         * 
+         * @param isEnabled
+         */
+        public void setChecksumVerificationEnabled(final boolean isEnabled) {
+            for (org.js4ms.common.util.buffer.parser.BufferParser<IPPacket> parser : getParsers()) {
+                ((ParserType) parser).setChecksumVerificationEnabled(isEnabled);
+            }
+        }
     }
 
     /**
@@ -99,6 +121,34 @@ public abstract class IPPacket
 
     }
 
+    /**
+     * Parses IPv4 and IPv6 packets from a byte stream by reading the stream in bulk
+     * and passing each packet to a buffer parser.
+     */
+    public static class BufferedStreamParser
+                    extends org.js4ms.common.util.buffer.parser.BufferedStreamParser<IPPacket> {
+
+        /**
+         * @param parser
+         *            - the buffer parser used to parse each packet.
+         */
+        public BufferedStreamParser(final org.js4ms.common.util.buffer.parser.BufferParser<IPPacket> parser) {
+            super(parser, Framer);
+        }
+
+        /**
+         * @param parser
+         *            - the buffer parser used to parse each packet.
+         * @param bufferSize
+         *            - the size of the read-ahead buffer.
+         */
+        public BufferedStreamParser(final org.js4ms.common.util.buffer.parser.BufferParser<IPPacket> parser,
+                                    final int bufferSize) {
+            super(parser, Framer, bufferSize);
+        }
+
+    }
+
     /*-- Static Variables ---------------------------------------------------*/
 
     /** Logger used to generate IPPacket log entries. */
@@ -107,6 +157,31 @@ public abstract class IPPacket
     /** */
     public static final ByteBitField Version = new ByteBitField(0, 4, 4);
 
+    /**
+     * Determines the length of an IPv4 or IPv6 packet from the Total Length or Payload
+     * Length field in the packet header.
+     */
+    public static final MessageFramer Framer = new MessageFramer() {
+
+        @Override
+        public int getPrefixLength() {
+            return 6;
+        }
+
+        @Override
+        public int getMessageLength(final ByteBuffer buffer) throws ParseException {
+            int position = buffer.position();
+            int version = (buffer.get(position) >> 4) & 0xF;
+            if (version == 4) {
+                return buffer.getShort(position + 2) & 0xFFFF;
+            }
+            else if (version == 6) {
+                return 40 + (buffer.getShort(position + 4) & 0xFFFF);
+            }
+            throw new ParseException("invalid IP version " + version);
+        }
+    };
+
     /*-- Member Variables ---------------------------------------------------*/
 
     /** */
@@ -178,7 +253,7 @@ public abstract class IPPacket
      * @return
      */
     public final byte getVersion() {
-        return Version.get(getBufferInternal());
+        return Version.getByte(getBufferInternal());
     }
 
     /**
@@ -291,6 +366,15 @@ public abstract class IPPacket
      */
     public abstract void setReassembledPayload(ByteBuffer reassembledPayload) throws ParseException;
 
+    /**
+     * Returns a copy of this packet backed by a new heap buffer so that the buffer
+     * this packet was parsed from may be recycled. Protocol messages are not copied.
+     * 
+     * @return
+     * @throws ParseException
+     */
+    public abstract IPPacket copy() throws ParseException;
+
     /**
      * @return
      */
@@ -340,9 +424,19 @@ public abstract class IPPacket
      * @return
      */
     public final IPMessage getFirstProtocolMessage() {
+        parseDeferredMessages();
         return this.firstProtocolHeader;
     }
 
+    /**
+     * Decodes any protocol headers that a subclass chose not to decode when the
+     * packet was parsed. Called each time the protocol message chain is accessed,
+     * so implementations must return quickly once the headers have been decoded.
+     * The default implementation does nothing.
+     */
+    protected void parseDeferredMessages() {
+    }
+
     /**
      * @param message
      */
@@ -362,6 +456,14 @@ public abstract class IPPacket
         }
     }
 
+    /**
+     * Discards the protocol messages attached to this packet without modifying the
+     * packet header. Used when a packet instance is rebound to a new buffer.
+     */
+    protected final void clearProtocolMessages() {
+        this.firstProtocolHeader = null;
+    }
+
     /**
      * @param message
      */
@@ -389,10 +491,14 @@ public abstract class IPPacket
     }
 
     /**
+     * Returns the first protocol message with the specified protocol number.
+     * Subclasses that defer header decoding may override this method to locate
+     * upper-layer messages without decoding the deferred headers.
+     * 
      * @param protocolNumber
      * @return
      */
-    public final IPMessage getProtocolMessage(final byte protocolNumber) {
+    public IPMessage getProtocolMessage(final byte protocolNumber) {
         IPMessage nextMessage = getFirstProtocolMessage();
         if (nextMessage == null) {
             return null;
@@ -414,7 +520,7 @@ public abstract class IPPacket
      * <p>
      * The Checksum is the 16-bit one's complement of the one's complement sum of the
      * whole upper layer packet and a pseudo header consisting of values from the IP
-     * header. While computing the checksum, the Checksum field will be set to zero. When
+     * header. The Checksum field is treated as zero while computing the checksum. When
      * receiving packets, the checksum MUST be verified before processing a packet.
      * <p>
      * The pseudo header conceptually prefixed to the message header contains the source
@@ -497,7 +603,7 @@ public abstract class IPPacket
      * @param buffer
      *            - the ByteBuffer containing the upper-layer message.
      * @param checksumField
-     *            - A Field object that is used to extract and clear the checksum value.
+     *            - A Field object that is used to extract the checksum value.
      * @param sourceAddress
      *            An IPv4 (4-byte) or IPv6 (16-byte) address. Size must match that of the
      *            destination address.
@@ -528,57 +634,41 @@ public abstract class IPPacket
                                           packetLength));
         }
 
-        // Clear checksum field
-        short originalChecksum = checksumField.get(buffer);
-        checksumField.set(buffer, (short) 0);
-
-        byte[] bytes = buffer.array();
-        int offset = buffer.arrayOffset();
-
-        int total = 0;
-
-        for (int i = 0; i < sourceAddress.length;) {
-            total += (((sourceAddress[i++] & 0xFF) << 8) | (sourceAddress[i++] & 0xFF));
-        }
-
-        for (int i = 0; i < destinationAddress.length;) {
-            total += (((destinationAddress[i++] & 0xFF) << 8) | (destinationAddress[i++] & 0xFF));
-        }
-
-        total += protocolNumber;
-
-        total += (((packetLength >> 16) & 0xFFFF) | (packetLength & 0xFFFF));
-
-        if ((packetLength & 0x1) == 0) {
-            // The packet length is even (ends on a 16-bit boundary)
-            int end = offset + packetLength;
-            while (offset < end) {
-                total += (((bytes[offset++] & 0xFF) << 8) | (bytes[offset++] & 0xFF));
-            }
-        }
-        else {
-            // The packet length is odd (ends before a 16-bit boundary)
-            // Total the bytes up to the last 16 bit boundary.
-            int end = offset + packetLength - 1;
-            while (offset < end) {
-                total += (((bytes[offset++] & 0xFF) << 8) | (bytes[offset++] & 0xFF));
-            }
-            // Add the last byte (effectively adding a zero pad byte)
-            total += ((bytes[offset] & 0xFF) << 8);
-        }
-
-        // Fold to 16 bits
-        while ((total & 0xFFFF0000) != 0) {
-            total = (total & 0xFFFF) + (total >> 16);
-        }
-
-        // Calculate the one's complement value
-        total = (~total & 0xFFFF);
-
-        // Restore original checksum
-        checksumField.set(buffer, originalChecksum);
+        return calculateChecksum(buffer,
+                                 checksumField,
+                                 InternetChecksum.sumAddresses(sourceAddress, destinationAddress),
+                                 protocolNumber,
+                                 packetLength);
+    }
 
-        return (short) total;
+    /**
+     * Calculates an upper-layer message checksum using a pseudo-header address sum
+     * that has already been computed for the enclosing packet.
+     * See {@link #calculateChecksum(ByteBuffer, Field, byte[], byte[], byte, int)}.
+     * 
+     * @param buffer
+     *            - the ByteBuffer containing the upper-layer message.
+     * @param checksumField
+     *            - A Field object that is used to extract the checksum value.
+     * @param addressSum
+     *            - the partial sum of the pseudo-header source and destination addresses
+     *            as returned by {@link InternetChecksum#sumAddresses(byte[], byte[])}.
+     * @param protocolNumber
+     *            - the IP protocol number of the upper-layer protocol.
+     * @param packetLength
+     *            - the total length of the upper-layer message.
+     * @return
+     */
+    public final static short calculateChecksum(final ByteBuffer buffer,
+                                                final Field<Short> checksumField,
+                                                final long addressSum,
+                                                final byte protocolNumber,
+                                                final int packetLength) {
+        return InternetChecksum.calculate(buffer,
+                                          0,
+                                          packetLength,
+                                          getChecksum(buffer, checksumField),
+                                          InternetChecksum.sumPseudoHeader(addressSum, protocolNumber, packetLength));
     }
 
     /**
@@ -588,14 +678,14 @@ public abstract class IPPacket
      * IPMessage.calculateChecksum() } method.
      * <p>
      * The Checksum is the 16-bit one's complement of the one's complement sum of the
-     * whole upper layer packet. While computing the checksum, the Checksum field will be
-     * set to zero. When receiving packets, the checksum MUST be verified before
+     * whole upper layer packet. The Checksum field is treated as zero while computing
+     * the checksum. When receiving packets, the checksum MUST be verified before
      * processing a packet.
      * 
      * @param buffer
      *            - the ByteBuffer containing the upper-layer message.
      * @param checksumField
-     *            - A Field object that is used to extract and clear the checksum value.
+     *            - A Field object that is used to extract the checksum value.
      * @param packetLength
      *            - the total length of the upper-layer message.
      * @return
@@ -612,45 +702,17 @@ public abstract class IPPacket
                                           packetLength));
         }
 
-        // Clear checksum field
-        short originalChecksum = checksumField.get(buffer);
-        checksumField.set(buffer, (short) 0);
-
-        byte[] bytes = buffer.array();
-        int offset = buffer.arrayOffset();
-
-        int total = 0;
-
-        if ((packetLength & 0x1) == 0) {
-            // The packet length is even (ends on a 16-bit boundary)
-            int end = offset + packetLength;
-            while (offset < end) {
-                total += (((bytes[offset++] & 0xFF) << 8) | (bytes[offset++] & 0xFF));
-            }
-        }
-        else {
-            // The packet length is odd (ends before a 16-bit boundary)
-            // Total the bytes up to the last 16 bit boundary.
-            int end = offset + packetLength - 1;
-            while (offset < end) {
-                total += (((bytes[offset++] & 0xFF) << 8) | (bytes[offset++] & 0xFF));
-            }
-            // Add the last byte (effectively adding a zero pad byte)
-            total += (short) ((bytes[offset] & 0xFF) << 8);
-        }
+        return InternetChecksum.calculate(buffer, 0, packetLength, getChecksum(buffer, checksumField), 0);
+    }
 
-        // Fold to 16 bits
-        while ((total & 0xFFFF0000) != 0) {
-            total = (total & 0xFFFF) + (total >> 16);
+    /**
+     * Reads a checksum field without boxing when the field supports it.
+     */
+    private static short getChecksum(final ByteBuffer buffer, final Field<Short> checksumField) {
+        if (checksumField instanceof ShortField) {
+            return ((ShortField) checksumField).getShort(buffer);
         }
-
-        // Calculate the one's complement value
-        total = (~total & 0xFFFF);
-
-        // Restore original checksum
-        checksumField.set(buffer, originalChecksum);
-
-        return (short) total;
+        return checksumField.get(buffer);
     }
 
 }
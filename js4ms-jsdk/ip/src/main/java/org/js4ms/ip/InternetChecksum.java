@@ -0,0 +1,234 @@
+package org.js4ms.ip;
+
+/*
+ * #%L
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *  
+ * InternetChecksum.java [org.js4ms.jsdk:ip]
+ * %%
+ * Copyright (C) 2009 - 2014 Cisco Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+
+
+/**
+ * Computes and updates the Internet checksum used by the IPv4 header and by
+ * upper-layer protocols such as UDP, IGMP and ICMPv6.
+ * <p>
+ * Sums are accumulated 64 bits at a time using absolute buffer accessors, so heap,
+ * direct and read-only buffers are all supported and the buffer position is never
+ * modified. The checksum field of a message is excluded by subtracting its current
+ * value from the sum rather than by temporarily clearing the field.
+ * <p>
+ * A partial sum is a non-negative <code>long</code> that holds an unfolded one's
+ * complement sum. Partial sums may be added together and are converted to a
+ * checksum value by {@link #finish(long)}. The pseudo-header sum for a packet can be
+ * computed once using {@link #sumAddresses(byte[], byte[])} and shared by each of
+ * the protocol layers carried in that packet.
+ * <p>
+ * See <a href="http://tools.ietf.org/html/rfc1071">[RFC-1071]</a> and
+ * <a href="http://tools.ietf.org/html/rfc1624">[RFC-1624]</a>.
+ * 
+ * @author Gregory Bumgardner (gbumgard)
+ */
+public final class InternetChecksum {
+
+    /*-- Static Functions ---------------------------------------------------*/
+
+    /**
+     * Calculates the partial sum of a range of bytes in a buffer.
+     * If the length is odd, the last byte is summed as if followed by a zero pad byte.
+     * 
+     * @param buffer
+     *            - the buffer containing the bytes.
+     * @param offset
+     *            - the absolute index of the first byte.
+     * @param length
+     *            - the number of bytes to sum.
+     * @return The partial sum.
+     */
+    public static long sum(final ByteBuffer buffer, final int offset, final int length) {
+
+        long sum = 0;
+        int index = offset;
+        int end = offset + length;
+
+        while (index + 8 <= end) {
+            long value = buffer.getLong(index);
+            sum += (value >>> 32) + (value & 0xFFFFFFFFL);
+            index += 8;
+        }
+
+        if (index + 4 <= end) {
+            sum += buffer.getInt(index) & 0xFFFFFFFFL;
+            index += 4;
+        }
+
+        if (index + 2 <= end) {
+            sum += buffer.getShort(index) & 0xFFFF;
+            index += 2;
+        }
+
+        if (buffer.order() != ByteOrder.BIG_ENDIAN) {
+            // The one's complement sum of byte-swapped words is the byte-swapped sum
+            int folded = fold(sum);
+            sum = ((folded & 0xFF) << 8) | (folded >>> 8);
+        }
+
+        if (index < end) {
+            sum += (buffer.get(index) & 0xFF) << 8;
+        }
+
+        return sum;
+    }
+
+    /**
+     * Calculates the partial sum of the source and destination addresses in a
+     * UDP, TCP or ICMPv6 pseudo-header.
+     * 
+     * @param sourceAddress
+     *            An IPv4 (4-byte) or IPv6 (16-byte) address.
+     * @param destinationAddress
+     *            An IPv4 (4-byte) or IPv6 (16-byte) address.
+     * @return The partial sum.
+     */
+    public static long sumAddresses(final byte[] sourceAddress, final byte[] destinationAddress) {
+        return sum(sourceAddress) + sum(destinationAddress);
+    }
+
+    /**
+     * Calculates the partial sum of a pseudo-header.
+     * 
+     * @param addressSum
+     *            - the partial sum returned by {@link #sumAddresses(byte[], byte[])}.
+     * @param protocolNumber
+     *            - the IP protocol number of the upper-layer protocol.
+     * @param packetLength
+     *            - the total length of the upper-layer message.
+     * @return The partial sum.
+     */
+    public static long sumPseudoHeader(final long addressSum, final byte protocolNumber, final int packetLength) {
+        return addressSum + (protocolNumber & 0xFF) + (packetLength >>> 16) + (packetLength & 0xFFFF);
+    }
+
+    /**
+     * Calculates the checksum of a message whose checksum field contains the
+     * specified value. The value is subtracted from the sum so the field does
+     * not need to be cleared.
+     * 
+     * @param buffer
+     *            - the buffer containing the message.
+     * @param offset
+     *            - the absolute index of the first byte of the message.
+     * @param length
+     *            - the length of the message.
+     * @param checksum
+     *            - the value currently stored in the checksum field of the message.
+     * @param initialSum
+     *            - a partial sum, such as a pseudo-header sum, or zero.
+     * @return The checksum value.
+     */
+    public static short calculate(final ByteBuffer buffer,
+                                  final int offset,
+                                  final int length,
+                                  final short checksum,
+                                  final long initialSum) {
+        return finish(initialSum + sum(buffer, offset, length) + (~checksum & 0xFFFF));
+    }
+
+    /**
+     * Folds a partial sum to 16 bits.
+     * 
+     * @param sum
+     *            - the partial sum.
+     * @return The 16-bit one's complement sum.
+     */
+    public static int fold(long sum) {
+        while ((sum >>> 16) != 0) {
+            sum = (sum & 0xFFFF) + (sum >>> 16);
+        }
+        return (int) sum;
+    }
+
+    /**
+     * Converts a partial sum into a checksum value.
+     * 
+     * @param sum
+     *            - the partial sum.
+     * @return The one's complement of the folded sum.
+     */
+    public static short finish(final long sum) {
+        return (short) (~fold(sum) & 0xFFFF);
+    }
+
+    /**
+     * Updates a checksum to reflect a change in one 16-bit word of the message
+     * using equation 3 from <a href="http://tools.ietf.org/html/rfc1624">[RFC-1624]</a>.
+     * 
+     * @param checksum
+     *            - the current checksum value.
+     * @param oldValue
+     *            - the original value of the 16-bit word.
+     * @param newValue
+     *            - the new value of the 16-bit word.
+     * @return The updated checksum value.
+     */
+    public static short update(final short checksum, final int oldValue, final int newValue) {
+        return finish((~checksum & 0xFFFF) + (~oldValue & 0xFFFF) + (newValue & 0xFFFF));
+    }
+
+    /**
+     * Updates a checksum to reflect a change in a word-aligned sequence of bytes
+     * such as an address.
+     * 
+     * @param checksum
+     *            - the current checksum value.
+     * @param oldBytes
+     *            - the original bytes. The length must be even.
+     * @param newBytes
+     *            - the new bytes. Must be the same length as the original bytes.
+     * @return The updated checksum value.
+     */
+    public static short update(final short checksum, final byte[] oldBytes, final byte[] newBytes) {
+        long sum = ~checksum & 0xFFFF;
+        for (int i = 0; i < oldBytes.length; i += 2) {
+            sum += ~(((oldBytes[i] & 0xFF) << 8) | (oldBytes[i + 1] & 0xFF)) & 0xFFFF;
+            sum += ((newBytes[i] & 0xFF) << 8) | (newBytes[i + 1] & 0xFF);
+        }
+        return finish(sum);
+    }
+
+    /**
+     * @param bytes
+     * @return The partial sum of an even-length byte array.
+     */
+    private static long sum(final byte[] bytes) {
+        long sum = 0;
+        for (int i = 0; i < bytes.length; i += 2) {
+            sum += ((bytes[i] & 0xFF) << 8) | (bytes[i + 1] & 0xFF);
+        }
+        return sum;
+    }
+
+    /*-- Member Functions ---------------------------------------------------*/
+
+    private InternetChecksum() {
+    }
+}
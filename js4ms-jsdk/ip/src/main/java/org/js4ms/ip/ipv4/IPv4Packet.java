@@ -27,7 +27,6 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.Inet4Address;
 import java.net.InetAddress;
-import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
 import java.util.Enumeration;
 import java.util.Iterator;
@@ -45,10 +44,13 @@ import org.js4ms.common.util.buffer.field.ShortBitField;
 import org.js4ms.common.util.buffer.field.ShortField;
 import org.js4ms.common.util.buffer.parser.MissingParserException;
 import org.js4ms.common.util.logging.Logging;
+import org.js4ms.common.util.net.InternedAddress;
+import org.js4ms.ip.ChecksumException;
 import org.js4ms.ip.IPEndOfListOption;
 import org.js4ms.ip.IPHeaderOption;
 import org.js4ms.ip.IPMessage;
 import org.js4ms.ip.IPPacket;
+import org.js4ms.ip.InternetChecksum;
 import org.js4ms.ip.IPPayload;
 
 
@@ -282,6 +284,15 @@ public final class IPv4Packet
         /** */
         IPMessage.Parser protocolParser;
 
+        /** */
+        boolean isChecksumVerificationEnabled = true;
+
+        /**
+         * Per-thread packet instances that are rebound to each buffer parsed while
+         * reuse is enabled.
+         */
+        private ThreadLocal<IPv4Packet> reusablePacket = null;
+
         /**
          * 
          */
@@ -326,15 +337,55 @@ public final class IPv4Packet
             return this.protocolParser;
         }
 
+        /**
+         * Enables or disables packet reuse.
+         * While reuse is enabled, {@link #parse(ByteBuffer)} rebinds a packet instance
+         * owned by the calling thread instead of constructing a new packet, so the
+         * returned packet is only valid until the same thread parses another buffer.
+         * Fragments are always returned in new packets because they are retained
+         * until the datagram has been reassembled.
+         * 
+         * @param isEnabled
+         */
+        public void setReuseEnabled(final boolean isEnabled) {
+            if (isEnabled) {
+                if (this.reusablePacket == null) {
+                    this.reusablePacket = new ThreadLocal<IPv4Packet>();
+                }
+            }
+            else {
+                this.reusablePacket = null;
+            }
+        }
+
+        /**
+         * @return
+         */
+        public boolean isReuseEnabled() {
+            return this.reusablePacket != null;
+        }
+
         @Override
         public IPPacket parse(final ByteBuffer buffer) throws ParseException, MissingParserException {
-            IPv4Packet header = new IPv4Packet(buffer);
-
-            if (this.optionParser != null) {
-                // Parse IP header options
-                header.parseOptions(this.optionParser);
+            IPv4Packet header;
+            ThreadLocal<IPv4Packet> reusablePacket = this.reusablePacket;
+            if (reusablePacket != null && !isFragment(buffer)) {
+                header = reusablePacket.get();
+                if (header == null) {
+                    header = new IPv4Packet(buffer);
+                    reusablePacket.set(header);
+                }
+                else {
+                    header.rebind(buffer);
+                }
+            }
+            else {
+                header = new IPv4Packet(buffer);
             }
 
+            // IP header options are decoded on demand by getOptions()
+            header.optionParser = this.optionParser;
+
             if (this.protocolParser != null) {
                 header.parsePayload(this.protocolParser);
             }
@@ -346,10 +397,8 @@ public final class IPv4Packet
         public IPPacket parse(final InputStream is) throws ParseException, MissingParserException, IOException {
             IPv4Packet header = new IPv4Packet(is);
 
-            if (this.optionParser != null) {
-                // Parse IP header options
-                header.parseOptions(this.optionParser);
-            }
+            // IP header options are decoded on demand by getOptions()
+            header.optionParser = this.optionParser;
 
             if (this.protocolParser != null) {
                 header.parsePayload(this.protocolParser);
@@ -360,7 +409,15 @@ public final class IPv4Packet
 
         @Override
         public boolean verifyChecksum(final ByteBuffer buffer) throws MissingParserException, ParseException {
-            return IPv4Packet.verifyChecksum(buffer);
+            return !this.isChecksumVerificationEnabled || IPv4Packet.verifyChecksum(buffer);
+        }
+
+        @Override
+        public void setChecksumVerificationEnabled(final boolean isEnabled) {
+            this.isChecksumVerificationEnabled = isEnabled;
+            if (this.protocolParser != null) {
+                this.protocolParser.setChecksumVerificationEnabled(isEnabled);
+            }
         }
 
         @Override
@@ -453,7 +510,7 @@ public final class IPv4Packet
      *            - the buffer containing the IPv4 header.
      */
     public static boolean verifyChecksum(final ByteBuffer buffer) {
-        short checksum = HeaderChecksum.get(buffer);
+        short checksum = HeaderChecksum.getShort(buffer);
         short computedChecksum = calculateChecksum(buffer);
         if (checksum != computedChecksum) {
             logger.warning("received IPv4 packet with invalid checksum: received=" + checksum + " computed=" + computedChecksum);
@@ -462,6 +519,17 @@ public final class IPv4Packet
         return true;
     }
 
+    /**
+     * Indicates whether the IPv4 header that starts at the current position of a
+     * buffer describes a datagram fragment.
+     * 
+     * @param buffer
+     *            - the buffer containing the IPv4 header.
+     */
+    public static boolean isFragment(final ByteBuffer buffer) {
+        return (buffer.getShort(buffer.position() + 6) & 0x3FFF) != 0;
+    }
+
     /**
      * Calculates the IPv4 header checksum for an IPv4 header contained in a buffer.
      * 
@@ -469,7 +537,7 @@ public final class IPv4Packet
      *            - the buffer containing the IPv4 header.
      */
     public static short calculateChecksum(final ByteBuffer buffer) {
-        return IPPacket.calculateChecksum(buffer, HeaderChecksum, HeaderLength.get(buffer) * 4);
+        return IPPacket.calculateChecksum(buffer, HeaderChecksum, HeaderLength.getByte(buffer) * 4);
     }
 
     /**
@@ -479,7 +547,57 @@ public final class IPv4Packet
      *            - a byte array.
      */
     public static void setChecksum(final ByteBuffer buffer) {
-        HeaderChecksum.set(buffer, IPv4Packet.calculateChecksum(buffer));
+        HeaderChecksum.setShort(buffer, IPv4Packet.calculateChecksum(buffer));
+    }
+
+    /**
+     * Rewrites the TTL field of an IPv4 header contained in a buffer and updates the
+     * header checksum incrementally as described in
+     * <a href="http://tools.ietf.org/html/rfc1624">[RFC-1624]</a>.
+     * 
+     * @param buffer
+     *            - the buffer containing the IPv4 header.
+     * @param ttl
+     *            - the new TTL value.
+     */
+    public static void rewriteTTL(final ByteBuffer buffer, final byte ttl) {
+        int protocol = Protocol.getByte(buffer) & 0xFF;
+        int oldWord = ((TTL.getByte(buffer) & 0xFF) << 8) | protocol;
+        int newWord = ((ttl & 0xFF) << 8) | protocol;
+        TTL.setByte(buffer, ttl);
+        HeaderChecksum.setShort(buffer, InternetChecksum.update(HeaderChecksum.getShort(buffer), oldWord, newWord));
+    }
+
+    /**
+     * Rewrites the source address of an IPv4 header contained in a buffer and updates
+     * the header checksum incrementally. Upper-layer checksums that cover the
+     * pseudo-header may be updated using {@link InternetChecksum#update(short, byte[], byte[])}.
+     * 
+     * @param buffer
+     *            - the buffer containing the IPv4 header.
+     * @param address
+     *            - the new 4-byte source address.
+     */
+    public static void rewriteSourceAddress(final ByteBuffer buffer, final byte[] address) {
+        byte[] oldAddress = SourceAddressBytes.get(buffer);
+        SourceAddressBytes.set(buffer, address);
+        HeaderChecksum.setShort(buffer, InternetChecksum.update(HeaderChecksum.getShort(buffer), oldAddress, address));
+    }
+
+    /**
+     * Rewrites the destination address of an IPv4 header contained in a buffer and
+     * updates the header checksum incrementally. Upper-layer checksums that cover the
+     * pseudo-header may be updated using {@link InternetChecksum#update(short, byte[], byte[])}.
+     * 
+     * @param buffer
+     *            - the buffer containing the IPv4 header.
+     * @param address
+     *            - the new 4-byte destination address.
+     */
+    public static void rewriteDestinationAddress(final ByteBuffer buffer, final byte[] address) {
+        byte[] oldAddress = DestinationAddressBytes.get(buffer);
+        DestinationAddressBytes.set(buffer, address);
+        HeaderChecksum.setShort(buffer, InternetChecksum.update(HeaderChecksum.getShort(buffer), oldAddress, address));
     }
 
     /*-- Member Variables ---------------------------------------------------*/
@@ -493,6 +611,9 @@ public final class IPv4Packet
     /** */
     protected Vector<IPHeaderOption> options = null;
 
+    /** Parser used to decode the unparsed options when they are first requested. */
+    private IPHeaderOption.Parser optionParser = null;
+
     /*-- Member Functions ---------------------------------------------------*/
 
     /**
@@ -631,6 +752,32 @@ public final class IPv4Packet
         }
     }
 
+    /**
+     * Rebinds this packet to the contents of the specified ByteBuffer.
+     * Any header options or protocol messages parsed from the previous packet
+     * are discarded.
+     * 
+     * @param buffer
+     * @throws ParseException
+     */
+    public void rebind(final ByteBuffer buffer) throws ParseException {
+        setBufferInternal(consume(buffer, BASE_HEADER_LENGTH));
+
+        if (logger.isLoggable(Level.FINER)) {
+            logger.finer(this.log.entry("IPv4Packet.rebind", buffer));
+        }
+
+        clearProtocolMessages();
+        this.options = null;
+        this.optionParser = null;
+        this.unparsedOptions = consume(buffer, getHeaderLength() - BASE_HEADER_LENGTH);
+        this.unparsedPayload = consume(buffer, getTotalLength() - getHeaderLength());
+
+        if (logger.isLoggable(Level.FINER)) {
+            logState(logger,Level.FINER);
+        }
+    }
+
     /**
      * Constructs an IPv6 packet representation from the specified byte stream..
      * 
@@ -689,7 +836,7 @@ public final class IPv4Packet
         logger.log(level,this.log.msg(": source-address=" + Logging.address(getSourceAddress())));
         logger.log(level,this.log.msg(": destination-address=" + Logging.address(getDestinationAddress())));
         if (this.unparsedOptions != null) {
-            logger.log(level,this.log.msg(": unparsed options offset=" + this.unparsedOptions.arrayOffset() + " limit="
+            logger.log(level,this.log.msg(": unparsed options offset=" + (this.unparsedOptions.hasArray() ? this.unparsedOptions.arrayOffset() : 0) + " limit="
                                      + this.unparsedOptions.limit()));
         }
         if (this.options != null && this.options.size() > 0) {
@@ -701,7 +848,7 @@ public final class IPv4Packet
             logger.log(level,this.log.msg("<---- header options"));
         }
         if (this.unparsedPayload != null) {
-            logger.log(level,this.log.msg(": unparsed payload offset=" + this.unparsedPayload.arrayOffset() + " limit="
+            logger.log(level,this.log.msg(": unparsed payload offset=" + (this.unparsedPayload.hasArray() ? this.unparsedPayload.arrayOffset() : 0) + " limit="
                                      + this.unparsedPayload.limit()));
         }
         logger.log(level,this.log.msg("----> protocol messages"));
@@ -730,7 +877,7 @@ public final class IPv4Packet
             buffer.put(this.unparsedOptions);
             this.unparsedOptions.rewind();
         }
-        else {
+        else if (this.options != null) {
             Iterator<IPHeaderOption> iter = this.options.iterator();
             while (iter.hasNext()) {
                 iter.next().writeTo(buffer);
@@ -745,6 +892,7 @@ public final class IPv4Packet
 
         if (this.unparsedPayload != null) {
             buffer.put(this.unparsedPayload);
+            this.unparsedPayload.rewind();
         }
         else {
             IPMessage nextMessage = getFirstProtocolMessage();
@@ -809,7 +957,7 @@ public final class IPv4Packet
      * @return
      */
     public int getHeaderLength() {
-        return HeaderLength.get(getBufferInternal()) * 4;
+        return HeaderLength.getByte(getBufferInternal()) * 4;
     }
 
     /**
@@ -860,7 +1008,7 @@ public final class IPv4Packet
      * @return
      */
     public byte getTypeOfService() {
-        return TypeOfService.get(getBufferInternal());
+        return TypeOfService.getByte(getBufferInternal());
     }
 
     /**
@@ -924,7 +1072,7 @@ public final class IPv4Packet
      * @return
      */
     public byte getPrecedence() {
-        return Precedence.get(getBufferInternal());
+        return Precedence.getByte(getBufferInternal());
     }
 
     /**
@@ -959,7 +1107,7 @@ public final class IPv4Packet
      * @return
      */
     public boolean getMinimizeDelay() {
-        return MinimizeDelay.get(getBufferInternal());
+        return MinimizeDelay.getBoolean(getBufferInternal());
     }
 
     /**
@@ -994,7 +1142,7 @@ public final class IPv4Packet
      * @return
      */
     public boolean getMaximizeThroughput() {
-        return MaximizeThroughput.get(getBufferInternal());
+        return MaximizeThroughput.getBoolean(getBufferInternal());
     }
 
     /**
@@ -1029,7 +1177,7 @@ public final class IPv4Packet
      * @return
      */
     public boolean getMaximizeReliability() {
-        return MaximizeReliability.get(getBufferInternal());
+        return MaximizeReliability.getBoolean(getBufferInternal());
     }
 
     /**
@@ -1065,7 +1213,7 @@ public final class IPv4Packet
      * @return
      */
     public boolean getMinimizeMonetaryCost() {
-        return MinimizeMonetaryCost.get(getBufferInternal());
+        return MinimizeMonetaryCost.getBoolean(getBufferInternal());
     }
 
     /**
@@ -1096,7 +1244,7 @@ public final class IPv4Packet
      * @return
      */
     public int getTotalLength() {
-        return TotalLength.get(getBufferInternal());
+        return TotalLength.getShort(getBufferInternal());
     }
 
     /**
@@ -1142,7 +1290,7 @@ public final class IPv4Packet
      * @return
      */
     public short getIdentification() {
-        return Identification.get(getBufferInternal());
+        return Identification.getShort(getBufferInternal());
     }
 
     /**
@@ -1178,7 +1326,7 @@ public final class IPv4Packet
      * @return
      */
     public boolean getDoNotFragment() {
-        return DontFragment.get(getBufferInternal());
+        return DontFragment.getBoolean(getBufferInternal());
     }
 
     /**
@@ -1215,7 +1363,7 @@ public final class IPv4Packet
      * @return
      */
     public boolean getMoreFragments() {
-        return MoreFragments.get(getBufferInternal());
+        return MoreFragments.getBoolean(getBufferInternal());
     }
 
     /**
@@ -1259,7 +1407,7 @@ public final class IPv4Packet
      */
     @Override
     public int getFragmentOffset() {
-        return FragmentOffset.get(getBufferInternal());
+        return FragmentOffset.getShort(getBufferInternal());
     }
 
     /**
@@ -1300,7 +1448,7 @@ public final class IPv4Packet
      * @return
      */
     public byte getTTL() {
-        return TTL.get(getBufferInternal());
+        return TTL.getByte(getBufferInternal());
     }
 
     /**
@@ -1334,7 +1482,7 @@ public final class IPv4Packet
      * @return
      */
     public byte getProtocol() {
-        return Protocol.get(getBufferInternal());
+        return Protocol.getByte(getBufferInternal());
     }
 
     /**
@@ -1365,7 +1513,7 @@ public final class IPv4Packet
      * @return
      */
     public short getHeaderChecksum() {
-        return HeaderChecksum.get(getBufferInternal());
+        return HeaderChecksum.getShort(getBufferInternal());
     }
 
     /**
@@ -1414,12 +1562,7 @@ public final class IPv4Packet
      */
     @Override
     public InetAddress getSourceInetAddress() {
-        try {
-            return (Inet4Address) InetAddress.getByAddress(SourceAddressBytes.get(getBufferInternal()));
-        }
-        catch (UnknownHostException e) {
-            throw new Error(e);
-        }
+        return (Inet4Address) InternedAddress.get(getBufferInternal(), SourceAddressBytes.getOffset(), 4).getInetAddress();
     }
 
     /**
@@ -1488,12 +1631,7 @@ public final class IPv4Packet
      */
     @Override
     public InetAddress getDestinationInetAddress() {
-        try {
-            return (Inet4Address) InetAddress.getByAddress(DestinationAddressBytes.get(getBufferInternal()));
-        }
-        catch (UnknownHostException e) {
-            throw new Error(e);
-        }
+        return (Inet4Address) InternedAddress.get(getBufferInternal(), DestinationAddressBytes.getOffset(), 4).getInetAddress();
     }
 
     /**
@@ -1540,6 +1678,17 @@ public final class IPv4Packet
             logger.finer(this.log.entry("IPv4Packet.addOption", option));
         }
 
+        try {
+            // Decode the existing options before modifying the list
+            parseDeferredOptions();
+        }
+        catch (ParseException e) {
+            throw new IllegalStateException(e.getMessage());
+        }
+        catch (MissingParserException e) {
+            throw new IllegalStateException(e.getMessage());
+        }
+
         // Precondition.checkReference(option);
         if (this.options == null) this.options = new Vector<IPHeaderOption>();
         this.options.add(option);
@@ -1555,6 +1704,17 @@ public final class IPv4Packet
             logger.finer(this.log.entry("IPv4Packet.removeOption", option));
         }
 
+        try {
+            // Decode the existing options before modifying the list
+            parseDeferredOptions();
+        }
+        catch (ParseException e) {
+            throw new IllegalStateException(e.getMessage());
+        }
+        catch (MissingParserException e) {
+            throw new IllegalStateException(e.getMessage());
+        }
+
         if (this.options != null) {
             this.options.remove(option);
             updateHeaderLength();
@@ -1629,12 +1789,32 @@ public final class IPv4Packet
     }
 
     /**
+     * Returns the header options, decoding them with the option parser supplied by
+     * the packet parser if they have not been decoded yet.
+     * 
      * @return
+     * @throws ParseException
+     * @throws MissingParserException
      */
-    public Enumeration<IPHeaderOption> getOptions() {
+    public Enumeration<IPHeaderOption> getOptions() throws ParseException, MissingParserException {
+        parseDeferredOptions();
         return this.options != null ? this.options.elements() : null;
     }
 
+    /**
+     * Decodes the unparsed options if the packet parser deferred decoding them.
+     * 
+     * @throws ParseException
+     * @throws MissingParserException
+     */
+    private void parseDeferredOptions() throws ParseException, MissingParserException {
+        if (this.optionParser != null) {
+            IPHeaderOption.Parser optionParser = this.optionParser;
+            this.optionParser = null;
+            parseOptions(optionParser);
+        }
+    }
+
     /**
      * Calculates the number of zero-padding bytes required to make IP header
      * end on 32-bit word boundary.
@@ -1658,6 +1838,17 @@ public final class IPv4Packet
         return this.unparsedPayload.slice();
     }
 
+    @Override
+    public IPv4Packet copy() throws ParseException {
+        ByteBuffer buffer = ByteBuffer.allocate(getTotalLength());
+        writeTo(buffer);
+        buffer.flip();
+        IPv4Packet packet = new IPv4Packet(buffer);
+        // Options that have not been decoded are decoded on demand by the copy
+        packet.optionParser = this.optionParser;
+        return packet;
+    }
+
     @Override
     public void setReassembledPayload(final ByteBuffer reassembledPayload) {
         this.unparsedPayload = reassembledPayload.slice();
@@ -1684,13 +1875,18 @@ public final class IPv4Packet
             // Parse IP protocol headers
             byte lastProtocolNumber = getLastProtocolNumber();
 
+            // Fetch the pseudo-header addresses and their sum once for all protocol layers
+            byte[] sourceAddress = getSourceAddress();
+            byte[] destinationAddress = getDestinationAddress();
+            long addressSum = InternetChecksum.sumAddresses(sourceAddress, destinationAddress);
+
             // Check checksum before we consume the payload
-            if (!protocolParser.verifyChecksum(this.unparsedPayload, lastProtocolNumber, getSourceAddress(),
-                                               getDestinationAddress())) {
+            if (!protocolParser.verifyChecksum(this.unparsedPayload, lastProtocolNumber, sourceAddress,
+                                               destinationAddress, addressSum)) {
                 if (logger.isLoggable(Level.FINE)) {
                     logger.fine(this.log.msg("invalid checksum detected in IP protocol packet"));
                 }
-                throw new ParseException("invalid checksum detected in IP protocol packet");
+                throw new ChecksumException("invalid checksum detected in IP protocol packet");
             }
 
             IPMessage nextHeader = protocolParser.parse(this.unparsedPayload, lastProtocolNumber);
@@ -1701,12 +1897,12 @@ public final class IPv4Packet
                 addProtocolMessage(nextHeader);
                 while (nextHeader != null && nextHeader.getNextProtocolNumber() != IPMessage.NO_NEXT_HEADER) {
                     lastProtocolNumber = nextHeader.getNextProtocolNumber();
-                    if (!protocolParser.verifyChecksum(this.unparsedPayload, lastProtocolNumber, getSourceAddress(),
-                                                       getDestinationAddress())) {
+                    if (!protocolParser.verifyChecksum(this.unparsedPayload, lastProtocolNumber, sourceAddress,
+                                                       destinationAddress, addressSum)) {
                         if (logger.isLoggable(Level.FINE)) {
                             logger.fine(this.log.msg("invalid checksum detected in IP protocol packet"));
                         }
-                        throw new ParseException("invalid checksum detected in IP protocol packet");
+                        throw new ChecksumException("invalid checksum detected in IP protocol packet");
                     }
                     nextHeader = protocolParser.parse(this.unparsedPayload, lastProtocolNumber);
                     addProtocolMessage(nextHeader);
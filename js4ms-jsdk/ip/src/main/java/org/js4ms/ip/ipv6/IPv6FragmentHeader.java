@@ -214,8 +214,8 @@ public final class IPv6FragmentHeader
         logger.log(level,this.log.msg(": more-fragments=" + getMoreFragments()));
         logger.log(level,this.log.msg(": fragment-offset=" + getFragmentOffset()));
         logger.log(level,this.log.msg(": identification=" + getIdentification()));
-        logger.log(level,this.log.msg(": fragment array=" + this.fragment.array() +
-                                 " offset=" + this.fragment.arrayOffset() +
+        logger.log(level,this.log.msg(": fragment array=" + (this.fragment.hasArray() ? this.fragment.array() : "direct") +
+                                 " offset=" + (this.fragment.hasArray() ? this.fragment.arrayOffset() : 0) +
                                  " limit=" + this.fragment.limit()));
     }
 
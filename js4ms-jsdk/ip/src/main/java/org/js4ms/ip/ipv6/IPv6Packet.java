@@ -27,7 +27,6 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.Inet6Address;
 import java.net.InetAddress;
-import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -42,10 +41,13 @@ import org.js4ms.common.util.buffer.field.ShortBitField;
 import org.js4ms.common.util.buffer.field.ShortField;
 import org.js4ms.common.util.buffer.parser.MissingParserException;
 import org.js4ms.common.util.logging.Logging;
+import org.js4ms.common.util.net.InternedAddress;
+import org.js4ms.ip.ChecksumException;
 import org.js4ms.ip.IPAuthenticationHeader;
 import org.js4ms.ip.IPExtensionHeader;
 import org.js4ms.ip.IPMessage;
 import org.js4ms.ip.IPPacket;
+import org.js4ms.ip.InternetChecksum;
 
 
 
@@ -212,6 +214,13 @@ public final class IPv6Packet
             return true;
         }
 
+        @Override
+        public void setChecksumVerificationEnabled(final boolean isEnabled) {
+            if (this.protocolParser != null) {
+                this.protocolParser.setChecksumVerificationEnabled(isEnabled);
+            }
+        }
+
         @Override
         public Object getKey() {
             return IPv6Packet.INTERNET_PROTOCOL_VERSION;
@@ -291,6 +300,18 @@ public final class IPv6Packet
     /** */
     private ByteBuffer unparsedPayload = null;
 
+    /**
+     * Extension headers that precede the upper-layer payload or fragment header and
+     * have not been decoded yet.
+     */
+    private ByteBuffer unparsedHeaders = null;
+
+    /** Protocol number of the header that follows the extension headers. */
+    private byte upperLayerProtocolNumber = IPMessage.NO_NEXT_HEADER;
+
+    /** Upper-layer messages parsed while the extension headers were still undecoded. */
+    private IPMessage upperLayerMessage = null;
+
     /** */
     private IPv6FragmentHeader fragmentHeader = null;
 
@@ -348,8 +369,9 @@ public final class IPv6Packet
 
         ByteBuffer payload = consume(buffer, getPayloadLength());
 
-        // Iterate through extension headers (if any) to look for fragment header
-        parseExtensionHeaders(NextHeader.get(getBufferInternal()), payload);
+        // Locate the upper-layer payload and fragment header (if any) without decoding
+        // the extension headers that precede them
+        scanExtensionHeaders(payload);
 
         if (logger.isLoggable(Level.FINER)) {
             logState(logger,Level.FINER);
@@ -372,8 +394,9 @@ public final class IPv6Packet
 
         ByteBuffer payload = consume(is, getPayloadLength());
 
-        // Iterate through extension headers (if any) to look for fragment header
-        parseExtensionHeaders(NextHeader.get(getBufferInternal()), payload);
+        // Locate the upper-layer payload and fragment header (if any) without decoding
+        // the extension headers that precede them
+        scanExtensionHeaders(payload);
 
         if (logger.isLoggable(Level.FINER)) {
             logState(logger,Level.FINER);
@@ -403,13 +426,57 @@ public final class IPv6Packet
         logger.log(level,this.log.msg(": payload-length=" + getPayloadLength()));
         logger.log(level,this.log.msg(": source-address=" + Logging.address(getSourceAddress())));
         logger.log(level,this.log.msg(": destination-address=" + Logging.address(getDestinationAddress())));
+        if (this.unparsedHeaders != null) {
+            logger.log(level,this.log.msg(": unparsed extension headers length=" + this.unparsedHeaders.limit()));
+        }
         logger.log(level,this.log.msg("----> protocol messages"));
-        if (getFirstProtocolMessage() != null) {
-            getFirstProtocolMessage().log(logger, level);
+        IPMessage nextMessage = this.unparsedHeaders != null ? this.upperLayerMessage : getFirstProtocolMessage();
+        while (nextMessage != null) {
+            nextMessage.log(logger, level);
+            nextMessage = nextMessage.getNextMessage();
         }
         logger.log(level,this.log.msg("<---- protocol messages"));
     }
 
+    @Override
+    public void writeTo(final ByteBuffer buffer) {
+
+        if (logger.isLoggable(Level.FINER)) {
+            logger.finer(this.log.entry("IPv6Packet.writeTo", buffer));
+        }
+
+        super.writeTo(buffer);
+
+        byte[] sourceAddress = getSourceAddress();
+        byte[] destinationAddress = getDestinationAddress();
+
+        IPMessage nextMessage;
+        if (this.unparsedHeaders != null) {
+            // Copy the undecoded extension headers as-is
+            buffer.put(this.unparsedHeaders.duplicate());
+            nextMessage = this.upperLayerMessage;
+        }
+        else {
+            nextMessage = getFirstProtocolMessage();
+        }
+        while (nextMessage != null) {
+            // Create a separate view of the underlying bytes to use for writing the
+            // checksum (if any) in each protocol message
+            ByteBuffer slice = buffer.slice();
+            nextMessage.writeTo(buffer);
+            nextMessage.writeChecksum(slice, sourceAddress, destinationAddress);
+            nextMessage = nextMessage.getNextMessage();
+        }
+
+        if (this.fragmentHeader != null) {
+            this.fragmentHeader.writeTo(buffer);
+            buffer.put(this.fragmentHeader.getFragment());
+        }
+        else if (this.unparsedPayload != null) {
+            buffer.put(this.unparsedPayload.duplicate());
+        }
+    }
+
     @Override
     public void writeChecksum(final ByteBuffer buffer) {
 
@@ -673,13 +740,7 @@ public final class IPv6Packet
      */
     @Override
     public InetAddress getSourceInetAddress() {
-        try {
-            return (Inet6Address) InetAddress.getByAddress(SourceAddress.get(getBufferInternal()));
-        }
-        catch (UnknownHostException e) {
-            e.printStackTrace();
-            throw new Error(e.toString());
-        }
+        return (Inet6Address) InternedAddress.get(getBufferInternal(), SourceAddress.getOffset(), 16).getInetAddress();
     }
 
     /**
@@ -760,12 +821,7 @@ public final class IPv6Packet
      */
     @Override
     public InetAddress getDestinationInetAddress() {
-        try {
-            return (Inet6Address) InetAddress.getByAddress(DestinationAddress.get(getBufferInternal()));
-        }
-        catch (UnknownHostException e) {
-            throw new Error(e);
-        }
+        return (Inet6Address) InternedAddress.get(getBufferInternal(), DestinationAddress.getOffset(), 16).getInetAddress();
     }
 
     /**
@@ -845,6 +901,14 @@ public final class IPv6Packet
         return this.unparsedPayload.slice();
     }
 
+    @Override
+    public IPv6Packet copy() throws ParseException {
+        ByteBuffer buffer = ByteBuffer.allocate(getTotalLength());
+        writeTo(buffer);
+        buffer.flip();
+        return new IPv6Packet(buffer);
+    }
+
     /**
      * Sets unparsed portion of packet payload, updates the total packet length
      * and changes packet state to indicate that the packet is unfragmented.
@@ -854,10 +918,78 @@ public final class IPv6Packet
      * @throws ParseException
      */
     public void setReassembledPayload(final ByteBuffer reassembledPayload) throws ParseException {
+        // Decode the headers that preceded the fragment header so that the headers
+        // carried in the reassembled payload can be appended to them
+        parseDeferredMessages();
         this.unparsedPayload = reassembledPayload.slice();
         setPayloadLength(this.parsedPayloadLength + unparsedPayload.limit());
         this.fragmentHeader = null;
-        parseExtensionHeaders(getLastProtocolNumber(), this.unparsedPayload);
+        parseExtensionHeaders(this.upperLayerProtocolNumber, this.unparsedPayload);
+    }
+
+    @Override
+    public IPMessage getProtocolMessage(final byte protocolNumber) {
+        if (this.unparsedHeaders != null) {
+            // Only decode the extension headers if the message is not an upper-layer message
+            IPMessage nextMessage = this.upperLayerMessage;
+            while (nextMessage != null) {
+                if (nextMessage.getProtocolNumber() == protocolNumber) {
+                    return nextMessage;
+                }
+                nextMessage = nextMessage.getNextMessage();
+            }
+        }
+        return super.getProtocolMessage(protocolNumber);
+    }
+
+    /**
+     * Decodes the extension headers located by {@link #scanExtensionHeaders(ByteBuffer)}
+     * and attaches them ahead of any upper-layer messages parsed while they were
+     * undecoded. The header lengths were validated by the scan, so decoding cannot fail.
+     */
+    @Override
+    protected void parseDeferredMessages() {
+        if (this.unparsedHeaders != null) {
+
+            if (logger.isLoggable(Level.FINER)) {
+                logger.finer(this.log.entry("IPv6Packet.parseDeferredMessages"));
+            }
+
+            ByteBuffer headers = this.unparsedHeaders.duplicate();
+            IPMessage upperLayerMessage = this.upperLayerMessage;
+            this.unparsedHeaders = null;
+            this.upperLayerMessage = null;
+
+            // Preserve the payload length carried in the packet
+            int payloadLength = getPayloadLength();
+            byte nextHeader = getNextHeader();
+            try {
+                while (headers.remaining() > 0) {
+                    IPMessage header;
+                    if (nextHeader == IPv6HopByHopOptionsHeader.IP_PROTOCOL_NUMBER) {
+                        header = new IPv6HopByHopOptionsHeader(headers);
+                    }
+                    else if (nextHeader == IPv6RoutingHeader.IP_PROTOCOL_NUMBER) {
+                        header = new IPv6RoutingHeader(headers);
+                    }
+                    else if (nextHeader == IPv6DestinationOptionsHeader.IP_PROTOCOL_NUMBER) {
+                        header = new IPv6DestinationOptionsHeader(headers);
+                    }
+                    else {
+                        header = new IPAuthenticationHeader(headers);
+                    }
+                    addProtocolMessage(header);
+                    nextHeader = header.getNextProtocolNumber();
+                }
+            }
+            catch (ParseException e) {
+                throw new IllegalStateException(e.getMessage());
+            }
+            if (upperLayerMessage != null) {
+                addProtocolMessage(upperLayerMessage);
+            }
+            setPayloadLength(payloadLength);
+        }
     }
 
     /**
@@ -871,32 +1003,123 @@ public final class IPv6Packet
             logger.finer(this.log.entry("IPv6Packet.parsePayload", protocolParser));
         }
 
+        if (this.fragmentHeader != null) {
+            // The upper-layer message cannot be parsed until the datagram is reassembled
+            return;
+        }
+
         // Parse IP protocol headers
-        byte lastProtocolNumber = getLastProtocolNumber();
+        byte lastProtocolNumber = this.upperLayerProtocolNumber;
+        // Fetch the pseudo-header addresses and their sum once for all protocol layers
+        byte[] sourceAddress = getSourceAddress();
+        byte[] destinationAddress = getDestinationAddress();
+        long addressSum = InternetChecksum.sumAddresses(sourceAddress, destinationAddress);
+
         // Check checksum before we consume the payload
-        if (!protocolParser.verifyChecksum(this.unparsedPayload, lastProtocolNumber, getSourceAddress(), getDestinationAddress())) {
+        if (!protocolParser.verifyChecksum(this.unparsedPayload, lastProtocolNumber, sourceAddress,
+                                           destinationAddress, addressSum)) {
             if (logger.isLoggable(Level.FINE)) {
                 logger.fine(this.log.msg("invalid checksum detected in IP payload"));
             }
-            throw new ParseException("invalid checksum detected in IP protocol packet");
+            throw new ChecksumException("invalid checksum detected in IP protocol packet");
         }
         IPMessage nextHeader = protocolParser.parse(this.unparsedPayload, lastProtocolNumber);
-        addProtocolMessage(nextHeader);
+        addUpperLayerMessage(nextHeader);
         while (nextHeader.getNextProtocolNumber() != IPMessage.NO_NEXT_HEADER) {
             lastProtocolNumber = nextHeader.getNextProtocolNumber();
-            if (!protocolParser.verifyChecksum(this.unparsedPayload, lastProtocolNumber, getSourceAddress(),
-                                               getDestinationAddress())) {
+            if (!protocolParser.verifyChecksum(this.unparsedPayload, lastProtocolNumber, sourceAddress,
+                                               destinationAddress, addressSum)) {
                 if (logger.isLoggable(Level.FINE)) {
                     logger.fine(this.log.msg("invalid checksum detected in IP payload"));
                 }
-                throw new ParseException("invalid checksum detected in IP payload");
+                throw new ChecksumException("invalid checksum detected in IP payload");
             }
             nextHeader = protocolParser.parse(this.unparsedPayload, lastProtocolNumber);
-            addProtocolMessage(nextHeader);
+            addUpperLayerMessage(nextHeader);
         }
 
     }
 
+    /**
+     * Appends an upper-layer message to the protocol message chain, or holds it
+     * apart from the chain if the extension headers have not been decoded yet.
+     * 
+     * @param message
+     */
+    private void addUpperLayerMessage(final IPMessage message) {
+        if (this.unparsedHeaders == null) {
+            addProtocolMessage(message);
+        }
+        else if (this.upperLayerMessage == null) {
+            this.upperLayerMessage = message;
+        }
+        else {
+            IPMessage lastMessage = this.upperLayerMessage;
+            while (lastMessage.getNextMessage() != null) {
+                lastMessage = lastMessage.getNextMessage();
+            }
+            lastMessage.setNextMessage(message);
+        }
+    }
+
+    /**
+     * Walks the extension header chain using only the next header and length fields
+     * to locate the upper-layer payload and fragment header (if any). The extension
+     * headers that precede them are retained undecoded until the protocol message
+     * chain is accessed.
+     * 
+     * @param payload
+     * @throws ParseException
+     */
+    private void scanExtensionHeaders(final ByteBuffer payload) throws ParseException {
+        byte nextHeader = getNextHeader();
+        int length = 0;
+        int limit = payload.remaining();
+        while (true) {
+            int headerLength;
+            if (nextHeader == IPv6HopByHopOptionsHeader.IP_PROTOCOL_NUMBER ||
+                nextHeader == IPv6RoutingHeader.IP_PROTOCOL_NUMBER ||
+                nextHeader == IPv6DestinationOptionsHeader.IP_PROTOCOL_NUMBER) {
+                if (limit - length < 2) {
+                    throw new ParseException("truncated IPv6 extension header");
+                }
+                headerLength = ((payload.get(length + 1) & 0xFF) + 1) * 8;
+            }
+            else if (nextHeader == IPAuthenticationHeader.IP_PROTOCOL_NUMBER) {
+                if (limit - length < 2) {
+                    throw new ParseException("truncated IPv6 extension header");
+                }
+                headerLength = ((payload.get(length + 1) & 0xFF) + 2) * 4;
+            }
+            else {
+                break;
+            }
+            if (limit - length < headerLength) {
+                throw new ParseException("truncated IPv6 extension header");
+            }
+            nextHeader = payload.get(length);
+            length += headerLength;
+        }
+
+        this.parsedPayloadLength = length;
+        this.unparsedHeaders = length > 0 ? consume(payload, length) : null;
+
+        if (nextHeader == IPv6FragmentHeader.IP_PROTOCOL_NUMBER) {
+            if (limit - length < IPv6FragmentHeader.BASE_HEADER_LENGTH) {
+                throw new ParseException("truncated IPv6 fragment header");
+            }
+            // Construct the fragment header - it will track what remains of the
+            // payload. Any headers that follow it are decoded after reassembly.
+            this.fragmentHeader = new IPv6FragmentHeader(payload);
+            this.upperLayerProtocolNumber = this.fragmentHeader.getNextProtocolNumber();
+            this.unparsedPayload = payload.slice();
+        }
+        else {
+            this.upperLayerProtocolNumber = nextHeader;
+            this.unparsedPayload = payload.slice();
+        }
+    }
+
     /**
      * @param nextHeader
      * @param payload
@@ -930,13 +1153,14 @@ public final class IPv6Packet
                 nextHeader = header.getNextProtocolNumber();
             }
             else if (nextHeader == IPAuthenticationHeader.IP_PROTOCOL_NUMBER) {
-                IPv6DestinationOptionsHeader header = new IPv6DestinationOptionsHeader(payload);
+                IPAuthenticationHeader header = new IPAuthenticationHeader(payload);
                 this.addProtocolMessage(header);
                 this.parsedPayloadLength += header.getTotalLength();
                 nextHeader = header.getNextProtocolNumber();
             }
             else {
                 // We've reached a protocol header that we don't recognize
+                this.upperLayerProtocolNumber = nextHeader;
                 this.unparsedPayload = payload.slice();
                 break;
             }
@@ -30,7 +30,6 @@ import java.util.logging.Logger;
 import org.js4ms.common.exception.ParseException;
 import org.js4ms.common.util.buffer.field.ByteField;
 import org.js4ms.common.util.buffer.field.IntegerField;
-import org.js4ms.common.util.buffer.field.SelectorField;
 import org.js4ms.common.util.buffer.parser.BufferParserSelector;
 import org.js4ms.common.util.buffer.parser.KeyedBufferParser;
 import org.js4ms.common.util.buffer.parser.MissingParserException;
@@ -141,7 +140,7 @@ public class IPv6RoutingHeader
          * 
          */
         public Parser() {
-            super(new SelectorField<Byte>(IPv6RoutingHeader.RoutingType));
+            super(IPv6RoutingHeader.RoutingType);
         }
 
         @Override
@@ -32,7 +32,6 @@ import org.js4ms.common.util.buffer.BufferBackedObject;
 import org.js4ms.common.util.buffer.field.ByteArrayField;
 import org.js4ms.common.util.buffer.field.ByteField;
 import org.js4ms.common.util.buffer.field.IntegerField;
-import org.js4ms.common.util.buffer.field.SelectorField;
 import org.js4ms.common.util.buffer.field.ShortField;
 import org.js4ms.common.util.buffer.parser.BufferParserSelector;
 import org.js4ms.common.util.buffer.parser.KeyedBufferParser;
@@ -149,7 +148,7 @@ public class ICMPv6Message
          *
          */
         public Parser() {
-            super(new SelectorField<Byte>(ICMPv6Message.MessageType));
+            super(ICMPv6Message.MessageType);
         }
 
         @Override
@@ -161,7 +160,7 @@ public class ICMPv6Message
         public boolean verifyChecksum(final ByteBuffer buffer,
                                       final byte[] sourceAddress,
                                       final byte[] destinationAddress) throws MissingParserException, ParseException {
-            ParserType parser = (ParserType) get(getKeyField(buffer));
+            ParserType parser = (ParserType) get(ICMPv6Message.MessageType.getByte(buffer));
             if (parser == null) {
                 // Check for default parser (null key)
                 parser = (ParserType) get(null);
@@ -580,13 +579,18 @@ public class ICMPv6Message
             total += (((buffer[offset++] << 8) & 0xFF00) | (buffer[offset++] & 0xFF));
         }
 
-        buffer = getBufferInternal().array();
-        offset = getBufferInternal().arrayOffset();
-        length = getMessageLength();
-        end = offset + length;
+        // Use absolute gets so that the message may reside in a direct buffer
+        ByteBuffer message = getBufferInternal();
+        offset = 0;
+        end = getMessageLength();
 
-        while (offset < end) {
-            total += (((buffer[offset++] << 8) & 0xFF00) | (buffer[offset++] & 0xFF));
+        while (offset < end - 1) {
+            total += (((message.get(offset++) << 8) & 0xFF00) | (message.get(offset++) & 0xFF));
+        }
+
+        if (offset < end) {
+            // Pad odd-length message with a zero byte
+            total += ((message.get(offset) << 8) & 0xFF00);
         }
 
         // Fold to 16 bits
@@ -30,7 +30,6 @@ import java.util.logging.Logger;
 import org.js4ms.common.exception.ParseException;
 import org.js4ms.common.util.buffer.BufferBackedObject;
 import org.js4ms.common.util.buffer.field.ByteField;
-import org.js4ms.common.util.buffer.field.SelectorField;
 import org.js4ms.common.util.buffer.field.ShortField;
 import org.js4ms.common.util.buffer.parser.BufferParserSelector;
 import org.js4ms.common.util.buffer.parser.KeyedBufferParser;
@@ -125,7 +124,7 @@ public abstract class IGMPMessage
          * 
          */
         public Parser() {
-            super(new SelectorField<Byte>(IGMPMessage.MessageType));
+            super(IGMPMessage.MessageType);
         }
 
         @Override
@@ -137,7 +136,7 @@ public abstract class IGMPMessage
         public boolean verifyChecksum(final ByteBuffer buffer,
                                       final byte[] sourceAddress,
                                       final byte[] destinationAddress) throws MissingParserException, ParseException {
-            ParserType parser = (ParserType) get(getKeyField(buffer));
+            ParserType parser = (ParserType) get(IGMPMessage.MessageType.getByte(buffer));
             if (parser == null) {
                 // Check for default parser (null key)
                 parser = (ParserType) get(null);
@@ -34,6 +34,7 @@ import org.js4ms.common.util.buffer.parser.MissingParserException;
 import org.js4ms.common.util.logging.Logging;
 import org.js4ms.ip.IPMessage;
 import org.js4ms.ip.IPPacket;
+import org.js4ms.ip.InternetChecksum;
 import org.js4ms.ip.ipv4.IPv4Packet;
 import org.js4ms.ip.ipv6.IPv6Packet;
 
@@ -170,11 +171,54 @@ public final class UdpPacket
      * optionally parses an {@link KeyedApplicationMessage} contained within that packet.
      */
     public final static class Parser
-                    implements IPMessage.ParserType {
+                    implements IPMessage.PseudoHeaderParserType {
+
+        /**
+         * Per-thread packet instances that are rebound to each buffer parsed while
+         * reuse is enabled.
+         */
+        private ThreadLocal<UdpPacket> reusablePacket = null;
+
+        /**
+         * Enables or disables packet reuse.
+         * While reuse is enabled, {@link #parse(ByteBuffer)} rebinds a packet instance
+         * owned by the calling thread instead of constructing a new packet, so the
+         * returned packet is only valid until the same thread parses another buffer.
+         * 
+         * @param isEnabled
+         */
+        public final void setReuseEnabled(final boolean isEnabled) {
+            if (isEnabled) {
+                if (this.reusablePacket == null) {
+                    this.reusablePacket = new ThreadLocal<UdpPacket>();
+                }
+            }
+            else {
+                this.reusablePacket = null;
+            }
+        }
+
+        /**
+         * @return
+         */
+        public final boolean isReuseEnabled() {
+            return this.reusablePacket != null;
+        }
 
         @Override
         public final IPMessage parse(final ByteBuffer buffer) throws ParseException, MissingParserException {
-            UdpPacket packet = new UdpPacket(buffer);
+            ThreadLocal<UdpPacket> reusablePacket = this.reusablePacket;
+            if (reusablePacket == null) {
+                return new UdpPacket(buffer);
+            }
+            UdpPacket packet = reusablePacket.get();
+            if (packet == null) {
+                packet = new UdpPacket(buffer);
+                reusablePacket.set(packet);
+            }
+            else {
+                packet.rebind(buffer);
+            }
             return packet;
         }
 
@@ -188,6 +232,14 @@ public final class UdpPacket
             return UdpPacket.verifyChecksum(segment, sourceAddress, destinationAddress);
         }
 
+        @Override
+        public final boolean verifyChecksum(final ByteBuffer segment,
+                                            final byte[] sourceAddress,
+                                            final byte[] destinationAddress,
+                                            final long addressSum) {
+            return UdpPacket.verifyChecksum(segment, sourceAddress.length == 4, addressSum);
+        }
+
     }
 
     /*-- Static Variables ---------------------------------------------------*/
@@ -282,15 +334,36 @@ public final class UdpPacket
     public final static boolean verifyChecksum(final ByteBuffer buffer,
                                                final byte[] sourceAddress,
                                                final byte[] destinationAddress) {
+        return verifyChecksum(buffer,
+                              sourceAddress.length == 4,
+                              InternetChecksum.sumAddresses(sourceAddress, destinationAddress));
+    }
 
-        short checksum = Checksum.get(buffer);
+    /**
+     * Verifies the UDP message checksum using a pseudo-header address sum that has
+     * already been computed for the enclosing IP packet.
+     * 
+     * @param buffer
+     *            - the buffer containing the UDP message.
+     * @param isIPv4
+     *            - indicates whether the message is carried in an IPv4 packet.
+     * @param addressSum
+     *            - the partial sum of the IP source and destination addresses as returned by
+     *            {@link InternetChecksum#sumAddresses(byte[], byte[])}.
+     */
+    public final static boolean verifyChecksum(final ByteBuffer buffer,
+                                               final boolean isIPv4,
+                                               final long addressSum) {
+
+        short checksum = Checksum.getShort(buffer);
 
         // IPv4 UDP packets can have zero checksum
-        if (sourceAddress.length == 4 && checksum == 0) {
+        if (isIPv4 && checksum == 0) {
             return true;
         }
 
-        short computedChecksum = calculateChecksum(buffer, sourceAddress, destinationAddress);
+        short computedChecksum = IPPacket.calculateChecksum(buffer, Checksum, addressSum, IP_PROTOCOL_NUMBER,
+                                                            Length.getShort(buffer) & 0xFFFF);
         if (checksum != computedChecksum) {
             logger.warning("received UDP packet with invalid checksum: received=" + checksum + " computed=" + computedChecksum);
             return false;
@@ -312,7 +385,7 @@ public final class UdpPacket
                                                 final byte[] sourceAddress,
                                                 final byte[] destinationAddress) {
         return IPPacket.calculateChecksum(buffer, Checksum, sourceAddress, destinationAddress, IP_PROTOCOL_NUMBER,
-                                          Length.get(buffer));
+                                          Length.getShort(buffer) & 0xFFFF);
     }
 
     /*-- Member Variables ---------------------------------------------------*/
@@ -370,7 +443,27 @@ public final class UdpPacket
             logger.finer(this.log.entry("UdpPacket.UdpPacket", buffer));
         }
 
-        this.payload = consume(buffer, Length.get(getBufferInternal()) - BASE_HEADER_LENGTH);
+        this.payload = consume(buffer, Length.getShort(getBufferInternal()) - BASE_HEADER_LENGTH);
+
+        if (logger.isLoggable(Level.FINER)) {
+            logState(logger, Level.FINER);
+        }
+    }
+
+    /**
+     * Rebinds this packet to the contents of the specified ByteBuffer.
+     * 
+     * @param buffer
+     * @throws ParseException
+     */
+    public final void rebind(final ByteBuffer buffer) throws ParseException {
+        setBufferInternal(consume(buffer, BASE_HEADER_LENGTH));
+
+        if (logger.isLoggable(Level.FINER)) {
+            logger.finer(this.log.entry("UdpPacket.rebind", buffer));
+        }
+
+        this.payload = consume(buffer, Length.getShort(getBufferInternal()) - BASE_HEADER_LENGTH);
 
         if (logger.isLoggable(Level.FINER)) {
             logState(logger, Level.FINER);
@@ -401,7 +494,7 @@ public final class UdpPacket
         logger.log(level,this.log.msg(": checksum=" + getChecksum()));
         if (this.payload != null) {
             logger.log(level,this.log.msg("----> payload"));
-            logger.log(level,this.log.msg(": buffer array-offset=" + this.payload.arrayOffset() +
+            logger.log(level,this.log.msg(": buffer array-offset=" + (this.payload.hasArray() ? this.payload.arrayOffset() : "direct") +
                                      ", position=" + this.payload.position() +
                                      ", remaining=" + this.payload.remaining() +
                                      ", limit=" + this.payload.limit() +
@@ -487,7 +580,7 @@ public final class UdpPacket
      * @return
      */
     public final int getLength() {
-        return Length.get(getBufferInternal());
+        return Length.getShort(getBufferInternal());
     }
 
     /**
@@ -518,7 +611,7 @@ public final class UdpPacket
      * @return
      */
     public final int getSourcePort() {
-        return SourcePort.get(getBufferInternal()) & 0xFFFF;
+        return SourcePort.getShort(getBufferInternal()) & 0xFFFF;
     }
 
     /**
@@ -537,7 +630,7 @@ public final class UdpPacket
      * @return
      */
     public final int getDestinationPort() {
-        return DestinationPort.get(getBufferInternal()) & 0xFFFF;
+        return DestinationPort.getShort(getBufferInternal()) & 0xFFFF;
     }
 
     /**
@@ -570,7 +663,7 @@ public final class UdpPacket
      * @return
      */
     public final short getChecksum() {
-        return Checksum.get(getBufferInternal());
+        return Checksum.getShort(getBufferInternal());
     }
 
     /**
@@ -24,7 +24,9 @@ package org.js4ms.reflector;
 
 import java.io.IOException;
 import java.util.Properties;
+import java.util.logging.Logger;
 
+import org.js4ms.amt.gateway.AmtPseudoInterfaceManager;
 import org.js4ms.common.util.logging.Logging;
 import org.js4ms.http.handler.LoggingConfigurationHandler;
 import org.js4ms.http.handler.LoggingOutputHandler;
@@ -53,6 +55,13 @@ import org.js4ms.server.Service;
  */
 public class RtspMulticastReflector {
 
+    /*-- Static Variables ----------------------------------------------------*/
+
+    /**
+     * 
+     */
+    public static final Logger logger = Logger.getLogger(RtspMulticastReflector.class.getName());
+
     /**
      * @param args
      */
@@ -66,6 +75,20 @@ public class RtspMulticastReflector {
 
         System.setProperty("com.apple.mrj.application.apple.menu.about.name", "");
 
+        try {
+            // Complete relay discovery and the AMT handshake for any configured
+            // relays before the first client connects
+            AmtPseudoInterfaceManager.getInstance().prewarmInterfaces();
+        }
+        catch (IOException e) {
+            // Tunnels are opened on demand if they cannot be opened now
+            logger.warning("cannot pre-warm AMT tunnels - " + e.getClass().getSimpleName() + ":" + e.getMessage());
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+
         try {
             Server.runServer(System.getProperties(), new ServerFactory() {
 
@@ -139,6 +162,16 @@ public class RtspMulticastReflector {
         catch (InterruptedException e) {
             Thread.currentThread().interrupt();
         }
+
+        try {
+            AmtPseudoInterfaceManager.getInstance().releasePrewarmedInterfaces();
+        }
+        catch (IOException e) {
+            logger.warning("cannot release pre-warmed AMT tunnels - " + e.getClass().getSimpleName() + ":" + e.getMessage());
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 
 }
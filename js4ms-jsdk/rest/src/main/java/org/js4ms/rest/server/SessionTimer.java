@@ -22,30 +22,59 @@ package org.js4ms.rest.server;
  * #L%
  */
 
-import java.util.Timer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
+import org.js4ms.common.util.task.HashedWheelTimer;
 import org.js4ms.common.util.task.ReschedulableTask;
 
 
 
 /**
  * A task used to terminate timed sessions following a period of inactivity.
- * 
+ * Terminating a session may block while the resources it holds are released,
+ * so the timer thread hands each termination to a separate thread.
  *
  * @author gbumgard
  */
 public class SessionTimer extends ReschedulableTask {
 
+    /**
+     * Runs session terminations off the timer thread.
+     */
+    private static final ExecutorService terminationExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            Thread thread = new Thread(runnable, "session terminator");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
     final Session session;
 
-    public SessionTimer(final Timer timer, final Session session) {
+    public SessionTimer(final HashedWheelTimer timer, final Session session) {
         super(timer);
         this.session = session;
     }
 
     @Override
     public void run() {
-        this.session.terminate();
+        terminationExecutor.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                synchronized (SessionTimer.this) {
+                    if (isScheduled()) {
+                        // The session timer was restarted after it expired
+                        return;
+                    }
+                }
+                SessionTimer.this.session.terminate();
+            }
+        });
     }
 
 }
@@ -58,6 +58,12 @@ public final class InterleavedPacketOutputChannel implements OutputChannel<ByteB
     private final int channel;
     private final Connection connection;
 
+    /**
+     * Staging array used to write packets held in direct buffers.
+     * Only accessed while holding the output stream lock.
+     */
+    private byte[] scratch = null;
+
     /**
      * Constructs an output channel that can be used to send packets via the specified RTSP TCP control connection.
      * @param channel - The number used to identify the target media stream for the packet. 
@@ -85,7 +91,16 @@ public final class InterleavedPacketOutputChannel implements OutputChannel<ByteB
             outputStream.write((byte)this.channel);
             outputStream.write((byte)((count >> 8) & 0xFF));
             outputStream.write((byte)(count & 0xFF));
-            outputStream.write(packet.array(), packet.arrayOffset(), count);
+            if (packet.hasArray()) {
+                outputStream.write(packet.array(), packet.arrayOffset(), count);
+            }
+            else {
+                if (this.scratch == null || this.scratch.length < count) {
+                    this.scratch = new byte[Math.max(count, 2048)];
+                }
+                ((ByteBuffer)packet.duplicate().rewind()).get(this.scratch, 0, count);
+                outputStream.write(this.scratch, 0, count);
+            }
         }
     }
 
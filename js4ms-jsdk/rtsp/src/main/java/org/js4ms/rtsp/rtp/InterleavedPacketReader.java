@@ -26,11 +26,14 @@ import java.io.EOFException;
 import java.io.IOException;
 import java.io.PushbackInputStream;
 import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
 import java.util.Vector;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.js4ms.common.util.logging.Log;
+import org.js4ms.common.util.pool.ByteBufferArena;
 import org.js4ms.io.channel.OutputChannel;
 import org.js4ms.server.Connection;
 
@@ -47,10 +50,41 @@ public class InterleavedPacketReader {
      */
     public static final Logger logger = Logger.getLogger(InterleavedPacketReader.class.getName());
 
+    /**
+     * The largest packet that can be carried in an interleaved frame.
+     */
+    private static final int MAX_PACKET_SIZE = 65535;
+
     private final Log log = new Log(this);
 
+    /**
+     * Off-heap arenas used for packet buffers, in ascending buffer size order.
+     * Each packet is read into a buffer from the smallest arena that can hold it, so
+     * typical RTP packets do not occupy a maximum-size buffer.
+     * Each entry is <code>null</code> if packets are read into new heap buffers.
+     */
+    private static final ByteBufferArena[] ARENAS = {
+                    ByteBufferArena.getSharedArena(2048),
+                    ByteBufferArena.getSharedArena(16384),
+                    ByteBufferArena.getSharedArena(MAX_PACKET_SIZE)
+    };
+
     private final Vector<OutputChannel<ByteBuffer>> channels = new Vector<OutputChannel<ByteBuffer>>();
 
+    /**
+     * @param length
+     * @return The smallest arena whose buffers can hold the specified number of bytes,
+     *         or <code>null</code> if the shared arenas are disabled.
+     */
+    private static ByteBufferArena getArena(final int length) {
+        for (ByteBufferArena arena : ARENAS) {
+            if (arena != null && length <= arena.getBufferSize()) {
+                return arena;
+            }
+        }
+        return null;
+    }
+
     public InterleavedPacketReader() {
     }
 
@@ -92,6 +126,8 @@ public class InterleavedPacketReader {
 
     /**
      * Reads sequence of packets from the connection and sends them to registered output channels.
+     * If the shared off-heap arena is enabled, each packet buffer is returned to the arena once
+     * the output channel send method returns, so output channels must not retain the buffer.
      * This method does not exit until a possible control message is received (the first byte read
      * following a packet is not an '$' character) or the calling thread is interrupted.
      * @param connection - the connection from which to read interleaved packets.
@@ -101,6 +137,7 @@ public class InterleavedPacketReader {
     public void readPackets(final Connection connection) throws IOException {
 
         final PushbackInputStream inputStream = connection.getInputStream();
+        final ReadableByteChannel inputChannel = Channels.newChannel(inputStream);
 
         while (!Thread.currentThread().isInterrupted()) {
             // Get first character in message 
@@ -121,25 +158,35 @@ public class InterleavedPacketReader {
                     if (msb != -1) {
                         int lsb = inputStream.read();
                         if (lsb != -1) {
-                            int count = msb << 8 + lsb;
-                            byte[] packet = new byte[count];
-                            int actual = inputStream.read(packet);
-                            if (actual == count) {
-                                OutputChannel<ByteBuffer> outputChannel = this.channels.get(channel);
-                                if (outputChannel != null) {
-                                    try {
-                                        if (logger.isLoggable(Level.FINER)) {
-                                            logger.finer(log.msg("received packet on channel="+channel+" length="+count));
+                            int count = (msb << 8) + lsb;
+                            ByteBufferArena arena = getArena(count);
+                            ByteBuffer packet = arena != null ? arena.acquire() : ByteBuffer.allocate(count);
+                            try {
+                                packet.limit(count);
+                                while (packet.hasRemaining() && inputChannel.read(packet) != -1);
+                                if (!packet.hasRemaining()) {
+                                    packet.flip();
+                                    OutputChannel<ByteBuffer> outputChannel = this.channels.get(channel);
+                                    if (outputChannel != null) {
+                                        try {
+                                            if (logger.isLoggable(Level.FINER)) {
+                                                logger.finer(log.msg("received packet on channel="+channel+" length="+count));
+                                            }
+                                            outputChannel.send(packet, Integer.MAX_VALUE);
+                                        }
+                                        catch (InterruptedException e) {
+                                            Thread.currentThread().interrupt();
+                                            return;
                                         }
-                                        outputChannel.send(ByteBuffer.wrap(packet), Integer.MAX_VALUE);
-                                    }
-                                    catch (InterruptedException e) {
-                                        Thread.currentThread().interrupt();
-                                        return;
                                     }
+                                    continue;
+                                }
+                            }
+                            finally {
+                                if (arena != null) {
+                                    arena.release(packet);
                                 }
-                                continue;
-                            } 
+                            }
                         }
                     }
                 }
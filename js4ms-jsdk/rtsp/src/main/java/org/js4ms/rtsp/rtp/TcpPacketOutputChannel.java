@@ -45,6 +45,11 @@ public class TcpPacketOutputChannel implements OutputChannel<ByteBuffer> {
 
     private final Object lock = new Object();
 
+    /**
+     * Staging array used to write packets held in direct buffers.
+     */
+    private byte[] scratch = null;
+
     /**
      * Constructs an output channel that can be used to send packets over the specified connection.
      * @param connection - The TCP connection over which the packets will be sent.
@@ -64,7 +69,16 @@ public class TcpPacketOutputChannel implements OutputChannel<ByteBuffer> {
             int count = packet.limit();
             outputStream.write((byte)((count >> 8) & 0xFF));
             outputStream.write((byte)(count & 0xFF));
-            outputStream.write(packet.array(), packet.arrayOffset(), count);
+            if (packet.hasArray()) {
+                outputStream.write(packet.array(), packet.arrayOffset(), count);
+            }
+            else {
+                if (this.scratch == null || this.scratch.length < count) {
+                    this.scratch = new byte[Math.max(count, 2048)];
+                }
+                ((ByteBuffer)packet.duplicate().rewind()).get(this.scratch, 0, count);
+                outputStream.write(this.scratch, 0, count);
+            }
         }
     }
 
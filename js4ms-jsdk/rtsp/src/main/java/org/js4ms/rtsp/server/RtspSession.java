@@ -23,11 +23,11 @@ package org.js4ms.rtsp.server;
  */
 
 import java.io.IOException;
-import java.util.Timer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.js4ms.common.util.logging.Log;
+import org.js4ms.common.util.task.HashedWheelTimer;
 import org.js4ms.rest.message.Request;
 import org.js4ms.rest.message.Response;
 import org.js4ms.rest.server.AbstractTimedSession;
@@ -80,7 +80,7 @@ public class RtspSession extends AbstractTimedSession {
     public RtspSession(final String sessionId,
                        final Presentation presentation,
                        final SessionManager sessionManager,
-                       final Timer sessionTimer) {
+                       final HashedWheelTimer sessionTimer) {
         super(sessionId, sessionManager, sessionTimer, getSessionTimeout());
 
         if (logger.isLoggable(Level.FINER)) {